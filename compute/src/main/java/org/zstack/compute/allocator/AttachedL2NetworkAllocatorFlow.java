@@ -7,6 +7,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.network.l2.L2NetworkClusterRefVO;
@@ -19,6 +20,35 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
+
+    // loads only the hosts of the clusters the index finds Enabled, Connected and having the capacity,
+    // instead of all hosts of the clusters; the flows after still check what's loaded from database
+    private List<HostVO> allocateFromIndex(Set<String> clusterUuids) {
+        if (!HostAllocatorGlobalConfig.CAPACITY_INDEX_ENABLE.value(Boolean.class) || !capacityIndex.isReady()
+                || HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE.equals(spec.getAllocatorStrategy())) {
+            return new ArrayList<>();
+        }
+
+        List<String> uuids = capacityIndex.findHosts(clusterUuids, spec.getHypervisorType(), spec.getCpuCapacity(), spec.getMemoryCapacity());
+        if (usePagination()) {
+            // sorted by uuid so pages don't move when capacities change between them
+            Collections.sort(uuids);
+            int from = Math.min(paginationInfo.getOffset(), uuids.size());
+            uuids = uuids.subList(from, Math.min(from + paginationInfo.getLimit(), uuids.size()));
+        }
+
+        if (uuids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String sql = "select h from HostVO h where h.clusterUuid in (:cuuids) and h.uuid in (:huuids)";
+        TypedQuery<HostVO> hq = dbf.getEntityManager().createQuery(sql, HostVO.class);
+        hq.setParameter("cuuids", clusterUuids);
+        hq.setParameter("huuids", uuids);
+        return hq.getResultList();
+    }
 
     @Transactional(readOnly = true)
     private List<HostVO> allocate(Collection<String> l3NetworkUuids, Collection<String> hostUuids) {
@@ -56,6 +86,13 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
         }
 
         if (hostUuids.isEmpty()) {
+            // the database is queried when the index has no candidates, or a stale index gives only
+            // deleted hosts
+            List<HostVO> vos = allocateFromIndex(clusterUuids);
+            if (!vos.isEmpty()) {
+                return vos;
+            }
+
             sql = "select h from HostVO h where h.clusterUuid in (:cuuids)";
             TypedQuery<HostVO> hq = dbf.getEntityManager().createQuery(sql, HostVO.class);
             hq.setParameter("cuuids", clusterUuids);
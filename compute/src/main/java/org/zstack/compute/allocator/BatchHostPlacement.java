@@ -0,0 +1,94 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.BatchHostPlacementStrategy;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * Places VMs on candidate hosts by their available capacities, without touching database.
+ * Used by BatchAllocateHostMsg to decide the hosts before reserving capacities of all of them.
+ */
+class BatchHostPlacement {
+    static class Host {
+        final String uuid;
+        long availableCpu;
+        // available memory that can be allocated, reserved memory excluded
+        long availableMemory;
+
+        Host(String uuid, long availableCpu, long availableMemory) {
+            this.uuid = uuid;
+            this.availableCpu = availableCpu;
+            this.availableMemory = availableMemory;
+        }
+    }
+
+    static class Vm {
+        final String uuid;
+        final long cpu;
+        final long memory;
+
+        Vm(String uuid, long cpu, long memory) {
+            this.uuid = uuid;
+            this.cpu = cpu;
+            this.memory = memory;
+        }
+    }
+
+    private final List<Host> hosts;
+    private final BatchHostPlacementStrategy strategy;
+    // (hostUuid, memory) -> the memory taken from the host by the over provisioning ratio
+    private final BiFunction<String, Long, Long> memoryByRatio;
+
+    /**
+     * @param hosts candidates in the order of preference
+     */
+    BatchHostPlacement(List<Host> hosts, BatchHostPlacementStrategy strategy, BiFunction<String, Long, Long> memoryByRatio) {
+        this.hosts = hosts;
+        this.strategy = strategy;
+        this.memoryByRatio = memoryByRatio;
+    }
+
+    private boolean fits(Host h, Vm vm) {
+        return (vm.cpu == 0 || h.availableCpu >= vm.cpu)
+                && (vm.memory == 0 || h.availableMemory >= memoryByRatio.apply(h.uuid, vm.memory));
+    }
+
+    private Host select(Vm vm) {
+        Host ret = null;
+        for (Host h : hosts) {
+            if (!fits(h, vm)) {
+                continue;
+            }
+
+            if (strategy == BatchHostPlacementStrategy.Pack) {
+                return h;
+            }
+
+            if (ret == null || h.availableMemory > ret.availableMemory) {
+                ret = h;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return vm uuid -> host uuid, VMs that no host can take are left out
+     */
+    Map<String, String> place(List<Vm> vms) {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (Vm vm : vms) {
+            Host h = select(vm);
+            if (h == null) {
+                continue;
+            }
+
+            h.availableCpu -= vm.cpu;
+            h.availableMemory -= memoryByRatio.apply(h.uuid, vm.memory);
+            ret.put(vm.uuid, h.uuid);
+        }
+
+        return ret;
+    }
+}
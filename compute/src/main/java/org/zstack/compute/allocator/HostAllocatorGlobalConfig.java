@@ -22,4 +22,8 @@ public class HostAllocatorGlobalConfig {
     public static GlobalConfig PAGINATION_LIMIT = new GlobalConfig(CATEGORY, "paginationLimit");
     @GlobalConfigValidation
     public static GlobalConfig HOST_ALLOCATOR_ALLOW_CONCURRENT = new GlobalConfig(CATEGORY, "hostAllocator.concurrent");
+    @GlobalConfigValidation
+    public static GlobalConfig CAPACITY_INDEX_ENABLE = new GlobalConfig(CATEGORY, "capacityIndex.enable");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_INDEX_RECONCILE_INTERVAL = new GlobalConfig(CATEGORY, "capacityIndex.reconcileInterval");
 }
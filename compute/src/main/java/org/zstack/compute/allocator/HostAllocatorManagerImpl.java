@@ -2,10 +2,14 @@ package org.zstack.compute.allocator;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.config.GlobalConfigVO;
+import org.zstack.core.config.GlobalConfigVO_;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
@@ -15,7 +19,9 @@ import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.*;
 import org.zstack.header.cluster.ReportHostCapacityMessage;
+import org.zstack.header.configuration.DiskOfferingInventory;
 import org.zstack.header.core.Completion;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.NopeCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.Flow;
@@ -34,11 +40,16 @@ import org.zstack.header.storage.backup.BackupStorageState;
 import org.zstack.header.storage.backup.BackupStorageStatus;
 import org.zstack.header.storage.backup.BackupStorageVO;
 import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
 import org.zstack.header.vm.VmAbnormalLifeCycleExtensionPoint;
 import org.zstack.header.vm.VmAbnormalLifeCycleStruct;
 import org.zstack.header.vm.VmAbnormalLifeCycleStruct.VmAbnormalLifeCycleOperation;
+import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
 import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.SizeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
@@ -48,6 +59,7 @@ import javax.persistence.TypedQuery;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
 import static org.zstack.utils.CollectionDSL.list;
@@ -89,6 +101,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     private void handleLocalMessage(Message msg) {
         if (msg instanceof AllocateHostMsg) {
             handle((AllocateHostMsg) msg);
+        } else if (msg instanceof BatchAllocateHostMsg) {
+            handle((BatchAllocateHostMsg) msg);
         } else if (msg instanceof ReportHostCapacityMessage) {
             handle((ReportHostCapacityMessage) msg);
         } else if (msg instanceof ReturnHostCapacityMsg) {
@@ -338,10 +352,13 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         });
     }
 
-    private void doHandleAllocateHost(final AllocateHostMsg msg, Completion completion) {
+    private HostAllocatorSpec buildHostAllocatorSpec(AllocateHostMsg msg) {
         HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
         spec.setBackupStoragePrimaryStorageMetrics(backupStoragePrimaryStorageMetrics);
+        return spec;
+    }
 
+    private HostAllocatorStrategyFactory getHostAllocatorStrategyFactory(HostAllocatorSpec spec, AllocateHostMsg msg) {
         String allocatorStrategyType = null;
         for (HostAllocatorStrategyExtensionPoint ext : pluginRgty.getExtensionList(HostAllocatorStrategyExtensionPoint.class)) {
             allocatorStrategyType = ext.getHostAllocatorStrategyName(spec);
@@ -357,6 +374,12 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 
         HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(HostAllocatorStrategyType.valueOf(allocatorStrategyType));
         logger.debug("found strategy factory: " + factory.getClass().getSimpleName());
+        return factory;
+    }
+
+    private void doHandleAllocateHost(final AllocateHostMsg msg, Completion completion) {
+        HostAllocatorSpec spec = buildHostAllocatorSpec(msg);
+        HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(spec, msg);
         HostAllocatorStrategy strategy = factory.getHostAllocatorStrategy();
         HostSortorStrategy sortors = factory.getHostSortorStrategy();
 
@@ -434,6 +457,224 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         }
     }
 
+    private void handle(final BatchAllocateHostMsg msg) {
+        if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_ALLOW_CONCURRENT.value(Boolean.class)) {
+            doHandleBatchAllocateHost(msg, new NopeCompletion());
+            return;
+        }
+
+        thdf.chainSubmit(new ChainTask(msg) {
+            @Override
+            public String getSyncSignature() {
+                return "host-allocator";
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                doHandleBatchAllocateHost(msg, new Completion(chain) {
+                    @Override
+                    public void success() {
+                        chain.next();
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        chain.next();
+                    }
+                });
+            }
+
+            @Override
+            public String getName() {
+                return String.format("batch-allocate-host-for-%s-vms", msg.getAllocateHostMsgs().size());
+            }
+        });
+    }
+
+    private static List<String> sorted(Collection<String> c) {
+        return c == null ? new ArrayList<>() : c.stream().sorted().collect(Collectors.toList());
+    }
+
+    // everything host allocator flows read from the message and the VM except its capacities,
+    // VM system tags are only read by TagAllocatorFlow when there are instance offering tag extensions
+    private List<Object> specOf(AllocateHostMsg m, List<String> vmTags) {
+        VmInstanceInventory vm = m.getVmInstance();
+        List<Object> ret = new ArrayList<>(Arrays.asList(m.getClass(), m.getAllocatorStrategy(), m.getVmOperation(),
+                m.getImage() == null ? null : m.getImage().getUuid(), sorted(m.getL3NetworkUuids()), m.isAllowNoL3Networks(),
+                m.getDiskSize(), m.getDiskOfferings() == null ? null : m.getDiskOfferings().stream().map(DiskOfferingInventory::getUuid).collect(Collectors.toList()),
+                m.getRequiredPrimaryStorageUuid(), m.getRequiredBackupStorageUuid(), sorted(m.getAvoidHostUuids()),
+                sorted(m.getSoftAvoidHostUuids()), sorted(m.getSystemTags()), m.isListAllHosts(), m.isFullAllocate(),
+                vm.getZoneUuid(), vm.getClusterUuid(), vm.getHostUuid(), vm.getLastHostUuid(), vm.getHypervisorType(),
+                vm.getInstanceOfferingUuid(), vm.getPlatform(), sorted(vmTags)));
+        if (m instanceof DesignatedAllocateHostMsg) {
+            DesignatedAllocateHostMsg d = (DesignatedAllocateHostMsg) m;
+            ret.addAll(Arrays.asList(d.getZoneUuid(), d.getClusterUuid(), d.getHostUuid()));
+        }
+        return ret;
+    }
+
+    private Collection<List<AllocateHostMsg>> groupBySpec(List<AllocateHostMsg> msgs) {
+        Map<String, List<String>> vmTags = new HashMap<>();
+        if (!pluginRgty.getExtensionList(InstanceOfferingTagAllocatorExtensionPoint.class).isEmpty()) {
+            List<String> vmUuids = msgs.stream().map(m -> m.getVmInstance().getUuid()).collect(Collectors.toList());
+            Q.New(SystemTagVO.class).select(SystemTagVO_.resourceUuid, SystemTagVO_.tag)
+                    .eq(SystemTagVO_.resourceType, VmInstanceVO.class.getSimpleName())
+                    .in(SystemTagVO_.resourceUuid, vmUuids).listTuple()
+                    .forEach(t -> vmTags.computeIfAbsent(t.get(0, String.class), k -> new ArrayList<>()).add(t.get(1, String.class)));
+        }
+
+        Map<List<Object>, List<AllocateHostMsg>> groups = new LinkedHashMap<>();
+        for (AllocateHostMsg m : msgs) {
+            groups.computeIfAbsent(specOf(m, vmTags.get(m.getVmInstance().getUuid())), k -> new ArrayList<>()).add(m);
+        }
+        return groups.values();
+    }
+
+    private void doHandleBatchAllocateHost(final BatchAllocateHostMsg msg, Completion completion) {
+        BatchAllocateHostReply reply = new BatchAllocateHostReply();
+        if (msg.getAllocateHostMsgs().isEmpty() || !pluginRgty.getExtensionList(HostAllocatorReserveExtensionPoint.class).isEmpty()) {
+            // reserve extensions work on one vm at a time, leave the VMs to AllocateHostMsg
+            bus.reply(msg, reply);
+            completion.success();
+            return;
+        }
+
+        // groups are placed one by one, so each sees the capacities reserved by the former ones
+        Map<String, HostInventory> hosts = new HashMap<>();
+        new While<>(groupBySpec(msg.getAllocateHostMsgs())).each((group, wcmpl) -> allocateGroup(msg, group, new ReturnValueCompletion<Map<String, HostInventory>>(wcmpl) {
+            @Override
+            public void success(Map<String, HostInventory> ret) {
+                hosts.putAll(ret);
+                wcmpl.done();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.debug(String.format("[Host Allocation]: unable to find hosts for %s of the batch of %s VMs, %s;" +
+                        " they will be allocated one by one", group.size(), msg.getAllocateHostMsgs().size(), errorCode));
+                wcmpl.done();
+            }
+        })).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                reply.setHosts(hosts);
+                bus.reply(msg, reply);
+                completion.success();
+            }
+        });
+    }
+
+    // the candidates found for the first vm of the group are shared by all VMs in the group
+    private void allocateGroup(BatchAllocateHostMsg msg, List<AllocateHostMsg> group, ReturnValueCompletion<Map<String, HostInventory>> completion) {
+        AllocateHostMsg first = group.get(0);
+        HostAllocatorSpec spec = buildHostAllocatorSpec(first);
+        HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(spec, first);
+        HostSortorStrategy sortors = factory.getHostSortorStrategy();
+        factory.marshalSpec(spec, first);
+
+        factory.getHostAllocatorStrategy().dryRun(spec, new ReturnValueCompletion<List<HostInventory>>(completion) {
+            @Override
+            public void success(List<HostInventory> hosts) {
+                if (hosts.isEmpty()) {
+                    completion.success(new HashMap<>());
+                    return;
+                }
+
+                sortors.dryRunSort(spec, hosts, new ReturnValueCompletion<List<HostInventory>>(completion) {
+                    @Override
+                    public void success(List<HostInventory> sorted) {
+                        Map<String, HostInventory> ret = new HashMap<>();
+                        try {
+                            ret = placeAndReserve(msg, group, sorted);
+                        } catch (UnableToReserveHostCapacityException e) {
+                            logger.debug(String.format("[Host Allocation]: unable to reserve capacities for %s of the batch of %s VMs, %s;" +
+                                    " they will be allocated one by one", group.size(), msg.getAllocateHostMsgs().size(), e.getMessage()));
+                        }
+
+                        completion.success(ret);
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        completion.fail(errorCode);
+                    }
+                });
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
+    }
+
+    private Map<String, HostInventory> placeAndReserve(BatchAllocateHostMsg msg, List<AllocateHostMsg> group, List<HostInventory> candidates) {
+        List<String> huuids = candidates.stream().map(HostInventory::getUuid).collect(Collectors.toList());
+        String reservedMemoryOfGlobalConfig = Q.New(GlobalConfigVO.class).select(GlobalConfigVO_.value)
+                .eq(GlobalConfigVO_.name, "reservedMemory").findValue();
+        long reservedMemory = SizeUtils.sizeStringToBytes(reservedMemoryOfGlobalConfig);
+        Map<String, ReservedHostCapacity> hostReserves = reserveMgr.getReservedHostCapacityOfHosts(huuids);
+        List<HostCapacityVO> capList = Q.New(HostCapacityVO.class).in(HostCapacityVO_.uuid, huuids).list();
+        Map<String, HostCapacityVO> caps = capList.stream().collect(Collectors.toMap(HostCapacityVO::getUuid, c -> c));
+
+        List<BatchHostPlacement.Host> hosts = new ArrayList<>();
+        for (String huuid : huuids) {
+            HostCapacityVO cap = caps.get(huuid);
+            if (cap == null) {
+                continue;
+            }
+
+            ReservedHostCapacity rc = hostReserves.get(huuid);
+            long reserved = Math.max(reservedMemory, rc == null ? 0 : rc.getReservedMemoryCapacity());
+            hosts.add(new BatchHostPlacement.Host(huuid, cap.getAvailableCpu(), cap.getAvailableMemory() - reserved));
+        }
+
+        Map<String, AllocateHostMsg> msgs = new LinkedHashMap<>();
+        List<BatchHostPlacement.Vm> vms = new ArrayList<>();
+        for (AllocateHostMsg amsg : group) {
+            String vmUuid = amsg.getVmInstance().getUuid();
+            msgs.put(vmUuid, amsg);
+            vms.add(new BatchHostPlacement.Vm(vmUuid, amsg.getCpuCapacity(), amsg.getMemoryCapacity()));
+        }
+
+        Map<String, String> placement = new BatchHostPlacement(hosts, BatchHostPlacementStrategy.valueOf(msg.getPlacementStrategy()),
+                ratioMgr::calculateMemoryByRatio).place(vms);
+        reserveCapacities(placement, msgs, reservedMemory);
+
+        Map<String, HostInventory> invs = candidates.stream().collect(Collectors.toMap(HostInventory::getUuid, h -> h, (h1, h2) -> h1));
+        Map<String, HostInventory> ret = new HashMap<>();
+        placement.forEach((vmUuid, huuid) -> {
+            for (HostAllocateExtensionPoint exp : pluginRgty.getExtensionList(HostAllocateExtensionPoint.class)) {
+                exp.beforeAllocateHostSuccessReply(buildHostAllocatorSpec(msgs.get(vmUuid)), huuid);
+            }
+
+            ret.put(vmUuid, invs.get(huuid));
+        });
+
+        logger.debug(String.format("[Host Allocation]: placed %s of %s VMs on %s hosts", ret.size(), vms.size(),
+                new HashSet<>(placement.values()).size()));
+        return ret;
+    }
+
+    @Transactional
+    private void reserveCapacities(Map<String, String> placement, Map<String, AllocateHostMsg> msgs, long reservedMemory) {
+        // vm uuid -> host uuid, the sum of each host is reserved in the order of host uuid with the row
+        // locked, so batches sharing hosts wait for each other instead of deadlocking
+        Map<String, long[]> sums = new TreeMap<>();
+        placement.forEach((vmUuid, huuid) -> {
+            AllocateHostMsg amsg = msgs.get(vmUuid);
+            long[] sum = sums.computeIfAbsent(huuid, k -> new long[2]);
+            sum[0] += amsg.getCpuCapacity();
+            sum[1] += ratioMgr.calculateMemoryByRatio(huuid, amsg.getMemoryCapacity());
+        });
+
+        sums.forEach((huuid, sum) -> {
+            if (!new HostCapacityUpdater(huuid).reserveWithLock(sum[0], sum[1], reservedMemory)) {
+                throw new UnableToReserveHostCapacityException(String.format("the host[uuid:%s] has been deleted", huuid));
+            }
+        });
+    }
+
     private void handleApiMessage(APIMessage msg) {
         if (msg instanceof APIGetCpuMemoryCapacityMsg) {
             handle((APIGetCpuMemoryCapacityMsg) msg);
@@ -0,0 +1,350 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.SQL;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.host.HostCanonicalEvents;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of host capacities, so host allocation doesn't load all hosts from database.
+ *
+ * Enabled and Connected hosts are grouped by cluster and hypervisor type, each group is a set sorted
+ * by available memory. Hosts having enough memory are found by a range lookup in the groups asked
+ * for and then checked for cpu, so a lookup costs O(log n) per group plus the hosts it walks.
+ * The lower bound of the range is taken with the largest memory over provisioning ratio, which is
+ * refreshed with the index; a host whose ratio is raised may be missed until the next reconciliation.
+ *
+ * The index is updated when capacities are changed by HostCapacityUpdater on this management node,
+ * a host is reloaded from database when its status or state changes, so a new host is indexed once
+ * it's connected, and the whole index is reloaded from database every
+ * hostAllocator capacityIndex.reconcileInterval seconds. Changes made by other management nodes
+ * may be seen late, so the index only narrows candidates: allocator flows still check capacities
+ * loaded from database, and HostCapacityUpdater.reserve() fails on hosts without enough capacity.
+ */
+public class HostCapacityIndex implements Component {
+    private static final CLogger logger = Utils.getLogger(HostCapacityIndex.class);
+
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private static class Entry {
+        final String hostUuid;
+        final String clusterUuid;
+        final String hypervisorType;
+        final HostState state;
+        final HostStatus status;
+        final long availableCpu;
+        final long availableMemory;
+        // entries changed after a reconciliation starts are not overwritten by it
+        final long seq;
+
+        Entry(String hostUuid, String clusterUuid, String hypervisorType, HostState state, HostStatus status,
+              long availableCpu, long availableMemory, long seq) {
+            this.hostUuid = hostUuid;
+            this.clusterUuid = clusterUuid;
+            this.hypervisorType = hypervisorType;
+            this.state = state;
+            this.status = status;
+            this.availableCpu = availableCpu;
+            this.availableMemory = availableMemory;
+            this.seq = seq;
+        }
+
+        // the lowest entry having the available memory, for range lookups
+        static Entry probe(long availableMemory) {
+            return new Entry("", null, null, null, null, 0, availableMemory, 0);
+        }
+
+        boolean isAllocatable() {
+            return state == HostState.Enabled && status == HostStatus.Connected;
+        }
+    }
+
+    private static final Comparator<Entry> BY_MEMORY = Comparator.comparingLong((Entry e) -> e.availableMemory)
+            .thenComparing(e -> e.hostUuid);
+
+    private static final String LOAD_SQL = "select h.uuid, h.clusterUuid, h.hypervisorType, h.state, h.status," +
+            " cap.availableCpu, cap.availableMemory from HostVO h, HostCapacityVO cap where h.uuid = cap.uuid";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // cluster uuid -> hypervisor type -> allocatable hosts sorted by available memory
+    private final Map<String, Map<String, NavigableSet<Entry>>> allocatable = new ConcurrentHashMap<>();
+    private final AtomicLong seq = new AtomicLong(0);
+    private volatile double maxMemoryRatio = 1;
+    private volatile boolean ready;
+    private Future<Void> reconcileTask;
+
+    private void index(Entry e) {
+        if (e.isAllocatable()) {
+            allocatable.computeIfAbsent(e.clusterUuid, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(e.hypervisorType, k -> new ConcurrentSkipListSet<>(BY_MEMORY))
+                    .add(e);
+        }
+    }
+
+    private void unindex(Entry e) {
+        Map<String, NavigableSet<Entry>> byHypervisor = allocatable.get(e.clusterUuid);
+        if (byHypervisor != null) {
+            NavigableSet<Entry> group = byHypervisor.get(e.hypervisorType);
+            if (group != null) {
+                group.remove(e);
+            }
+        }
+    }
+
+    private synchronized void put(Entry e) {
+        Entry old = entries.put(e.hostUuid, e);
+        if (old != null) {
+            unindex(old);
+        }
+        index(e);
+    }
+
+    synchronized void remove(String hostUuid) {
+        Entry old = entries.remove(hostUuid);
+        if (old != null) {
+            unindex(old);
+        }
+    }
+
+    // changes made in a transaction are applied after it commits, so a rolled back reservation
+    // never reaches the index
+    void updateCapacity(String hostUuid, long availableCpu, long availableMemory) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doUpdateCapacity(hostUuid, availableCpu, availableMemory);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                doUpdateCapacity(hostUuid, availableCpu, availableMemory);
+            }
+        });
+    }
+
+    private synchronized void doUpdateCapacity(String hostUuid, long availableCpu, long availableMemory) {
+        Entry old = entries.get(hostUuid);
+        if (old != null) {
+            put(new Entry(hostUuid, old.clusterUuid, old.hypervisorType, old.state, old.status,
+                    availableCpu, availableMemory, seq.incrementAndGet()));
+        }
+    }
+
+    private static Entry toEntry(Tuple t, long seq) {
+        return new Entry(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class), t.get(3, HostState.class),
+                t.get(4, HostStatus.class), t.get(5, Long.class), t.get(6, Long.class), seq);
+    }
+
+    // reloads the host from database, a host not found is removed
+    void refresh(String hostUuid) {
+        long start = seq.get();
+        List<Tuple> ts = SQL.New(LOAD_SQL + " and h.uuid = :uuid", Tuple.class).param("uuid", hostUuid).list();
+
+        synchronized (this) {
+            Entry old = entries.get(hostUuid);
+            if (old != null && old.seq > start) {
+                // changed meanwhile, the change is newer than what's loaded
+                return;
+            }
+
+            if (ts.isEmpty()) {
+                remove(hostUuid);
+            } else {
+                put(toEntry(ts.get(0), seq.incrementAndGet()));
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * finds Enabled and Connected hosts having the cpu and the memory available, the memory is
+     * checked with the memory over provisioning ratio of each host
+     *
+     * @param hypervisorType null for all hypervisor types
+     * @return uuids of hosts in no particular order
+     */
+    public List<String> findHosts(String hypervisorType, long cpu, long memory) {
+        return findHosts(null, hypervisorType, cpu, memory);
+    }
+
+    /**
+     * the same as findHosts(hypervisorType, cpu, memory) but only looks in the clusters
+     *
+     * @param clusterUuids null for all clusters
+     */
+    public List<String> findHosts(Collection<String> clusterUuids, String hypervisorType, long cpu, long memory) {
+        Collection<Map<String, NavigableSet<Entry>>> clusters;
+        if (clusterUuids == null) {
+            clusters = allocatable.values();
+        } else {
+            clusters = new ArrayList<>(clusterUuids.size());
+            for (String clusterUuid : clusterUuids) {
+                Map<String, NavigableSet<Entry>> byHypervisor = allocatable.get(clusterUuid);
+                if (byHypervisor != null) {
+                    clusters.add(byHypervisor);
+                }
+            }
+        }
+
+        // a host with the largest ratio needs the least available memory
+        double ratio = Math.max(maxMemoryRatio, ratioMgr.getMemoryGlobalRatio());
+        Entry lowest = Entry.probe(memory == 0 ? Long.MIN_VALUE : (long) Math.floor(memory / ratio) - 1);
+
+        List<String> ret = new ArrayList<>();
+        for (Map<String, NavigableSet<Entry>> byHypervisor : clusters) {
+            Collection<NavigableSet<Entry>> groups;
+            if (hypervisorType == null) {
+                groups = byHypervisor.values();
+            } else {
+                NavigableSet<Entry> group = byHypervisor.get(hypervisorType);
+                groups = group == null ? Collections.emptyList() : Collections.singletonList(group);
+            }
+
+            for (NavigableSet<Entry> group : groups) {
+                for (Entry e : group.tailSet(lowest, true)) {
+                    if (cpu != 0 && e.availableCpu < cpu) {
+                        continue;
+                    }
+
+                    if (memory != 0 && ratioMgr.calculateHostAvailableMemoryByRatio(e.hostUuid, e.availableMemory) < memory) {
+                        continue;
+                    }
+
+                    ret.add(e.hostUuid);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private void refreshMaxMemoryRatio() {
+        double max = ratioMgr.getMemoryGlobalRatio();
+        for (double r : ratioMgr.getAllMemoryRatio().values()) {
+            max = Math.max(max, r);
+        }
+        maxMemoryRatio = max;
+    }
+
+    void reconcile() {
+        refreshMaxMemoryRatio();
+        long start = seq.get();
+        List<Tuple> ts = SQL.New(LOAD_SQL, Tuple.class).list();
+
+        Set<String> found = new HashSet<>();
+        synchronized (this) {
+            for (Tuple t : ts) {
+                String hostUuid = t.get(0, String.class);
+                found.add(hostUuid);
+
+                Entry old = entries.get(hostUuid);
+                if (old != null && old.seq > start) {
+                    continue;
+                }
+
+                put(toEntry(t, 0));
+            }
+
+            new ArrayList<>(entries.values()).stream()
+                    .filter(e -> !found.contains(e.hostUuid) && e.seq <= start)
+                    .forEach(e -> remove(e.hostUuid));
+        }
+
+        ready = true;
+    }
+
+    private void startReconcileTask() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel(true);
+        }
+
+        reconcileTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.CAPACITY_INDEX_RECONCILE_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "reconcile-host-capacity-index";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Throwable t) {
+                    logger.warn("failed to reconcile the host capacity index", t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(HostCanonicalEvents.HOST_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                refresh(((HostCanonicalEvents.HostStatusChangedData) data).getHostUuid());
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                refresh(((HostCanonicalEvents.HostStateChangedData) data).getHostUuid());
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                remove(((HostCanonicalEvents.HostDeletedData) data).getHostUuid());
+            }
+        });
+
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_RECONCILE_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> startReconcileTask());
+        startReconcileTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel(true);
+        }
+        return true;
+    }
+}
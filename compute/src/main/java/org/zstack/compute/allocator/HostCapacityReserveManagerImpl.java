@@ -382,4 +382,12 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         finder.hostUuids = hostUuids;
         return finder.find().values().iterator().next();
     }
+
+    @Override
+    public Map<String, ReservedHostCapacity> getReservedHostCapacityOfHosts(List<String> hostUuids) {
+        ReservedCapacityFinder finder = new ReservedCapacityFinder();
+        // the finder removes hosts whose capacity has been found
+        finder.hostUuids = new ArrayList<>(hostUuids);
+        return finder.find();
+    }
 }
@@ -6,11 +6,16 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.DeadlockAutoRestart;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
 import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostCapacityVO_;
+import org.zstack.header.allocator.UnableToReserveHostCapacityException;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.LockModeType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.List;
 
@@ -20,9 +25,12 @@ import java.util.List;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class HostCapacityUpdater {
     private static final CLogger logger = Utils.getLogger(HostCapacityUpdater.class);
+    private static final int RESERVE_RETRY_TIMES = 5;
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
     private String hostUuid;
     private TypedQuery<HostCapacityVO> query;
@@ -115,7 +123,82 @@ public class HostCapacityUpdater {
 
     @DeadlockAutoRestart
     public boolean run(HostCapacityUpdaterRunnable runnable) {
-        return _run(runnable);
+        boolean ret = _run(runnable);
+        if (ret) {
+            capacityIndex.updateCapacity(capacityVO.getUuid(), capacityVO.getAvailableCpu(), capacityVO.getAvailableMemory());
+        }
+        return ret;
+    }
+
+    /**
+     * subtracts cpu and memory from the available capacity of the host optimistically instead of
+     * locking the capacity row: the capacity is read, checked and written back only if it's not
+     * changed meanwhile, otherwise it's read again. After RESERVE_RETRY_TIMES conflicts the row is
+     * locked as run() does. Negative values return the capacity.
+     *
+     * The cpu is checked only if it's not 0, the memory is checked with reservedMemory left only
+     * if it's not 0.
+     *
+     * @return false if the host is deleted
+     * @throws UnableToReserveHostCapacityException if the host doesn't have enough capacity
+     */
+    @DeadlockAutoRestart
+    public boolean reserve(long cpu, long memory, long reservedMemory) {
+        for (int i = 0; i < RESERVE_RETRY_TIMES; i++) {
+            Tuple t = Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableCpu, HostCapacityVO_.availableMemory)
+                    .eq(HostCapacityVO_.uuid, hostUuid).findTuple();
+            if (t == null) {
+                logDeletedHost();
+                return false;
+            }
+
+            long availableCpu = t.get(0, Long.class);
+            long availableMemory = t.get(1, Long.class);
+            checkCapacity(availableCpu, availableMemory, cpu, memory, reservedMemory);
+
+            int updated = SQL.New("update HostCapacityVO cap set cap.availableCpu = :newCpu, cap.availableMemory = :newMemory" +
+                    " where cap.uuid = :uuid and cap.availableCpu = :oldCpu and cap.availableMemory = :oldMemory")
+                    .param("newCpu", availableCpu - cpu).param("newMemory", availableMemory - memory)
+                    .param("oldCpu", availableCpu).param("oldMemory", availableMemory)
+                    .param("uuid", hostUuid).execute();
+            if (updated == 1) {
+                capacityIndex.updateCapacity(hostUuid, availableCpu - cpu, availableMemory - memory);
+                return true;
+            }
+
+            logger.debug(String.format("[Host Capacity] the capacity of the host[uuid:%s] is changed during reservation, retry %s",
+                    hostUuid, i + 1));
+        }
+
+        return reserveWithLock(cpu, memory, reservedMemory);
+    }
+
+    /**
+     * the same as reserve() but locks the capacity row at once, for callers reserving in their own
+     * transaction, where a re-read doesn't see others' changes and the optimistic update keeps
+     * conflicting
+     */
+    public boolean reserveWithLock(long cpu, long memory, long reservedMemory) {
+        return run(cap -> {
+            checkCapacity(cap.getAvailableCpu(), cap.getAvailableMemory(), cpu, memory, reservedMemory);
+            cap.setAvailableCpu(cap.getAvailableCpu() - cpu);
+            cap.setAvailableMemory(cap.getAvailableMemory() - memory);
+            return cap;
+        });
+    }
+
+    private void checkCapacity(long availableCpu, long availableMemory, long cpu, long memory, long reservedMemory) {
+        if (cpu != 0 && availableCpu - cpu < 0) {
+            capacityIndex.updateCapacity(hostUuid, availableCpu, availableMemory);
+            throw new UnableToReserveHostCapacityException(
+                    String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, hostUuid));
+        }
+
+        if (memory != 0 && availableMemory - memory - reservedMemory < 0) {
+            capacityIndex.updateCapacity(hostUuid, availableCpu, availableMemory);
+            throw new UnableToReserveHostCapacityException(
+                    String.format("no enough memory[%s] on the host[uuid:%s]", memory, hostUuid));
+        }
     }
 
 }
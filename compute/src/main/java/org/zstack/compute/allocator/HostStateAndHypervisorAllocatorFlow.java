@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
@@ -15,6 +16,7 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -23,8 +25,43 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
+
+    private List<HostVO> allocateFromIndex(List<String> uuids) {
+        if (usePagination()) {
+            // sorted by uuid so pages don't move when capacities change between them
+            Collections.sort(uuids);
+            int from = Math.min(paginationInfo.getOffset(), uuids.size());
+            uuids = uuids.subList(from, Math.min(from + paginationInfo.getLimit(), uuids.size()));
+        }
+
+        if (uuids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // the index may be stale, states are checked again
+        return Q.New(HostVO.class).in(HostVO_.uuid, uuids)
+                .eq(HostVO_.state, HostState.Enabled)
+                .eq(HostVO_.status, HostStatus.Connected)
+                .list();
+    }
 
     private List<HostVO> allocate(String hypervisorType) {
+        boolean useIndex = HostAllocatorGlobalConfig.CAPACITY_INDEX_ENABLE.value(Boolean.class) && capacityIndex.isReady();
+        if (useIndex) {
+            // pages are taken from the index as long as it has candidates, the database is only
+            // queried when the index has none or all of them fail the check of a stale index, so a
+            // page never mixes the two orderings
+            List<String> uuids = capacityIndex.findHosts(hypervisorType, spec.getCpuCapacity(), spec.getMemoryCapacity());
+            if (!uuids.isEmpty()) {
+                List<HostVO> vos = allocateFromIndex(uuids);
+                if (!vos.isEmpty()) {
+                    return vos;
+                }
+            }
+        }
+
         SimpleQuery<HostVO> query = dbf.createQuery(HostVO.class);
         query.add(HostVO_.state, Op.EQ, HostState.Enabled);
         query.add(HostVO_.status, Op.EQ, HostStatus.Connected);
@@ -33,6 +70,10 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
         }
 
         if (usePagination()) {
+            if (useIndex) {
+                // sorted by uuid as the hosts found by the index
+                query.orderBy(HostVO_.uuid, SimpleQuery.Od.ASC);
+            }
             query.setStart(paginationInfo.getOffset());
             query.setLimit(paginationInfo.getLimit());
         }
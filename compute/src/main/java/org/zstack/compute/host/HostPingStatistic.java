@@ -0,0 +1,81 @@
+package org.zstack.compute.host;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * lags are in milliseconds, a lag is how late a ping is sent after the time of its slot
+ */
+public class HostPingStatistic {
+    private int slotNum;
+    private int trackedHostNum;
+    private int inflightPingNum;
+    private int queuedPingNum;
+    private long skippedBusyHostNum;
+    private long lagP50;
+    private long lagP99;
+    private long lagMax;
+    private int[] slotHostNums;
+    private long[] lastSlotLags;
+
+    @ConstructorProperties({"slotNum", "trackedHostNum", "inflightPingNum", "queuedPingNum", "skippedBusyHostNum",
+            "lagP50", "lagP99", "lagMax", "slotHostNums", "lastSlotLags"})
+    public HostPingStatistic(int slotNum, int trackedHostNum, int inflightPingNum, int queuedPingNum, long skippedBusyHostNum,
+                             long lagP50, long lagP99, long lagMax, int[] slotHostNums, long[] lastSlotLags) {
+        this.slotNum = slotNum;
+        this.trackedHostNum = trackedHostNum;
+        this.inflightPingNum = inflightPingNum;
+        this.queuedPingNum = queuedPingNum;
+        this.skippedBusyHostNum = skippedBusyHostNum;
+        this.lagP50 = lagP50;
+        this.lagP99 = lagP99;
+        this.lagMax = lagMax;
+        this.slotHostNums = slotHostNums;
+        this.lastSlotLags = lastSlotLags;
+    }
+
+    public int getSlotNum() {
+        return slotNum;
+    }
+
+    public int getTrackedHostNum() {
+        return trackedHostNum;
+    }
+
+    public int getInflightPingNum() {
+        return inflightPingNum;
+    }
+
+    public int getQueuedPingNum() {
+        return queuedPingNum;
+    }
+
+    /**
+     * hosts skipped by their slots because the former ping or reconnection was not done
+     */
+    public long getSkippedBusyHostNum() {
+        return skippedBusyHostNum;
+    }
+
+    public long getLagP50() {
+        return lagP50;
+    }
+
+    public long getLagP99() {
+        return lagP99;
+    }
+
+    public long getLagMax() {
+        return lagMax;
+    }
+
+    public int[] getSlotHostNums() {
+        return slotHostNums;
+    }
+
+    /**
+     * the largest lag of the latest round of each slot
+     */
+    public long[] getLastSlotLags() {
+        return lastSlotLags;
+    }
+}
@@ -8,7 +8,8 @@ import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SQLBatch;
-import org.zstack.core.thread.AsyncTimer;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
@@ -22,16 +23,29 @@ import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
 import org.zstack.header.message.MessageReply;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.stats.LatencyHistogram;
 
 import javax.persistence.Tuple;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
-public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint {
+public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint,
+        HostTrackerMXBean {
     private final static CLogger logger = Utils.getLogger(HostTrackImpl.class);
 
-    private Map<String, Tracker> trackers = new HashMap<>();
+    private Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+    private volatile Wheel wheel;
+    private final Queue<PendingPing> pendingPings = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inflightPingNum = new AtomicInteger(0);
+    private final AtomicLong skippedBusyHostNum = new AtomicLong(0);
+    // how late pings are sent after the time of their slots, in milliseconds
+    private final LatencyHistogram pingLags = new LatencyHistogram();
+    private final Random random = new Random();
 
     @Autowired
     private DatabaseFacade dbf;
@@ -43,6 +57,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private ThreadFacade thdf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private JmxFacade jmxf;
 
     private static Map<String, HostReconnectTaskFactory> hostReconnectTaskFactories = new HashMap<>();
 
@@ -75,53 +91,60 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         });
     }
 
-    private class Tracker extends AsyncTimer {
-        private String uuid;
-        private String hypervisorType;
+    private class Tracker {
+        private final String uuid;
+        private final String hypervisorType;
+        private final Wheel wheel;
+        private int slot;
         private HostReconnectTask reconnectTask;
+        // a ping or a reconnection of the host is running, the host is skipped by its slot
+        private final AtomicBoolean busy = new AtomicBoolean(false);
+        private volatile boolean cancelled;
 
-        public Tracker(String uuid) {
-            super(TimeUnit.SECONDS, HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
+        Tracker(String uuid, String hypervisorType, Wheel wheel) {
             this.uuid = uuid;
-            hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
-                    .eq(HostVO_.uuid, uuid).findValue();
-            if (hypervisorType == null) {
-                throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", uuid));
-            }
-
-
-            __name__ = String.format("host-tracker-%s-hypervisor-%s", uuid, hypervisorType);
+            this.hypervisorType = hypervisorType;
+            this.wheel = wheel;
         }
 
-        @Override
-        protected void execute() {
-            track();
+        private void done() {
+            busy.set(false);
         }
 
-        private void track()  {
-            Tuple t = Q.New(HostVO.class).select(HostVO_.state, HostVO_.status)
-                    .eq(HostVO_.uuid, uuid).findTuple();
-
-            if (t == null) {
-                logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
-                return;
+        // returns false if the ping is not sent, the caller then releases its in-flight slot,
+        // otherwise the slot is released by the reply
+        private boolean ping(long slotTime) {
+            if (cancelled) {
+                done();
+                return false;
             }
 
-            HostState state = t.get(0, HostState.class);
-
-            if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
-                logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
-                continueToRunThisTimer();
-                return;
+            try {
+                long lag = System.currentTimeMillis() - slotTime;
+                pingLags.record(lag);
+                wheel.recordLag(slot, lag);
+
+                PingHostMsg msg = new PingHostMsg();
+                msg.setHostUuid(uuid);
+                bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, uuid);
+                send(msg);
+                return true;
+            } catch (Throwable t) {
+                logger.warn(String.format("[Host Tracker]: unable to ping host[uuid:%s]", uuid), t);
+                done();
+                return false;
             }
+        }
 
-            PingHostMsg msg = new PingHostMsg();
-            msg.setHostUuid(uuid);
-            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, uuid);
+        private void send(PingHostMsg msg) {
             bus.send(msg, new CloudBusCallBack(null) {
                 @Override
                 public void run(MessageReply reply) {
-                    decideWhatToDoNext(makeReconnectDecision(reply));
+                    try {
+                        decideWhatToDoNext(makeReconnectDecision(reply));
+                    } finally {
+                        pingDone();
+                    }
                 }
 
                 private ReconnectDecision makeReconnectDecision(MessageReply reply) {
@@ -157,17 +180,17 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
         private void decideWhatToDoNext(ReconnectDecision decision) {
             if (decision == ReconnectDecision.DoNothing) {
-                continueToRunThisTimer();
+                done();
             } else if (decision == ReconnectDecision.ReconnectNow) {
                 reconnectNow(uuid, new Completion(new NoErrorCompletion() {
                     @Override
                     public void done() {
-                        continueToRunThisTimer();
+                        Tracker.this.done();
                     }
                 }) {
                     @Override
                     public void success() {
-                        continueToRunThisTimer();
+                        Tracker.this.done();
                     }
 
                     @Override
@@ -185,43 +208,256 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
         }
 
-        private void submitReconnectTask() {
+        private synchronized void submitReconnectTask() {
             if (reconnectTask != null) {
                 reconnectTask.cancel();
             }
 
+            if (cancelled) {
+                done();
+                return;
+            }
+
             reconnectTask = getHostReconnectTaskFactory(hypervisorType).createTask(uuid, new NoErrorCompletion() {
                 @Override
                 public void done() {
-                    continueToRunThisTimer();
+                    Tracker.this.done();
                 }
             });
 
             reconnectTask.start();
         }
 
-        @Override
-        public void cancel() {
+        synchronized void cancel() {
+            cancelled = true;
             if (reconnectTask != null) {
                 reconnectTask.cancel();
             }
 
-            super.cancel();
+            wheel.remove(this);
+            trackers.remove(uuid, this);
+        }
+    }
 
-            trackers.remove(uuid);
+    private static class PendingPing {
+        final Tracker tracker;
+        final long slotTime;
+
+        PendingPing(Tracker tracker, long slotTime) {
+            this.tracker = tracker;
+            this.slotTime = slotTime;
         }
     }
 
+    /**
+     * Hosts are spread over slots of one second, slot number is the ping interval in seconds.
+     * Every tick all hosts in the slot are checked with one query and their pings are queued,
+     * so hosts are pinged once per interval at evenly distributed times.
+     */
+    private class Wheel implements PeriodicTask {
+        private final int slotNum;
+        private final List<Set<Tracker>> slots = new ArrayList<>();
+        private final AtomicLongArray lastSlotLags;
+        private final long startTime = System.currentTimeMillis();
+        private long lastTick = 0;
+        private Future<Void> future;
+
+        Wheel(int slotNum) {
+            this.slotNum = slotNum;
+            for (int i = 0; i < slotNum; i++) {
+                slots.add(ConcurrentHashMap.newKeySet());
+            }
+            lastSlotLags = new AtomicLongArray(slotNum);
+        }
 
-    public void trackHost(String hostUuid) {
+        void start() {
+            future = thdf.submitPeriodicTask(this, TimeUnit.SECONDS.toMillis(1));
+        }
+
+        void stop() {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * puts the tracker in the slot having the fewest hosts, ties are broken from a random
+         * slot so hosts added together don't pile up in the first slots
+         */
+        synchronized void add(Tracker t) {
+            int from = random.nextInt(slotNum);
+            int slot = from;
+            for (int i = 0; i < slotNum; i++) {
+                int s = (from + i) % slotNum;
+                if (slots.get(s).size() < slots.get(slot).size()) {
+                    slot = s;
+                }
+            }
+
+            t.slot = slot;
+            slots.get(slot).add(t);
+        }
+
+        void remove(Tracker t) {
+            slots.get(t.slot).remove(t);
+        }
+
+        void recordLag(int slot, long lag) {
+            lastSlotLags.accumulateAndGet(slot, lag, Math::max);
+        }
+
+        @Override
+        public TimeUnit getTimeUnit() {
+            return TimeUnit.MILLISECONDS;
+        }
+
+        @Override
+        public long getInterval() {
+            return TimeUnit.SECONDS.toMillis(1);
+        }
+
+        @Override
+        public String getName() {
+            return String.format("host-tracker-wheel-%s-slots", slotNum);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // catch up the ticks missed if the thread pool is busy
+                long tick = (System.currentTimeMillis() - startTime) / TimeUnit.SECONDS.toMillis(1);
+                while (lastTick < tick) {
+                    lastTick++;
+                    tick(lastTick);
+                }
+            } catch (Throwable t) {
+                // don't let the periodic task be cancelled by the exception
+                logger.warn("unhandled exception when pinging hosts", t);
+            }
+        }
+
+        private void tick(long tick) {
+            int slot = (int) (tick % slotNum);
+            long slotTime = startTime + TimeUnit.SECONDS.toMillis(tick);
+            lastSlotLags.set(slot, System.currentTimeMillis() - slotTime);
+
+            Map<String, Tracker> ts = new HashMap<>();
+            for (Tracker t : slots.get(slot)) {
+                if (t.busy.get()) {
+                    skippedBusyHostNum.incrementAndGet();
+                } else {
+                    ts.put(t.uuid, t);
+                }
+            }
+
+            if (ts.isEmpty()) {
+                return;
+            }
+
+            List<Tuple> tuples = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.state)
+                    .in(HostVO_.uuid, ts.keySet()).listTuple();
+            Map<String, HostState> states = new HashMap<>();
+            tuples.forEach(t -> states.put(t.get(0, String.class), t.get(1, HostState.class)));
+
+            for (Tracker t : ts.values()) {
+                HostState state = states.get(t.uuid);
+                if (state == null) {
+                    logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", t.uuid));
+                    t.cancel();
+                    continue;
+                }
+
+                if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
+                    logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", t.uuid, state));
+                    continue;
+                }
+
+                if (t.busy.compareAndSet(false, true)) {
+                    pendingPings.offer(new PendingPing(t, slotTime));
+                }
+            }
+
+            dispatchPings();
+        }
+
+        int[] getSlotHostNums() {
+            return slots.stream().mapToInt(Set::size).toArray();
+        }
+
+        long[] getLastSlotLags() {
+            long[] ret = new long[slotNum];
+            for (int i = 0; i < slotNum; i++) {
+                ret[i] = lastSlotLags.get(i);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * sends queued pings with at most host ping.parallelismDegree pings in flight. A ping failing
+     * to be sent gives its slot back in the loop, so a queue of such pings is drained without
+     * recursion.
+     */
+    private void dispatchPings() {
+        while (true) {
+            int n = inflightPingNum.get();
+            if (n >= HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class)) {
+                return;
+            }
+
+            if (!inflightPingNum.compareAndSet(n, n + 1)) {
+                continue;
+            }
+
+            PendingPing p = pendingPings.poll();
+            if (p == null) {
+                inflightPingNum.decrementAndGet();
+                if (pendingPings.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+
+            if (!p.tracker.ping(p.slotTime)) {
+                inflightPingNum.decrementAndGet();
+            }
+        }
+    }
+
+    private void pingDone() {
+        inflightPingNum.decrementAndGet();
+        dispatchPings();
+    }
+
+    private synchronized void restartWheel() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+
+        wheel = new Wheel(Math.max(1, HostGlobalConfig.PING_HOST_INTERVAL.value(Integer.class)));
+        wheel.start();
+    }
+
+    // synchronized with restartWheel(), so a tracker is never added to a stopped wheel
+    private synchronized void track(String hostUuid, String hypervisorType) {
         Tracker t = trackers.get(hostUuid);
         if (t != null) {
             t.cancel();
         }
 
-        t = new Tracker(hostUuid);
+        t = new Tracker(hostUuid, hypervisorType, wheel);
         trackers.put(hostUuid, t);
-        t.start();
+        t.wheel.add(t);
+    }
+
+    public void trackHost(String hostUuid) {
+        String hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType)
+                .eq(HostVO_.uuid, hostUuid).findValue();
+        if (hypervisorType == null) {
+            throw new CloudRuntimeException(String.format("host[uuid:%s] is deleted, why you submit a tracker for it???", hostUuid));
+        }
+
+        track(hostUuid, hypervisorType);
         logger.debug(String.format("starting tracking hosts[uuid:%s]", hostUuid));
     }
 
@@ -237,7 +473,14 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public void trackHost(Collection<String> huuids) {
-        huuids.forEach(this::trackHost);
+        if (huuids.isEmpty()) {
+            return;
+        }
+
+        List<Tuple> ts = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.hypervisorType)
+                .in(HostVO_.uuid, huuids).listTuple();
+        ts.forEach(t -> track(t.get(0, String.class), t.get(1, String.class)));
+        logger.debug(String.format("starting tracking hosts%s", ts.stream().map(t -> t.get(0, String.class)).collect(Collectors.toList())));
     }
 
     @Override
@@ -245,6 +488,14 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         huuids.forEach(this::untrackHost);
     }
 
+    @Override
+    public HostPingStatistic getPingStatistic() {
+        Wheel w = wheel;
+        return new HostPingStatistic(w.slotNum, trackers.size(), inflightPingNum.get(), pendingPings.size(),
+                skippedBusyHostNum.get(), pingLags.getValueAtPercentile(50), pingLags.getValueAtPercentile(99),
+                pingLags.getMax(), w.getSlotHostNums(), w.getLastSlotLags());
+    }
+
     private void reScanHost() {
         reScanHost(false);
     }
@@ -252,6 +503,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private void reScanHost(boolean skipExisting) {
         if (!skipExisting) {
             new HashSet<>(trackers.values()).forEach(Tracker::cancel);
+            pendingPings.clear();
         }
 
         new SQLBatch() {
@@ -305,10 +557,13 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     @Override
     public boolean start() {
         populateExtensions();
+        restartWheel();
+        jmxf.registerBean("HostTracker", this);
 
         HostGlobalConfig.PING_HOST_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> {
             logger.debug(String.format("%s change from %s to %s, restart host trackers",
                     oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
+            restartWheel();
             reScanHost();
         });
 
@@ -336,6 +591,9 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public boolean stop() {
+        if (wheel != null) {
+            wheel.stop();
+        }
         return true;
     }
 }
@@ -0,0 +1,7 @@
+package org.zstack.compute.host;
+
+/**
+ */
+public interface HostTrackerMXBean {
+    HostPingStatistic getPingStatistic();
+}
@@ -1,5 +1,6 @@
 package org.zstack.compute.vm;
 
+import org.zstack.header.host.HostInventory;
 import org.zstack.header.vm.*;
 
 import java.util.List;
@@ -16,6 +17,15 @@ public class InstantiateVmFromNewCreatedStruct {
     private VmCreationStrategy strategy = VmCreationStrategy.InstantStart;
     private List<String> rootVolumeSystemTags;
     private List<String> dataVolumeSystemTags;
+    private HostInventory reservedHost;
+
+    public HostInventory getReservedHost() {
+        return reservedHost;
+    }
+
+    public void setReservedHost(HostInventory reservedHost) {
+        this.reservedHost = reservedHost;
+    }
 
     public List<String> getRootVolumeSystemTags() {
         return rootVolumeSystemTags;
@@ -79,6 +89,7 @@ public class InstantiateVmFromNewCreatedStruct {
         struct.strategy = VmCreationStrategy.valueOf(msg.getStrategy());
         struct.setRootVolumeSystemTags(msg.getRootVolumeSystemTags());
         struct.setDataVolumeSystemTags(msg.getDataVolumeSystemTags());
+        struct.setReservedHost(msg.getReservedHost());
         return struct;
     }
 
@@ -62,6 +62,7 @@ public class VmAllocateHostFlow implements Flow {
                 .listValues();
     }
 
+    // also builds the messages of BatchAllocateHostMsg for VmInstanceManagerImpl, keep both paths placing VMs the same way
     protected AllocateHostMsg prepareMsg(VmInstanceSpec spec) {
         DesignatedAllocateHostMsg msg = new DesignatedAllocateHostMsg();
 
@@ -118,6 +119,20 @@ public class VmAllocateHostFlow implements Flow {
         return msg;
     }
 
+    // update the vm's host uuid and hypervisor type so even if the management node died later and the vm's state
+    // is stuck in Starting, we know which host it's created on and can check its state on the host
+    private void updateVmHost(VmInstanceSpec spec) {
+        String oldHostUuid = spec.getVmInventory().getHostUuid() != null ?
+                spec.getVmInventory().getHostUuid() : spec.getVmInventory().getLastHostUuid();
+        oldHostUuid = dbf.isExist(oldHostUuid, HostVO.class) ? oldHostUuid : null;
+        SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, spec.getVmInventory().getUuid())
+                .set(VmInstanceVO_.clusterUuid, spec.getDestHost().getClusterUuid())
+                .set(VmInstanceVO_.lastHostUuid, oldHostUuid)
+                .set(VmInstanceVO_.hostUuid, spec.getDestHost().getUuid())
+                .set(VmInstanceVO_.hypervisorType, spec.getDestHost().getHypervisorType())
+                .update();
+    }
+
     @Override
     public void run(final FlowTrigger chain, Map data) {
         taskProgress("allocate candidate hosts");
@@ -129,6 +144,15 @@ public class VmAllocateHostFlow implements Flow {
             throw new CloudRuntimeException("VmAllocateHostFlow is only for creating new VM or changing image");
         }
 
+        if (spec.getReservedHost() != null && VmOperation.NewCreate == spec.getCurrentVmOperation()) {
+            // the capacity has been reserved by BatchAllocateHostMsg
+            spec.setDestHost(spec.getReservedHost());
+            spec.setReservedHost(null);
+            updateVmHost(spec);
+            chain.next();
+            return;
+        }
+
         AllocateHostMsg msg = this.prepareMsg(spec);
 
         bus.send(msg, new CloudBusCallBack(chain) {
@@ -151,17 +175,7 @@ public class VmAllocateHostFlow implements Flow {
                         return;
                     }
 
-                    // update the vm's host uuid and hypervisor type so even if the management node died later and the vm's state
-                    // is stuck in Starting, we know which host it's created on and can check its state on the host
-                    String oldHostUuid = spec.getVmInventory().getHostUuid() != null ?
-                            spec.getVmInventory().getHostUuid() : spec.getVmInventory().getLastHostUuid();
-                    oldHostUuid = dbf.isExist(oldHostUuid, HostVO.class) ? oldHostUuid : null;
-                    SQL.New(VmInstanceVO.class).eq(VmInstanceVO_.uuid, spec.getVmInventory().getUuid())
-                            .set(VmInstanceVO_.clusterUuid, spec.getDestHost().getClusterUuid())
-                            .set(VmInstanceVO_.lastHostUuid, oldHostUuid)
-                            .set(VmInstanceVO_.hostUuid, spec.getDestHost().getUuid())
-                            .set(VmInstanceVO_.hypervisorType, spec.getDestHost().getHypervisorType())
-                            .update();
+                    updateVmHost(spec);
                     chain.next();
                 } else {
                     chain.fail(reply.getError());
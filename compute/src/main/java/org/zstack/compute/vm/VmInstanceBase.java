@@ -2397,15 +2397,30 @@ public class VmInstanceBase extends AbstractVmInstance {
         }
     }
 
+    private void returnReservedHostCapacity(HostInventory host, VmInstanceInventory vm) {
+        if (host == null) {
+            return;
+        }
+
+        ReturnHostCapacityMsg msg = new ReturnHostCapacityMsg();
+        msg.setCpuCapacity(vm.getCpuNum());
+        msg.setMemoryCapacity(vm.getMemorySize());
+        msg.setHostUuid(host.getUuid());
+        msg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+        bus.send(msg);
+    }
+
     protected void instantiateVmFromNewCreate(final InstantiateNewCreatedVmInstanceMsg msg, final SyncTaskChain taskChain) {
         refreshVO();
         ErrorCode error = validateOperationByState(msg, self.getState(), SysErrors.OPERATION_ERROR);
         if (error != null) {
+            returnReservedHostCapacity(msg.getReservedHost(), msg.getVmInstanceInventory());
             throw new OperationFailureException(error);
         }
 
         error = extEmitter.preStartNewCreatedVm(msg.getVmInstanceInventory());
         if (error != null) {
+            returnReservedHostCapacity(msg.getReservedHost(), msg.getVmInstanceInventory());
             throw new OperationFailureException(error);
         }
 
@@ -4864,6 +4879,7 @@ public class VmInstanceBase extends AbstractVmInstance {
         spec.setRootVolumeSystemTags(struct.getRootVolumeSystemTags());
 
         spec.setVmInventory(getSelfInventory());
+        spec.setReservedHost(struct.getReservedHost());
         if (struct.getL3NetworkUuids() != null && !struct.getL3NetworkUuids().isEmpty()) {
             SimpleQuery<L3NetworkVO> nwquery = dbf.createQuery(L3NetworkVO.class);
             nwquery.add(L3NetworkVO_.uuid, Op.IN, VmNicSpec.getL3UuidsOfSpec(struct.getL3NetworkUuids()));
@@ -5030,6 +5046,8 @@ public class VmInstanceBase extends AbstractVmInstance {
         }).error(new FlowErrorHandler(completion) {
             @Override
             public void handle(final ErrorCode errCode, Map data) {
+                // the chain failed before VmAllocateHostFlow took the reserved host
+                returnReservedHostCapacity(spec.getReservedHost(), spec.getVmInventory());
                 extEmitter.failedToStartNewCreatedVm(VmInstanceInventory.valueOf(self), errCode);
                 dbf.remove(self);
                 // clean up EO, otherwise API-retry may cause conflict if
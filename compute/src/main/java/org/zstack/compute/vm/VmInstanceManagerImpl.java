@@ -20,6 +20,8 @@ import org.zstack.core.thread.*;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.AllocateHostDryRunReply;
+import org.zstack.header.allocator.BatchAllocateHostMsg;
+import org.zstack.header.allocator.BatchAllocateHostReply;
 import org.zstack.header.allocator.DesignatedAllocateHostMsg;
 import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
@@ -198,6 +200,8 @@ public class VmInstanceManagerImpl extends AbstractService implements
     private void handleLocalMessage(Message msg) {
         if (msg instanceof CreateVmInstanceMsg) {
             handle((CreateVmInstanceMsg) msg);
+        } else if (msg instanceof BatchCreateVmInstanceMsg) {
+            handle((BatchCreateVmInstanceMsg) msg);
         } else if (msg instanceof DetachIpAddressFromVmNicMsg) {
             handle((DetachIpAddressFromVmNicMsg) msg);
         } else if (msg instanceof AttachL3NetworkToVmNicMsg) {
@@ -845,6 +849,18 @@ public class VmInstanceManagerImpl extends AbstractService implements
     }
 
     private void doCreateVmInstance(final CreateVmInstanceMsg msg, final APICreateMessage cmsg, ReturnValueCompletion<VmInstanceInventory> completion) {
+        VmInstanceVO vo = createVmInstanceVO(msg, cmsg);
+        if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(msg.getStrategy())) {
+            VmInstanceInventory inv = VmInstanceInventory.valueOf(vo);
+            createVmButNotStart(msg, inv);
+            completion.success(inv);
+            return;
+        }
+
+        instantiateNewCreatedVm(msg, vo, null, completion);
+    }
+
+    private VmInstanceVO createVmInstanceVO(final CreateVmInstanceMsg msg, final APICreateMessage cmsg) {
         final String instanceOfferingUuid = msg.getInstanceOfferingUuid();
         VmInstanceVO vo = new VmInstanceVO();
         if (msg.getResourceUuid() != null) {
@@ -919,14 +935,13 @@ public class VmInstanceManagerImpl extends AbstractService implements
             extEmitter.handleSystemTag(vo.getUuid(), cmsg.getSystemTags());
         }
 
-        InstantiateNewCreatedVmInstanceMsg smsg = new InstantiateNewCreatedVmInstanceMsg();
-        if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(msg.getStrategy())) {
-            VmInstanceInventory inv = VmInstanceInventory.valueOf(vo);
-            createVmButNotStart(msg, inv);
-            completion.success(inv);
-            return;
-        }
+        return vo;
+    }
 
+    private void instantiateNewCreatedVm(final CreateVmInstanceMsg msg, VmInstanceVO vo, HostInventory reservedHost,
+                                         ReturnValueCompletion<VmInstanceInventory> completion) {
+        InstantiateNewCreatedVmInstanceMsg smsg = new InstantiateNewCreatedVmInstanceMsg();
+        smsg.setReservedHost(reservedHost);
         smsg.setDataDiskOfferingUuids(msg.getDataDiskOfferingUuids());
         smsg.setL3NetworkUuids(msg.getL3NetworkUuids());
         smsg.setRootDiskOfferingUuid(msg.getRootDiskOfferingUuid());
@@ -961,7 +976,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
         new JsonLabel().create(InstantiateVmFromNewCreatedStruct.makeLabelKey(inv.getUuid()), struct, inv.getUuid());
     }
 
-    private void handle(final CreateVmInstanceMsg msg) {
+    private void fillZoneUuid(CreateVmInstanceMsg msg) {
         if(msg.getZoneUuid() == null){
             String l3Uuid = VmNicSpec.getL3UuidsOfSpec(msg.getL3NetworkUuids()).get(0);
             String zoneUuid = Q.New(L3NetworkVO.class)
@@ -970,6 +985,210 @@ public class VmInstanceManagerImpl extends AbstractService implements
                     .findValue();
             msg.setZoneUuid(zoneUuid);
         }
+    }
+
+    // loads the image and disk offerings of a VM in the batch, the VM is not created if any of them is missing
+    private ErrorCode loadBatchResources(CreateVmInstanceMsg msg, Map<String, ImageVO> images, Map<String, DiskOfferingVO> diskOfferings) {
+        if (msg.getImageUuid() == null) {
+            return argerr("no image is specified for the vm[name:%s]", msg.getName());
+        }
+
+        ImageVO image = images.computeIfAbsent(msg.getImageUuid(), uuid -> dbf.findByUuid(uuid, ImageVO.class));
+        if (image == null) {
+            return operr("cannot find the image[uuid:%s] of the vm[name:%s], it may have been deleted", msg.getImageUuid(), msg.getName());
+        }
+
+        List<String> diskOfferingUuids = new ArrayList<>();
+        if (image.getMediaType() == ImageMediaType.ISO) {
+            if (msg.getRootDiskOfferingUuid() == null) {
+                return argerr("the image[uuid:%s] of the vm[name:%s] is an ISO, a root disk offering is required", image.getUuid(), msg.getName());
+            }
+            diskOfferingUuids.add(msg.getRootDiskOfferingUuid());
+        }
+        if (msg.getDataDiskOfferingUuids() != null) {
+            diskOfferingUuids.addAll(msg.getDataDiskOfferingUuids());
+        }
+
+        for (String duuid : diskOfferingUuids) {
+            if (diskOfferings.computeIfAbsent(duuid, uuid -> dbf.findByUuid(uuid, DiskOfferingVO.class)) == null) {
+                return operr("cannot find the disk offering[uuid:%s] of the vm[name:%s], it may have been deleted", duuid, msg.getName());
+            }
+        }
+
+        return null;
+    }
+
+    // the spec VmAllocateHostFlow.prepareMsg() needs, as the VmInstanceSpec built when the vm is instantiated
+    private VmInstanceSpec buildAllocateHostSpec(CreateVmInstanceMsg msg, VmInstanceVO vo,
+                                                 Map<String, ImageVO> images, Map<String, DiskOfferingVO> diskOfferings) {
+        VmInstanceSpec spec = new VmInstanceSpec();
+        spec.setVmInventory(VmInstanceInventory.valueOf(vo));
+        spec.setCurrentVmOperation(VmOperation.NewCreate);
+        spec.setL3Networks(msg.getL3NetworkUuids());
+        spec.setRequiredPrimaryStorageUuidForRootVolume(msg.getPrimaryStorageUuidForRootVolume());
+        if (vo.getClusterUuid() != null || vo.getHostUuid() != null) {
+            spec.setHostAllocatorStrategy(HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE);
+        }
+
+        ImageVO image = images.get(vo.getImageUuid());
+        ImageBackupStorageSelector selector = new ImageBackupStorageSelector();
+        selector.setZoneUuid(vo.getZoneUuid());
+        selector.setImageUuid(image.getUuid());
+        ImageBackupStorageRefInventory ref = new ImageBackupStorageRefInventory();
+        ref.setImageUuid(image.getUuid());
+        ref.setBackupStorageUuid(selector.select());
+        spec.getImageSpec().setInventory(ImageInventory.valueOf(image));
+        spec.getImageSpec().setSelectedBackupStorage(ref);
+
+        if (msg.getRootDiskOfferingUuid() != null && diskOfferings.containsKey(msg.getRootDiskOfferingUuid())) {
+            spec.setRootDiskOffering(DiskOfferingInventory.valueOf(diskOfferings.get(msg.getRootDiskOfferingUuid())));
+        }
+
+        List<DiskOfferingInventory> disks = new ArrayList<>();
+        if (msg.getDataDiskOfferingUuids() != null) {
+            for (String duuid : msg.getDataDiskOfferingUuids()) {
+                disks.add(DiskOfferingInventory.valueOf(diskOfferings.get(duuid)));
+            }
+        }
+        spec.setDataDiskOfferings(disks);
+        return spec;
+    }
+
+    private ErrorCode toErrorCode(Throwable t) {
+        if (t instanceof OperationFailureException) {
+            return ((OperationFailureException) t).getErrorCode();
+        }
+        return errf.throwableToInternalError(t);
+    }
+
+    private void handle(final BatchCreateVmInstanceMsg msg) {
+        List<CreateVmInstanceMsg> cmsgs = msg.getCreateVmInstanceMsgs();
+        Map<String, ImageVO> images = new HashMap<>();
+        Map<String, DiskOfferingVO> diskOfferings = new HashMap<>();
+
+        // check every VM before creating any, a VM that fails is replied with its error while the others go on
+        List<ErrorCode> errors = new ArrayList<>(cmsgs.size());
+        for (CreateVmInstanceMsg cmsg : cmsgs) {
+            ErrorCode error;
+            try {
+                fillZoneUuid(cmsg);
+                error = loadBatchResources(cmsg, images, diskOfferings);
+            } catch (Throwable t) {
+                logger.warn(String.format("failed to load resources of the vm[name:%s]", cmsg.getName()), t);
+                error = toErrorCode(t);
+            }
+            errors.add(error);
+        }
+
+        List<VmInstanceVO> vos = new ArrayList<>(cmsgs.size());
+        BatchAllocateHostMsg amsg = new BatchAllocateHostMsg();
+        amsg.setPlacementStrategy(msg.getPlacementStrategy());
+        for (int i = 0; i < cmsgs.size(); i++) {
+            CreateVmInstanceMsg cmsg = cmsgs.get(i);
+            if (errors.get(i) != null) {
+                vos.add(null);
+                continue;
+            }
+
+            if (cmsg.getResourceUuid() == null) {
+                cmsg.setResourceUuid(Platform.getUuid());
+            }
+
+            VmInstanceVO vo;
+            try {
+                vo = createVmInstanceVO(cmsg, null);
+            } catch (Throwable t) {
+                logger.warn(String.format("failed to create the vm[uuid:%s, name:%s]", cmsg.getResourceUuid(), cmsg.getName()), t);
+                errors.set(i, toErrorCode(t));
+                vos.add(null);
+                dbf.removeByPrimaryKey(cmsg.getResourceUuid(), VmInstanceVO.class);
+                continue;
+            }
+
+            vos.add(vo);
+            if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(cmsg.getStrategy())) {
+                continue;
+            }
+
+            try {
+                amsg.getAllocateHostMsgs().add(new VmAllocateHostFlow().prepareMsg(buildAllocateHostSpec(cmsg, vo, images, diskOfferings)));
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to allocate a host for the vm[uuid:%s] in the batch, it will allocate" +
+                        " its host when instantiated", vo.getUuid()), t);
+            }
+        }
+
+        amsg.setTimeout(TimeUnit.MINUTES.toMillis(60));
+        bus.makeLocalServiceId(amsg, HostAllocatorConstant.SERVICE_ID);
+        bus.send(amsg, new CloudBusCallBack(msg) {
+            @Override
+            public void run(MessageReply reply) {
+                Map<String, HostInventory> hosts = new HashMap<>();
+                if (reply.isSuccess()) {
+                    hosts = ((BatchAllocateHostReply) reply).getHosts();
+                } else {
+                    logger.warn(String.format("failed to allocate hosts for the batch of %s VMs, they will be allocated" +
+                            " one by one, %s", amsg.getAllocateHostMsgs().size(), reply.getError()));
+                }
+
+                instantiateNewCreatedVms(msg, vos, errors, hosts);
+            }
+        });
+    }
+
+    private void instantiateNewCreatedVms(BatchCreateVmInstanceMsg msg, List<VmInstanceVO> vos, List<ErrorCode> errors,
+                                          Map<String, HostInventory> hosts) {
+        List<CreateVmInstanceMsg> cmsgs = msg.getCreateVmInstanceMsgs();
+        List<CreateVmInstanceReply> replies = new ArrayList<>(cmsgs.size());
+        List<Integer> indexes = new ArrayList<>(cmsgs.size());
+        for (int i = 0; i < cmsgs.size(); i++) {
+            replies.add(new CreateVmInstanceReply());
+            indexes.add(i);
+        }
+
+        new While<>(indexes).all((i, wcmpl) -> {
+            CreateVmInstanceMsg cmsg = cmsgs.get(i);
+            VmInstanceVO vo = vos.get(i);
+            CreateVmInstanceReply r = replies.get(i);
+            if (vo == null) {
+                r.setError(errors.get(i));
+                wcmpl.done();
+                return;
+            }
+
+            if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(cmsg.getStrategy())) {
+                VmInstanceInventory inv = VmInstanceInventory.valueOf(vo);
+                createVmButNotStart(cmsg, inv);
+                r.setInventory(inv);
+                wcmpl.done();
+                return;
+            }
+
+            instantiateNewCreatedVm(cmsg, vo, hosts.get(vo.getUuid()), new ReturnValueCompletion<VmInstanceInventory>(wcmpl) {
+                @Override
+                public void success(VmInstanceInventory inv) {
+                    r.setInventory(inv);
+                    wcmpl.done();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    r.setError(errorCode);
+                    wcmpl.done();
+                }
+            });
+        }).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                BatchCreateVmInstanceReply reply = new BatchCreateVmInstanceReply();
+                reply.setReplies(replies);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+    private void handle(final CreateVmInstanceMsg msg) {
+        fillZoneUuid(msg);
 
         doCreateVmInstance(msg, null, new ReturnValueCompletion<VmInstanceInventory>(msg) {
             @Override
@@ -4,8 +4,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
 import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.notification.N;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
@@ -16,10 +18,10 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -37,11 +39,29 @@ public abstract class VmTracer {
     @Autowired
     private EventFacade evtf;
 
+    private static class ConvergedStates {
+        final String hash;
+        final long time = System.currentTimeMillis();
+
+        ConvergedStates(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    // by host uuid, the states found consistent with database by the latest trace
+    private final Map<String, ConvergedStates> convergedStates = new ConcurrentHashMap<>();
+    // by host uuid, the sequence number of the latest VM state change on the host
+    private final Map<String, Long> stateChangeSeqs = new ConcurrentHashMap<>();
+    private final AtomicLong stateChangeSeq = new AtomicLong(0);
+
     private class Tracer {
         String hostUuid;
         Set<String> vmsToSkip;
         Map<String, VmInstanceState> hostSideStates;
         Map<String, VmInstanceState> mgmtSideStates;
+        List<VmStateChangedOnHostMsg> msgs = new ArrayList<>();
+        // the host side and the management side agree, no VM is skipped
+        boolean converged = true;
 
         @Transactional(readOnly = true)
         private void buildManagementServerSideVmStates() {
@@ -62,10 +82,12 @@ public abstract class VmTracer {
         }
 
         private void checkFromHostSide() {
+            List<String> anonymousVms = new ArrayList<>();
             for (Map.Entry<String, VmInstanceState> e : hostSideStates.entrySet()) {
                 String vmUuid = e.getKey();
 
                 if (vmsToSkip != null && vmsToSkip.contains(vmUuid)) {
+                    converged = false;
                     continue;
                 }
 
@@ -74,12 +96,16 @@ public abstract class VmTracer {
                 VmInstanceState expectedState = mgmtSideStates.get(vmUuid);
                 if (expectedState == null) {
                     // an anonymous vm showing on this host
-                    handleAnonymousVm(vmUuid, actualState, expectedState);
+                    anonymousVms.add(vmUuid);
                 } else if (actualState != expectedState) {
                     // vm state changed on host side
                     handleStateChangeOnHostSide(vmUuid, actualState, expectedState);
                 }
             }
+
+            if (!anonymousVms.isEmpty()) {
+                handleAnonymousVms(anonymousVms);
+            }
         }
 
         private void handleStateChangeOnHostSide(final String vmUuid, final VmInstanceState actualState, VmInstanceState expected) {
@@ -89,12 +115,22 @@ public abstract class VmTracer {
             msg.setStateOnHost(actualState);
             msg.setHostUuid(hostUuid);
             bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vmUuid);
-            bus.send(msg);
+            msgs.add(msg);
+            converged = false;
         }
 
-        private void handleAnonymousVm(final String vmUuid, final VmInstanceState actualState, VmInstanceState expected) {
-            final VmInstanceVO vm = dbf.findByUuid(vmUuid, VmInstanceVO.class);
-            if (vm == null) {
+        private void handleAnonymousVms(List<String> vmUuids) {
+            converged = false;
+
+            Set<String> existing = new HashSet<>(Q.New(VmInstanceVO.class).select(VmInstanceVO_.uuid)
+                    .in(VmInstanceVO_.uuid, vmUuids).listValues());
+            for (String vmUuid : vmUuids) {
+                VmInstanceState actualState = hostSideStates.get(vmUuid);
+                if (existing.contains(vmUuid)) {
+                    handleStateChangeOnHostSide(vmUuid, actualState, null);
+                    continue;
+                }
+
                 logger.debug(String.format("[Vm Tracer] detects stranger vm[identity:%s, state:%s]", vmUuid, actualState));
                 VmTracerCanonicalEvents.StrangerVmFoundData data = new VmTracerCanonicalEvents.StrangerVmFoundData();
                 data.setVmIdentity(vmUuid);
@@ -103,17 +139,17 @@ public abstract class VmTracer {
                 evtf.fire(VmTracerCanonicalEvents.STRANGER_VM_FOUND_PATH, data);
 
                 N.New(VmInstanceVO.class, vmUuid).warn_("A strange vm[%s] was found on the host[%s], May cause problems, Please manually clean this vm", vmUuid, hostUuid);
-
-                return;
             }
-
-            handleStateChangeOnHostSide(vmUuid, actualState, expected);
         }
 
         private void checkFromManagementServerSide() {
             // from mgmt server we only check missing vm, vm state change has been updated by host side check
             for (Map.Entry<String, VmInstanceState> e : mgmtSideStates.entrySet()) {
                 String vmUuid = e.getKey();
+                if (vmsToSkip != null && vmsToSkip.contains(vmUuid)) {
+                    converged = false;
+                }
+
                 VmInstanceState expectedState = e.getValue();
                 if (expectedState != VmInstanceState.Stopped && expectedState != VmInstanceState.Created && !hostSideStates.containsKey(vmUuid)) {
                     handleMissingVm(vmUuid, expectedState);
@@ -128,17 +164,87 @@ public abstract class VmTracer {
             msg.setVmInstanceUuid(vmUuid);
             msg.setStateOnHost(VmInstanceState.Stopped);
             bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vmUuid);
-            bus.send(msg);
+            msgs.add(msg);
+            converged = false;
         }
 
         void trace() {
             buildManagementServerSideVmStates();
             checkFromHostSide();
             checkFromManagementServerSide();
+
+            if (!msgs.isEmpty()) {
+                bus.send(msgs);
+            }
+        }
+    }
+
+    /**
+     * how long the converged states of a host are trusted, 0 disables skipping unchanged states
+     */
+    protected long getConvergedStatesTTL() {
+        return 0;
+    }
+
+    /**
+     * drops converged states of hosts having VMs changing states, subclasses reporting
+     * states with hashes must call it when starting
+     */
+    protected void installVmStateChangedListener() {
+        evtf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                VmInstanceInventory vm = ((VmCanonicalEvents.VmStateChangedData) data).getInventory();
+                if (vm == null) {
+                    return;
+                }
+
+                if (vm.getHostUuid() != null) {
+                    forgetConvergedStates(vm.getHostUuid());
+                }
+                if (vm.getLastHostUuid() != null) {
+                    forgetConvergedStates(vm.getLastHostUuid());
+                }
+            }
+        });
+    }
+
+    protected void forgetConvergedStates(String hostUuid) {
+        stateChangeSeqs.put(hostUuid, stateChangeSeq.incrementAndGet());
+        convergedStates.remove(hostUuid);
+    }
+
+    /**
+     * @return the hash of the states found consistent with database by the latest trace of the host,
+     * or null if there are none or they are older than getConvergedStatesTTL()
+     */
+    protected String getConvergedStatesHash(String hostUuid) {
+        ConvergedStates c = convergedStates.get(hostUuid);
+        if (c == null || System.currentTimeMillis() - c.time >= TimeUnit.SECONDS.toMillis(getConvergedStatesTTL())) {
+            return null;
+        }
+
+        return c.hash;
+    }
+
+    private void recordConvergedStates(String hostUuid, String hash, long seq) {
+        convergedStates.put(hostUuid, new ConvergedStates(hash));
+        // a VM on the host changed state after the trace started
+        if (stateChangeSeqs.getOrDefault(hostUuid, 0L) > seq) {
+            convergedStates.remove(hostUuid);
         }
     }
 
     protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates, final Set<String> vmsToSkip) {
+        reportVmState(hostUuid, vmStates, vmsToSkip, null);
+    }
+
+    /**
+     * @param statesHash hash of the states reported by the host; if it equals the hash of
+     *                   the converged states of the host, nothing needs to be done
+     */
+    protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates, final Set<String> vmsToSkip,
+                                 final String statesHash) {
         if (logger.isTraceEnabled()) {
             for (Map.Entry<String, VmInstanceState> e : vmStates.entrySet()) {
                 logger.trace(String.format("reportVmState vm: %s, state: %s", e.getKey(), e.getValue().toString()));
@@ -156,6 +262,13 @@ public abstract class VmTracer {
             return;
         }
 
+        if (statesHash != null && statesHash.equals(getConvergedStatesHash(hostUuid))) {
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("vm states on host[uuid:%s] are unchanged, skip tracing", hostUuid));
+            }
+            return;
+        }
+
         thdf.syncSubmit(new SyncTask<Object>() {
             @Override
             public String getSyncSignature() {
@@ -174,11 +287,18 @@ public abstract class VmTracer {
 
             @Override
             public Object call() {
+                long seq = stateChangeSeq.get();
                 Tracer t = new Tracer();
                 t.hostUuid = hostUuid;
                 t.hostSideStates = vmStates;
                 t.vmsToSkip = vmsToSkip;
                 t.trace();
+
+                if (statesHash != null && t.converged) {
+                    recordConvergedStates(hostUuid, statesHash, seq);
+                } else {
+                    convergedStates.remove(hostUuid);
+                }
                 return null;
             }
         });
@@ -0,0 +1,2 @@
+ALTER TABLE `zstack`.`JobQueueVO` ADD COLUMN `leaseExpireDate` timestamp NULL DEFAULT NULL;
+ALTER TABLE `zstack`.`JobQueueVO` ADD COLUMN `version` bigint unsigned NOT NULL DEFAULT 0;
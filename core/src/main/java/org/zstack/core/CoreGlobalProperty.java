@@ -14,6 +14,8 @@ public class CoreGlobalProperty {
     public static boolean VM_TRACER_ON;
     @GlobalProperty(name = "profiler.workflow", defaultValue = "false")
     public static boolean PROFILER_WORKFLOW;
+    @GlobalProperty(name = "profiler.workflow.samplingInterval", defaultValue = "10")
+    public static int PROFILER_WORKFLOW_SAMPLING_INTERVAL;
     @GlobalProperty(name = "profiler.httpCall", defaultValue = "false")
     public static boolean PROFILER_HTTP_CALL;
     @GlobalProperty(name = "exitJVMOnBootFailure", defaultValue = "true")
@@ -58,4 +60,6 @@ public class CoreGlobalProperty {
     public static boolean UPDATE_PKG_WHEN_CONNECT;
     @GlobalProperty(name = "syncNodeTime", defaultValue = "true")
     public static boolean SYNC_NODE_TIME;
+    @GlobalProperty(name = "pingTracker.maxPingsPerTick", defaultValue = "1000")
+    public static int PING_TRACKER_MAX_PINGS_PER_TICK;
 }
@@ -1,10 +1,13 @@
 package org.zstack.core.cascade;
 
+import org.apache.logging.log4j.ThreadContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.workflow.*;
 import org.zstack.header.Component;
+import org.zstack.header.Constants;
 import org.zstack.header.core.Completion;
+import org.zstack.header.core.progress.TaskProgressRange;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -16,6 +19,9 @@ import org.zstack.utils.logging.CLogger;
 import java.util.*;
 import java.util.concurrent.Callable;
 
+import static org.zstack.core.progress.ProgressReportService.getTaskStage;
+import static org.zstack.core.progress.ProgressReportService.reportProgress;
+
 /**
  */
 public class CascadeFacadeImpl implements CascadeFacade, Component {
@@ -205,6 +211,19 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         DebugUtils.Assert(root != null, String.format("found no CascadeExtension for %s", action.getRootIssuer()));
         List<Bucket> paths = new ArrayList<>();
         collectPathsForAsyncCascade(root, true, action.isFullTraverse(), action, paths);
+
+        if (CascadeGlobalProperty.PARALLELISM_DEGREE > 1) {
+            List<CascadeUnit> units = groupByResource(paths);
+            if (units != null) {
+                new ParallelCascade(units, completion).start();
+                return;
+            }
+        }
+
+        runPaths(String.format("Cascade: %s", action.getActionCode()), paths, completion);
+    }
+
+    private void runPaths(String name, List<Bucket> paths, final Completion completion) {
         FlowChain chain = FlowChainBuilder.newSimpleFlowChain();
         for (Bucket path : paths) {
             final Node node = path.get(0);
@@ -240,7 +259,171 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
             public void handle(ErrorCode errCode, Map data) {
                 completion.fail(errCode);
             }
-        }).setName(String.format("Cascade: %s", action.getActionCode())).start();
+        }).setName(name).start();
+    }
+
+    // all paths of one resource in the order they are collected, the paths are cascaded one by one
+    // because they may carry the same resources reached from different parents
+    private static class CascadeUnit {
+        private Node node;
+        private List<Bucket> paths = new ArrayList<>();
+        private Set<CascadeUnit> dependencies = new HashSet<>();
+        private boolean started;
+        private boolean done;
+    }
+
+    // a resource can only be cascaded after all its child resources are done, returns null if the
+    // resources depend on each other in a circle, in that case the paths are cascaded sequentially
+    private List<CascadeUnit> groupByResource(List<Bucket> paths) {
+        Map<String, CascadeUnit> units = new LinkedHashMap<>();
+        for (Bucket path : paths) {
+            Node node = path.get(0);
+            CascadeUnit unit = units.computeIfAbsent(node.getName(), k -> {
+                CascadeUnit u = new CascadeUnit();
+                u.node = node;
+                return u;
+            });
+            unit.paths.add(path);
+        }
+
+        for (CascadeUnit unit : units.values()) {
+            for (CascadeUnit child : units.values()) {
+                if (child != unit && child.node.getExtension().getEdgeNames().contains(unit.node.getName())) {
+                    unit.dependencies.add(child);
+                }
+            }
+        }
+
+        Set<CascadeUnit> sorted = new HashSet<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (CascadeUnit unit : units.values()) {
+                if (!sorted.contains(unit) && sorted.containsAll(unit.dependencies)) {
+                    sorted.add(unit);
+                    progress = true;
+                }
+            }
+        }
+
+        if (sorted.size() != units.size()) {
+            logger.debug(String.format("cascade resources %s depend on each other in a circle, cascade them sequentially", units.keySet()));
+            return null;
+        }
+
+        return new ArrayList<>(units.values());
+    }
+
+    private class ParallelCascade {
+        private final List<CascadeUnit> units;
+        private final Completion completion;
+        private final TaskProgressRange stage = getTaskStage();
+        private int running;
+        private int finished;
+        private int reported;
+        // the first error, it's reported once no unit is running
+        private ErrorCode error;
+
+        ParallelCascade(List<CascadeUnit> units, Completion completion) {
+            this.units = units;
+            this.completion = completion;
+            reported = stage.getStart();
+        }
+
+        void start() {
+            schedule();
+        }
+
+        private synchronized CascadeUnit next() {
+            if (error != null || running >= CascadeGlobalProperty.PARALLELISM_DEGREE) {
+                return null;
+            }
+
+            // pick units in the collected order, so a cascade completing synchronously
+            // still runs the same sequence as the sequential one
+            for (CascadeUnit unit : units) {
+                if (!unit.started && unit.dependencies.stream().allMatch(d -> d.done)) {
+                    unit.started = true;
+                    running++;
+                    return unit;
+                }
+            }
+
+            return null;
+        }
+
+        private void schedule() {
+            CascadeUnit unit;
+            while ((unit = next()) != null) {
+                run(unit);
+            }
+        }
+
+        private void run(CascadeUnit unit) {
+            CascadeAction action = unit.paths.get(0).get(1);
+            runPaths(String.format("Cascade: %s, resource: %s", action.getActionCode(), unit.node.getName()), unit.paths, new Completion(completion) {
+                @Override
+                public void success() {
+                    done(unit, null);
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    done(unit, errorCode);
+                }
+            });
+        }
+
+        private void done(CascadeUnit unit, ErrorCode errorCode) {
+            int percent;
+            boolean all;
+            boolean stopped;
+            ErrorCode toReport;
+            synchronized (this) {
+                running--;
+                if (errorCode == null) {
+                    unit.done = true;
+                    finished++;
+                } else if (error == null) {
+                    // stop scheduling new units, the error is reported after the running ones finish
+                    error = errorCode;
+                }
+
+                stopped = error != null;
+                if (stopped) {
+                    // no unit is started after the error, so running drops to 0 only once
+                    toReport = running == 0 ? error : null;
+                    percent = -1;
+                    all = false;
+                } else {
+                    toReport = null;
+                    percent = stage.getStart() + (stage.getEnd() - stage.getStart()) * finished / units.size();
+                    if (percent > reported) {
+                        reported = percent;
+                    } else {
+                        percent = -1;
+                    }
+                    all = finished == units.size();
+                }
+            }
+
+            if (stopped) {
+                if (toReport != null) {
+                    completion.fail(toReport);
+                }
+                return;
+            }
+
+            if (percent != -1 && ThreadContext.containsKey(Constants.THREAD_CONTEXT_API)) {
+                reportProgress(String.valueOf(percent));
+            }
+
+            if (all) {
+                completion.success();
+            } else {
+                schedule();
+            }
+        }
     }
 
     private void runNode(Node node, CascadeAction caction, Completion completion) {
@@ -0,0 +1,627 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact binary codec for messages sent between management nodes.
+ *
+ * Every value is written with a one byte tag, so polymorphic fields (e.g. Object, List of
+ * an abstract inventory) are restored as their runtime type without JsonSchemaBuilder.
+ * A class is written by name only the first time it appears in a message, later occurrences
+ * refer to it by a per-message type id. For objects, the names of serialized fields are sent
+ * along with the class name; the receiver maps them to its own fields by name, so nodes of
+ * different versions can talk as long as field types are compatible.
+ *
+ * The field layout of a class and the class lookup by name are cached for the lifetime of
+ * the process, nothing is derived by reflection per message.
+ *
+ * Like CloudBusGson, static, transient and @GsonTransient fields and instances of anonymous or
+ * local classes are skipped, and null fields are not sent, so the receiver keeps the value
+ * initialized by the no-arg constructor. Unlike CloudBusGson, numbers in a Map or an Object
+ * field keep their type (Integer, Long ...) instead of becoming Double, which is why the codec
+ * is not the default, see CloudBusGlobalProperty.HTTP_CODEC.
+ *
+ * The receiver instantiates the classes named in the body, so only classes under org.zstack,
+ * enums, arrays, java.util containers and VALUE_TYPES are decoded. A body naming any other
+ * class is rejected, the peer answers 415 and the sender falls back to JSON.
+ */
+public class BinaryCloudBusCodec implements CloudBusCodec {
+    public static final String NAME = "binary";
+
+    private static final byte VERSION = 1;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_TRUE = 1;
+    private static final byte T_FALSE = 2;
+    private static final byte T_BYTE = 3;
+    private static final byte T_SHORT = 4;
+    private static final byte T_CHAR = 5;
+    private static final byte T_INT = 6;
+    private static final byte T_LONG = 7;
+    private static final byte T_FLOAT = 8;
+    private static final byte T_DOUBLE = 9;
+    private static final byte T_STRING = 10;
+    private static final byte T_BIG_INTEGER = 11;
+    private static final byte T_BIG_DECIMAL = 12;
+    private static final byte T_DATE = 13;
+    private static final byte T_TIMESTAMP = 14;
+    private static final byte T_ENUM = 15;
+    private static final byte T_COLLECTION = 16;
+    private static final byte T_MAP = 17;
+    private static final byte T_ARRAY = 18;
+    private static final byte T_OBJECT = 19;
+    // a null field, the receiver leaves the field untouched
+    private static final byte T_SKIP = 20;
+
+    private static final Map<Class, ClassLayout> layouts = new ConcurrentHashMap<>();
+    // collection and map types have no field layout, only the no-arg constructor is cached
+    private static final Map<Class, Optional<Constructor>> containerConstructors = new ConcurrentHashMap<>();
+    private static final Map<String, Class> classes = new ConcurrentHashMap<>();
+
+    // classes outside org.zstack that may be named in a message, besides enums, arrays and java.util containers
+    private static final Set<Class> VALUE_TYPES = new HashSet<>(Arrays.asList(Object.class, String.class,
+            Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class,
+            Double.class, Number.class, BigInteger.class, BigDecimal.class, Date.class, Timestamp.class));
+
+    private static final Object unsafe;
+
+    static {
+        // the component type of a primitive array can't be found by Class.forName()
+        for (Class clz : new Class[]{boolean.class, byte.class, short.class, char.class,
+                int.class, long.class, float.class, double.class}) {
+            classes.put(clz.getName(), clz);
+        }
+
+        Object u;
+        try {
+            Field f = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+        } catch (Exception e) {
+            u = null;
+        }
+        unsafe = u;
+    }
+
+    private static class ClassLayout {
+        final Class clazz;
+        final Field[] fields;
+        final String[] names;
+        final Map<String, Field> fieldsByName = new HashMap<>();
+        final Constructor constructor;
+
+        ClassLayout(Class clazz) {
+            this.clazz = clazz;
+
+            List<Field> fs = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic()
+                            || f.isAnnotationPresent(GsonTransient.class)) {
+                        continue;
+                    }
+
+                    // a field in a sub-class hides the one with the same name in its super-class
+                    if (!seen.add(f.getName())) {
+                        continue;
+                    }
+
+                    f.setAccessible(true);
+                    fs.add(f);
+                    fieldsByName.put(f.getName(), f);
+                }
+            }
+
+            fields = fs.toArray(new Field[fs.size()]);
+            names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                names[i] = fields[i].getName();
+            }
+
+            Constructor ctor;
+            try {
+                ctor = clazz.getDeclaredConstructor();
+                ctor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                ctor = null;
+            }
+            constructor = ctor;
+        }
+
+        Object newInstance() throws Exception {
+            if (constructor != null) {
+                return constructor.newInstance();
+            }
+
+            if (unsafe == null) {
+                throw new CloudRuntimeException(String.format("class[%s] has no no-arg constructor", clazz.getName()));
+            }
+
+            return unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, clazz);
+        }
+    }
+
+    private static ClassLayout layoutOf(Class clazz) {
+        return layouts.computeIfAbsent(clazz, ClassLayout::new);
+    }
+
+    private static Constructor containerConstructorOf(Class clazz) {
+        return containerConstructors.computeIfAbsent(clazz, clz -> {
+            if (!Modifier.isPublic(clz.getModifiers())) {
+                return Optional.empty();
+            }
+
+            try {
+                return Optional.of(clz.getConstructor());
+            } catch (NoSuchMethodException e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    private static Object newContainer(Class clazz) throws Exception {
+        Constructor ctor = containerConstructorOf(clazz);
+        if (ctor == null) {
+            throw new CloudRuntimeException(String.format("class[%s] has no public no-arg constructor", clazz.getName()));
+        }
+
+        return ctor.newInstance();
+    }
+
+    private static boolean isDecodable(Class clz) {
+        if (clz.isArray()) {
+            return isDecodable(clz.getComponentType());
+        }
+
+        if (clz.isPrimitive() || clz.isEnum() || clz.getName().startsWith("org.zstack.") || VALUE_TYPES.contains(clz)) {
+            return true;
+        }
+
+        // the writer only sends collections and maps of java.util with a public no-arg constructor
+        return clz.getName().startsWith("java.util.") && (Collection.class.isAssignableFrom(clz) || Map.class.isAssignableFrom(clz));
+    }
+
+    private static Class classOf(String name) {
+        Class clz = classes.get(name);
+        if (clz != null) {
+            return clz;
+        }
+
+        try {
+            // not initialized, a class rejected below never runs its static initializer
+            clz = Class.forName(name, false, BinaryCloudBusCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new CloudRuntimeException(String.format("unable to decode message, class[%s] not found", name), e);
+        }
+
+        if (!isDecodable(clz)) {
+            throw new CloudRuntimeException(String.format("unable to decode message, class[%s] is not allowed in the binary codec", name));
+        }
+
+        classes.put(name, clz);
+        return clz;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        Writer w = new Writer();
+        w.out.write(VERSION);
+        try {
+            w.writeValue(msg);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+        return w.out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] body) {
+        Reader r = new Reader(body);
+        byte version = r.readByte();
+        if (version != VERSION) {
+            throw new CloudRuntimeException(String.format("unsupported binary message version[%s]", version));
+        }
+
+        try {
+            return (Message) r.readValue();
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private static class Writer {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        final Map<Class, Integer> typeIds = new HashMap<>();
+        final Set<Class> layoutSent = new HashSet<>();
+
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        void writeZigZag(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        void writeFixedLong(long v) {
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (v >>> (i * 8)));
+            }
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeClass(Class clz, boolean withLayout) {
+            Integer id = typeIds.get(clz);
+            if (id != null && (!withLayout || layoutSent.contains(clz))) {
+                // an existing type id, shifted to leave bit 0 for the new-type flag
+                writeVarLong(id << 1);
+                return;
+            }
+
+            if (id == null) {
+                id = typeIds.size();
+                typeIds.put(clz, id);
+            }
+
+            writeVarLong((id << 1) | 1);
+            writeString(clz.getName());
+            if (withLayout) {
+                layoutSent.add(clz);
+                String[] names = layoutOf(clz).names;
+                writeVarLong(names.length);
+                for (String n : names) {
+                    writeString(n);
+                }
+            } else {
+                writeVarLong(0);
+            }
+        }
+
+        Class collectionClass(Collection c) {
+            Class clz = c.getClass();
+            if (clz.getName().startsWith("java.util.") && containerConstructorOf(clz) != null) {
+                return clz;
+            }
+
+            return c instanceof Set ? LinkedHashSet.class : ArrayList.class;
+        }
+
+        Class mapClass(Map m) {
+            Class clz = m.getClass();
+            if (clz.getName().startsWith("java.util.") && containerConstructorOf(clz) != null) {
+                return clz;
+            }
+
+            return LinkedHashMap.class;
+        }
+
+        void writeValue(Object v) throws IllegalAccessException {
+            if (v == null) {
+                out.write(T_NULL);
+            } else if (v instanceof String) {
+                out.write(T_STRING);
+                writeString((String) v);
+            } else if (v instanceof Boolean) {
+                out.write((Boolean) v ? T_TRUE : T_FALSE);
+            } else if (v instanceof Integer) {
+                out.write(T_INT);
+                writeZigZag((Integer) v);
+            } else if (v instanceof Long) {
+                out.write(T_LONG);
+                writeZigZag((Long) v);
+            } else if (v instanceof Double) {
+                out.write(T_DOUBLE);
+                writeFixedLong(Double.doubleToRawLongBits((Double) v));
+            } else if (v instanceof Float) {
+                out.write(T_FLOAT);
+                writeVarLong(Float.floatToRawIntBits((Float) v) & 0xFFFFFFFFL);
+            } else if (v instanceof Short) {
+                out.write(T_SHORT);
+                writeZigZag((Short) v);
+            } else if (v instanceof Byte) {
+                out.write(T_BYTE);
+                out.write((Byte) v);
+            } else if (v instanceof Character) {
+                out.write(T_CHAR);
+                writeVarLong((Character) v);
+            } else if (v instanceof BigInteger) {
+                out.write(T_BIG_INTEGER);
+                writeString(v.toString());
+            } else if (v instanceof BigDecimal) {
+                out.write(T_BIG_DECIMAL);
+                writeString(v.toString());
+            } else if (v instanceof Timestamp) {
+                out.write(T_TIMESTAMP);
+                writeZigZag(((Timestamp) v).getTime());
+                writeVarLong(((Timestamp) v).getNanos());
+            } else if (v instanceof Date) {
+                out.write(T_DATE);
+                writeZigZag(((Date) v).getTime());
+            } else if (v instanceof Enum) {
+                out.write(T_ENUM);
+                writeClass(((Enum) v).getDeclaringClass(), false);
+                writeString(((Enum) v).name());
+            } else if (v instanceof Collection) {
+                Collection c = (Collection) v;
+                out.write(T_COLLECTION);
+                writeClass(collectionClass(c), false);
+                writeVarLong(c.size());
+                for (Object o : c) {
+                    writeValue(o);
+                }
+            } else if (v instanceof Map) {
+                Map<?, ?> m = (Map) v;
+                out.write(T_MAP);
+                writeClass(mapClass(m), false);
+                writeVarLong(m.size());
+                for (Map.Entry e : m.entrySet()) {
+                    writeValue(e.getKey());
+                    writeValue(e.getValue());
+                }
+            } else if (v.getClass().isArray()) {
+                int len = Array.getLength(v);
+                out.write(T_ARRAY);
+                writeClass(v.getClass().getComponentType(), false);
+                writeVarLong(len);
+                for (int i = 0; i < len; i++) {
+                    writeValue(Array.get(v, i));
+                }
+            } else if (v instanceof Class) {
+                throw new CloudRuntimeException(String.format("cannot encode a java.lang.Class[%s]", ((Class) v).getName()));
+            } else if (v.getClass().isAnonymousClass() || v.getClass().isLocalClass()) {
+                // CloudBusGson excludes them as well
+                out.write(T_NULL);
+            } else {
+                Class clz = v.getClass();
+                out.write(T_OBJECT);
+                writeClass(clz, true);
+                for (Field f : layoutOf(clz).fields) {
+                    Object fv = f.get(v);
+                    if (fv == null) {
+                        out.write(T_SKIP);
+                    } else {
+                        writeValue(fv);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class TypeEntry {
+        Class clazz;
+        // the receiver's field for each field sent by the sender, null if the receiver doesn't have it
+        Field[] fields;
+    }
+
+    private static class Reader {
+        final byte[] buf;
+        int pos;
+        final List<TypeEntry> types = new ArrayList<>();
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            if (pos >= buf.length) {
+                throw new CloudRuntimeException("unexpected end of the binary message");
+            }
+
+            return buf[pos++];
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        long readZigZag() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v |= (long) (readByte() & 0xFF) << (i * 8);
+            }
+            return v;
+        }
+
+        String readString() {
+            int len = (int) readVarLong();
+            if (len < 0 || pos + len > buf.length) {
+                throw new CloudRuntimeException("unexpected end of the binary message");
+            }
+
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        TypeEntry readType() {
+            long ref = readVarLong();
+            int id = (int) (ref >>> 1);
+            if ((ref & 1) == 0) {
+                return types.get(id);
+            }
+
+            TypeEntry entry;
+            if (id < types.size()) {
+                // a known type with the field layout attached for the first time
+                entry = types.get(id);
+                readString();
+            } else {
+                entry = new TypeEntry();
+                entry.clazz = classOf(readString());
+                types.add(entry);
+            }
+
+            int fieldNum = (int) readVarLong();
+            if (fieldNum > 0) {
+                ClassLayout layout = layoutOf(entry.clazz);
+                entry.fields = new Field[fieldNum];
+                for (int i = 0; i < fieldNum; i++) {
+                    entry.fields[i] = layout.fieldsByName.get(readString());
+                }
+            } else if (entry.fields == null) {
+                entry.fields = new Field[0];
+            }
+
+            return entry;
+        }
+
+        Object readValue() throws Exception {
+            byte tag = readByte();
+            switch (tag) {
+                case T_NULL:
+                    return null;
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_BYTE:
+                    return readByte();
+                case T_SHORT:
+                    return (short) readZigZag();
+                case T_CHAR:
+                    return (char) readVarLong();
+                case T_INT:
+                    return (int) readZigZag();
+                case T_LONG:
+                    return readZigZag();
+                case T_FLOAT:
+                    return Float.intBitsToFloat((int) readVarLong());
+                case T_DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong());
+                case T_STRING:
+                    return readString();
+                case T_BIG_INTEGER:
+                    return new BigInteger(readString());
+                case T_BIG_DECIMAL:
+                    return new BigDecimal(readString());
+                case T_DATE:
+                    return new Date(readZigZag());
+                case T_TIMESTAMP: {
+                    Timestamp ts = new Timestamp(readZigZag());
+                    ts.setNanos((int) readVarLong());
+                    return ts;
+                }
+                case T_ENUM: {
+                    Class clz = readType().clazz;
+                    return Enum.valueOf(clz, readString());
+                }
+                case T_COLLECTION: {
+                    Collection c = (Collection) newContainer(readType().clazz);
+                    int size = (int) readVarLong();
+                    for (int i = 0; i < size; i++) {
+                        c.add(readValue());
+                    }
+                    return c;
+                }
+                case T_MAP: {
+                    Map m = (Map) newContainer(readType().clazz);
+                    int size = (int) readVarLong();
+                    for (int i = 0; i < size; i++) {
+                        Object k = readValue();
+                        m.put(k, readValue());
+                    }
+                    return m;
+                }
+                case T_ARRAY: {
+                    Class component = readType().clazz;
+                    int len = (int) readVarLong();
+                    Object arr = Array.newInstance(component, len);
+                    for (int i = 0; i < len; i++) {
+                        Array.set(arr, i, readValue());
+                    }
+                    return arr;
+                }
+                case T_OBJECT: {
+                    TypeEntry type = readType();
+                    Object obj = layoutOf(type.clazz).newInstance();
+                    for (Field f : type.fields) {
+                        if (pos < buf.length && buf[pos] == T_SKIP) {
+                            pos++;
+                            continue;
+                        }
+
+                        Object v = readValue();
+                        if (f != null) {
+                            setField(f, obj, v);
+                        }
+                    }
+                    return obj;
+                }
+                default:
+                    throw new CloudRuntimeException(String.format("unknown tag[%s] in the binary message at %s", tag, pos - 1));
+            }
+        }
+
+        private void setField(Field f, Object obj, Object v) throws IllegalAccessException {
+            Class type = f.getType();
+            if (v instanceof Number && !type.isInstance(v)) {
+                // the field type may be changed between versions, e.g. int to long or Integer to Long
+                Number n = (Number) v;
+                if (type == int.class || type == Integer.class) {
+                    v = n.intValue();
+                } else if (type == long.class || type == Long.class) {
+                    v = n.longValue();
+                } else if (type == double.class || type == Double.class) {
+                    v = n.doubleValue();
+                } else if (type == float.class || type == Float.class) {
+                    v = n.floatValue();
+                } else if (type == short.class || type == Short.class) {
+                    v = n.shortValue();
+                } else if (type == byte.class || type == Byte.class) {
+                    v = n.byteValue();
+                }
+            }
+
+            f.set(obj, v);
+        }
+    }
+}
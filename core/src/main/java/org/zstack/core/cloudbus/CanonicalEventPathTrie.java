@@ -0,0 +1,236 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes subscriptions by canonical event path pattern, a lookup costs the depth of the path
+ * plus the number of matching subscriptions instead of a regex match against every subscription.
+ *
+ * A pattern is split by '/' into segments:
+ * 1. a literal segment matches the same segment
+ * 2. a {token} segment matches any segment, when being the last one it also matches all the
+ *    segments after
+ * 3. starting from the first segment having '*' or '?', the rest of the pattern is matched as a
+ *    glob against the rest of the path, '*' and '?' may match across segments
+ *
+ * Not thread safe, callers synchronize.
+ */
+public class CanonicalEventPathTrie<T> {
+    private static class Glob<T> {
+        final Pattern pattern;
+        final T value;
+
+        Glob(Pattern pattern, T value) {
+            this.pattern = pattern;
+            this.value = value;
+        }
+    }
+
+    private static class Node<T> {
+        Map<String, Node<T>> children;
+        Node<T> token;
+        // patterns ending at this node
+        Set<T> values;
+        // patterns ending with a token at this node
+        Set<T> tails;
+        // patterns with a glob starting at this node, by the rest of the pattern
+        Map<String, List<Glob<T>>> globs;
+
+        boolean isEmpty() {
+            return (children == null || children.isEmpty()) && token == null && (values == null || values.isEmpty())
+                    && (tails == null || tails.isEmpty()) && (globs == null || globs.isEmpty());
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /**
+     * the segments of a path or a pattern, skipping empty ones
+     */
+    public static List<String> split(String path) {
+        List<String> ret = new ArrayList<>();
+        StringTokenizer token = new StringTokenizer(path, "/");
+        while (token.hasMoreTokens()) {
+            ret.add(token.nextToken());
+        }
+        return ret;
+    }
+
+    public static boolean isToken(String seg) {
+        return seg.startsWith("{") && seg.endsWith("}");
+    }
+
+    private static boolean isGlob(String seg) {
+        return seg.indexOf('*') != -1 || seg.indexOf('?') != -1;
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (String seg : glob.split("/", -1)) {
+            if (sb.length() != 0) {
+                sb.append("/");
+            }
+
+            if (isToken(seg)) {
+                sb.append("[^/]+");
+                continue;
+            }
+
+            for (char c : seg.toCharArray()) {
+                if (c == '*') {
+                    sb.append(".*");
+                } else if (c == '?') {
+                    sb.append(".");
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+        }
+
+        return Pattern.compile(sb.toString());
+    }
+
+    private static String join(List<String> segs, int from) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < segs.size(); i++) {
+            if (i != from) {
+                sb.append("/");
+            }
+            sb.append(segs.get(i));
+        }
+        return sb.toString();
+    }
+
+    public void add(String pattern, T value) {
+        List<String> segs = split(pattern);
+        Node<T> node = root;
+        for (int i = 0; i < segs.size(); i++) {
+            String seg = segs.get(i);
+            if (isGlob(seg)) {
+                if (node.globs == null) {
+                    node.globs = new HashMap<>();
+                }
+                String glob = join(segs, i);
+                node.globs.computeIfAbsent(glob, k -> new ArrayList<>()).add(new Glob<>(compileGlob(glob), value));
+                size++;
+                return;
+            }
+
+            if (isToken(seg) && i == segs.size() - 1) {
+                if (node.tails == null) {
+                    node.tails = new LinkedHashSet<>();
+                }
+                node.tails.add(value);
+                size++;
+                return;
+            }
+
+            if (isToken(seg)) {
+                if (node.token == null) {
+                    node.token = new Node<>();
+                }
+                node = node.token;
+            } else {
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(seg, k -> new Node<>());
+            }
+        }
+
+        if (node.values == null) {
+            node.values = new LinkedHashSet<>();
+        }
+        node.values.add(value);
+        size++;
+    }
+
+    public boolean remove(String pattern, T value) {
+        boolean removed = remove(root, split(pattern), 0, value);
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    private boolean remove(Node<T> node, List<String> segs, int i, T value) {
+        if (i == segs.size()) {
+            return node.values != null && node.values.remove(value);
+        }
+
+        String seg = segs.get(i);
+        if (isGlob(seg)) {
+            List<Glob<T>> gs = node.globs == null ? null : node.globs.get(join(segs, i));
+            if (gs == null || !gs.removeIf(g -> g.value.equals(value))) {
+                return false;
+            }
+            if (gs.isEmpty()) {
+                node.globs.remove(join(segs, i));
+            }
+            return true;
+        }
+
+        if (isToken(seg) && i == segs.size() - 1) {
+            return node.tails != null && node.tails.remove(value);
+        }
+
+        Node<T> child = isToken(seg) ? node.token : (node.children == null ? null : node.children.get(seg));
+        if (child == null || !remove(child, segs, i + 1, value)) {
+            return false;
+        }
+
+        if (child.isEmpty()) {
+            if (isToken(seg)) {
+                node.token = null;
+            } else {
+                node.children.remove(seg);
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<T> match(String path) {
+        List<T> ret = new ArrayList<>();
+        match(root, split(path), 0, ret);
+        return ret;
+    }
+
+    private void match(Node<T> node, List<String> segs, int i, List<T> ret) {
+        if (i == segs.size()) {
+            if (node.values != null) {
+                ret.addAll(node.values);
+            }
+            return;
+        }
+
+        if (node.tails != null) {
+            ret.addAll(node.tails);
+        }
+
+        if (node.globs != null) {
+            String rest = join(segs, i);
+            node.globs.values().forEach(gs -> gs.forEach(g -> {
+                if (g.pattern.matcher(rest).matches()) {
+                    ret.add(g.value);
+                }
+            }));
+        }
+
+        if (node.children != null) {
+            Node<T> child = node.children.get(segs.get(i));
+            if (child != null) {
+                match(child, segs, i + 1, ret);
+            }
+        }
+
+        if (node.token != null) {
+            match(node.token, segs, i + 1, ret);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+/**
+ * encodes/decodes messages sent between management nodes over HTTP.
+ *
+ * The codec of a request is named by the HTTP header CloudBusCodec.HEADER_CODEC, a receiver
+ * lists the codecs it understands in the response header CloudBusCodec.HEADER_ACCEPT_CODECS,
+ * so a sender only switches a peer to a non-JSON codec after the peer has announced it.
+ */
+public interface CloudBusCodec {
+    String HEADER_CODEC = "X-CloudBus-Codec";
+    String HEADER_ACCEPT_CODECS = "X-CloudBus-Codecs";
+    // in a request, the number of messages in the body; in a response, whether the node accepts batches
+    String HEADER_BATCH = "X-CloudBus-Batch";
+
+    String getName();
+
+    String getContentType();
+
+    byte[] encode(Message msg);
+
+    Message decode(byte[] body);
+}
@@ -1,8 +1,7 @@
 package org.zstack.core.cloudbus;
 
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.zstack.core.Platform;
@@ -12,28 +11,15 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Enumeration;
+import java.io.IOException;
 
 @Controller
 public class CloudBusController {
     private static final CLogger logger = Utils.getLogger(CloudBusController.class);
 
-    private HttpEntity<String> toHttpEntity(HttpServletRequest req) {
+    private byte[] readBody(HttpServletRequest req) {
         try {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = req.getReader().readLine()) != null) {
-                sb.append(line);
-            }
-            req.getReader().close();
-
-            HttpHeaders header = new HttpHeaders();
-            for (Enumeration e = req.getHeaderNames(); e.hasMoreElements() ;) {
-                String name = e.nextElement().toString();
-                header.add(name, req.getHeader(name));
-            }
-
-            return new HttpEntity<>(sb.toString(), header);
+            return StreamUtils.copyToByteArray(req.getInputStream());
         } catch (Exception e) {
             logger.warn(e.getMessage(), e);
             throw new CloudRuntimeException(e);
@@ -42,7 +28,22 @@ public class CloudBusController {
 
     @RequestMapping(value = CloudBusImpl3.HTTP_BASE_URL, method = RequestMethod.POST)
     public void handle(HttpServletRequest request, HttpServletResponse response) {
-        HttpEntity<String> entity = toHttpEntity(request);
-        Platform.getComponentLoader().getComponent(CloudBusImpl3.class).handleHttpRequest(entity, response);
+        CloudBusImpl3 bus = Platform.getComponentLoader().getComponent(CloudBusImpl3.class);
+        // tell the sender which codecs we understand and that batches are accepted, it uses them in later requests
+        response.setHeader(CloudBusCodec.HEADER_ACCEPT_CODECS, PeerMessageTransport.getAcceptedCodecs());
+        response.setHeader(CloudBusCodec.HEADER_BATCH, Boolean.TRUE.toString());
+
+        String batch = request.getHeader(CloudBusCodec.HEADER_BATCH);
+        bus.handleHttpRequest(readBody(request), request.getHeader(CloudBusCodec.HEADER_CODEC),
+                batch == null ? 0 : Integer.parseInt(batch), response);
+    }
+
+    @RequestMapping(value = CloudBusImpl3.HTTP_BASE_URL + "/metrics", method = RequestMethod.GET)
+    public void metrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.getWriter().write(MessageLatencyRecorder.toPrometheusText());
+        response.getWriter().write(PeerMessageTransport.toPrometheusText());
+        response.getWriter().flush();
     }
 }
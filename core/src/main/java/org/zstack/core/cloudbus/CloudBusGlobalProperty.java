@@ -51,4 +51,16 @@ public class CloudBusGlobalProperty {
     public static boolean HTTP_ALWAYS;
     @GlobalProperty(name="CloudBus.httpContextPath", defaultValue = "/zstack")
     public static String HTTP_CONTEXT_PATH;
+    @GlobalProperty(name="CloudBus.httpCodec", defaultValue = "json")
+    public static String HTTP_CODEC;
+    @GlobalProperty(name="CloudBus.peerQueueCapacity", defaultValue = "10000")
+    public static int PEER_QUEUE_CAPACITY;
+    @GlobalProperty(name="CloudBus.peerQueueOfferTimeout", defaultValue = "5000")
+    public static long PEER_QUEUE_OFFER_TIMEOUT;
+    @GlobalProperty(name="CloudBus.peerBatchSize", defaultValue = "64")
+    public static int PEER_BATCH_SIZE;
+    @GlobalProperty(name="CloudBus.peerConnectionNum", defaultValue = "2")
+    public static int PEER_CONNECTION_NUM;
+    @GlobalProperty(name="CloudBus.resourceHashStrategy", defaultValue = "ring")
+    public static String RESOURCE_HASH_STRATEGY;
 }
@@ -2533,6 +2533,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return statistics;
     }
 
+    @Override
+    public Map<String, MessageLatencyStatistic> getLatencyStatistics() {
+        return MessageLatencyRecorder.getStatistics();
+    }
+
+    @Override
+    public Map<String, PeerChannelStatistic> getPeerChannelStatistics() {
+        return PeerMessageTransport.getStatistics();
+    }
+
     @Override
     public List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic() {
         List<WaitingReplyMessageStatistic> ret = new ArrayList<WaitingReplyMessageStatistic>();
@@ -3,16 +3,12 @@ package org.zstack.core.cloudbus;
 import org.apache.logging.log4j.ThreadContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestClientException;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.MessageCommandRecorder;
 import org.zstack.core.Platform;
 import org.zstack.core.asyncbatch.While;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.retry.Retry;
-import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
@@ -31,27 +27,20 @@ import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudConfigureFailException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.*;
-import org.zstack.header.rest.RESTFacade;
-import org.zstack.header.rest.TimeoutRestTemplate;
 import org.zstack.header.search.APISearchMessage;
 import org.zstack.header.search.APISearchReply;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.TaskContext;
 import org.zstack.utils.Utils;
-import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
-import static org.zstack.utils.BeanUtils.getProperty;
-import static org.zstack.utils.BeanUtils.setProperty;
-
 public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private static final CLogger logger = Utils.getLogger(CloudBusImpl3.class);
 
@@ -96,7 +85,7 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private Map<String, EndPoint> endPoints = new HashMap<>();
     private Map<String, Envelope> envelopes = new ConcurrentHashMap<>();
     private Map<String, java.util.function.Consumer> messageConsumers = new ConcurrentHashMap<>();
-    private static TimeoutRestTemplate http = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+    private PeerMessageTransport transport;
 
     public static final String HTTP_BASE_URL = "/cloudbus";
 
@@ -127,21 +116,18 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         long startTime;
 
         {
-            if (CloudBusGlobalConfig.STATISTICS_ON.value(Boolean.class)) {
-                startTime = System.currentTimeMillis();
+            if (CloudBusGlobalConfig.STATISTICS_ON.booleanValue()) {
+                startTime = System.nanoTime();
             }
         }
 
         void count(Message msg) {
-            /*
-            if (!CloudBusGlobalConfig.STATISTICS_ON.value(Boolean.class)) {
+            // statistics was turned on after the message had been sent
+            if (startTime == 0) {
                 return;
             }
 
-            long timeCost = System.currentTimeMillis() - startTime;
-            MessageStatistic statistic = statistics.get(msg.getClass().getName());
-            statistic.count(timeCost);
-            */
+            MessageLatencyRecorder.recordReply(msg.getClass(), System.nanoTime() - startTime);
         }
 
         abstract void ack(MessageReply reply);
@@ -464,6 +450,8 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         String managementNodeId;
         String serviceId;
         boolean localSend;
+        Map<String, byte[]> encoded = new HashMap<>();
+        boolean schemaBuilt;
 
         public MessageSender(Message msg) {
             this.msg = msg;
@@ -496,39 +484,49 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         }
 
         private void httpSend() {
-            buildSchema(msg);
             String ip = destMaker.getNodeInfo(managementNodeId).getNodeIP();
-            httpSend(ip);
+            httpSend(ip, transport.getCodec(ip));
         }
 
-        private void httpSend(String ip) {
-            String url = CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, HTTP_BASE_URL) : String.format("http://%s:%s/%s/%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, HTTP_BASE_URL);
-
-            HttpHeaders headers = new HttpHeaders();
-            HttpEntity<String> req = new HttpEntity<>(CloudBusGson.toJson(msg), headers);
+        private byte[] encode(CloudBusCodec codec) {
+            // an event is sent to all nodes, encode it only once for each codec
+            byte[] body = encoded.get(codec.getName());
+            if (body == null) {
+                if (codec instanceof JsonCloudBusCodec && !schemaBuilt) {
+                    buildSchema(msg);
+                }
 
-            try {
-                ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
-                    {
-                        interval = 2;
-                    }
+                body = codec.encode(msg);
+                encoded.put(codec.getName(), body);
+            }
 
-                    @Override
-                    @RetryCondition(onExceptions = {IOException.class, RestClientException.class, HttpClientErrorException.class})
-                    protected ResponseEntity<String> call() {
-                        return http.exchange(url, HttpMethod.POST, req, String.class);
-                    }
-                }.run();
+            return body;
+        }
 
-                if (!rsp.getStatusCode().is2xxSuccessful()) {
-                    replyErrorIfNeeded(errf.stringToOperationError(String.format("HTTP ERROR, status code: %s, body: %s", rsp.getStatusCode(), rsp.getBody())));
+        private void httpSend(String ip, CloudBusCodec codec) {
+            if (msg instanceof APIMessage) {
+                // errors of API messages are thrown to the caller, send them on the calling thread
+                try {
+                    transport.sendNow(ip, codec, encode(codec));
+                } catch (OperationFailureException e) {
+                    replyErrorIfNeeded(e.getErrorCode());
+                } catch (Throwable e) {
+                    replyErrorIfNeeded(errf.throwableToOperationError(e));
                 }
-            } catch (OperationFailureException e) {
-                replyErrorIfNeeded(e.getErrorCode());
-            } catch (Throwable e) {
-                replyErrorIfNeeded(errf.throwableToOperationError(e));
+
+                return;
+            }
+
+            boolean queued = transport.send(ip, codec, encode(codec), e -> {
+                logger.warn(String.format("failed to send message[%s] to management node[ip:%s], %s",
+                        msg.getClass().getName(), ip, e.getMessage()));
+                replyErrorIfNeeded(e instanceof OperationFailureException ?
+                        ((OperationFailureException) e).getErrorCode() : errf.throwableToOperationError(e));
+            });
+
+            if (!queued) {
+                replyErrorIfNeeded(errf.stringToOperationError(String.format("the sending queue to management node[ip:%s] is full," +
+                        " unable to send message[%s]", ip, msg.getClass().getName())));
             }
         }
 
@@ -544,19 +542,32 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         private void buildSchema(Message msg) {
             try {
                 msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(msg).build());
+                schemaBuilt = true;
             } catch (Exception e) {
                 throw new CloudRuntimeException(e);
             }
         }
 
         private void eventSend() {
-            buildSchema(msg);
-            localSend();
+            List<ResourceDestinationMaker.NodeInfo> peers = new ArrayList<>();
             destMaker.getAllNodeInfo().forEach(node -> {
                 if (!node.getNodeUuid().equals(Platform.getManagementServerId())) {
-                    httpSend(node.getNodeIP());
+                    peers.add(node);
                 }
             });
+
+            Map<String, CloudBusCodec> peerCodecs = new HashMap<>();
+            peers.forEach(node -> peerCodecs.put(node.getNodeIP(), transport.getCodec(node.getNodeIP())));
+
+            // the schema header must be put before the event is delivered locally,
+            // otherwise local subscribers may read the headers while they are being changed
+            if (peerCodecs.values().stream().anyMatch(codec -> codec instanceof JsonCloudBusCodec)) {
+                buildSchema(msg);
+            }
+
+            localSend();
+            // the event is queued to each peer and sent by the peers' own threads in parallel
+            peerCodecs.forEach(this::httpSend);
         }
 
         private void localSend() {
@@ -668,6 +679,8 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
                         logger.trace(String.format("[msg received]: %s", dumpMessage(msg)));
                     }
 
+                    final long receivedTime = CloudBusGlobalConfig.STATISTICS_ON.booleanValue() ? System.nanoTime() : 0;
+
                     SyncTask<Void> task = new SyncTask<Void>() {
                         @Override
                         public String getSyncSignature() {
@@ -688,6 +701,12 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
                         public Void call() {
                             setThreadLoggingContext(msg);
 
+                            long handleTime = 0;
+                            if (receivedTime != 0) {
+                                handleTime = System.nanoTime();
+                                MessageLatencyRecorder.recordQueueWait(msg.getClass(), handleTime - receivedTime);
+                            }
+
                             try {
                                 beforeDeliverMessage(msg);
 
@@ -700,6 +719,10 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
                                 } else {
                                     replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
                                 }
+                            } finally {
+                                if (handleTime != 0) {
+                                    MessageLatencyRecorder.recordHandler(msg.getClass(), System.nanoTime() - handleTime);
+                                }
                             }
 
                             return null;
@@ -1045,6 +1068,7 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
 
     @Override
     public boolean start() {
+        transport = new PeerMessageTransport(thdf);
         on(SERVICE_ID, messageConsumer);
         on(EVENT_ID, eventConsumer);
 
@@ -1054,6 +1078,9 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
 
     @Override
     public boolean stop() {
+        if (transport != null) {
+            transport.destroy();
+        }
         return true;
     }
 
@@ -1121,40 +1148,40 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         doSendAndCallExtensions(msg);
     }
 
-    private void restoreFromSchema(Message msg, Map raw) throws ClassNotFoundException {
-        Map<String, String> schema = msg.getHeaderEntry("schema");
-        if (schema == null || schema.isEmpty()) {
-            return;
-        }
-
-        raw = (Map) raw.values().iterator().next();
-        List<String> paths = new ArrayList<>();
-        paths.addAll(schema.keySet());
-
-        for (String p : paths) {
-            Object dst = getProperty(msg, p);
-            String type = schema.get(p);
+    // messages are decoded on the HTTP thread, so a sender using a codec we fail to decode learns
+    // it from the response and resends the messages in JSON
+    void handleHttpRequest(byte[] body, String codecName, int batchSize, HttpServletResponse rsp) {
+        CloudBusCodec codec = codecName == null ? PeerMessageTransport.jsonCodec : PeerMessageTransport.codecs.get(codecName);
+        List<Message> msgs = new ArrayList<>();
+        try {
+            if (codec == null) {
+                throw new CloudRuntimeException(String.format("unknown CloudBus codec[%s]", codecName));
+            }
 
-            if (dst.getClass().getName().equals(type)) {
-                continue;
+            if (batchSize == 0) {
+                msgs.add(codec.decode(body));
+            } else {
+                for (byte[] b : PeerMessageTransport.splitBatch(body, batchSize)) {
+                    msgs.add(codec.decode(b));
+                }
+            }
+        } catch (RuntimeException e) {
+            if (codec == PeerMessageTransport.jsonCodec) {
+                throw e;
             }
 
-            Class clz = Class.forName(type);
-            setProperty(msg, p, JSONObjectUtil.rehashObject(getProperty(raw, p), clz));
+            logger.warn(String.format("failed to decode messages in the CloudBus codec[%s], ask the sender to resend them in JSON", codecName), e);
+            rsp.setStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value());
+            return;
         }
+
+        deliverHttpMessages(msgs);
+        rsp.setStatus(HttpStatus.OK.value());
     }
 
     @AsyncThread
-    void handleHttpRequest(HttpEntity<String> e, HttpServletResponse rsp) {
-        Message msg = CloudBusGson.fromJson(e.getBody());
-        Map raw = JSONObjectUtil.toObject(e.getBody(), LinkedHashMap.class);
-        try {
-            restoreFromSchema(msg, raw);
-        } catch (ClassNotFoundException e1) {
-            throw new CloudRuntimeException(e1);
-        }
-
-        new MessageSender(msg).localSend();
-        rsp.setStatus(HttpStatus.OK.value());
+    void deliverHttpMessages(List<Message> msgs) {
+        // messages in a batch are delivered in the order they were queued by the sender
+        msgs.forEach(msg -> new MessageSender(msg).localSend());
     }
 }
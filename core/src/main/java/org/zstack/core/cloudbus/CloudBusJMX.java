@@ -57,6 +57,7 @@ public class CloudBusJMX implements Component, BeforeSendMessageInterceptor,
         CloudBusGlobalConfig.STATISTICS_ON.installUpdateExtension((oldConfig, newConfig) -> {
             if (!newConfig.value(Boolean.class)) {
                 messageStartTime.invalidateAll();
+                MessageLatencyRecorder.reset();
             }
         });
 
@@ -147,6 +148,16 @@ public class CloudBusJMX implements Component, BeforeSendMessageInterceptor,
         return statistics;
     }
 
+    @Override
+    public Map<String, MessageLatencyStatistic> getLatencyStatistics() {
+        return MessageLatencyRecorder.getStatistics();
+    }
+
+    @Override
+    public Map<String, PeerChannelStatistic> getPeerChannelStatistics() {
+        return PeerMessageTransport.getStatistics();
+    }
+
     @Override
     public List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic() {
         List<WaitingReplyMessageStatistic> ret = new ArrayList<WaitingReplyMessageStatistic>();
@@ -8,6 +8,10 @@ import java.util.Map;
 public interface CloudBusMXBean {
     Map<String, MessageStatistic> getStatistics();
 
+    Map<String, MessageLatencyStatistic> getLatencyStatistics();
+
+    Map<String, PeerChannelStatistic> getPeerChannelStatistics();
+
     List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic();
 
     WaitingMessageSummaryStatistic getWaitingReplyMessageSummaryStatistic();
@@ -30,4 +30,5 @@ public interface EventFacade {
     String META_DATA_MANAGEMENT_NODE_ID = "metadata::managementNodeId";
     String META_DATA_PATH = "metadata::path";
     String WEBHOOK_TYPE = "CanonicalEvent";
+    String WEBHOOK_CHANGED_PATH = "/webhook/change";
 }
@@ -19,9 +19,8 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import static org.zstack.core.Platform.argerr;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
 
@@ -35,8 +34,14 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     @Autowired
     private CloudBus bus;
 
-    private final Map<String, CallbackWrapper> global = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, CallbackWrapper> local =  new ConcurrentHashMap<>();
+    private final Subscriptions global = new Subscriptions();
+    private final Subscriptions local = new Subscriptions();
+
+    // webhooks of type CanonicalEvent by opaque, null if they need to be loaded from database
+    private volatile CanonicalEventPathTrie<WebhookInventory> webhooks;
+    private volatile long webhooksLoadTime;
+    // in case WEBHOOK_CHANGED_PATH is missed
+    private static final long WEBHOOKS_RELOAD_INTERVAL = TimeUnit.MINUTES.toMillis(5);
 
     private EventSubscriberReceipt unsubscriber;
 
@@ -69,27 +74,73 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
     }
 
+    /**
+     * subscriptions by unique identity of callbacks, and indexed by path
+     */
+    private class Subscriptions {
+        private final Map<String, CallbackWrapper> wrappers = new HashMap<>();
+        private final CanonicalEventPathTrie<CallbackWrapper> index = new CanonicalEventPathTrie<>();
+
+        synchronized void put(String id, CallbackWrapper w) {
+            CallbackWrapper old = wrappers.put(id, w);
+            if (old != null) {
+                index.remove(old.path, old);
+            }
+            index.add(w.path, w);
+        }
+
+        synchronized void remove(String id) {
+            CallbackWrapper old = wrappers.remove(id);
+            if (old != null) {
+                index.remove(old.path, old);
+            }
+        }
+
+        synchronized List<CallbackWrapper> match(String path) {
+            return index.match(path);
+        }
+    }
+
     private class CallbackWrapper {
         String path;
-        String glob;
+        // positions of {token} segments in the path
+        Map<Integer, String> tokenPositions = new HashMap<>();
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
             }
+
+            List<String> segs = CanonicalEventPathTrie.split(path);
+            for (int i = 0; i < segs.size(); i++) {
+                String seg = segs.get(i);
+                if (CanonicalEventPathTrie.isToken(seg)) {
+                    tokenPositions.put(i, seg.substring(1, seg.length() - 1));
+                }
+            }
         }
 
         Object getIdentity() {
             return callback;
         }
 
-        public String getGlob() {
-            return glob;
+        private Map<String, String> tokenize(String eventPath) {
+            Map<String, String> ret = new HashMap<>();
+            if (tokenPositions.isEmpty()) {
+                return ret;
+            }
+
+            List<String> origins = CanonicalEventPathTrie.split(eventPath);
+            tokenPositions.forEach((i, key) -> {
+                if (i < origins.size()) {
+                    ret.put(key, origins.get(i));
+                }
+            });
+            return ret;
         }
 
         @AsyncThread
@@ -97,7 +148,7 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
+                Map<String, String> tokens = tokenize(e.getPath());
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -139,33 +190,6 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         return out;
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
-        }
-
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
-            }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
-        }
-
-        return ret;
-    }
-
     @Override
     public void on(String path, AutoOffEventCallback cb) {
         global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
@@ -218,6 +242,11 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             evt.setContent(data);
         }
         
+        if (WEBHOOK_CHANGED_PATH.equals(path)) {
+            // other management nodes drop theirs on receiving the event
+            webhooks = null;
+        }
+
         fireLocal(evt);
 
         callWebhooks(evt);
@@ -225,31 +254,44 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         bus.publish(evt);
     }
 
+    private CanonicalEventPathTrie<WebhookInventory> getWebhooks() {
+        CanonicalEventPathTrie<WebhookInventory> ret = webhooks;
+        if (ret != null && System.currentTimeMillis() - webhooksLoadTime < WEBHOOKS_RELOAD_INTERVAL) {
+            return ret;
+        }
+
+        ret = new CanonicalEventPathTrie<>();
+        List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
+        for (WebhookVO vo : vos) {
+            if (vo.getOpaque() == null) {
+                continue;
+            }
+
+            ret.add(vo.getOpaque(), WebhookInventory.valueOf(vo));
+        }
+
+        webhooksLoadTime = System.currentTimeMillis();
+        webhooks = ret;
+        return ret;
+    }
+
     private void callWebhooks(CanonicalEvent event) {
+        List<WebhookInventory> hooks = getWebhooks().match(event.getPath());
+        if (hooks.isEmpty()) {
+            return;
+        }
+
         new WebhookCaller() {
             @Override
             public void call() {
-                List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
-                vos = vos.stream().filter(
-                        vo -> event.getPath().matches(
-                                createRegexFromGlob(vo.getOpaque().replaceAll("\\{.*\\}", ".*"))
-                        )).collect(Collectors.toList());
-
-                if (!vos.isEmpty()) {
-                    postToWebhooks(WebhookInventory.valueOf(vos), JSONObjectUtil.toJsonString(event));
-                }
+                postToWebhooks(hooks, JSONObjectUtil.toJsonString(event));
             }
         }.call();
     }
 
     private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (CallbackWrapper w : local.match(cevt.getPath())) {
+            w.call(cevt);
         }
     }
 
@@ -265,12 +307,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (CallbackWrapper w : global.match(cevt.getPath())) {
+            w.call(cevt);
         }
 
         return false;
@@ -279,6 +317,13 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     @Override
     public boolean start() {
         unsubscriber =  bus.subscribeEvent(this, new CanonicalEvent());
+
+        on(WEBHOOK_CHANGED_PATH, new EventRunnable() {
+            @Override
+            protected void run() {
+                webhooks = null;
+            }
+        });
         return true;
     }
 
@@ -0,0 +1,75 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.Message;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.zstack.utils.BeanUtils.getProperty;
+import static org.zstack.utils.BeanUtils.setProperty;
+
+/**
+ * the original CloudBusGson format, understood by every management node.
+ *
+ * The runtime types of polymorphic fields are carried by the schema header built by JsonSchemaBuilder,
+ * the sender must put the header before encoding the message.
+ */
+public class JsonCloudBusCodec implements CloudBusCodec {
+    public static final String NAME = "json";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/json;charset=UTF-8";
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        return CloudBusGson.toJson(msg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message decode(byte[] body) {
+        String json = new String(body, StandardCharsets.UTF_8);
+        Message msg = CloudBusGson.fromJson(json);
+        try {
+            restoreFromSchema(msg, JSONObjectUtil.toObject(json, LinkedHashMap.class));
+        } catch (ClassNotFoundException e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        return msg;
+    }
+
+    private void restoreFromSchema(Message msg, Map raw) throws ClassNotFoundException {
+        Map<String, String> schema = msg.getHeaderEntry(CloudBus.HEADER_SCHEMA);
+        if (schema == null || schema.isEmpty()) {
+            return;
+        }
+
+        raw = (Map) raw.values().iterator().next();
+        List<String> paths = new ArrayList<>();
+        paths.addAll(schema.keySet());
+
+        for (String p : paths) {
+            Object dst = getProperty(msg, p);
+            String type = schema.get(p);
+
+            if (dst.getClass().getName().equals(type)) {
+                continue;
+            }
+
+            Class clz = Class.forName(type);
+            setProperty(msg, p, JSONObjectUtil.rehashObject(getProperty(raw, p), clz));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.utils.stats.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per message class latency histograms of CloudBus, recorded when cloudBus.statistics.on is true.
+ *
+ * queue: from the message arriving at the service endpoint to the service starting to handle it
+ * handler: the synchronous part of Service.handleMessage()
+ * reply: from sending a NeedReplyMessage to receiving its reply, either the message is handled locally
+ * or forwarded to another management node by HTTP
+ */
+public class MessageLatencyRecorder {
+    public static final String PHASE_QUEUE = "queue";
+    public static final String PHASE_HANDLER = "handler";
+    public static final String PHASE_REPLY = "reply";
+
+    private static final String METRIC_NAME = "zstack_cloudbus_message_latency_microseconds";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    static class Histograms {
+        final LatencyHistogram queue = new LatencyHistogram();
+        final LatencyHistogram handler = new LatencyHistogram();
+        final LatencyHistogram reply = new LatencyHistogram();
+
+        LatencyHistogram get(String phase) {
+            if (PHASE_QUEUE.equals(phase)) {
+                return queue;
+            } else if (PHASE_HANDLER.equals(phase)) {
+                return handler;
+            } else {
+                return reply;
+            }
+        }
+    }
+
+    private static final Map<String, Histograms> histograms = new ConcurrentHashMap<>();
+
+    private static Histograms histogramsOf(Class msgClass) {
+        return histograms.computeIfAbsent(msgClass.getName(), k -> new Histograms());
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public static void recordQueueWait(Class msgClass, long nanos) {
+        histogramsOf(msgClass).queue.record(toMicros(nanos));
+    }
+
+    public static void recordHandler(Class msgClass, long nanos) {
+        histogramsOf(msgClass).handler.record(toMicros(nanos));
+    }
+
+    public static void recordReply(Class msgClass, long nanos) {
+        histogramsOf(msgClass).reply.record(toMicros(nanos));
+    }
+
+    public static void reset() {
+        histograms.clear();
+    }
+
+    public static Map<String, MessageLatencyStatistic> getStatistics() {
+        Map<String, MessageLatencyStatistic> ret = new HashMap<>();
+        histograms.forEach((name, h) -> ret.put(name, new MessageLatencyStatistic(
+                name,
+                Math.max(h.handler.getCount(), h.reply.getCount()),
+                h.queue.getValueAtPercentile(50),
+                h.queue.getValueAtPercentile(99),
+                h.queue.getValueAtPercentile(99.9),
+                h.handler.getValueAtPercentile(50),
+                h.handler.getValueAtPercentile(99),
+                h.handler.getValueAtPercentile(99.9),
+                h.reply.getValueAtPercentile(50),
+                h.reply.getValueAtPercentile(99),
+                h.reply.getValueAtPercentile(99.9),
+                h.reply.getMax()
+        )));
+
+        return ret;
+    }
+
+    /**
+     * @return the histograms in Prometheus text exposition format (version 0.0.4) as summaries
+     */
+    public static String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("# HELP %s latency of CloudBus messages by message class and phase\n", METRIC_NAME));
+        sb.append(String.format("# TYPE %s summary\n", METRIC_NAME));
+
+        new TreeMap<>(histograms).forEach((name, h) -> {
+            for (String phase : new String[]{PHASE_QUEUE, PHASE_HANDLER, PHASE_REPLY}) {
+                LatencyHistogram histogram = h.get(phase);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+
+                String labels = String.format("message=\"%s\",phase=\"%s\"", name, phase);
+                for (double q : QUANTILES) {
+                    sb.append(String.format("%s{%s,quantile=\"%s\"} %s\n", METRIC_NAME, labels, q, histogram.getValueAtPercentile(q * 100)));
+                }
+                sb.append(String.format("%s_sum{%s} %s\n", METRIC_NAME, labels, histogram.getSum()));
+                sb.append(String.format("%s_count{%s} %s\n", METRIC_NAME, labels, histogram.getCount()));
+            }
+        });
+
+        return sb.toString();
+    }
+}
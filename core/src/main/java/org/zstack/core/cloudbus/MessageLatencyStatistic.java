@@ -0,0 +1,88 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * latencies are in microseconds
+ */
+public class MessageLatencyStatistic {
+    private String messageClassName;
+    private long count;
+    private long queueWaitP50;
+    private long queueWaitP99;
+    private long queueWaitP999;
+    private long handlerP50;
+    private long handlerP99;
+    private long handlerP999;
+    private long replyP50;
+    private long replyP99;
+    private long replyP999;
+    private long replyMax;
+
+    @ConstructorProperties({"messageClassName", "count", "queueWaitP50", "queueWaitP99", "queueWaitP999",
+            "handlerP50", "handlerP99", "handlerP999", "replyP50", "replyP99", "replyP999", "replyMax"})
+    public MessageLatencyStatistic(String messageClassName, long count, long queueWaitP50, long queueWaitP99, long queueWaitP999,
+                                   long handlerP50, long handlerP99, long handlerP999,
+                                   long replyP50, long replyP99, long replyP999, long replyMax) {
+        this.messageClassName = messageClassName;
+        this.count = count;
+        this.queueWaitP50 = queueWaitP50;
+        this.queueWaitP99 = queueWaitP99;
+        this.queueWaitP999 = queueWaitP999;
+        this.handlerP50 = handlerP50;
+        this.handlerP99 = handlerP99;
+        this.handlerP999 = handlerP999;
+        this.replyP50 = replyP50;
+        this.replyP99 = replyP99;
+        this.replyP999 = replyP999;
+        this.replyMax = replyMax;
+    }
+
+    public String getMessageClassName() {
+        return messageClassName;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getQueueWaitP50() {
+        return queueWaitP50;
+    }
+
+    public long getQueueWaitP99() {
+        return queueWaitP99;
+    }
+
+    public long getQueueWaitP999() {
+        return queueWaitP999;
+    }
+
+    public long getHandlerP50() {
+        return handlerP50;
+    }
+
+    public long getHandlerP99() {
+        return handlerP99;
+    }
+
+    public long getHandlerP999() {
+        return handlerP999;
+    }
+
+    public long getReplyP50() {
+        return replyP50;
+    }
+
+    public long getReplyP99() {
+        return replyP99;
+    }
+
+    public long getReplyP999() {
+        return replyP999;
+    }
+
+    public long getReplyMax() {
+        return replyMax;
+    }
+}
@@ -0,0 +1,76 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * statistics of the queue holding messages to another management node
+ */
+public class PeerChannelStatistic {
+    private String peerIp;
+    private String codec;
+    private boolean batchSupported;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long enqueuedMessageNum;
+    private long sentMessageNum;
+    private long sentRequestNum;
+    private long failedMessageNum;
+    private long rejectedMessageNum;
+
+    @ConstructorProperties({"peerIp", "codec", "batchSupported", "queueDepth", "maxQueueDepth", "enqueuedMessageNum",
+            "sentMessageNum", "sentRequestNum", "failedMessageNum", "rejectedMessageNum"})
+    public PeerChannelStatistic(String peerIp, String codec, boolean batchSupported, int queueDepth, int maxQueueDepth,
+                                long enqueuedMessageNum, long sentMessageNum, long sentRequestNum,
+                                long failedMessageNum, long rejectedMessageNum) {
+        this.peerIp = peerIp;
+        this.codec = codec;
+        this.batchSupported = batchSupported;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.enqueuedMessageNum = enqueuedMessageNum;
+        this.sentMessageNum = sentMessageNum;
+        this.sentRequestNum = sentRequestNum;
+        this.failedMessageNum = failedMessageNum;
+        this.rejectedMessageNum = rejectedMessageNum;
+    }
+
+    public String getPeerIp() {
+        return peerIp;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getEnqueuedMessageNum() {
+        return enqueuedMessageNum;
+    }
+
+    public long getSentMessageNum() {
+        return sentMessageNum;
+    }
+
+    public long getSentRequestNum() {
+        return sentRequestNum;
+    }
+
+    public long getFailedMessageNum() {
+        return failedMessageNum;
+    }
+
+    public long getRejectedMessageNum() {
+        return rejectedMessageNum;
+    }
+}
@@ -0,0 +1,453 @@
+package org.zstack.core.cloudbus;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.*;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.retry.Retry;
+import org.zstack.core.retry.RetryCondition;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.message.Message;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Sends messages to other management nodes.
+ *
+ * Each peer node has a bounded queue drained by one task at a time on the thread pool; the task
+ * sends queued messages over a pooled keep-alive connection, and packs up to CloudBus.peerBatchSize
+ * messages into one HTTP request once the peer has announced it understands batches. Messages are
+ * sent in the order they were queued, so messages queued one after another, by one thread or by
+ * threads one waiting for the other, arrive in that order as they did when every sender posted
+ * synchronously. The price is that a slow request holds up the messages queued behind it for the
+ * same peer, batching keeps the throughput. As every peer is drained by its own task, an event
+ * published to N nodes is sent to them in parallel instead of one node after another on the
+ * publishing thread.
+ *
+ * sendNow() posts on the calling thread without going through the queue, sharing the
+ * CloudBus.peerConnectionNum pooled connections of the peer with the draining task, so a message
+ * sent by it may overtake messages queued earlier; it's used for API messages, whose errors are
+ * thrown to the caller.
+ *
+ * When the queue of a peer is full, the sender blocks up to CloudBus.peerQueueOfferTimeout
+ * milliseconds before the message is rejected, which slows down producers instead of letting
+ * the queue grow without limit when a peer is slow or unreachable.
+ *
+ * The codec of a peer is negotiated here as well, see CloudBusCodec. A peer that fails to decode
+ * a non-JSON request answers 415, the messages of the request are then re-encoded and sent in JSON.
+ */
+class PeerMessageTransport {
+    private static final CLogger logger = Utils.getLogger(PeerMessageTransport.class);
+
+    static final JsonCloudBusCodec jsonCodec = new JsonCloudBusCodec();
+    static final Map<String, CloudBusCodec> codecs = new LinkedHashMap<>();
+
+    static {
+        CloudBusCodec binary = new BinaryCloudBusCodec();
+        codecs.put(binary.getName(), binary);
+        codecs.put(jsonCodec.getName(), jsonCodec);
+    }
+
+    // keyed by the peer IP, a channel sends through the transport that created it, so channels
+    // are dropped when the transport is destroyed
+    private static final Map<String, PeerChannel> channels = new ConcurrentHashMap<>();
+
+    private final ThreadFacade thdf;
+    private final RestTemplate http;
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    // the peer failed to decode the request with a non-JSON codec
+    static class CodecRejectedException extends CloudRuntimeException {
+        CodecRejectedException(String msg) {
+            super(msg);
+        }
+    }
+
+    static class Frame {
+        final CloudBusCodec codec;
+        final byte[] body;
+        final Consumer<Throwable> onFailure;
+
+        Frame(CloudBusCodec codec, byte[] body, Consumer<Throwable> onFailure) {
+            this.codec = codec;
+            this.body = body;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private class PeerChannel {
+        final String ip;
+        final String url;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(CloudBusGlobalProperty.PEER_QUEUE_CAPACITY);
+        final AtomicBoolean draining = new AtomicBoolean(false);
+
+        // null means JSON, which every node understands
+        volatile CloudBusCodec codec;
+        volatile boolean batchSupported;
+
+        final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+        final LongAdder enqueued = new LongAdder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder requests = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        PeerChannel(String ip) {
+            this.ip = ip;
+            url = CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
+                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusImpl3.HTTP_BASE_URL) : String.format("http://%s:%s/%s/%s",
+                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, CloudBusImpl3.HTTP_BASE_URL);
+        }
+
+        PeerMessageTransport transport() {
+            return PeerMessageTransport.this;
+        }
+
+        CloudBusCodec getCodec() {
+            return codec == null ? jsonCodec : codec;
+        }
+
+        boolean offer(Frame frame) {
+            boolean ret;
+            try {
+                ret = queue.offer(frame, CloudBusGlobalProperty.PEER_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ret = false;
+            }
+
+            if (!ret) {
+                rejected.increment();
+                return false;
+            }
+
+            enqueued.increment();
+            int depth = queue.size();
+            int max;
+            while ((max = maxQueueDepth.get()) < depth && !maxQueueDepth.compareAndSet(max, depth)) {
+                // retry
+            }
+
+            drainIfNeeded();
+            return true;
+        }
+
+        // only one task drains the queue at a time, a second one could send frames out of order
+        private void drainIfNeeded() {
+            if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+
+            thdf.submit(new Task<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        drain();
+                    } finally {
+                        draining.set(false);
+                    }
+
+                    // a frame may be enqueued after the last poll but before the flag is cleared
+                    drainIfNeeded();
+                    return null;
+                }
+
+                @Override
+                public String getName() {
+                    return String.format("cloudbus-peer-%s", ip);
+                }
+            });
+        }
+
+        private void drain() {
+            List<Frame> frames = new ArrayList<>();
+            while (queue.drainTo(frames, Math.max(CloudBusGlobalProperty.PEER_BATCH_SIZE, 1)) > 0) {
+                // frames of one request must be encoded by the same codec
+                int start = 0;
+                for (int i = 1; i <= frames.size(); i++) {
+                    if (i == frames.size() || frames.get(i).codec != frames.get(start).codec) {
+                        send(frames.subList(start, i));
+                        start = i;
+                    }
+                }
+
+                frames.clear();
+            }
+        }
+
+        private void send(List<Frame> frames) {
+            if (frames.size() > 1 && batchSupported) {
+                sendBatch(frames);
+                return;
+            }
+
+            for (Frame f : frames) {
+                try {
+                    postOrFallback(f.codec, f.body);
+                    sent.increment();
+                } catch (Throwable t) {
+                    failed.increment();
+                    f.onFailure.accept(t);
+                }
+            }
+        }
+
+        void postOrFallback(CloudBusCodec c, byte[] body) {
+            try {
+                post(c, body, 0);
+            } catch (CodecRejectedException e) {
+                logger.warn(String.format("management node[ip:%s] failed to decode a message in the CloudBus codec[%s]," +
+                        " resend it in JSON", ip, c.getName()));
+                post(jsonCodec, toJson(c, body), 0);
+            }
+        }
+
+        private void sendBatch(List<Frame> frames) {
+            try {
+                List<byte[]> bodies = new ArrayList<>(frames.size());
+                frames.forEach(f -> bodies.add(f.body));
+                post(frames.get(0).codec, packBatch(bodies), frames.size());
+                sent.add(frames.size());
+            } catch (CodecRejectedException e) {
+                frames.forEach(f -> send(Collections.singletonList(f)));
+            } catch (Throwable t) {
+                failed.add(frames.size());
+                frames.forEach(f -> f.onFailure.accept(t));
+            }
+        }
+
+        void post(CloudBusCodec c, byte[] body, int batchSize) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(CloudBusCodec.HEADER_CODEC, c.getName());
+            headers.setContentType(MediaType.parseMediaType(c.getContentType()));
+            if (batchSize > 0) {
+                headers.set(CloudBusCodec.HEADER_BATCH, String.valueOf(batchSize));
+            }
+
+            HttpEntity<byte[]> req = new HttpEntity<>(body, headers);
+            try {
+                ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
+                    {
+                        interval = 2;
+                    }
+
+                    @Override
+                    @RetryCondition(onExceptions = {IOException.class, RestClientException.class, HttpClientErrorException.class})
+                    protected ResponseEntity<String> call() {
+                        try {
+                            return http.exchange(url, HttpMethod.POST, req, String.class);
+                        } catch (HttpClientErrorException e) {
+                            if (e.getStatusCode() != HttpStatus.UNSUPPORTED_MEDIA_TYPE) {
+                                throw e;
+                            }
+
+                            // not worth retrying, the same body fails again
+                            return new ResponseEntity<>(e.getResponseBodyAsString(), e.getResponseHeaders(), e.getStatusCode());
+                        }
+                    }
+                }.run();
+
+                requests.increment();
+                negotiate(c, rsp.getHeaders());
+
+                if (rsp.getStatusCode() == HttpStatus.UNSUPPORTED_MEDIA_TYPE && c != jsonCodec) {
+                    throw new CodecRejectedException(String.format("management node[ip:%s] failed to decode the message" +
+                            " in the CloudBus codec[%s], %s", ip, c.getName(), rsp.getBody()));
+                }
+
+                if (!rsp.getStatusCode().is2xxSuccessful()) {
+                    throw new CloudRuntimeException(String.format("HTTP ERROR, status code: %s, body: %s", rsp.getStatusCode(), rsp.getBody()));
+                }
+            } catch (RuntimeException e) {
+                if (c != jsonCodec) {
+                    // fall back to JSON until the peer announces the codec again
+                    codec = null;
+                }
+
+                throw e;
+            }
+        }
+
+        private void negotiate(CloudBusCodec current, HttpHeaders headers) {
+            batchSupported = Boolean.parseBoolean(headers.getFirst(CloudBusCodec.HEADER_BATCH));
+
+            CloudBusCodec preferred = codecs.get(CloudBusGlobalProperty.HTTP_CODEC);
+            if (preferred == null || preferred == current) {
+                return;
+            }
+
+            List<String> accepted = headers.get(CloudBusCodec.HEADER_ACCEPT_CODECS);
+            boolean supported = accepted != null && accepted.stream()
+                    .flatMap(v -> Arrays.stream(v.split(",")))
+                    .anyMatch(v -> v.trim().equals(preferred.getName()));
+            if (supported) {
+                logger.debug(String.format("management node[ip:%s] supports the CloudBus codec[%s], switch to it", ip, preferred.getName()));
+                codec = preferred;
+            } else {
+                codec = null;
+            }
+        }
+
+        void close(Throwable reason) {
+            List<Frame> frames = new ArrayList<>();
+            queue.drainTo(frames);
+            failed.add(frames.size());
+            frames.forEach(f -> f.onFailure.accept(reason));
+        }
+
+        PeerChannelStatistic getStatistic() {
+            return new PeerChannelStatistic(ip, getCodec().getName(), batchSupported, queue.size(), maxQueueDepth.get(),
+                    enqueued.sum(), sent.sum(), requests.sum(), failed.sum(), rejected.sum());
+        }
+    }
+
+    PeerMessageTransport(ThreadFacade thdf) {
+        this.thdf = thdf;
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(CloudBusGlobalProperty.PEER_CONNECTION_NUM);
+        connectionManager.setMaxTotal(CloudBusGlobalProperty.PEER_CONNECTION_NUM * 64);
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .build();
+
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(client);
+        factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
+        factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+        http = new RestTemplate(factory);
+    }
+
+    private PeerChannel getChannel(String ip) {
+        return channels.computeIfAbsent(ip, PeerChannel::new);
+    }
+
+    CloudBusCodec getCodec(String ip) {
+        return getChannel(ip).getCodec();
+    }
+
+    /**
+     * queues the message and returns immediately, onFailure is called on the sending thread
+     * @return false if the queue of the peer stays full for CloudBus.peerQueueOfferTimeout milliseconds
+     */
+    boolean send(String ip, CloudBusCodec codec, byte[] body, Consumer<Throwable> onFailure) {
+        return getChannel(ip).offer(new Frame(codec, body, onFailure));
+    }
+
+    /**
+     * sends the message on the calling thread, bypassing the queue; throws if it fails
+     */
+    void sendNow(String ip, CloudBusCodec codec, byte[] body) {
+        getChannel(ip).postOrFallback(codec, body);
+    }
+
+    // the message is decoded to a copy and the schema is put on the copy, an event may have been
+    // delivered locally, its headers must not be changed
+    static byte[] toJson(CloudBusCodec codec, byte[] body) {
+        Message msg = codec.decode(body);
+        try {
+            msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(msg).build());
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        return jsonCodec.encode(msg);
+    }
+
+    static byte[] packBatch(List<byte[]> bodies) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            for (byte[] b : bodies) {
+                out.writeInt(b.length);
+                out.write(b);
+            }
+
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    static List<byte[]> splitBatch(byte[] body, int batchSize) {
+        List<byte[]> ret = new ArrayList<>(batchSize);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            for (int i = 0; i < batchSize; i++) {
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                ret.add(b);
+            }
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("broken batch of %s messages", batchSize), e);
+        }
+
+        return ret;
+    }
+
+    static String getAcceptedCodecs() {
+        return String.join(",", codecs.keySet());
+    }
+
+    static Map<String, PeerChannelStatistic> getStatistics() {
+        Map<String, PeerChannelStatistic> ret = new HashMap<>();
+        channels.forEach((ip, c) -> ret.put(ip, c.getStatistic()));
+        return ret;
+    }
+
+    static String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP zstack_cloudbus_peer_queue_depth messages waiting to be sent to a management node\n");
+        sb.append("# TYPE zstack_cloudbus_peer_queue_depth gauge\n");
+        new TreeMap<>(channels).forEach((ip, c) -> sb.append(String.format("zstack_cloudbus_peer_queue_depth{peer=\"%s\"} %s\n", ip, c.queue.size())));
+        sb.append("# HELP zstack_cloudbus_peer_messages_total messages to a management node by result\n");
+        sb.append("# TYPE zstack_cloudbus_peer_messages_total counter\n");
+        new TreeMap<>(channels).forEach((ip, c) -> {
+            sb.append(String.format("zstack_cloudbus_peer_messages_total{peer=\"%s\",result=\"sent\"} %s\n", ip, c.sent.sum()));
+            sb.append(String.format("zstack_cloudbus_peer_messages_total{peer=\"%s\",result=\"failed\"} %s\n", ip, c.failed.sum()));
+            sb.append(String.format("zstack_cloudbus_peer_messages_total{peer=\"%s\",result=\"rejected\"} %s\n", ip, c.rejected.sum()));
+        });
+        sb.append("# HELP zstack_cloudbus_peer_requests_total HTTP requests sent to a management node\n");
+        sb.append("# TYPE zstack_cloudbus_peer_requests_total counter\n");
+        new TreeMap<>(channels).forEach((ip, c) -> sb.append(String.format("zstack_cloudbus_peer_requests_total{peer=\"%s\"} %s\n", ip, c.requests.sum())));
+        return sb.toString();
+    }
+
+    void destroy() {
+        CloudRuntimeException reason = new CloudRuntimeException("the CloudBus peer transport is destroyed");
+        channels.values().removeIf(c -> {
+            if (c.transport() != this) {
+                return false;
+            }
+
+            c.close(reason);
+            return true;
+        });
+
+        connectionManager.shutdown();
+    }
+}
@@ -10,8 +10,11 @@ import org.zstack.header.managementnode.ManagementNodeInventory;
 import org.zstack.header.managementnode.ManagementNodeVO;
 import org.zstack.utils.hash.ApacheHash;
 import org.zstack.utils.hash.ConsistentHash;
+import org.zstack.utils.hash.HashRing;
+import org.zstack.utils.hash.JumpConsistentHash;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created with IntelliJ IDEA.
@@ -20,8 +23,19 @@ import java.util.*;
  * To change this template use File | Settings | File Templates.
  */
 public class ResourceDestinationMakerImpl implements ManagementNodeChangeListener, ResourceDestinationMaker {
-    private ConsistentHash<String> nodeHash = new ConsistentHash<>(new ApacheHash(), 500, new ArrayList<String>()) ;
-    private Map<String, NodeInfo> nodes = new HashMap<>();
+    static final String JUMP_HASH_STRATEGY = "jump";
+
+    private HashRing<String> nodeHash = createHashRing();
+    private Map<String, NodeInfo> nodes = new ConcurrentHashMap<>();
+
+    // all management nodes must use the same strategy, otherwise they don't agree on resource owners
+    private static HashRing<String> createHashRing() {
+        if (JUMP_HASH_STRATEGY.equals(CloudBusGlobalProperty.RESOURCE_HASH_STRATEGY)) {
+            return new JumpConsistentHash<>(new ApacheHash(), new ArrayList<>());
+        }
+
+        return new ConsistentHash<>(new ApacheHash(), 500, new ArrayList<>());
+    }
 
     @Autowired
     private DatabaseFacade dbf;
@@ -86,7 +100,8 @@ public class ResourceDestinationMakerImpl implements ManagementNodeChangeListene
             }
 
             nodeHash.add(nodeUuid);
-            info = nodes.put(nodeUuid, new NodeInfo(vo));
+            info = new NodeInfo(vo);
+            nodes.put(nodeUuid, info);
         }
 
         return info;
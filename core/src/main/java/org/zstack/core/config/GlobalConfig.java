@@ -40,6 +40,7 @@ public class GlobalConfig {
     private String validatorRegularExpression;
     private String defaultValue;
     private volatile String value;
+    private transient volatile Snapshot snapshot;
     private boolean linked;
     private transient List<GlobalConfigUpdateExtensionPoint> updateExtensions = new ArrayList<>();
     private transient List<GlobalConfigBeforeUpdateExtensionPoint> beforeUpdateExtensions = new ArrayList<>();
@@ -53,6 +54,57 @@ public class GlobalConfig {
     @Autowired
     private EventFacade evtf;
 
+    /**
+     * a value and its forms parsed the way TypeUtils.stringToValue() does, published as a whole
+     * when the value changes, so typed reads neither parse nor allocate
+     */
+    private static class Snapshot {
+        final String value;
+        // null if the value is null or not a number
+        final Integer intValue;
+        final Long longValue;
+        final Float floatValue;
+        final Double doubleValue;
+        final Boolean booleanValue;
+
+        Snapshot(String value) {
+            this.value = value;
+
+            Double d = null;
+            if (value != null) {
+                try {
+                    d = Double.valueOf(value);
+                } catch (NumberFormatException ignored) {
+                    // value(Class) reports it
+                }
+            }
+
+            doubleValue = d;
+            intValue = d == null ? null : Integer.valueOf(d.intValue());
+            longValue = d == null ? null : Long.valueOf(d.longValue());
+            floatValue = d == null ? null : Float.valueOf(d.floatValue());
+            booleanValue = Boolean.valueOf(value);
+        }
+
+        Object get(Class<?> clz) {
+            if (clz == Long.class || clz == Long.TYPE) {
+                return longValue;
+            } else if (clz == Integer.class || clz == Integer.TYPE) {
+                return intValue;
+            } else if (clz == Boolean.class || clz == Boolean.TYPE) {
+                return booleanValue;
+            } else if (clz == String.class) {
+                return value;
+            } else if (clz == Double.class || clz == Double.TYPE) {
+                return doubleValue;
+            } else if (clz == Float.class || clz == Float.TYPE) {
+                return floatValue;
+            }
+
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
         return JSONObjectUtil.toJsonString(map(
@@ -78,7 +130,7 @@ public class GlobalConfig {
         try {
             Class clz = Class.forName(type);
             Object v = TypeUtils.stringToValue(value, clz);
-            value = v.toString();
+            publish(v.toString());
         } catch (ClassNotFoundException e) {
             throw new CloudRuntimeException(e);
         }
@@ -203,11 +255,48 @@ public class GlobalConfig {
     }
 
     void setValue(String value) {
-        this.value = value;
+        publish(value);
+    }
+
+    private void publish(String newValue) {
+        value = newValue;
+        snapshot = new Snapshot(newValue);
+    }
+
+    private Snapshot snapshot() {
+        String v = value;
+        Snapshot s = snapshot;
+        // the value field may be set without publish(), e.g. by tests
+        if (s == null || s.value != v) {
+            s = new Snapshot(v);
+            snapshot = s;
+        }
+        return s;
     }
 
     public <T> T value(Class<T> clz) {
-        return TypeUtils.stringToValue(value(), clz);
+        Snapshot s = snapshot();
+        Object v = s.get(clz);
+        return v != null ? (T) v : TypeUtils.stringToValue(s.value, clz);
+    }
+
+    public long longValue() {
+        Long v = snapshot().longValue;
+        return v != null ? v : value(Long.class);
+    }
+
+    public int intValue() {
+        Integer v = snapshot().intValue;
+        return v != null ? v : value(Integer.class);
+    }
+
+    public double doubleValue() {
+        Double v = snapshot().doubleValue;
+        return v != null ? v : value(Double.class);
+    }
+
+    public boolean booleanValue() {
+        return snapshot().booleanValue;
     }
 
     public <T> T defaultValue(Class<T> clz) {
@@ -322,7 +411,7 @@ public class GlobalConfig {
             }
         }
 
-        value = newValue;
+        publish(newValue);
 
         if (localUpdate) {
             vo.setValue(newValue);
@@ -697,23 +697,29 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private void _eoCleanup(Class VOClazz) {
+    private Object _eoCleanupBatch(Class VOClazz, Object lastId) {
         EntityInfo info = getEntityInfo(VOClazz);
         if (!info.hasEO()) {
             logger.warn(String.format("Class[%s] doesn't has EO.", VOClazz));
-            return;
+            return null;
         }
 
         String deleted = info.eoSoftDeleteColumn.getName();
-        String sql = String.format("select eo.%s from %s eo where eo.%s is not null", info.voPrimaryKeyField.getName(),
-                info.eoClass.getSimpleName(), deleted);
+        String pk = info.voPrimaryKeyField.getName();
+        String sql = String.format("select eo.%s from %s eo where eo.%s is not null%s order by eo.%s", pk,
+                info.eoClass.getSimpleName(), deleted, lastId == null ? "" : String.format(" and eo.%s > :lastId", pk), pk);
         Query q = getEntityManager().createQuery(sql);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(DbGlobalProperty.QUERY_BATCH_SIZE);
         List ids = q.getResultList();
         if (ids.isEmpty()) {
-            return;
+            return null;
         }
 
         info.hardDelete(ids);
+        return ids.size() < DbGlobalProperty.QUERY_BATCH_SIZE ? null : ids.get(ids.size() - 1);
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -740,7 +746,12 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     @Override
     @DeadlockAutoRestart
     public void eoCleanup(Class VOClazz) {
-        _eoCleanup(VOClazz);
+        // soft deleted EOs are deleted by batches keyset paginated on the primary key,
+        // each in a transaction of its own
+        Object lastId = null;
+        do {
+            lastId = _eoCleanupBatch(VOClazz, lastId);
+        } while (lastId != null);
     }
 
     @Override
@@ -9,4 +9,12 @@ public class DbGlobalProperty {
     public static String ENTITY_PACKAGES;
     @GlobalProperty(name="C3p0ConnectionTester.isValidTimeout", defaultValue = "60")
     public static int C3P0_IS_VALID_TIMEOUT;
+    @GlobalProperty(name="DB.queryBatchSize", defaultValue = "1000")
+    public static int QUERY_BATCH_SIZE;
+    @GlobalProperty(name="GLock.connectionNum", defaultValue = "4")
+    public static int GLOCK_CONNECTION_NUM;
+    @GlobalProperty(name="GLock.leaseOn", defaultValue = "false")
+    public static boolean GLOCK_LEASE_ON;
+    @GlobalProperty(name="GLock.leaseIdleTime", defaultValue = "5")
+    public static int GLOCK_LEASE_IDLE_TIME;
 }
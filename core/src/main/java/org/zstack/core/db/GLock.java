@@ -8,27 +8,20 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * a lock across management nodes by a DB named lock, taken together with a memory lock of the
+ * name unless alsoUseMemoryLock is false; see {@link GLockManager}
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class GLock {
     private static final CLogger logger = Utils.getLogger(GLock.class);
 
-    private static final Map<String, ReentrantLock> memLocks = new HashMap<String, ReentrantLock>();
-
-    private DataSource dataSource;
-    private Connection conn;
+    private GLockManager.DbLock dbLock;
+    private GLockManager.MemoryLock memoryLock;
+    private long lockedAt;
     private final String name;
     private final long timeout;
     private boolean success = false;
@@ -43,12 +36,11 @@ public class GLock {
     private boolean alsoUseMemoryLock = true;
 
     @Autowired
-    private DatabaseFacade dbf;
+    private GLockManager glockm;
 
     public GLock(String name, long timeout) {
         this.name = name;
         this.timeout = timeout;
-        dataSource = dbf.getDataSource();
     }
 
     public boolean isAlsoUseMemoryLock() {
@@ -78,72 +70,34 @@ public class GLock {
             checkInThread();
         }
 
-        ReentrantLock mlock = null;
-        if (alsoUseMemoryLock) {
-            synchronized (memLocks) {
-                mlock = memLocks.get(name);
-                if (mlock == null) {
-                    mlock = new ReentrantLock();
-                    memLocks.put(name, mlock);
-                }
-
-                if (memLocks.size() > 100) {
-                    logger.warn(String.format("there are more than 100 GLocks[num:%s] are created, something must be wrong in our program", memLocks.size()));
-                }
-            }
-        }
-
+        long start = System.nanoTime();
+        GLockManager.MemoryLock mlock = null;
         try {
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("[GLock]: thread[%s] is acquiring lock[%s]", Thread.currentThread().getName(), name));
             }
 
             if (alsoUseMemoryLock) {
-                mlock.lock();
+                mlock = glockm.lockMemory(name);
                 if (logger.isTraceEnabled()) {
                     logger.trace(String.format("[GLock Memory Lock]: thread[%s] got memory lock[%s]", Thread.currentThread().getName(), name));
                 }
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                conn = dataSource.getConnection();
-                conn.setAutoCommit(true);
-                pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    String err = "Unable to get DB lock: " + name + ", internal database error happened";
-                    throw new CloudRuntimeException(err);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
+            dbLock = glockm.lockDb(name, timeout, alsoUseMemoryLock);
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
             }
+
+            memoryLock = mlock;
+            lockedAt = System.nanoTime();
+            glockm.recordWait(name, lockedAt - start, true);
             success = true;
         } catch (Throwable t) {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-            }
+            glockm.recordWait(name, System.nanoTime() - start, false);
 
-            if (alsoUseMemoryLock) {
-                mlock.unlock();
+            if (mlock != null) {
+                glockm.unlockMemory(name, mlock);
             }
 
             success = false;
@@ -170,58 +124,26 @@ public class GLock {
             return;
         }
 
-        ReentrantLock lock = null;
-        if (alsoUseMemoryLock) {
-            synchronized (memLocks) {
-                lock = memLocks.get(name);
-            }
-        }
-
         try {
             if (alsoUseMemoryLock) {
-                DebugUtils.Assert(lock != null, String.format("cannot find LockWrapper for GLock[%s], is unlock mistakenly called twice???", name));
+                DebugUtils.Assert(memoryLock != null, String.format("cannot find memory lock for GLock[%s], is unlock mistakenly called twice???", name));
             }
 
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("[GLock]: thread[%s] is releasing lock[%s]", Thread.currentThread().getName(), name));
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                pstmt = conn.prepareStatement(String.format("select release_lock('%s')", name));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    throw new CloudRuntimeException("Mysql cannot find lock: " + name);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
-                    throw new CloudRuntimeException(err);
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException("Unable to release lock: " + name, e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
-
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
+            dbLock.release();
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
             }
         } finally {
-            if (alsoUseMemoryLock) {
-                if (lock != null) {
-                    lock.unlock();
-                }
+            success = false;
+            glockm.recordHold(name, System.nanoTime() - lockedAt);
+
+            if (memoryLock != null) {
+                glockm.unlockMemory(name, memoryLock);
+                memoryLock = null;
             }
 
             if (alsoUseMemoryLock) {
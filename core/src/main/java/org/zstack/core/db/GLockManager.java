@@ -0,0 +1,699 @@
+package org.zstack.core.db;
+
+import com.mchange.v2.c3p0.C3P0ProxyConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.stats.LatencyHistogram;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Memory locks, DB named locks and latency histograms of GLock.
+ *
+ * Memory locks are kept in a ConcurrentHashMap whose bins are locked separately, an entry is
+ * removed once no thread holds or waits for it, so names don't pile up and lockers of different
+ * names never meet on a common monitor.
+ *
+ * DB named locks are taken on GLock.connectionNum sessions over connections of a dedicated pool,
+ * one session holds the locks of many names, a connection is checked out only while its session
+ * holds any lock. GET_LOCK is called without waiting and retried with backoff until the timeout,
+ * so a session is never blocked by a lock held on another management node. This needs a database
+ * allowing a session to hold more than one named lock (MySQL 5.7.5, MariaDB 10.0.2), which is
+ * probed when starting; otherwise, or with GLock.connectionNum = 0, each GLock takes a connection
+ * of the DatabaseFacade pool and blocks in GET_LOCK as before. An error on a working connection only
+ * fails the lock at hand; when the connection is broken the database has released all locks of the
+ * session, the physical connection is closed and their holders are warned when unlocking.
+ *
+ * With GLock.leaseOn, the node a lock name is hashed to on the management node ring keeps the
+ * named lock after unlock as a lease, locking the name again on the node only takes the memory
+ * lock. Other nodes still lock the name by GET_LOCK, and get it after the lease has been idle for
+ * GLock.leaseIdleTime seconds or the name has been hashed to another node.
+ *
+ * Wait and hold latencies are kept per lock name with uuids replaced by {uuid}, at most
+ * MAX_ENTRIES names, and exposed by the "GLock" MXBean.
+ */
+public class GLockManager implements Component, GLockManagerMXBean {
+    private static final CLogger logger = Utils.getLogger(GLockManager.class);
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final long POLL_MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long POLL_MAX_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{12}");
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private JmxFacade jmxf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private DataSource namedLockDataSource;
+    private volatile Session[] sessions = new Session[0];
+    private volatile boolean leaseOn;
+    private Future<Void> leaseTracker;
+
+    private final Map<String, MemoryLock> memLocks = new ConcurrentHashMap<>();
+    // names whose DB locks are held or being taken on sessions of this node
+    private final Map<String, Session> owners = new ConcurrentHashMap<>();
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final LongAdder leaseHits = new LongAdder();
+
+    private static class Histogram {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+
+        GLockStatistic toStatistic(String name) {
+            return new GLockStatistic(name, latency.getCount(), failures.sum(), latency.getMean(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                    latency.getValueAtPercentile(99.9), latency.getMax());
+        }
+    }
+
+    private final Map<String, Histogram> waits = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> holds = new ConcurrentHashMap<>();
+
+    static class MemoryLock {
+        final ReentrantLock lock = new ReentrantLock();
+        // changed only inside compute() of memLocks
+        int refs;
+    }
+
+    interface DbLock {
+        void release();
+    }
+
+    private class Session {
+        private final int id;
+        private Connection conn;
+        private final Set<String> names = new HashSet<>();
+        // names whose locks were released by the database with a broken connection, their holders still have to unlock
+        private final Set<String> lost = new HashSet<>();
+
+        Session(int id) {
+            this.id = id;
+        }
+
+        private int query(String sql, String name) throws SQLException {
+            if (conn == null) {
+                conn = namedLockDataSource.getConnection();
+                conn.setAutoCommit(true);
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException(String.format("no result of %s for lock[%s]", sql, name));
+                    }
+
+                    int ret = rs.getInt(1);
+                    return rs.wasNull() ? -1 : ret;
+                }
+            }
+        }
+
+        /**
+         * @return false if the connection is broken, the database has released all locks of the session then
+         */
+        private boolean isAlive() {
+            try {
+                return conn != null && conn.isValid(DbGlobalProperty.C3P0_IS_VALID_TIMEOUT);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void discard() {
+            if (!names.isEmpty()) {
+                logger.warn(String.format("[GLock]: DB named locks%s are lost with the connection of session[%s]", names, id));
+                lost.addAll(names);
+                names.clear();
+            }
+
+            if (conn != null) {
+                closePhysicalConnection(conn);
+            }
+            closeConnection();
+        }
+
+        private void closeConnection() {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+                conn = null;
+            }
+        }
+
+        synchronized boolean tryLock(String name) {
+            if (names.contains(name)) {
+                // failed to be released on a working connection, still held by the session
+                return true;
+            }
+
+            try {
+                int ret;
+                try {
+                    ret = query("select get_lock(?, 0)", name);
+                } catch (SQLException e) {
+                    if (isAlive()) {
+                        throw e;
+                    }
+
+                    // connections are not tested on checkout, an idle one may have been closed by the server, retry once
+                    discard();
+                    ret = query("select get_lock(?, 0)", name);
+                }
+
+                if (ret == 1) {
+                    names.add(name);
+                    return true;
+                } else if (ret == 0) {
+                    return false;
+                }
+
+                throw new CloudRuntimeException(String.format("Unable to get DB lock: %s, internal database error happened", name));
+            } catch (SQLException e) {
+                // locks of other names are kept unless the connection is broken
+                if (!isAlive()) {
+                    discard();
+                }
+                throw new CloudRuntimeException(String.format("[GLock Error]: cannot lock[%s] on DB session[%s]", name, id), e);
+            } finally {
+                if (names.isEmpty()) {
+                    closeConnection();
+                }
+            }
+        }
+
+        synchronized boolean holds(String name) {
+            return names.contains(name);
+        }
+
+        synchronized void release(String name) {
+            if (lost.remove(name)) {
+                logger.warn(String.format("[GLock]: DB lock[%s] has been released by the database with the broken connection of session[%s]", name, id));
+                return;
+            }
+
+            if (!names.contains(name)) {
+                throw new CloudRuntimeException(String.format("Unable to release DB lock: %s, it's not held by DB session[%s], internal error", name, id));
+            }
+
+            try {
+                int ret = query("select release_lock(?)", name);
+                names.remove(name);
+                if (ret != 1) {
+                    throw new CloudRuntimeException(String.format("Unable to release DB lock: %s, it's not held by DB session[%s], internal error", name, id));
+                }
+            } catch (SQLException e) {
+                if (isAlive()) {
+                    // the lock is still held, the next locker of the name on this node takes it over
+                    throw new CloudRuntimeException("Unable to release lock: " + name, e);
+                }
+
+                discard();
+                release(name);
+            } finally {
+                if (names.isEmpty()) {
+                    closeConnection();
+                }
+            }
+        }
+    }
+
+    private class PooledLock implements DbLock {
+        final String name;
+        final Session session;
+
+        PooledLock(String name, Session session) {
+            this.name = name;
+            this.session = session;
+        }
+
+        @Override
+        public void release() {
+            try {
+                session.release(name);
+            } finally {
+                owners.remove(name, session);
+            }
+        }
+    }
+
+    private class Lease implements DbLock {
+        final PooledLock lock;
+        boolean inUse = true;
+        boolean released;
+        long lastUsed;
+
+        Lease(PooledLock lock) {
+            this.lock = lock;
+        }
+
+        synchronized boolean take() {
+            if (released) {
+                return false;
+            }
+
+            if (!lock.session.holds(lock.name)) {
+                // lost with the connection of the session
+                released = true;
+                leases.remove(lock.name, this);
+                try {
+                    lock.release();
+                } catch (Throwable t) {
+                    logger.warn(String.format("unable to release the lost lease of lock[%s]", lock.name), t);
+                }
+                return false;
+            }
+
+            inUse = true;
+            return true;
+        }
+
+        @Override
+        public void release() {
+            synchronized (this) {
+                inUse = false;
+                lastUsed = System.nanoTime();
+            }
+
+            if (!destMaker.isManagedByUs(lock.name)) {
+                expire(this, 0);
+            }
+        }
+    }
+
+    private class DedicatedLock implements DbLock {
+        final String name;
+        final Connection conn;
+
+        DedicatedLock(String name, Connection conn) {
+            this.name = name;
+            this.conn = conn;
+        }
+
+        @Override
+        public void release() {
+            PreparedStatement pstmt = null;
+            try {
+                pstmt = conn.prepareStatement("select release_lock(?)");
+                pstmt.setString(1, name);
+                ResultSet rs = pstmt.executeQuery();
+                if (rs == null) {
+                    throw new CloudRuntimeException("Mysql cannot find lock: " + name);
+                } else if (rs.first() && rs.getInt(1) == 0) {
+                    String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
+                    throw new CloudRuntimeException(err);
+                }
+            } catch (SQLException e) {
+                // the lock may be still held, don't give the connection back to the pool with it
+                closePhysicalConnection(conn);
+                throw new CloudRuntimeException("Unable to release lock: " + name, e);
+            } finally {
+                if (pstmt != null) {
+                    try {
+                        pstmt.close();
+                    } catch (SQLException e) {
+                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                    }
+                }
+
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * closing a pooled connection only gives it back to the pool with its named locks, the physical
+     * connection is closed so the database releases them, and the pool finds it broken instead of reusing it
+     */
+    private static void closePhysicalConnection(Connection conn) {
+        if (!(conn instanceof C3P0ProxyConnection)) {
+            return;
+        }
+
+        try {
+            ((C3P0ProxyConnection) conn).rawConnectionOperation(Connection.class.getMethod("close"), C3P0ProxyConnection.RAW_CONNECTION, new Object[0]);
+        } catch (Exception e) {
+            logger.warn("unable to close the physical connection of DB named locks", e);
+        }
+    }
+
+    public void setNamedLockDataSource(DataSource namedLockDataSource) {
+        this.namedLockDataSource = namedLockDataSource;
+    }
+
+    MemoryLock lockMemory(String name) {
+        MemoryLock mlock = memLocks.compute(name, (k, l) -> {
+            if (l == null) {
+                l = new MemoryLock();
+            }
+            l.refs++;
+            return l;
+        });
+
+        mlock.lock.lock();
+        return mlock;
+    }
+
+    void unlockMemory(String name, MemoryLock mlock) {
+        mlock.lock.unlock();
+        memLocks.computeIfPresent(name, (k, l) -> --l.refs == 0 ? null : l);
+    }
+
+    /**
+     * @param memoryLocked the caller holds the memory lock of the name, leases are only used then
+     */
+    DbLock lockDb(String name, long timeout, boolean memoryLocked) {
+        if (sessions.length == 0) {
+            return lockDedicated(name, timeout);
+        }
+
+        if (!leaseOn || !memoryLocked) {
+            return lockPooled(name, timeout);
+        }
+
+        Lease lease = leases.get(name);
+        if (lease != null && lease.take()) {
+            leaseHits.increment();
+            return lease;
+        }
+
+        if (!destMaker.isManagedByUs(name)) {
+            return lockPooled(name, timeout);
+        }
+
+        lease = new Lease(lockPooled(name, timeout));
+        leases.put(name, lease);
+        return lease;
+    }
+
+    private Session sessionOf(String name) {
+        return sessions[Math.floorMod(name.hashCode(), sessions.length)];
+    }
+
+    private PooledLock lockPooled(String name, long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        long interval = POLL_MIN_INTERVAL;
+        while (true) {
+            Session session = sessionOf(name);
+            // lockers of the name on this node take turns, a session's named locks are reentrant in DB
+            if (owners.putIfAbsent(name, session) == null) {
+                boolean locked = false;
+                try {
+                    locked = session.tryLock(name);
+                } finally {
+                    if (!locked) {
+                        owners.remove(name, session);
+                    }
+                }
+
+                if (locked) {
+                    return new PooledLock(name, session);
+                }
+            }
+
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(interval, left));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudRuntimeException(String.format("interrupted when acquiring lock[%s]", name), e);
+            }
+            interval = Math.min(interval * 2, POLL_MAX_INTERVAL);
+        }
+    }
+
+    private DedicatedLock lockDedicated(String name, long timeout) {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        boolean locked = false;
+        try {
+            conn = dbf.getDataSource().getConnection();
+            conn.setAutoCommit(true);
+            pstmt = conn.prepareStatement("select get_lock(?, ?)");
+            pstmt.setString(1, name);
+            pstmt.setLong(2, timeout);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null) {
+                String err = "Unable to get DB lock: " + name + ", internal database error happened";
+                throw new CloudRuntimeException(err);
+            } else if (rs.first() && rs.getInt(1) == 0) {
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+
+            locked = true;
+            return new DedicatedLock(name, conn);
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
+        } finally {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                }
+            }
+
+            if (!locked && conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void expire(Lease lease, long idleNanos) {
+        synchronized (lease) {
+            if (lease.inUse || lease.released || System.nanoTime() - lease.lastUsed < idleNanos) {
+                return;
+            }
+
+            lease.released = true;
+            leases.remove(lease.lock.name, lease);
+        }
+
+        try {
+            lease.lock.release();
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to release the lease of lock[%s]", lease.lock.name), t);
+        }
+    }
+
+    private void trackLeases() {
+        long idle = TimeUnit.SECONDS.toNanos(DbGlobalProperty.GLOCK_LEASE_IDLE_TIME);
+        leaseTracker = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return "glock-lease-tracker";
+            }
+
+            @Override
+            public void run() {
+                leases.values().forEach(l -> expire(l, destMaker.isManagedByUs(l.lock.name) ? idle : 0));
+            }
+        });
+    }
+
+    /**
+     * checks a DB session can hold more than one named lock, in old MySQL GET_LOCK() releases
+     * the lock the session already holds
+     */
+    private boolean multipleNamedLocksSupported() {
+        String first = String.format("glock-probe-%s", Platform.getUuid());
+        String second = String.format("glock-probe-%s", Platform.getUuid());
+        try (Connection conn = namedLockDataSource.getConnection()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement get = conn.prepareStatement("select get_lock(?, 0)");
+                 PreparedStatement check = conn.prepareStatement("select is_used_lock(?) = connection_id()");
+                 PreparedStatement release = conn.prepareStatement("select release_lock(?)")) {
+                for (String name : new String[]{first, second}) {
+                    get.setString(1, name);
+                    get.executeQuery().close();
+                }
+
+                check.setString(1, first);
+                boolean supported;
+                try (ResultSet rs = check.executeQuery()) {
+                    supported = rs.next() && rs.getInt(1) == 1;
+                }
+
+                for (String name : new String[]{first, second}) {
+                    release.setString(1, name);
+                    release.executeQuery().close();
+                }
+
+                return supported;
+            }
+        } catch (SQLException e) {
+            logger.warn("unable to check if the database supports multiple named locks in one session", e);
+            return false;
+        }
+    }
+
+    static String normalize(String name) {
+        return UUID_PATTERN.matcher(name).replaceAll("{uuid}");
+    }
+
+    private static void record(Map<String, Histogram> histograms, String name, long nanos, boolean success) {
+        String key = normalize(name);
+        Histogram h = histograms.get(key);
+        if (h == null) {
+            if (histograms.size() >= MAX_ENTRIES) {
+                return;
+            }
+            h = histograms.computeIfAbsent(key, k -> new Histogram());
+        }
+
+        h.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (!success) {
+            h.failures.increment();
+        }
+    }
+
+    void recordWait(String name, long nanos, boolean success) {
+        record(waits, name, nanos, success);
+    }
+
+    void recordHold(String name, long nanos) {
+        record(holds, name, nanos, true);
+    }
+
+    private static Map<String, GLockStatistic> toStatistics(Map<String, Histogram> histograms) {
+        Map<String, GLockStatistic> ret = new HashMap<>();
+        histograms.forEach((name, h) -> ret.put(name, h.toStatistic(name)));
+        return ret;
+    }
+
+    @Override
+    public boolean isPooled() {
+        return sessions.length > 0;
+    }
+
+    @Override
+    public boolean isLeaseOn() {
+        return leaseOn;
+    }
+
+    @Override
+    public int getMemoryLockNum() {
+        return memLocks.size();
+    }
+
+    @Override
+    public int getDbLockNum() {
+        return owners.size();
+    }
+
+    @Override
+    public int getLeaseNum() {
+        return leases.size();
+    }
+
+    @Override
+    public long getLeaseHits() {
+        return leaseHits.sum();
+    }
+
+    @Override
+    public Map<String, GLockStatistic> getWaitStatistics() {
+        return toStatistics(waits);
+    }
+
+    @Override
+    public Map<String, GLockStatistic> getHoldStatistics() {
+        return toStatistics(holds);
+    }
+
+    @Override
+    public void reset() {
+        waits.clear();
+        holds.clear();
+        leaseHits.reset();
+    }
+
+    private void configure() {
+        sessions = new Session[0];
+        if (DbGlobalProperty.GLOCK_CONNECTION_NUM > 0 && namedLockDataSource != null) {
+            if (multipleNamedLocksSupported()) {
+                Session[] ss = new Session[DbGlobalProperty.GLOCK_CONNECTION_NUM];
+                for (int i = 0; i < ss.length; i++) {
+                    ss[i] = new Session(i);
+                }
+                sessions = ss;
+            } else {
+                logger.warn("the database doesn't allow a session to hold multiple named locks, GLock takes a connection for each lock");
+            }
+        }
+
+        leaseOn = DbGlobalProperty.GLOCK_LEASE_ON && sessions.length > 0;
+        if (leaseOn) {
+            trackLeases();
+        }
+    }
+
+    @Override
+    public boolean start() {
+        configure();
+        jmxf.registerBean("GLock", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (leaseTracker != null) {
+            leaseTracker.cancel(true);
+        }
+
+        leases.values().forEach(l -> expire(l, 0));
+        return true;
+    }
+}
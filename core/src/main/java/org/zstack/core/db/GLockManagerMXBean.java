@@ -0,0 +1,27 @@
+package org.zstack.core.db;
+
+import javax.management.MXBean;
+import java.util.Map;
+
+/**
+ */
+@MXBean
+public interface GLockManagerMXBean {
+    boolean isPooled();
+
+    boolean isLeaseOn();
+
+    int getMemoryLockNum();
+
+    int getDbLockNum();
+
+    int getLeaseNum();
+
+    long getLeaseHits();
+
+    Map<String, GLockStatistic> getWaitStatistics();
+
+    Map<String, GLockStatistic> getHoldStatistics();
+
+    void reset();
+}
@@ -1,12 +1,16 @@
 package org.zstack.core.db;
 
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.header.core.NoErrorCompletion;
 
 import javax.persistence.Tuple;
 import javax.persistence.metamodel.SingularAttribute;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by xing5 on 2016/12/31.
@@ -98,6 +102,101 @@ public class Q {
         return Collections.emptyList();
     }
 
+    /**
+     * walks all rows matched by batches of keyset pagination on the primary key, each batch
+     * is queried in a transaction of its own and no entity is kept in the persistence context
+     * after its batch, so tables of any size can be walked with bounded memory.
+     *
+     * The rows are ordered by the primary key, orderBy(), groupBy(), limit() and start() are
+     * not allowed. Like list(), listValues() and listTuple(), a batch is a list of entities,
+     * values or tuples according to select(); a tuple has the primary key appended at the end.
+     */
+    public <K> void iterate(int batchSize, Consumer<List<K>> consumer) {
+        List<K> batch;
+        do {
+            batch = q._nextBatch(batchSize);
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    /**
+     * like iterate(int, Consumer), but the next batch is not queried until the consumer calls
+     * done() of the completion it gets, so a consumer handling batches asynchronously is never
+     * flooded. The completion is called after all batches are consumed.
+     */
+    public <K> void iterate(int batchSize, BiConsumer<List<K>, NoErrorCompletion> consumer, NoErrorCompletion completion) {
+        while (true) {
+            List<K> batch = q._nextBatch(batchSize);
+            if (batch.isEmpty()) {
+                completion.done();
+                return;
+            }
+
+            boolean last = batch.size() < batchSize;
+            // 0: consuming, 1: done() called before the consumer returns, 2: the consumer returned
+            AtomicInteger state = new AtomicInteger(0);
+            consumer.accept(batch, new NoErrorCompletion(completion) {
+                @Override
+                public void done() {
+                    if (state.compareAndSet(0, 1)) {
+                        return;
+                    }
+
+                    if (last) {
+                        completion.done();
+                    } else {
+                        iterate(batchSize, consumer, completion);
+                    }
+                }
+            });
+
+            if (state.compareAndSet(0, 2)) {
+                // done() will be called later and continue the iteration
+                return;
+            }
+
+            if (last) {
+                completion.done();
+                return;
+            }
+        }
+    }
+
+    /**
+     * a lazy stream of all rows matched, read by batches like iterate(int, Consumer)
+     * that are queried when the stream reaches them
+     */
+    public <K> Stream<K> stream(int batchSize) {
+        Iterator<K> it = new Iterator<K>() {
+            private Iterator<K> batch = Collections.emptyIterator();
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (!batch.hasNext() && !exhausted) {
+                    List<K> next = q._nextBatch(batchSize);
+                    exhausted = next.size() < batchSize;
+                    batch = next.iterator();
+                }
+
+                return batch.hasNext();
+            }
+
+            @Override
+            public K next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return batch.next();
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false);
+    }
+
     public Q eq(SingularAttribute attr, Object val) {
         q.add(attr, SimpleQuery.Op.EQ, val);
         return this;
@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
@@ -16,7 +17,9 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 import javax.persistence.metamodel.SingularAttribute;
 import java.lang.reflect.Array;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -34,6 +37,7 @@ public class SimpleQueryImpl<T> implements SimpleQuery<T> {
     private final CriteriaBuilder _builder;
     private Integer limit;
     private Integer start;
+    private Object lastKey;
 
     @Autowired
     private DatabaseFacade _dbf;
@@ -391,6 +395,73 @@ public class SimpleQueryImpl<T> implements SimpleQuery<T> {
         return count >= 1;
     }
 
+    /**
+     * fetches the next batch of a keyset paginated query, rows ordered by the primary key
+     * and greater than the last key of the previous batch, in a transaction of its own so
+     * no entity is held by the persistence context between batches.
+     *
+     * For queries selecting more than one field, the primary key is appended to the end of
+     * the tuples.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRES_NEW)
+    <K> List<K> _nextBatch(int batchSize) {
+        assert orderInfos.isEmpty() && groupByInfo == null && limit == null && start == null :
+                "a keyset paginated query is ordered by the primary key, it cannot have orderBy(), groupBy(), limit() or start()";
+
+        Field pk = EntityMetadata.getPrimaryKeyField(_entityClass);
+        if (_selects.size() == 0) {
+            _query = _builder.createQuery(_entityClass);
+            _root = _query.from(_entityClass);
+        } else {
+            _query = _builder.createTupleQuery();
+            _root = _query.from(_entityClass);
+            List<Selection> paths = new ArrayList<Selection>();
+            for (AttrInfo info : _selects) {
+                paths.add(_root.get(info._attr));
+            }
+            paths.add(_root.get(pk.getName()));
+            _query.multiselect(paths);
+        }
+
+        Path<Comparable> key = _root.get(pk.getName());
+        List<Predicate> preds = new ArrayList<Predicate>(Arrays.asList(whereClause()));
+        if (lastKey != null) {
+            preds.add(_builder.greaterThan(key, (Comparable) lastKey));
+        }
+        _query.where(preds.toArray(new Predicate[preds.size()]));
+        _query.orderBy(_builder.asc(key));
+
+        Query q = _dbf.getEntityManager().createQuery(_query);
+        q.setMaxResults(batchSize);
+        List rows = q.getResultList();
+        if (rows.isEmpty()) {
+            return new ArrayList<K>();
+        }
+
+        List<K> ret = new ArrayList<K>(rows.size());
+        if (_selects.size() == 0) {
+            for (Object vo : rows) {
+                ret.add((K) vo);
+            }
+
+            try {
+                pk.setAccessible(true);
+                lastKey = pk.get(rows.get(rows.size() - 1));
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        } else {
+            for (Object row : rows) {
+                Tuple t = (Tuple) row;
+                ret.add(_selects.size() == 1 ? (K) t.get(0) : (K) t);
+            }
+
+            lastKey = ((Tuple) rows.get(rows.size() - 1)).get(_selects.size());
+        }
+
+        return ret;
+    }
+
     @Override
     public SimpleQuery<T> setLimit(int limit) {
         this.limit = limit;
@@ -7,6 +7,7 @@ import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.DbGlobalProperty;
 import org.zstack.core.db.Q;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.thread.ChainTask;
@@ -139,24 +140,24 @@ public class GarbageCollectorManagerImpl extends AbstractService
     }
 
     private void loadOrphanJobs() {
-        List<GarbageCollectorVO> vos = Q.New(GarbageCollectorVO.class)
+        int[] count = {0};
+
+        Q.New(GarbageCollectorVO.class)
                 .eq(GarbageCollectorVO_.status, GCStatus.Idle)
                 .isNull(GarbageCollectorVO_.managementNodeUuid)
-                .list();
-
-        int count = 0;
+                .iterate(DbGlobalProperty.QUERY_BATCH_SIZE, (List<GarbageCollectorVO> vos) -> {
+                    for (GarbageCollectorVO vo : vos) {
+                        if (!destinationMaker.isManagedByUs(vo.getUuid())) {
+                            continue;
+                        }
 
-        for (GarbageCollectorVO vo : vos) {
-            if (!destinationMaker.isManagedByUs(vo.getUuid())) {
-                continue;
-            }
+                        loadGCJob(vo);
 
-            loadGCJob(vo);
-
-            count ++;
-        }
+                        count[0] ++;
+                    }
+                });
 
-        logger.debug(String.format("[GC] loaded %s orphan jobs", count));
+        logger.debug(String.format("[GC] loaded %s orphan jobs", count[0]));
     }
 
     @Override
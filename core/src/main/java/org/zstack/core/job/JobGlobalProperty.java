@@ -17,4 +17,8 @@ public class JobGlobalProperty {
     public static String QUARTZ_DB_PASSWORD;
     @GlobalProperty(name = "QuartzJdbcJobFacade.maxDbConnection", defaultValue = "10")
     public static int QUARTZ_DB_MAX_CONNECTIONS;
+    @GlobalProperty(name = "JobQueueFacade.leaseTime", defaultValue = "60")
+    public static int JOB_QUEUE_LEASE_TIME;
+    @GlobalProperty(name = "JobQueueFacade.leaseRenewInterval", defaultValue = "10")
+    public static int JOB_QUEUE_LEASE_RENEW_INTERVAL;
 }
@@ -0,0 +1,569 @@
+package org.zstack.core.job;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusEventListener;
+import org.zstack.core.cloudbus.EventSubscriberReceipt;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SQL;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.NopeCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.message.Event;
+import org.zstack.utils.Bucket;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.JsonWrapper;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.serializable.SerializableHelper;
+
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job queues without a global lock.
+ *
+ * A queue is worked on by the management node holding its lease, the node renews leases of its
+ * queues every JobQueueFacade.leaseRenewInterval seconds for JobQueueFacade.leaseTime seconds.
+ * Every change of a queue bumps its version:
+ * <ul>
+ *     <li>submitting a job bumps the version first, which also locks the queue row until the job
+ *     is saved, and claims the queue if it has no live lease</li>
+ *     <li>a worker finding no pending job deletes the queue only if the version is still the one
+ *     read before looking for jobs, otherwise it looks again</li>
+ *     <li>queues whose leases expired or whose worker nodes were deleted are claimed by
+ *     "update ... where version = ?", only one node wins and restarts the queue</li>
+ * </ul>
+ * Lease dates are set and compared with the time of the database, so clocks of management nodes
+ * don't need to be synchronized.
+ *
+ * A node stalled longer than the lease time (e.g. a long GC pause or losing the database for a
+ * while) loses its queues: the new worker sets the job being processed back to Pending if it's
+ * restartable and runs it again, while the stalled node may still be running it and only finds the
+ * lease lost before taking its next job. Restartable jobs must therefore be safe to run twice.
+ */
+public class JobQueueFacadeImpl3 implements JobQueueFacade, CloudBusEventListener, Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(JobQueueFacadeImpl3.class);
+    private static final int SAVE_RETRY_TIMES = 3;
+
+    private Map<Long, JobWrapper> wrappers = Collections.synchronizedMap(new HashMap<Long, JobWrapper>());
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private volatile boolean stopped = false;
+    private EventSubscriberReceipt unsubscriber;
+    private Future<Void> leaseTracker;
+
+    @Override
+    public boolean handleEvent(Event e) {
+        if (!(e instanceof JobEvent)) {
+            return false;
+        }
+
+        JobEvent je = (JobEvent) e;
+        JobWrapper jw = wrappers.get(je.getJobId());
+        if (jw == null) {
+            return false;
+        }
+
+        if (je.isSuccess()) {
+            Object ret = je.getReturnValue() != null ? je.getReturnValue().get() : null;
+            jw.success(ret);
+        } else {
+            jw.fail(je.getErrorCode());
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean start() {
+        unsubscriber = bus.subscribeEvent(this, new JobEvent());
+        stopped = false;
+        trackLeases();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        stopped = true;
+        if (leaseTracker != null) {
+            leaseTracker.cancel(true);
+        }
+        if (unsubscriber != null) {
+            unsubscriber.unsubscribeAll();
+        }
+        return true;
+    }
+
+    private Timestamp leaseExpireDate() {
+        return new Timestamp(dbf.getCurrentSqlTime().getTime() + TimeUnit.SECONDS.toMillis(JobGlobalProperty.JOB_QUEUE_LEASE_TIME));
+    }
+
+    private void trackLeases() {
+        leaseTracker = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return JobGlobalProperty.JOB_QUEUE_LEASE_RENEW_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "job-queue-lease-tracker";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    SQL.New("update JobQueueVO q set q.leaseExpireDate = :expire where q.workerManagementNodeId = :me")
+                            .param("expire", leaseExpireDate())
+                            .param("me", Platform.getManagementServerId())
+                            .execute();
+
+                    takeOverJobs();
+                } catch (Throwable t) {
+                    logger.warn("unable to renew or take over job queue leases", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the queue is claimed by this node
+     */
+    private boolean claim(JobQueueVO qvo) {
+        return SQL.New("update JobQueueVO q set q.workerManagementNodeId = :me, q.leaseExpireDate = :expire, q.version = q.version + 1" +
+                " where q.id = :id and q.version = :version")
+                .param("me", Platform.getManagementServerId())
+                .param("expire", leaseExpireDate())
+                .param("id", qvo.getId())
+                .param("version", qvo.getVersion())
+                .execute() == 1;
+    }
+
+    private void takeOverJobs() {
+        List<JobQueueVO> queues = SQL.New("select q from JobQueueVO q where q.workerManagementNodeId is null" +
+                " or q.leaseExpireDate is null or q.leaseExpireDate < CURRENT_TIMESTAMP", JobQueueVO.class)
+                .list();
+
+        for (JobQueueVO queue : queues) {
+            if (stopped) {
+                return;
+            }
+
+            if (Platform.getManagementServerId().equals(queue.getWorkerManagementNodeId()) || !claim(queue)) {
+                // processed by this node, taken by another node, or a job is being submitted to it
+                continue;
+            }
+
+            logger.debug(String.format("[Orphan Queue found]: management node[id:%s] takes over queue[id:%s, name:%s] of management node[id:%s]",
+                    Platform.getManagementServerId(), queue.getId(), queue.getName(), queue.getWorkerManagementNodeId()));
+            recoverQueue(queue);
+            process(queue);
+        }
+    }
+
+    /**
+     * removes jobs nobody waits for and jobs interrupted by the previous worker,
+     * interrupted restartable jobs are pending again
+     */
+    private void recoverQueue(JobQueueVO qvo) {
+        String lastWorker = qvo.getWorkerManagementNodeId();
+        List<JobQueueEntryVO> orphans = SQL.New("select e from JobQueueEntryVO e where e.jobQueueId = :qid" +
+                " and e.issuerManagementNodeId is null and e.state in (:states)", JobQueueEntryVO.class)
+                .param("qid", qvo.getId())
+                .param("states", Arrays.asList(JobState.Pending, JobState.Processing))
+                .list();
+        for (JobQueueEntryVO e : orphans) {
+            logger.debug(String.format("[Job Removed]: job[id:%s, name:%s] because its issuer management node became unavailable", e.getId(), e.getName()));
+            dbf.remove(e);
+        }
+
+        List<JobQueueEntryVO> interrupted = SQL.New("select e from JobQueueEntryVO e where e.jobQueueId = :qid and e.state = :state", JobQueueEntryVO.class)
+                .param("qid", qvo.getId())
+                .param("state", JobState.Processing)
+                .list();
+        for (JobQueueEntryVO e : interrupted) {
+            if (!e.isRestartable()) {
+                dbf.remove(e);
+                JobEvent evt = new JobEvent();
+                evt.setJobId(e.getId());
+                evt.setErrorCode(errf.instantiateErrorCode(SysErrors.MANAGEMENT_NODE_UNAVAILABLE_ERROR,
+                        String.format("management node[id:%s] becomes unavailable, job[name:%s, id:%s] is not restartable", lastWorker, e.getName(), e.getId())));
+                bus.publish(evt);
+                logger.debug(String.format("[Job Removed]: job[id:%s, name:%s] because it's not restartable",
+                        e.getId(), e.getName()));
+                continue;
+            }
+
+            logger.debug(String.format("[Job Restart]: job[id:%s, name:%s] in queue[id:%s] is restarting as its previous worker node[id:%s] became unavailable",
+                    e.getId(), e.getName(), qvo.getId(), lastWorker));
+            e.setState(JobState.Pending);
+            dbf.update(e);
+        }
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    @AsyncThread
+    public void nodeLeft(ManagementNodeInventory inv) {
+        // queues of the node have no worker once the node is deleted, no need to wait for their leases to expire
+        logger.debug(String.format("management node[id:%s] starts taking over jobs of left management node[%s]",
+                Platform.getManagementServerId(), inv.getUuid()));
+        takeOverJobs();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+    }
+
+    private interface JobWrapper {
+        void run();
+
+        void success(Object ret);
+
+        void fail(ErrorCode err);
+    }
+
+    public void execute(String queueName, String owner, Job job) {
+        execute(queueName, owner, job, new NopeCompletion());
+    }
+
+    private void jobFail(JobQueueEntryVO jvo, ErrorCode err) {
+        jvo.setDoneDate(new Timestamp(new Date().getTime()));
+        jvo.setState(JobState.Error);
+        dbf.update(jvo);
+
+        JobEvent evt = new JobEvent();
+        evt.setJobId(jvo.getId());
+        evt.setErrorCode(err);
+        bus.publish(evt);
+    }
+
+    private void jobDone(JobQueueEntryVO jvo, Object ret) {
+        jvo.setDoneDate(new Timestamp(new Date().getTime()));
+        jvo.setState(JobState.Completed);
+        dbf.update(jvo);
+
+        JobEvent evt = new JobEvent();
+        evt.setJobId(jvo.getId());
+        if (ret != null) {
+            evt.setReturnValue(JsonWrapper.wrap(ret));
+        }
+        bus.publish(evt);
+    }
+
+    private JobQueueEntryVO findJob(long queueId) {
+        return SQL.New("select e from JobQueueEntryVO e where e.jobQueueId = :qid and e.state = :state order by e.id", JobQueueEntryVO.class)
+                .param("qid", queueId)
+                .param("state", JobState.Pending)
+                .limit(1)
+                .find();
+    }
+
+    private Bucket takeJob(final JobQueueVO qvo) {
+        String me = Platform.getManagementServerId();
+        while (true) {
+            JobQueueVO current = SQL.New("select q from JobQueueVO q where q.id = :id", JobQueueVO.class)
+                    .param("id", qvo.getId())
+                    .find();
+            if (current == null || !me.equals(current.getWorkerManagementNodeId())) {
+                logger.warn(String.format("[JobQueue lease lost] queue name: %s, queue id: %s is taken over by management node[id:%s], stop processing it",
+                        qvo.getName(), qvo.getId(), current == null ? null : current.getWorkerManagementNodeId()));
+                return null;
+            }
+
+            JobQueueEntryVO jobe = findJob(qvo.getId());
+            if (jobe == null) {
+                // nothing to do, release the queue unless a job has been submitted since reading the version
+                int deleted = SQL.New("delete from JobQueueVO q where q.id = :id and q.version = :version and q.workerManagementNodeId = :me")
+                        .param("id", current.getId())
+                        .param("version", current.getVersion())
+                        .param("me", me)
+                        .execute();
+                if (deleted == 1) {
+                    logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
+                            qvo.getOwner(), qvo.getName(), qvo.getId()));
+                    return null;
+                }
+
+                continue;
+            }
+
+            int taken = SQL.New("update JobQueueEntryVO e set e.state = :processing where e.id = :id and e.state = :pending")
+                    .param("processing", JobState.Processing)
+                    .param("pending", JobState.Pending)
+                    .param("id", jobe.getId())
+                    .execute();
+            if (taken == 0) {
+                continue;
+            }
+            jobe.setState(JobState.Processing);
+
+            try {
+                JobContextObject ctx = SerializableHelper.readObject(jobe.getContext());
+                Job theJob = ctx.load();
+                return Bucket.newBucket(jobe, theJob);
+            } catch (Exception e1) {
+                String err = String.format("[Job de-serialize failed, the job will be marked as Error] queue name: %s, job id: %s, %s", qvo.getName(),
+                        jobe.getId(), e1.getMessage());
+                logger.warn(err, e1);
+                jobFail(jobe, errf.stringToInternalError(err));
+            }
+        }
+    }
+
+    @AsyncThread
+    private void process(final JobQueueVO qvo) {
+        if (stopped) {
+            logger.warn(String.format("[Job Facade Stopped]: stop processing job"));
+            return;
+        }
+
+        Bucket ret = takeJob(qvo);
+        if (ret == null) {
+            return;
+        }
+
+        final JobQueueEntryVO e = ret.get(0);
+        final Job job = ret.get(1);
+
+        logger.debug(String.format("[Job Start] start executing job[id:%s, name:%s]", e.getId(), e.getName()));
+        job.run(new ReturnValueCompletion<Object>(null) {
+            @Override
+            public void success(Object returnValue) {
+                try {
+                    jobDone(e, returnValue);
+                    logger.debug(String.format("[Job Success] job[id:%s, name:%s] succeed", e.getId(), e.getName()));
+                } catch (Throwable t){
+                    logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
+                    jobFail(e, errf.stringToInternalError(t.getMessage()));
+                } finally {
+                    process(qvo);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                try {
+                    jobFail(e, errorCode);
+                    logger.debug(String.format("[Job Failure] job[id:%s, name:%s] failed", e.getId(), e.getName()));
+                } catch (Throwable t){
+                    logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
+                    jobFail(e, errf.stringToInternalError(t.getMessage()));
+                } finally {
+                    process(qvo);
+                }
+            }
+        });
+    }
+
+    private <T> void execute(final String queueName, final String owner, final JobQueueEntryVO entry, final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
+        new JobWrapper() {
+            private Long myJobId;
+
+            /**
+             * @return the queue if this node claims it and has to process it, otherwise null;
+             * and whether the queue is taken over from another node
+             */
+            @Transactional
+            private Bucket saveJob() {
+                String me = Platform.getManagementServerId();
+                JobQueueVO ret = null;
+                boolean orphan = false;
+
+                int bumped = SQL.New("update JobQueueVO q set q.version = q.version + 1 where q.name = :name")
+                        .param("name", queueName)
+                        .execute();
+
+                JobQueueVO qvo;
+                if (bumped == 0) {
+                    qvo = new JobQueueVO();
+                    qvo.setName(queueName);
+                    qvo.setOwner(owner);
+                    qvo.setWorkerManagementNodeId(me);
+                    qvo.setLeaseExpireDate(leaseExpireDate());
+                    dbf.getEntityManager().persist(qvo);
+                    dbf.getEntityManager().flush();
+                    dbf.getEntityManager().refresh(qvo);
+                    logger.debug(String.format("[JobQueue created] id: %s, owner: %s, queue name: %s", qvo.getId(), owner, queueName));
+                    ret = qvo;
+                } else {
+                    // the row is locked by the version bump until the transaction ends
+                    qvo = SQL.New("select q from JobQueueVO q where q.name = :name", JobQueueVO.class)
+                            .param("name", queueName)
+                            .find();
+                    boolean expired = qvo.getLeaseExpireDate() == null || qvo.getLeaseExpireDate().before(dbf.getCurrentSqlTime());
+                    // an expired lease of this node is renewed by the lease tracker, the queue is still being processed
+                    if ((qvo.getWorkerManagementNodeId() == null || (expired && !me.equals(qvo.getWorkerManagementNodeId()))) && claim(qvo)) {
+                        orphan = !me.equals(qvo.getWorkerManagementNodeId());
+                        ret = qvo;
+                    }
+                }
+
+                entry.setJobQueueId(qvo.getId());
+                entry.setIssuerManagementNodeId(me);
+                entry.setState(JobState.Pending);
+
+                JobQueueEntryVO ne = dbf.getEntityManager().merge(entry);
+                dbf.getEntityManager().flush();
+                dbf.getEntityManager().refresh(ne);
+                logger.debug(String.format("[Job added] job queue name: %s, job class name: %s, job id: %s", qvo.getName(), ne.getName(),
+                        ne.getId()));
+
+                myJobId = ne.getId();
+                wrappers.put(myJobId, this);
+                return Bucket.newBucket(ret, orphan);
+            }
+
+            @Override
+            public void run() {
+                if (stopped) {
+                    logger.warn(String.format("[Job Facade Stopped]: skip to run job[queueName:%s, owner:%s, name:%s]",
+                            queueName, owner, entry.getName()));
+                    return;
+                }
+
+                Bucket saved = null;
+                for (int i = 1; saved == null; i++) {
+                    try {
+                        saved = saveJob();
+                    } catch (PersistenceException | DataAccessException e) {
+                        // the queue is created by another node at the same time
+                        if (i >= SAVE_RETRY_TIMES) {
+                            throw new CloudRuntimeException(String.format("unable to save job: %s", entry.getName()), e);
+                        }
+                    }
+                }
+
+                JobQueueVO qvo = saved.get(0);
+                if (qvo != null) {
+                    if (saved.<Boolean>get(1)) {
+                        recoverQueue(qvo);
+                    }
+                    process(qvo);
+                }
+            }
+
+            @Override
+            public void success(Object ret) {
+                DebugUtils.Assert(myJobId!=null, "how can myJobId be null???");
+                wrappers.remove(myJobId);
+                completion.success((T)ret);
+            }
+
+            @Override
+            public void fail(ErrorCode err) {
+                DebugUtils.Assert(myJobId!=null, "how can myJobId be null???");
+                wrappers.remove(myJobId);
+                completion.fail(err);
+            }
+        }.run();
+    }
+
+    @Override
+    public <T> void execute(final String queueName, final String owner, final Job job, final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
+        try {
+            JobQueueEntryVO e = new JobQueueEntryVO();
+            JobContextObject ctx = new JobContextObject(job);
+            byte[] bits = SerializableHelper.writeObject(ctx);
+            e.setContext(bits);
+            e.setRestartable(job.getClass().isAnnotationPresent(RestartableJob.class));
+            e.setName(job.getClass().getName());
+            execute(queueName, owner, e, completion, returnType);
+        } catch (IOException e1) {
+            throw new CloudRuntimeException(e1);
+        }
+    }
+
+    @Override
+    public void execute(String queueName, String owner, Job job, final Completion completion) {
+        execute(queueName, owner, job, new ReturnValueCompletion<Object>(completion) {
+            @Override
+            public void success(Object returnValue) {
+                completion.success();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        }, null);
+    }
+
+    @Override
+    public void deleteJobQueue(String queueName) {
+
+    }
+
+    @Override
+    public void evictOwner(String owner) {
+
+    }
+
+    @Override
+    public List<String> listAllQueue() {
+        return null;
+    }
+
+    @Override
+    public List<String> listQueue(String namePattern) {
+        return null;
+    }
+
+    @Override
+    public long getPendingJobNumber(String queueName) {
+        return 0;
+    }
+
+    @Override
+    public List<String> listQueueHasPendingJob() {
+        return null;
+    }
+
+    @Override
+    public boolean startQueueIfPendingJob(String queueName, String owner) {
+        return false;
+    }
+
+    @Override
+    public boolean startQueueIfPendingJob(String queueName, String owner, boolean newThread) {
+        return false;
+    }
+}
@@ -27,6 +27,12 @@ public class JobQueueVO {
 
     @Column
     private Date takenDate;
+
+    @Column
+    private Date leaseExpireDate;
+
+    @Column
+    private long version;
     
     public JobQueueVO(String name, String owner) {
         super();
@@ -69,6 +75,22 @@ public class JobQueueVO {
         this.takenDate = takenDate;
     }
 
+    public Date getLeaseExpireDate() {
+        return leaseExpireDate;
+    }
+
+    public void setLeaseExpireDate(Date leaseExpireDate) {
+        this.leaseExpireDate = leaseExpireDate;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public String getWorkerManagementNodeId() {
         return workerManagementNodeId;
     }
@@ -12,4 +12,6 @@ public class JobQueueVO_ {
     public static volatile SingularAttribute<JobQueueVO, String> owner;
     public static volatile SingularAttribute<JobQueueVO, String> workerManagementNodeId;
     public static volatile SingularAttribute<JobQueueVO, Date> takenDate;
+    public static volatile SingularAttribute<JobQueueVO, Date> leaseExpireDate;
+    public static volatile SingularAttribute<JobQueueVO, Long> version;
 }
@@ -5,6 +5,7 @@ import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusSteppingCallback;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
@@ -13,14 +14,20 @@ import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.stats.LatencyHistogram;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Resources are spread over slots of one second, slot number is the ping interval in seconds.
+ * Every tick pings the resources in one slot, at most CoreGlobalProperty.PING_TRACKER_MAX_PINGS_PER_TICK
+ * of them, the rest are pinged first by next ticks.
  */
-public abstract class PingTracker implements Component {
+public abstract class PingTracker implements Component, PingTrackerMXBean {
     public abstract String getResourceName();
     public abstract NeedReplyMessage getPingMessage(String resUuid);
     public abstract int getPingInterval();
@@ -29,16 +36,38 @@ public abstract class PingTracker implements Component {
 
     private final static CLogger logger = Utils.getLogger(PingTracker.class);
 
-    private final List<String> resourceUuids = Collections.synchronizedList(new ArrayList<String>());
-    private Set<String> resourceInTracking = Collections.synchronizedSet(new HashSet<String>());
+    private static class Resource {
+        final String uuid;
+        int slot;
+        // when the latest ping was sent, or the resource was tracked
+        volatile long lastPingTime = System.currentTimeMillis();
+        final AtomicBoolean inTracking = new AtomicBoolean(false);
+
+        Resource(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    // guarded by resources, resources tracked before the tracker starts are kept in one slot
+    // and spread over the slots when it starts
+    private List<Set<Resource>> slots = newSlots(1);
+    // resources exceeding the per tick cap, guarded by resources
+    private List<Resource> overflow = new ArrayList<>();
+    private final Random random = new Random();
+    private final LatencyHistogram pingLatencies = new LatencyHistogram();
     private Future<Void> trackerThread = null;
 
     @Autowired
     protected CloudBus bus;
     @Autowired
     protected ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private class Tracker implements PeriodicTask {
+        private long tick = 0;
+
         @Override
         public TimeUnit getTimeUnit() {
             return TimeUnit.SECONDS;
@@ -46,7 +75,7 @@ public abstract class PingTracker implements Component {
 
         @Override
         public long getInterval() {
-            return getPingInterval();
+            return 1;
         }
 
         @Override
@@ -54,42 +83,67 @@ public abstract class PingTracker implements Component {
             return String.format("pingTracker-for-%s-managementNode-%s", getResourceName(), Platform.getManagementServerId());
         }
 
-        @Override
-        public void run() {
-            try {
-                List<NeedReplyMessage> msgs = null;
-                synchronized (resourceUuids) {
-                    final Map<NeedReplyMessage, String> tmp = new HashMap<NeedReplyMessage, String>();
-
-                    msgs = new ArrayList<NeedReplyMessage>();
-                    for (String resUuid : resourceUuids) {
-                        if (resourceInTracking.contains(resUuid)) {
-                            continue;
-                        }
+        private List<Resource> takeResourcesToPing() {
+            synchronized (resources) {
+                Set<Resource> candidates = new LinkedHashSet<>(overflow);
+                candidates.addAll(slots.get((int) (tick++ % slots.size())));
+                overflow = new ArrayList<>();
 
-                        NeedReplyMessage msg = getPingMessage(resUuid);
-                        msgs.add(msg);
-                        resourceInTracking.add(resUuid);
-                        tmp.put(msg, resUuid);
+                int cap = getMaxPingsPerTick();
+                List<Resource> ret = new ArrayList<>();
+                for (Resource r : candidates) {
+                    if (resources.get(r.uuid) != r || r.inTracking.get()) {
+                        continue;
                     }
 
-                    if (msgs.isEmpty()) {
-                        return;
+                    if (cap > 0 && ret.size() >= cap) {
+                        overflow.add(r);
+                    } else {
+                        ret.add(r);
                     }
+                }
 
-                    bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback(null) {
-                        @Override
-                        public void run(NeedReplyMessage msg, MessageReply reply) {
-                            String resUuid = tmp.get(msg);
-                            DebugUtils.Assert(resUuid!=null, "where is my resource uuid???");
-                            try {
-                                handleReply(resUuid, reply);
-                            } finally {
-                                resourceInTracking.remove(resUuid);
-                            }
-                        }
-                    });
+                if (!overflow.isEmpty()) {
+                    logger.debug(String.format("%s %s exceed the cap of %s pings per tick, ping them in next ticks",
+                            overflow.size(), getResourceName(), cap));
+                }
+
+                return ret;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Resource> rs = takeResourcesToPing();
+                if (rs.isEmpty()) {
+                    return;
                 }
+
+                final Map<NeedReplyMessage, Resource> tmp = new HashMap<>();
+                List<NeedReplyMessage> msgs = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                for (Resource r : rs) {
+                    NeedReplyMessage msg = getPingMessage(r.uuid);
+                    r.inTracking.set(true);
+                    r.lastPingTime = now;
+                    msgs.add(msg);
+                    tmp.put(msg, r);
+                }
+
+                bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback(null) {
+                    @Override
+                    public void run(NeedReplyMessage msg, MessageReply reply) {
+                        Resource r = tmp.get(msg);
+                        DebugUtils.Assert(r!=null, "where is my resource uuid???");
+                        pingLatencies.record(System.currentTimeMillis() - r.lastPingTime);
+                        try {
+                            handleReply(r.uuid, reply);
+                        } finally {
+                            r.inTracking.set(false);
+                        }
+                    }
+                });
             } catch (Throwable t) {
                 logger.warn("unhandled throwable", t);
             }
@@ -108,52 +162,119 @@ public abstract class PingTracker implements Component {
     protected void pingIntervalChanged() {
         startTracker();
     }
-    
-    public void track(String resUuid) {
-        synchronized (resourceUuids) {
-            if (!resourceUuids.contains(resUuid)) {
-                resourceUuids.add(resUuid);
-                trackHook(resUuid);
-                logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
+
+    /**
+     * @return the max number of resources pinged in one second, 0 means no limit
+     */
+    protected int getMaxPingsPerTick() {
+        return CoreGlobalProperty.PING_TRACKER_MAX_PINGS_PER_TICK;
+    }
+
+    // puts the resource in the slot having the fewest resources, ties are broken from a random slot
+    private void addToSlot(Resource r) {
+        int from = random.nextInt(slots.size());
+        int slot = from;
+        for (int i = 0; i < slots.size(); i++) {
+            int s = (from + i) % slots.size();
+            if (slots.get(s).size() < slots.get(slot).size()) {
+                slot = s;
             }
         }
+
+        r.slot = slot;
+        slots.get(slot).add(r);
+    }
+
+    private void doTrack(String resUuid) {
+        if (resources.containsKey(resUuid)) {
+            return;
+        }
+
+        Resource r = new Resource(resUuid);
+        resources.put(resUuid, r);
+        addToSlot(r);
+        trackHook(resUuid);
+        logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
+    }
+
+    private void doUntrack(String resUuid) {
+        Resource r = resources.remove(resUuid);
+        if (r != null) {
+            slots.get(r.slot).remove(r);
+        }
+        untrackHook(resUuid);
+        logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
+    }
+
+    public void track(String resUuid) {
+        synchronized (resources) {
+            doTrack(resUuid);
+        }
     }
 
     public void untrackAll() {
-        synchronized (resourceUuids) {
-            resourceUuids.clear();
+        synchronized (resources) {
+            resources.clear();
+            slots.forEach(Set::clear);
+            overflow.clear();
             logger.debug(String.format("untrack all %s", getResourceName()));
         }
     }
 
     public void untrack(String resUuid) {
-        synchronized (resourceUuids) {
-            resourceUuids.remove(resUuid);
-            untrackHook(resUuid);
-            logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
+        synchronized (resources) {
+            doUntrack(resUuid);
         }
     }
 
     public void track(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                if (!resourceUuids.contains(resUuid)) {
-                    resourceUuids.add(resUuid);
-                    trackHook(resUuid);
-                    logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
-                }
-            }
+        synchronized (resources) {
+            resUuids.forEach(this::doTrack);
         }
     }
 
     public void untrack(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                resourceUuids.remove(resUuid);
-                untrackHook(resUuid);
-                logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
-            }
+        synchronized (resources) {
+            resUuids.forEach(this::doUntrack);
+        }
+    }
+
+    @Override
+    public int getTrackedResourceNum() {
+        return resources.size();
+    }
+
+    /**
+     * a resource is overdue if it has not been pinged for more than one ping interval, because
+     * its former ping is not replied or the per tick cap is exceeded
+     */
+    @Override
+    public int getOverdueResourceNum() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(getPingInterval() + 1);
+        return (int) resources.values().stream().filter(r -> r.lastPingTime < deadline).count();
+    }
+
+    @Override
+    public long getPingLatencyP50() {
+        return pingLatencies.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getPingLatencyP99() {
+        return pingLatencies.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getPingLatencyMax() {
+        return pingLatencies.getMax();
+    }
+
+    private static List<Set<Resource>> newSlots(int num) {
+        List<Set<Resource>> ret = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, num); i++) {
+            ret.add(new HashSet<>());
         }
+        return ret;
     }
 
     protected void startTracker() {
@@ -161,17 +282,20 @@ public abstract class PingTracker implements Component {
             trackerThread.cancel(true);
         }
 
-        if (CoreGlobalProperty.UNIT_TEST_ON) {
-            trackerThread = thdf.submitPeriodicTask(new Tracker(), getPingInterval());
-        } else {
-            trackerThread = thdf.submitPeriodicTask(new Tracker(), getPingInterval() + new Random().nextInt(30));
+        synchronized (resources) {
+            slots = newSlots(getPingInterval());
+            overflow = new ArrayList<>();
+            resources.values().forEach(this::addToSlot);
         }
+
+        trackerThread = thdf.submitPeriodicTask(new Tracker(), 1);
     }
 
     @Override
     public boolean start() {
         startTracker();
         startHook();
+        jmxf.registerBean(String.format("PingTracker-%s", getResourceName().replace(" ", "-")), this);
         return true;
     }
 
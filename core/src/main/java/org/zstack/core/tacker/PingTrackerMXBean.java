@@ -0,0 +1,16 @@
+package org.zstack.core.tacker;
+
+/**
+ * latencies are in milliseconds
+ */
+public interface PingTrackerMXBean {
+    int getTrackedResourceNum();
+
+    int getOverdueResourceNum();
+
+    long getPingLatencyP50();
+
+    long getPingLatencyP99();
+
+    long getPingLatencyMax();
+}
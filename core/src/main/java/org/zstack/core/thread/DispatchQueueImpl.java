@@ -44,35 +44,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         List<String> asyncTasks = new ArrayList<>();
         long now = System.currentTimeMillis();
         for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
-            StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", e.getKey()));
             ChainTaskQueueWrapper w = e.getValue();
-            tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
-            tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
-            tb.append(String.format("\nASYNC LEVEL: %s", w.maxThreadNum));
-
-            int index = 0;
-            for (Object obj : w.runningQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                long execTime = TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartExecutionTimeInMills());
-                long pendingTime = TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartPendingTimeInMills()) - execTime;
-
-                tb.append(String.format("\nRUNNING TASK[NAME: %s, CLASS: %s, PENDING TIME: %s sec, EXECUTION TIME: %s secs, INDEX: %s] %s",
-                        cf.getTask().getName(), cf.getTask().getClass(),
-                        pendingTime,
-                        execTime, index++,
-                        getChainContext(cf.getTask())
-                ));
-            }
-
-            for (Object obj : w.pendingQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                tb.append(String.format("\nPENDING TASK[NAME: %s, CLASS: %s PENDING TIME: %s secs, INDEX: %s] %s",
-                        cf.getTask().getName(), cf.getTask().getClass(),
-                        TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartPendingTimeInMills()), index++,
-                        getChainContext(cf.getTask())
-                ));
-            }
-            asyncTasks.add(tb.toString());
+            asyncTasks.add(dumpChainQueue(e.getKey(), w.maxThreadNum, w.runningQueue, w.pendingQueue, now));
         }
         sb.append(StringUtils.join(asyncTasks, "\n"));
         sb.append("\n================= END TASK QUEUE DUMP ==================\n");
@@ -80,7 +53,39 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         logger.debug(sb.toString());
     }
 
-    private String getChainContext(ChainTask task) {
+    static String dumpChainQueue(String signature, int syncLevel, Collection runningQueue, Collection pendingQueue, long now) {
+        StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", signature));
+        tb.append(String.format("\nRUNNING TASK NUMBER: %s", runningQueue.size()));
+        tb.append(String.format("\nPENDING TASK NUMBER: %s", pendingQueue.size()));
+        tb.append(String.format("\nASYNC LEVEL: %s", syncLevel));
+
+        int index = 0;
+        for (Object obj : runningQueue) {
+            ChainFuture cf = (ChainFuture) obj;
+            long execTime = TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartExecutionTimeInMills());
+            long pendingTime = TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartPendingTimeInMills()) - execTime;
+
+            tb.append(String.format("\nRUNNING TASK[NAME: %s, CLASS: %s, PENDING TIME: %s sec, EXECUTION TIME: %s secs, INDEX: %s] %s",
+                    cf.getTask().getName(), cf.getTask().getClass(),
+                    pendingTime,
+                    execTime, index++,
+                    getChainContext(cf.getTask())
+            ));
+        }
+
+        for (Object obj : pendingQueue) {
+            ChainFuture cf = (ChainFuture) obj;
+            tb.append(String.format("\nPENDING TASK[NAME: %s, CLASS: %s PENDING TIME: %s secs, INDEX: %s] %s",
+                    cf.getTask().getName(), cf.getTask().getClass(),
+                    TimeUnit.MILLISECONDS.toSeconds(now - cf.getStartPendingTimeInMills()), index++,
+                    getChainContext(cf.getTask())
+            ));
+        }
+
+        return tb.toString();
+    }
+
+    private static String getChainContext(ChainTask task) {
         List<String> context = new ArrayList<>();
         for (AsyncBackup backup : task.getBackups()) {
             if (backup instanceof Message) {
@@ -99,12 +104,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         DebugManager.registerDebugSignalHandler(DUMP_TASK_DEBUG_SINGAL, this);
     }
 
-    private class SyncTaskFuture<T> extends AbstractFuture<T> {
+    static class SyncTaskFuture<T> extends AbstractFuture<T> {
         public SyncTaskFuture(SyncTask<T> task) {
             super(task);
         }
 
-        private SyncTask getTask() {
+        SyncTask getTask() {
             return (SyncTask) task;
         }
 
@@ -228,7 +233,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
 
-    class ChainFuture extends AbstractFuture {
+    static class ChainFuture extends AbstractFuture {
         private AtomicBoolean isNextCalled = new AtomicBoolean(false);
 
         private long startPendingTimeInMills = System.currentTimeMillis();
@@ -250,7 +255,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             super(task);
         }
 
-        private ChainTask getTask() {
+        ChainTask getTask() {
             return (ChainTask) task;
         }
 
@@ -356,7 +361,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                     }
 
                     synchronized (runningQueue) {
-                        cf.startExecutionTimeInMills = System.currentTimeMillis();
+                        cf.setStartExecutionTimeInMills(System.currentTimeMillis());
                         // add to running queue
                         runningQueue.offer(cf);
                     }
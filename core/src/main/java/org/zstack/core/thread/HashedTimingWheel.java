@@ -0,0 +1,306 @@
+package org.zstack.core.thread;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed hierarchical timing wheel.
+ *
+ * Each level has WHEEL_SIZE buckets, a bucket on level N covers WHEEL_SIZE^N ticks. A timeout is
+ * placed on the lowest level that can hold its remaining ticks and is cascaded to the lower
+ * level when the lower level wraps around, so both scheduling and cancelling are O(1).
+ *
+ * Scheduling and cancelling never take a lock, they only enqueue the timeout; the single worker
+ * thread owns all buckets and links/unlinks timeouts at the beginning of every tick. A cancelled
+ * timeout therefore leaves its bucket within one tick instead of waiting for a purge.
+ *
+ * Expired timeouts are run on the worker thread, callers must hand off any real work to a thread pool.
+ */
+public class HashedTimingWheel {
+    private static final CLogger logger = Utils.getLogger(HashedTimingWheel.class);
+
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    // 7 levels of 512 buckets cover 2^63 ticks, any long deadline fits in the wheel
+    private static final int LEVELS = (Long.SIZE - 1 + WHEEL_BITS - 1) / WHEEL_BITS;
+
+    private static final int WORKER_STATE_INIT = 0;
+    private static final int WORKER_STATE_STARTED = 1;
+    private static final int WORKER_STATE_SHUTDOWN = 2;
+
+    private final long tickNanos;
+    private final Bucket[][] wheel = new Bucket[LEVELS][];
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingTimeouts = new AtomicLong(0);
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_STATE_INIT);
+    private final Thread workerThread;
+
+    private volatile long startTime;
+    // only accessed by the worker thread
+    private long tick;
+
+    private static class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            t.prev = tail;
+            t.next = null;
+            if (tail == null) {
+                head = t;
+            } else {
+                tail.next = t;
+            }
+            tail = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev == null) {
+                head = t.next;
+            } else {
+                t.prev.next = t.next;
+            }
+
+            if (t.next == null) {
+                tail = t.prev;
+            } else {
+                t.next.prev = t.prev;
+            }
+
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        Timeout detach() {
+            Timeout ret = head;
+            head = null;
+            tail = null;
+            return ret;
+        }
+    }
+
+    public class Timeout implements ThreadFacadeImpl.TimeoutTaskReceipt {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineTick;
+        volatile int state = ST_INIT;
+
+        // guarded by the worker thread
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            pendingTimeouts.decrementAndGet();
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            pendingTimeouts.decrementAndGet();
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception happened when running %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    public HashedTimingWheel(String name, long tick, TimeUnit unit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException(String.format("tick must be greater than 0, but got %s", tick));
+        }
+
+        tickNanos = unit.toNanos(tick);
+        for (int i = 0; i < LEVELS; i++) {
+            Bucket[] buckets = new Bucket[WHEEL_SIZE];
+            for (int j = 0; j < WHEEL_SIZE; j++) {
+                buckets[j] = new Bucket();
+            }
+            wheel[i] = buckets;
+        }
+
+        workerThread = new Thread(this::work, name);
+        workerThread.setDaemon(true);
+    }
+
+    public void start() {
+        if (!workerState.compareAndSet(WORKER_STATE_INIT, WORKER_STATE_STARTED)) {
+            return;
+        }
+
+        startTime = System.nanoTime();
+        workerThread.start();
+    }
+
+    public void stop() {
+        if (workerState.getAndSet(WORKER_STATE_SHUTDOWN) == WORKER_STATE_STARTED) {
+            workerThread.interrupt();
+        }
+    }
+
+    public long getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (workerState.get() != WORKER_STATE_STARTED) {
+            throw new CloudRuntimeException(String.format("timing wheel[%s] is not running", workerThread.getName()));
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        if (deadline < 0) {
+            // overflow
+            deadline = Long.MAX_VALUE;
+        }
+
+        long deadlineTick = deadline / tickNanos;
+        if (deadline % tickNanos != 0) {
+            deadlineTick++;
+        }
+
+        Timeout timeout = new Timeout(task, deadlineTick);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void work() {
+        while (workerState.get() == WORKER_STATE_STARTED) {
+            if (!waitForTick()) {
+                continue;
+            }
+
+            unlinkCancelledTimeouts();
+            cascade();
+            transferNewTimeouts();
+            expireTimeouts();
+            tick++;
+        }
+    }
+
+    private boolean waitForTick() {
+        long deadline = tickNanos * tick;
+        long sleepNanos = deadline - (System.nanoTime() - startTime);
+        if (sleepNanos <= 0) {
+            return true;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the worker
+        }
+
+        return false;
+    }
+
+    private void unlinkCancelledTimeouts() {
+        Timeout t;
+        while ((t = cancelledTimeouts.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void cascade() {
+        // cascade from the top level down so a timeout can fall through several levels in one tick
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = WHEEL_BITS * level;
+            if ((tick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+
+            Bucket bucket = wheel[level][(int) ((tick >>> shift) & WHEEL_MASK)];
+            Timeout t = bucket.detach();
+            while (t != null) {
+                Timeout next = t.next;
+                t.prev = null;
+                t.next = null;
+                t.bucket = null;
+                if (t.state == Timeout.ST_INIT) {
+                    place(t);
+                }
+                t = next;
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout t;
+        while ((t = newTimeouts.poll()) != null) {
+            if (t.state == Timeout.ST_INIT) {
+                place(t);
+            }
+        }
+    }
+
+    private void place(Timeout t) {
+        long remaining = t.deadlineTick - tick;
+        if (remaining <= 0) {
+            wheel[0][(int) (tick & WHEEL_MASK)].add(t);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && remaining >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+
+        wheel[level][(int) ((t.deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(t);
+    }
+
+    private void expireTimeouts() {
+        Timeout t = wheel[0][(int) (tick & WHEEL_MASK)].detach();
+        while (t != null) {
+            Timeout next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            t.expire();
+            t = next;
+        }
+    }
+}
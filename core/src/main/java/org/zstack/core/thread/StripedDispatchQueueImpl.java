@@ -0,0 +1,303 @@
+package org.zstack.core.thread;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.debug.DebugManager;
+import org.zstack.core.debug.DebugSignalHandler;
+import org.zstack.core.thread.DispatchQueueImpl.ChainFuture;
+import org.zstack.core.thread.DispatchQueueImpl.SyncTaskFuture;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * A DispatchQueue having the same semantics as DispatchQueueImpl, but instead of one
+ * global monitor, queues are guarded by a fixed set of lock stripes chosen by the sync signature,
+ * so submitting/dequeuing tasks of different signatures rarely contends.
+ *
+ * The running set is a LinkedHashSet so a finished task is removed in O(1) while the
+ * DumpTaskQueue debug signal still prints tasks in execution order.
+ *
+ * enabled by ThreadFacade.stripedDispatchQueue
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE, dependencyCheck = true)
+class StripedDispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
+    private static final CLogger logger = Utils.getLogger(StripedDispatchQueueImpl.class);
+
+    private static final int STRIPES = 1024;
+
+    @Autowired
+    ThreadFacade _threadFacade;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final Map<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final Map<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
+
+    public StripedDispatchQueueImpl() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        DebugManager.registerDebugSignalHandler(DispatchQueueImpl.DUMP_TASK_DEBUG_SINGAL, this);
+    }
+
+    private Object lockOf(String signature) {
+        int h = signature.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (STRIPES - 1)];
+    }
+
+    @Override
+    public void handleDebugSignal() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n================= BEGIN TASK QUEUE DUMP ================");
+        sb.append("\nASYNC TASK QUEUE DUMP:");
+        sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
+        List<String> asyncTasks = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            ChainTaskQueueWrapper w = e.getValue();
+            List<ChainFuture> running;
+            List<ChainFuture> pending;
+            synchronized (lockOf(e.getKey())) {
+                running = new ArrayList<>(w.runningQueue);
+                pending = new ArrayList<>(w.pendingQueue);
+            }
+
+            asyncTasks.add(DispatchQueueImpl.dumpChainQueue(e.getKey(), w.maxThreadNum, running, pending, now));
+        }
+        sb.append(StringUtils.join(asyncTasks, "\n"));
+        sb.append("\n================= END TASK QUEUE DUMP ==================\n");
+        _threadFacade.printThreadsAndTasks();
+        logger.debug(sb.toString());
+    }
+
+    private class SyncTaskQueueWrapper {
+        final Queue<SyncTaskFuture> queue = new ConcurrentLinkedQueue<>();
+        // guarded by lockOf(syncSignature)
+        int counter = 0;
+        final int maxThreadNum;
+        final String syncSignature;
+
+        SyncTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        void startThreadIfNeeded() {
+            if (counter >= maxThreadNum) {
+                return;
+            }
+
+            counter++;
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return syncSignature;
+                }
+
+                void run() {
+                    SyncTaskFuture stask;
+                    while (true) {
+                        while ((stask = queue.poll()) != null) {
+                            stask.run();
+                        }
+
+                        synchronized (lockOf(syncSignature)) {
+                            if (queue.isEmpty()) {
+                                if (--counter == 0) {
+                                    syncTasks.remove(syncSignature);
+                                }
+
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    run();
+                    return null;
+                }
+            });
+        }
+    }
+
+    private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
+        assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
+
+        final String signature = syncTask.getSyncSignature();
+        SyncTaskFuture<T> f = new SyncTaskFuture<>(syncTask);
+        synchronized (lockOf(signature)) {
+            SyncTaskQueueWrapper wrapper = syncTasks.get(signature);
+            if (wrapper == null) {
+                wrapper = new SyncTaskQueueWrapper(signature, syncTask.getSyncLevel());
+                syncTasks.put(signature, wrapper);
+            }
+
+            wrapper.queue.offer(f);
+            wrapper.startThreadIfNeeded();
+        }
+
+        return f;
+    }
+
+    @Override
+    public <T> Future<T> syncSubmit(SyncTask<T> task) {
+        if (task.getSyncLevel() <= 0) {
+            return _threadFacade.submit(task);
+        } else {
+            return doSyncSubmit(task);
+        }
+    }
+
+    private class ChainTaskQueueWrapper {
+        // all fields are guarded by lockOf(syncSignature)
+        final ArrayDeque<ChainFuture> pendingQueue = new ArrayDeque<>();
+        final Set<ChainFuture> runningQueue = new LinkedHashSet<>();
+        int counter = 0;
+        volatile int maxThreadNum;
+        final String syncSignature;
+
+        ChainTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        void addTask(ChainFuture task) {
+            pendingQueue.offer(task);
+
+            if (maxThreadNum < task.getSyncLevel()) {
+                logger.warn(String.format("task[name:%s] increases queue[name:%s]'s sync level from %s to %s", task.getTask().getName(), task.getSyncSignature(), maxThreadNum, task.getSyncLevel()));
+                maxThreadNum = task.getSyncLevel();
+            }
+        }
+
+        void startThreadIfNeeded() {
+            if (counter >= maxThreadNum) {
+                return;
+            }
+
+            counter++;
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "sync-chain-thread";
+                }
+
+                // start a new thread every time to avoid stack overflow
+                @AsyncThread
+                private void runQueue() {
+                    ChainFuture cf;
+                    synchronized (lockOf(syncSignature)) {
+                        cf = pendingQueue.poll();
+
+                        if (cf == null) {
+                            if (--counter == 0) {
+                                chainTasks.remove(syncSignature);
+                            }
+
+                            return;
+                        }
+
+                        cf.setStartExecutionTimeInMills(System.currentTimeMillis());
+                        runningQueue.add(cf);
+                    }
+
+                    cf.run(() -> {
+                        synchronized (lockOf(syncSignature)) {
+                            runningQueue.remove(cf);
+                        }
+
+                        runQueue();
+                    });
+                }
+
+                @Override
+                public Void call() {
+                    runQueue();
+                    return null;
+                }
+            });
+        }
+    }
+
+    private Future<Void> doChainSyncSubmit(final ChainTask task) {
+        assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
+        DebugUtils.Assert(task.getSyncLevel() >= 1, String.format("getSyncLevel() must return 1 at least "));
+
+        final String signature = task.getSyncSignature();
+        ChainFuture cf = new ChainFuture(task);
+        synchronized (lockOf(signature)) {
+            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
+            if (wrapper == null) {
+                wrapper = new ChainTaskQueueWrapper(signature, task.getSyncLevel());
+                chainTasks.put(signature, wrapper);
+            }
+
+            wrapper.addTask(cf);
+            wrapper.startThreadIfNeeded();
+        }
+
+        return cf;
+    }
+
+    @Override
+    public Future<Void> chainSubmit(ChainTask task) {
+        return doChainSyncSubmit(task);
+    }
+
+    @Override
+    public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
+        Map<String, SyncTaskStatistic> ret = new HashMap<String, SyncTaskStatistic>();
+        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter,
+                    wrapper.queue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+
+            logger.warn(JSONObjectUtil.toJsonString(statistic));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
+        Map<String, ChainTaskStatistic> ret = new HashMap<String, ChainTaskStatistic>();
+        for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+            int pending;
+            int running;
+            synchronized (lockOf(wrapper.syncSignature)) {
+                pending = wrapper.pendingQueue.size();
+                running = wrapper.counter;
+            }
+
+            ChainTaskStatistic statistic = new ChainTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    running,
+                    pending
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean isChainTaskRunning(String signature) {
+        return chainTasks.containsKey(signature);
+    }
+}
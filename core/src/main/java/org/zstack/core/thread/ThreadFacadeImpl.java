@@ -6,10 +6,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -23,58 +20,13 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private static AtomicInteger seqNum = new AtomicInteger(0);
     private ScheduledThreadPoolExecutorExt _pool;
     private DispatchQueue dpq;
-    private TimerPool timerPool = new TimerPool(5);
+    private HashedTimingWheel timingWheel;
+    private VirtualThreadExecutor virtualThreadExecutor;
+    private VirtualThreadPinningDetector pinningDetector;
 
     @Autowired
     private JmxFacade jmxf;
 
-    private class TimerWrapper extends Timer {
-        private int cancelledTimerTaskCount = 0;
-        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
-
-        void notifyCancel() {
-            if (cancelledTimerTaskCount++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
-                cancelledTimerTaskCount = 0;
-                this.purge();
-            }
-        }
-    }
-
-    private class TimerPool {
-        int poolSize;
-        List<TimerWrapper> pool;
-
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
-
-        private TimerPool(int poolSize) {
-            this.poolSize = poolSize;
-            pool = new ArrayList<TimerWrapper>(poolSize);
-            for (int i = 0; i < poolSize; i++) {
-                pool.add(new TimerWrapper());
-            }
-        }
-
-        TimerWrapper getTimer() {
-            int index = ++counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
-        }
-
-        void stop() {
-            for (TimerWrapper wrapper : pool) {
-                wrapper.cancel();
-            }
-        }
-    }
-
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         return dpq.getSyncTaskStatistics();
@@ -89,7 +41,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     public ThreadPoolStatistic getThreadPoolStatistic() {
         long completedTask = _pool.getCompletedTaskCount();
         long pendingTask = _pool.getTaskCount() - completedTask;
-        return new ThreadPoolStatistic(
+        ThreadPoolStatistic statistic = new ThreadPoolStatistic(
                 _pool.getPoolSize(),
                 _pool.getActiveCount(),
                 completedTask,
@@ -98,6 +50,13 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
                 _pool.getMaximumPoolSize(),
                 _pool.getQueue().size()
         );
+
+        if (virtualThreadExecutor != null) {
+            statistic.setActiveVirtualThreadNum(virtualThreadExecutor.getActiveTaskNum());
+            statistic.setCompletedVirtualThreadTaskNum(virtualThreadExecutor.getCompletedTaskNum());
+        }
+
+        return statistic;
     }
 
     public static class Worker<T> implements Callable<T> {
@@ -130,17 +89,51 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         }
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
-        dpq = new DispatchQueueImpl();
+
+        if (ThreadGlobalProperty.VIRTUAL_THREAD) {
+            if (VirtualThreadExecutor.isSupported()) {
+                virtualThreadExecutor = new VirtualThreadExecutor(_pool, "zs-vthread-");
+                pinningDetector = new VirtualThreadPinningDetector(ThreadGlobalProperty.VIRTUAL_THREAD_PINNED_THRESHOLD_MS);
+                pinningDetector.start();
+                _logger.debug("ThreadFacade runs submitted tasks, @AsyncThread methods and chain tasks on virtual threads");
+            } else {
+                _logger.warn(String.format("ThreadFacade.virtualThread is set but the JVM[%s] doesn't support virtual threads," +
+                        " fall back to the thread pool", System.getProperty("java.version")));
+            }
+        }
+        if (ThreadGlobalProperty.STRIPED_DISPATCH_QUEUE) {
+            _logger.debug("use the lock-striped dispatch queue for sync/chain tasks");
+            dpq = new StripedDispatchQueueImpl();
+        } else {
+            dpq = new DispatchQueueImpl();
+        }
+
+        long tick = ThreadGlobalProperty.TIMING_WHEEL_TICK_MS;
+        if (tick <= 0) {
+            _logger.warn(String.format("ThreadFacade.timingWheelTickMs is configured to %s, which is invalid. Change it to 10", tick));
+            tick = 10;
+        }
+        timingWheel = new HashedTimingWheel("zs-timing-wheel", tick, TimeUnit.MILLISECONDS);
+        timingWheel.start();
 
         jmxf.registerBean("ThreadFacade", this);
     }
 
     public void destroy() {
         _pool.shutdownNow();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdownNow();
+            pinningDetector.stop();
+        }
+        timingWheel.stop();
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor.submit(new Worker<T>(task));
+        }
+
         return _pool.submit(new Worker<T>(task));
     }
 
@@ -231,9 +224,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-
-        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
+        class TimeoutTaskWorker implements Runnable {
             @Override
             @AsyncThread
             public void run() {
@@ -241,42 +232,29 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
                     task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                } finally {
-                    this.cancel();
                 }
             }
-
-            @Override
-            public boolean cancel() {
-                boolean ret = super.cancel();
-                timer.notifyCancel();
-                return ret;
-            }
         }
 
-        TimerTaskWorker worker = new TimerTaskWorker();
-        timer.schedule(worker, unit.toMillis(delay));
-        return worker;
+        return timingWheel.newTimeout(new TimeoutTaskWorker(), delay, unit);
     }
 
     @Override
     public Runnable submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-        java.util.TimerTask t = new java.util.TimerTask() {
+        class TimerTaskWorker implements Runnable {
             @Override
+            @AsyncThread
             public void run() {
                 try {
-                    if (task.run()) {
-                        cancel();
-                    }
+                    task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
                 }
             }
-        };
+        }
 
-        timer.schedule(t, unit.toMillis(delay));
-        return t::cancel;
+        TimeoutTaskReceipt receipt = timingWheel.newTimeout(new TimerTaskWorker(), delay, unit);
+        return receipt::cancel;
     }
 
     @Override
@@ -287,7 +265,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     @Override
     public boolean stop() {
         _pool.shutdown();
-        timerPool.stop();
+        timingWheel.stop();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            pinningDetector.stop();
+        }
         return true;
     }
 
@@ -336,6 +318,10 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         builder.append(String.format("poolSize: %s, activeSize: %s, corePoolSize: %s, maximumPoolSize: %s, " +
                 "completedTasks: %s, pendingTasks: %s, queueTasks: %s", _pool.getPoolSize(), _pool.getActiveCount(),
                 _pool.getCorePoolSize(), _pool.getMaximumPoolSize(), completedTask, pendingTask, _pool.getQueue().size()));
+        if (virtualThreadExecutor != null) {
+            builder.append(String.format(", activeVirtualThreads: %s, completedVirtualThreadTasks: %s",
+                    virtualThreadExecutor.getActiveTaskNum(), virtualThreadExecutor.getCompletedTaskNum()));
+        }
 
         _logger.debug(builder.toString());
     }
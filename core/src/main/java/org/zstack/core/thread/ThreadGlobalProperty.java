@@ -9,4 +9,12 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "150")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.timingWheelTickMs", defaultValue = "10")
+    public static long TIMING_WHEEL_TICK_MS;
+    @GlobalProperty(name="ThreadFacade.stripedDispatchQueue", defaultValue = "false")
+    public static boolean STRIPED_DISPATCH_QUEUE;
+    @GlobalProperty(name="ThreadFacade.virtualThread", defaultValue = "false")
+    public static boolean VIRTUAL_THREAD;
+    @GlobalProperty(name="ThreadFacade.virtualThreadPinnedThresholdMs", defaultValue = "20")
+    public static long VIRTUAL_THREAD_PINNED_THRESHOLD_MS;
 }
@@ -12,6 +12,8 @@ public class ThreadPoolStatistic {
     private long corePoolSize;
     private long maxPoolSize;
     private long queuedTaskNum;
+    private long activeVirtualThreadNum;
+    private long completedVirtualThreadTaskNum;
 
     @ConstructorProperties({"totalThreadNum", "activeThreadNum", "completedTaskNum", "pendingTaskNum", "corePoolSize", "maxPoolSize", "queuedTaskNum"})
     public ThreadPoolStatistic(int totalThreadNum, int activeThreadNum, long completedTaskNum, long pendingTaskNum, long corePoolSize, long maxPoolSize, long queuedTaskNum) {
@@ -52,4 +54,20 @@ public class ThreadPoolStatistic {
         return completedTaskNum;
     }
 
+    public long getActiveVirtualThreadNum() {
+        return activeVirtualThreadNum;
+    }
+
+    public void setActiveVirtualThreadNum(long activeVirtualThreadNum) {
+        this.activeVirtualThreadNum = activeVirtualThreadNum;
+    }
+
+    public long getCompletedVirtualThreadTaskNum() {
+        return completedVirtualThreadTaskNum;
+    }
+
+    public void setCompletedVirtualThreadTaskNum(long completedVirtualThreadTaskNum) {
+        this.completedVirtualThreadTaskNum = completedVirtualThreadTaskNum;
+    }
+
 }
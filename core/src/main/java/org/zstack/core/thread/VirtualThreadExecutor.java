@@ -0,0 +1,98 @@
+package org.zstack.core.thread;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks submitted to ThreadFacade on JDK virtual threads, one thread per task.
+ *
+ * The code base compiles for Java 8, so virtual threads are looked up reflectively;
+ * isSupported() returns false on JVMs older than 21 and the caller keeps the thread pool.
+ *
+ * The ThreadAroundHook registered to the pool are run around each task the same way
+ * ScheduledThreadPoolExecutorExt does, so ThreadContext/TaskContext are cleaned as usual.
+ */
+class VirtualThreadExecutor {
+    private static final CLogger logger = Utils.getLogger(VirtualThreadExecutor.class);
+
+    private final ScheduledThreadPoolExecutorExt pool;
+    private final ExecutorService executor;
+
+    private final AtomicLong submittedTaskNum = new AtomicLong(0);
+    private final AtomicLong completedTaskNum = new AtomicLong(0);
+
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    VirtualThreadExecutor(ScheduledThreadPoolExecutorExt pool, String namePrefix) {
+        this.pool = pool;
+
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            executor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (Exception e) {
+            throw new CloudRuntimeException("unable to create the virtual thread executor, virtual threads require JDK 21 or later", e);
+        }
+    }
+
+    <T> Future<T> submit(Callable<T> callable) {
+        FutureTask<T> ft = new FutureTask<T>(callable) {
+            @Override
+            public void run() {
+                pool.beforeExecute(Thread.currentThread(), this);
+                try {
+                    super.run();
+                } finally {
+                    // like ThreadPoolExecutor, a FutureTask never throws, its exception is kept in the future
+                    pool.afterExecute(this, null);
+                    completedTaskNum.incrementAndGet();
+                }
+            }
+        };
+
+        submittedTaskNum.incrementAndGet();
+        try {
+            executor.execute(ft);
+        } catch (RejectedExecutionException e) {
+            completedTaskNum.incrementAndGet();
+            logger.warn(String.format("task[%s] got rejected by the virtual thread executor, the executor has been shut down",
+                    callable.getClass().getName()));
+            throw e;
+        }
+
+        return ft;
+    }
+
+    long getSubmittedTaskNum() {
+        return submittedTaskNum.get();
+    }
+
+    long getCompletedTaskNum() {
+        return completedTaskNum.get();
+    }
+
+    long getActiveTaskNum() {
+        return submittedTaskNum.get() - completedTaskNum.get();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+}
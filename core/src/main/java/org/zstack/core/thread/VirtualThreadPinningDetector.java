@@ -0,0 +1,116 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Logs virtual threads pinning their carrier thread, which happens when a virtual thread blocks
+ * inside a synchronized block/method. It listens to the JFR event jdk.VirtualThreadPinned via
+ * a JFR event stream; pinning in the CloudBus or database layer is logged as a warning because
+ * it stalls a carrier thread on the hottest paths, anywhere else it's logged in debug level.
+ *
+ * Like VirtualThreadExecutor, the JFR streaming API is looked up reflectively as the code
+ * base compiles for Java 8.
+ */
+class VirtualThreadPinningDetector {
+    private static final CLogger logger = Utils.getLogger(VirtualThreadPinningDetector.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String[] HOT_PACKAGES = {
+            "org.zstack.core.cloudbus.",
+            "org.zstack.core.db."
+    };
+    private static final int MAX_FRAMES = 32;
+
+    private final long thresholdInMillis;
+    private AutoCloseable stream;
+
+    VirtualThreadPinningDetector(long thresholdInMillis) {
+        this.thresholdInMillis = thresholdInMillis;
+    }
+
+    void start() {
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+
+            Object s = streamClass.getConstructor().newInstance();
+            Object settings = streamClass.getMethod("enable", String.class).invoke(s, PINNED_EVENT);
+            settings = settingsClass.getMethod("withThreshold", Duration.class).invoke(settings, Duration.ofMillis(thresholdInMillis));
+            settingsClass.getMethod("withStackTrace").invoke(settings);
+
+            Consumer<Object> handler = this::handlePinnedEvent;
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(s, PINNED_EVENT, handler);
+            streamClass.getMethod("startAsync").invoke(s);
+            stream = (AutoCloseable) s;
+
+            logger.debug(String.format("virtual thread pinning detector started, threshold: %sms", thresholdInMillis));
+        } catch (Exception e) {
+            logger.warn("unable to start the virtual thread pinning detector, JFR event streaming is not available", e);
+        }
+    }
+
+    void stop() {
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (Exception e) {
+            logger.warn("failed to close the JFR stream of the virtual thread pinning detector", e);
+        }
+    }
+
+    private void handlePinnedEvent(Object event) {
+        try {
+            Duration duration = (Duration) invoke(event, "getDuration");
+            Object thread = invoke(event, "getThread");
+            String threadName = thread == null ? "unknown" : (String) invoke(thread, "getJavaName");
+
+            List<String> frames = new ArrayList<>();
+            boolean hot = false;
+            Object stackTrace = invoke(event, "getStackTrace");
+            if (stackTrace != null) {
+                for (Object frame : (List<?>) invoke(stackTrace, "getFrames")) {
+                    Object method = invoke(frame, "getMethod");
+                    String className = (String) invoke(invoke(method, "getType"), "getName");
+                    String methodName = (String) invoke(method, "getName");
+                    int line = (Integer) invoke(frame, "getLineNumber");
+
+                    for (String pkg : HOT_PACKAGES) {
+                        if (className.startsWith(pkg)) {
+                            hot = true;
+                            break;
+                        }
+                    }
+
+                    if (frames.size() < MAX_FRAMES) {
+                        frames.add(String.format("\tat %s.%s(%s)", className, methodName, line));
+                    }
+                }
+            }
+
+            String info = String.format("virtual thread[%s] pinned its carrier thread for %sms:\n%s",
+                    threadName, duration.toMillis(), String.join("\n", frames));
+            if (hot) {
+                logger.warn(info);
+            } else {
+                logger.debug(info);
+            }
+        } catch (Exception e) {
+            logger.warn(String.format("failed to parse the JFR event %s", PINNED_EVENT), e);
+        }
+    }
+
+    private static Object invoke(Object obj, String methodName) throws Exception {
+        Method m = obj.getClass().getMethod(methodName);
+        return m.invoke(obj);
+    }
+}
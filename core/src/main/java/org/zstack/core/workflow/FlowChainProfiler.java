@@ -0,0 +1,122 @@
+package org.zstack.core.workflow;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.utils.stats.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Latency histograms of SimpleFlowChain, on in production.
+ *
+ * One in profiler.workflow.samplingInterval chains is sampled, all flows of a sampled chain are
+ * timed with System.nanoTime(), 0 turns the profiler off. A chain is timed from start() to its
+ * done or error handler being called, rollbacks included; a flow is timed from being run to
+ * calling next() or fail().
+ *
+ * Chains are keyed by names with uuids replaced by {uuid}, flows by the chain key plus the flow
+ * name, e.g. "start-vm-{uuid}/VmAllocateHostFlow". At most MAX_ENTRIES keys are kept for each.
+ */
+public class FlowChainProfiler implements Component, FlowChainProfilerMXBean {
+    private static final int MAX_ENTRIES = 10000;
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{12}");
+
+    private static class Histogram {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+
+        FlowLatencyStatistic toStatistic(String name) {
+            return new FlowLatencyStatistic(name, latency.getCount(), failures.sum(), latency.getMean(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                    latency.getValueAtPercentile(99.9), latency.getMax());
+        }
+    }
+
+    private static final Map<String, Histogram> chains = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> flows = new ConcurrentHashMap<>();
+    private static final AtomicLong chainCount = new AtomicLong();
+
+    @Autowired
+    private JmxFacade jmxf;
+
+    /**
+     * @return true if the chain starting should be profiled
+     */
+    static boolean sample() {
+        int interval = CoreGlobalProperty.PROFILER_WORKFLOW_SAMPLING_INTERVAL;
+        return interval > 0 && chainCount.incrementAndGet() % interval == 0;
+    }
+
+    static String normalize(String name) {
+        return UUID_PATTERN.matcher(name).replaceAll("{uuid}");
+    }
+
+    private static void record(Map<String, Histogram> histograms, String name, long nanos, boolean success) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            if (histograms.size() >= MAX_ENTRIES) {
+                return;
+            }
+            h = histograms.computeIfAbsent(name, k -> new Histogram());
+        }
+
+        h.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (!success) {
+            h.failures.increment();
+        }
+    }
+
+    static void recordChain(String chainName, long nanos, boolean success) {
+        record(chains, chainName, nanos, success);
+    }
+
+    static void recordFlow(String chainName, String flowName, long nanos, boolean success) {
+        record(flows, String.format("%s/%s", chainName, normalize(flowName)), nanos, success);
+    }
+
+    private static Map<String, FlowLatencyStatistic> toStatistics(Map<String, Histogram> histograms) {
+        Map<String, FlowLatencyStatistic> ret = new HashMap<>();
+        histograms.forEach((name, h) -> ret.put(name, h.toStatistic(name)));
+        return ret;
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return CoreGlobalProperty.PROFILER_WORKFLOW_SAMPLING_INTERVAL;
+    }
+
+    @Override
+    public Map<String, FlowLatencyStatistic> getChainStatistics() {
+        return toStatistics(chains);
+    }
+
+    @Override
+    public Map<String, FlowLatencyStatistic> getFlowStatistics() {
+        return toStatistics(flows);
+    }
+
+    @Override
+    public void reset() {
+        chains.clear();
+        flows.clear();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("FlowChainProfiler", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package org.zstack.core.workflow;
+
+import javax.management.MXBean;
+import java.util.Map;
+
+/**
+ */
+@MXBean
+public interface FlowChainProfilerMXBean {
+    int getSamplingInterval();
+
+    Map<String, FlowLatencyStatistic> getChainStatistics();
+
+    Map<String, FlowLatencyStatistic> getFlowStatistics();
+
+    void reset();
+}
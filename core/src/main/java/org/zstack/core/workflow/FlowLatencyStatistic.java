@@ -0,0 +1,61 @@
+package org.zstack.core.workflow;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * latencies are in microseconds
+ */
+public class FlowLatencyStatistic {
+    private String name;
+    private long count;
+    private long failures;
+    private long mean;
+    private long p50;
+    private long p99;
+    private long p999;
+    private long max;
+
+    @ConstructorProperties({"name", "count", "failures", "mean", "p50", "p99", "p999", "max"})
+    public FlowLatencyStatistic(String name, long count, long failures, long mean, long p50, long p99, long p999, long max) {
+        this.name = name;
+        this.count = count;
+        this.failures = failures;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
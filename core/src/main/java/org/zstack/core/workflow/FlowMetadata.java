@@ -0,0 +1,84 @@
+package org.zstack.core.workflow;
+
+import org.zstack.header.core.workflow.AfterDone;
+import org.zstack.header.core.workflow.AfterError;
+import org.zstack.header.core.workflow.AfterFinal;
+import org.zstack.header.core.workflow.Flow;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Reflection data of a flow class looked up once per class, so SimpleFlowChain doesn't scan
+ * fields of every flow it runs.
+ */
+class FlowMetadata {
+    private static final ClassValue<FlowMetadata> metadata = new ClassValue<FlowMetadata>() {
+        @Override
+        protected FlowMetadata computeValue(Class<?> type) {
+            return new FlowMetadata(type);
+        }
+    };
+
+    final List<Field> afterDoneFields;
+    final List<Field> afterErrorFields;
+    final List<Field> afterFinalFields;
+    private final Field nameField;
+    private final String className;
+    private final String fileName;
+
+    private FlowMetadata(Class<?> clazz) {
+        afterDoneFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, clazz));
+        afterErrorFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, clazz));
+        afterFinalFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, clazz));
+
+        nameField = FieldUtils.getField("__name__", clazz);
+        if (nameField != null) {
+            nameField.setAccessible(true);
+        }
+
+        String name = clazz.getSimpleName();
+        className = name.equals("") ? clazz.getName() : name;
+
+        String[] ff = clazz.getName().split("\\.");
+        String filename = ff[ff.length-1];
+        if (filename.contains("$")) {
+            filename = filename.substring(0, filename.indexOf("$"));
+        }
+        fileName = filename;
+    }
+
+    private static List<Field> accessible(List<Field> fields) {
+        fields.forEach(f -> f.setAccessible(true));
+        return fields;
+    }
+
+    static FlowMetadata of(Flow flow) {
+        return metadata.get(flow.getClass());
+    }
+
+    static <T> T getValue(Field f, Flow flow) {
+        try {
+            return (T) f.get(flow);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the __name__ of the flow, or the name of its class if it has none
+     */
+    String getName(Flow flow) {
+        String name = nameField == null ? null : getValue(nameField, flow);
+        return name == null ? className : name;
+    }
+
+    /**
+     * @return the name of the source file declaring the flow, without the extension
+     */
+    String getFileName() {
+        return fileName;
+    }
+}
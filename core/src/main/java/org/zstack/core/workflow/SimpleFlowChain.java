@@ -14,7 +14,6 @@ import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.ForEachFunction;
 import org.zstack.utils.function.Function;
@@ -59,6 +58,11 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     private boolean isFailCalled;
 
+    // set when the chain is sampled by FlowChainProfiler
+    private String profileName;
+    private long chainStartTime;
+    private long flowStartTime;
+
     private static final Map<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<>();
 
     private class FlowStopWatch {
@@ -249,31 +253,44 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void collectAfterRunnable(Flow flow) {
-        List<Field> ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
+        FlowMetadata metadata = FlowMetadata.of(flow);
+        for (Field f : metadata.afterDoneFields) {
+            List lst = FlowMetadata.getValue(f, flow);
             if (lst != null) {
                 afterDone.add(lst);
             }
         }
 
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
+        for (Field f : metadata.afterErrorFields) {
+            List lst = FlowMetadata.getValue(f, flow);
             if (lst != null) {
                 afterError.add(lst);
             }
         }
 
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
+        for (Field f : metadata.afterFinalFields) {
+            List lst = FlowMetadata.getValue(f, flow);
             if (lst != null) {
                 afterFinal.add(lst);
             }
         }
     }
 
+    private void profileCurrentFlow(boolean success) {
+        if (profileName != null && flowStartTime != 0) {
+            FlowChainProfiler.recordFlow(profileName, FlowMetadata.of(currentFlow).getName(currentFlow),
+                    System.nanoTime() - flowStartTime, success);
+            flowStartTime = 0;
+        }
+    }
+
+    private void profileChain(boolean success) {
+        if (profileName != null) {
+            FlowChainProfiler.recordChain(profileName, System.nanoTime() - chainStartTime, success);
+            profileName = null;
+        }
+    }
+
     private void runFlow(Flow flow) {
         try {
             if (TransactionSynchronizationManager.isActualTransactionActive()) {
@@ -306,6 +323,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             }
 
             currentFlow = toRun;
+            if (profileName != null) {
+                flowStartTime = System.nanoTime();
+            }
 
             String flowName = getFlowName(currentFlow);
             String info = String.format("[FlowChain(%s): %s] start executing flow[%s]", id, name, flowName);
@@ -339,6 +359,8 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void callErrorHandler(boolean info) {
+        profileChain(false);
+
         if (info) {
             logger.debug(String.format("[FlowChain(%s): %s] rolled back all flows because error%s", id, name, errorCode));
         }
@@ -371,24 +393,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private String getFlowName(Flow flow) {
-        String name = FieldUtils.getFieldValue("__name__", flow);
-        if (name == null) {
-            name = flow.getClass().getSimpleName();
-            if (name.equals("")) {
-                name = flow.getClass().getName();
-            }
-        }
-
+        FlowMetadata metadata = FlowMetadata.of(flow);
+        String name = metadata.getName(flow);
         if (logger.isTraceEnabled()) {
-            String className = flow.getClass().getName();
-            String[] ff = className.split("\\.");
-            String filename = ff[ff.length-1];
-            if (filename.contains("$")) {
-                int index = filename.indexOf("$");
-                filename = filename.substring(0, index);
-            }
-
-            name = String.format("%s.java:%s", filename, name);
+            name = String.format("%s.java:%s", metadata.getFileName(), name);
         }
 
         return name;
@@ -479,6 +487,8 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             stopWatch.stop();
         }
 
+        profileChain(true);
+
         if (doneHandler != null) {
             try {
                 doneHandler.handle(this.data);
@@ -510,6 +520,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     @Override
     public void fail(ErrorCode errorCode) {
+        profileCurrentFlow(false);
         isFailCalled = true;
         setErrorCode(errorCode);
         rollBackFlows.push(currentFlow);
@@ -550,6 +561,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
                     String.format("[FlowChain(%s): %s] rollback has started, you can't call next()", id, name));
         }
 
+        profileCurrentFlow(true);
         rollBackFlows.push(currentFlow);
 
         logger.debug(String.format("[FlowChain(%s): %s] successfully executed flow[%s]", id, name, getFlowName(currentFlow)));
@@ -593,6 +605,11 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             name = "anonymous-chain";
         }
 
+        if (FlowChainProfiler.sample()) {
+            profileName = FlowChainProfiler.normalize(name);
+            chainStartTime = System.nanoTime();
+        }
+
         logger.debug(String.format("[FlowChain(%s): %s] starts", id, name));
 
         if (logger.isTraceEnabled()) {
@@ -0,0 +1,38 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * allocates hosts for a batch of VMs in one pass. The messages are grouped by everything but the
+ * VM capacities, the candidate hosts are found once by the first message of each group, and
+ * capacities for all placed VMs of a group are reserved in one transaction.
+ *
+ * VMs that cannot be placed are left out of BatchAllocateHostReply, they are expected to be
+ * allocated by AllocateHostMsg one by one.
+ */
+public class BatchAllocateHostMsg extends NeedReplyMessage {
+    private List<AllocateHostMsg> allocateHostMsgs;
+    private String placementStrategy = BatchHostPlacementStrategy.Pack.toString();
+
+    public List<AllocateHostMsg> getAllocateHostMsgs() {
+        if (allocateHostMsgs == null) {
+            allocateHostMsgs = new ArrayList<>();
+        }
+        return allocateHostMsgs;
+    }
+
+    public void setAllocateHostMsgs(List<AllocateHostMsg> allocateHostMsgs) {
+        this.allocateHostMsgs = allocateHostMsgs;
+    }
+
+    public String getPlacementStrategy() {
+        return placementStrategy;
+    }
+
+    public void setPlacementStrategy(String placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
+}
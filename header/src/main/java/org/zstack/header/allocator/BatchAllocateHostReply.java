@@ -0,0 +1,20 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.MessageReply;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BatchAllocateHostReply extends MessageReply {
+    // vm uuid -> the host having capacity reserved for the vm
+    private Map<String, HostInventory> hosts = new HashMap<>();
+
+    public Map<String, HostInventory> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(Map<String, HostInventory> hosts) {
+        this.hosts = hosts;
+    }
+}
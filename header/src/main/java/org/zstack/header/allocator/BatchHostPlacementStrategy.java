@@ -0,0 +1,15 @@
+package org.zstack.header.allocator;
+
+/**
+ * how BatchAllocateHostMsg places VMs on the candidate hosts
+ */
+public enum BatchHostPlacementStrategy {
+    /**
+     * fill hosts in the order the host sortors return them, as allocating the VMs one by one does
+     */
+    Pack,
+    /**
+     * place each VM on the candidate having the most available memory left
+     */
+    Spread,
+}
@@ -10,6 +10,7 @@ public class HostCanonicalEvents {
     public static final String HOST_STATUS_CHANGED_PATH = "/host/status/change";
     public static final String HOST_DELETED_PATH = "/host/delete";
     public static final String HOST_DISCONNECTED_PATH = "/host/disconnected";
+    public static final String HOST_STATE_CHANGED_PATH = "/host/state/change";
 
     public static class HostDisconnectedData {
         public String hostUuid;
@@ -72,6 +73,46 @@ public class HostCanonicalEvents {
         }
     }
 
+    @NeedJsonSchema
+    public static class HostStateChangedData {
+        private String hostUuid;
+        private String oldState;
+        private String newState;
+        private HostInventory inventory;
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public void setHostUuid(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        public String getOldState() {
+            return oldState;
+        }
+
+        public void setOldState(String oldState) {
+            this.oldState = oldState;
+        }
+
+        public String getNewState() {
+            return newState;
+        }
+
+        public void setNewState(String newState) {
+            this.newState = newState;
+        }
+
+        public HostInventory getInventory() {
+            return inventory;
+        }
+
+        public void setInventory(HostInventory inventory) {
+            this.inventory = inventory;
+        }
+    }
+
     @NeedJsonSchema
     public static class HostDeletedData {
         private String hostUuid;
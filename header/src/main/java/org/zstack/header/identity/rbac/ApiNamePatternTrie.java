@@ -0,0 +1,136 @@
+package org.zstack.header.identity.rbac;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.*;
+
+/**
+ * Indexes policy action patterns by API name, matching the same way as PolicyMatcher.match().
+ *
+ * A pattern without wildcards matches an API name ending with it, so it is also indexed by its
+ * last segment. Every pattern is stored in a trie under the segments before its first wildcard,
+ * a lookup only tries the patterns found along the path of the API name and confirms them with
+ * AntPathMatcher.
+ */
+public class ApiNamePatternTrie<T> {
+    private static final String SEPARATOR = ".";
+
+    private static class Entry<T> {
+        final String pattern;
+        final String antPattern;
+        final T value;
+        final boolean literal;
+
+        Entry(String pattern, T value) {
+            this.pattern = pattern;
+            this.literal = !isWildcardSegment(pattern);
+            this.antPattern = pattern.replace(SEPARATOR, "/");
+            this.value = value;
+        }
+    }
+
+    private static class Node<T> {
+        Map<String, Node<T>> children;
+        List<Entry<T>> entries;
+    }
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final Node<T> root = new Node<>();
+    // literal patterns with separators, by the last segment
+    private final Map<String, List<Entry<T>>> literals = new HashMap<>();
+    // literal patterns without separators, they can match any tail of the last segment
+    private final List<Entry<T>> suffixes = new ArrayList<>();
+    private int size;
+
+    private static boolean isWildcardSegment(String seg) {
+        return seg.indexOf('*') != -1 || seg.indexOf('?') != -1 || seg.indexOf('{') != -1;
+    }
+
+    // tokenized like AntPathMatcher does, which trims tokens and skips empty ones
+    private static List<String> segments(String s) {
+        List<String> ret = new ArrayList<>();
+        for (String seg : s.split("\\.")) {
+            seg = seg.trim();
+            if (!seg.isEmpty()) {
+                ret.add(seg);
+            }
+        }
+        return ret;
+    }
+
+    public void add(String pattern, T value) {
+        Entry<T> e = new Entry<>(pattern, value);
+        size++;
+
+        if (e.literal) {
+            int dot = pattern.lastIndexOf(SEPARATOR);
+            if (dot == -1) {
+                suffixes.add(e);
+            } else {
+                literals.computeIfAbsent(pattern.substring(dot + 1), k -> new ArrayList<>()).add(e);
+            }
+        }
+
+        // literal patterns are put in the trie too, AntPathMatcher matches a few names not ending with them
+        Node<T> node = root;
+        for (String seg : segments(pattern)) {
+            if (isWildcardSegment(seg)) {
+                break;
+            }
+
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            node = node.children.computeIfAbsent(seg, k -> new Node<>());
+        }
+
+        if (node.entries == null) {
+            node.entries = new ArrayList<>();
+        }
+        node.entries.add(e);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return values of all patterns matching the API name, in no particular order
+     */
+    public List<T> match(String apiName) {
+        List<T> ret = new ArrayList<>();
+        String lastSegment = apiName.substring(apiName.lastIndexOf(SEPARATOR) + 1);
+
+        List<Entry<T>> es = literals.get(lastSegment);
+        if (es != null) {
+            es.stream().filter(e -> apiName.endsWith(e.pattern)).forEach(e -> ret.add(e.value));
+        }
+        suffixes.stream().filter(e -> lastSegment.endsWith(e.pattern)).forEach(e -> ret.add(e.value));
+
+        String antPath = null;
+        Node<T> node = root;
+        List<String> segs = segments(apiName);
+        for (int i = 0; node != null; i++) {
+            if (node.entries != null) {
+                if (antPath == null) {
+                    antPath = apiName.replace(SEPARATOR, "/");
+                }
+
+                for (Entry<T> e : node.entries) {
+                    if (e.literal && apiName.endsWith(e.pattern)) {
+                        // already matched above
+                        continue;
+                    }
+
+                    if (matcher.match(e.antPattern, antPath)) {
+                        ret.add(e.value);
+                    }
+                }
+            }
+
+            node = i < segs.size() && node.children != null ? node.children.get(segs.get(i)) : null;
+        }
+
+        return ret;
+    }
+}
@@ -17,6 +17,8 @@ public interface L3NetworkConstant {
     @PythonClass
     public static final String RANDOM_IP_ALLOCATOR_STRATEGY = "RandomIpAllocatorStrategy";
     @PythonClass
+    public static final String BITMAP_IP_ALLOCATOR_STRATEGY = "BitmapIpAllocatorStrategy";
+    @PythonClass
     public static final String FIRST_AVAILABLE_IPV6_ALLOCATOR_STRATEGY = "FirstAvailableIpv6AllocatorStrategy";
     @PythonClass
     public static final String RANDOM_IPV6_ALLOCATOR_STRATEGY = "RandomIpv6AllocatorStrategy";
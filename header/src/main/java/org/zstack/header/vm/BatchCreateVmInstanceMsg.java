@@ -0,0 +1,35 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.allocator.BatchHostPlacementStrategy;
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * creates VMs, hosts are allocated for all of them by one BatchAllocateHostMsg before the
+ * VMs are instantiated, VMs of the same spec share the candidate hosts
+ */
+public class BatchCreateVmInstanceMsg extends NeedReplyMessage {
+    private List<CreateVmInstanceMsg> createVmInstanceMsgs;
+    private String placementStrategy = BatchHostPlacementStrategy.Pack.toString();
+
+    public List<CreateVmInstanceMsg> getCreateVmInstanceMsgs() {
+        if (createVmInstanceMsgs == null) {
+            createVmInstanceMsgs = new ArrayList<>();
+        }
+        return createVmInstanceMsgs;
+    }
+
+    public void setCreateVmInstanceMsgs(List<CreateVmInstanceMsg> createVmInstanceMsgs) {
+        this.createVmInstanceMsgs = createVmInstanceMsgs;
+    }
+
+    public String getPlacementStrategy() {
+        return placementStrategy;
+    }
+
+    public void setPlacementStrategy(String placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
+}
@@ -0,0 +1,19 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchCreateVmInstanceReply extends MessageReply {
+    // in the order of BatchCreateVmInstanceMsg.createVmInstanceMsgs
+    private List<CreateVmInstanceReply> replies = new ArrayList<>();
+
+    public List<CreateVmInstanceReply> getReplies() {
+        return replies;
+    }
+
+    public void setReplies(List<CreateVmInstanceReply> replies) {
+        this.replies = replies;
+    }
+}
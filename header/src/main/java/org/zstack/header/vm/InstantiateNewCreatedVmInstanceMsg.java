@@ -1,5 +1,6 @@
 package org.zstack.header.vm;
 
+import org.zstack.header.host.HostInventory;
 import org.zstack.header.message.NeedReplyMessage;
 
 import java.util.List;
@@ -14,6 +15,8 @@ public class InstantiateNewCreatedVmInstanceMsg extends NeedReplyMessage impleme
     private String strategy;
     private List<String> rootVolumeSystemTags;
     private List<String> dataVolumeSystemTags;
+    // the host already having capacity reserved for the vm, see BatchAllocateHostMsg
+    private HostInventory reservedHost;
 
     public VmInstanceInventory getVmInstanceInventory() {
         return vmInstanceInventory;
@@ -91,4 +94,12 @@ public class InstantiateNewCreatedVmInstanceMsg extends NeedReplyMessage impleme
     public void setDataVolumeSystemTags(List<String> dataVolumeSystemTags) {
         this.dataVolumeSystemTags = dataVolumeSystemTags;
     }
+
+    public HostInventory getReservedHost() {
+        return reservedHost;
+    }
+
+    public void setReservedHost(HostInventory reservedHost) {
+        this.reservedHost = reservedHost;
+    }
 }
@@ -190,6 +190,8 @@ public class VmInstanceSpec implements Serializable {
     private List<HostName> hostnames = new ArrayList<>();
     private HostInventory srcHost;
     private HostInventory destHost;
+    // capacity reserved before the vm is instantiated, taken as the dest host by VmAllocateHostFlow
+    private HostInventory reservedHost;
     private List<VmNicInventory> destNics = new ArrayList<>();
     private List<VolumeInventory> destDataVolumes = new ArrayList<>();
     private VolumeInventory destRootVolume;
@@ -417,6 +419,14 @@ public class VmInstanceSpec implements Serializable {
         this.destHost = destHost;
     }
 
+    public HostInventory getReservedHost() {
+        return reservedHost;
+    }
+
+    public void setReservedHost(HostInventory reservedHost) {
+        this.reservedHost = reservedHost;
+    }
+
     public List<VmNicInventory> getDestNics() {
         return destNics;
     }
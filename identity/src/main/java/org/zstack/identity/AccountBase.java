@@ -5,6 +5,8 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cascade.CascadeConstant;
 import org.zstack.core.cascade.CascadeFacade;
@@ -24,10 +26,12 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.role.RoleVO;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
+import org.zstack.identity.rbac.RBACManager;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.ExceptionDSL;
@@ -327,6 +331,7 @@ public class AccountBase extends AbstractAccount {
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+        firePolicyChangedEvent(msg.getUserUuid());
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
@@ -349,6 +354,7 @@ public class AccountBase extends AbstractAccount {
                 // the policy is already attached
             }
         }
+        firePolicyChangedEvent(msg.getUserUuid());
 
         APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
@@ -562,6 +568,30 @@ public class AccountBase extends AbstractAccount {
         bus.publish(evt);
     }
 
+    /**
+     * drops the cached policies of the user, or of all users if userUuid is null, on all management
+     * nodes once the current transaction if any is committed
+     */
+    private void firePolicyChangedEvent(String userUuid) {
+        PolicyChangedData d = new PolicyChangedData();
+        d.setUserUuid(userUuid);
+
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            RBACManager.policyDecisionCache.invalidate(d);
+            evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                // the event reaches this node asynchronously, drop the local cache at once
+                RBACManager.policyDecisionCache.invalidate(d);
+                evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
+            }
+        });
+    }
+
     private void handle(APIRemoveUserFromGroupMsg msg) {
         SimpleQuery<UserGroupUserRefVO> q = dbf.createQuery(UserGroupUserRefVO.class);
         q.add(UserGroupUserRefVO_.groupUuid, Op.EQ, msg.getGroupUuid());
@@ -569,6 +599,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupUserRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid());
         }
 
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
@@ -581,6 +612,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(null);
         }
 
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
@@ -593,6 +625,7 @@ public class AccountBase extends AbstractAccount {
         UserPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid());
         }
 
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
@@ -600,6 +633,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        firePolicyChangedEvent(null);
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -622,6 +656,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        firePolicyChangedEvent(null);
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -631,6 +666,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        firePolicyChangedEvent(msg.getUserUuid());
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -649,6 +685,7 @@ public class AccountBase extends AbstractAccount {
 
             // the policy is already attached
         }
+        firePolicyChangedEvent(null);
 
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
@@ -694,6 +731,7 @@ public class AccountBase extends AbstractAccount {
 
             // the policy is already attached
         }
+        firePolicyChangedEvent(msg.getUserUuid());
 
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
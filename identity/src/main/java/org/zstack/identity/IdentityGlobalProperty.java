@@ -7,4 +7,8 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class IdentityGlobalProperty {
     @GlobalProperty(name = "identity.authorizationBackend.session.cache.size", defaultValue = "500")
     public static int AUTHORIZATION_SESSION_CACHE_SIZE;
+    @GlobalProperty(name = "identity.rbac.policyCache.size", defaultValue = "2000")
+    public static int RBAC_POLICY_CACHE_SIZE;
+    @GlobalProperty(name = "identity.rbac.policyCache.ttl", defaultValue = "600")
+    public static int RBAC_POLICY_CACHE_TTL;
 }
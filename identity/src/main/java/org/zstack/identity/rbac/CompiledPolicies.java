@@ -0,0 +1,152 @@
+package org.zstack.identity.rbac;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.identity.AccountConstant;
+import org.zstack.header.identity.PolicyInventory;
+import org.zstack.header.identity.PolicyStatement;
+import org.zstack.header.identity.StatementEffect;
+import org.zstack.header.identity.rbac.ApiNamePatternTrie;
+import org.zstack.header.identity.rbac.PolicyMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The policies of a user compiled for RBACAPIRequestChecker. Statements whose principals don't
+ * match the user are dropped, actions are indexed by API name, and the decision for each API
+ * is kept once made.
+ */
+public class CompiledPolicies {
+    private static final PolicyMatcher matcher = new PolicyMatcher();
+
+    public static class Statement {
+        private final PolicyInventory policy;
+        private final String action;
+        private final String apiFields;
+
+        Statement(PolicyInventory policy, String action, String apiFields) {
+            this.policy = policy;
+            this.action = action;
+            this.apiFields = apiFields;
+        }
+
+        public PolicyInventory getPolicy() {
+            return policy;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @return the API fields not permitted to set, or null if the whole API is denied
+         */
+        public String getApiFields() {
+            return apiFields;
+        }
+    }
+
+    public static class Decision {
+        private final List<Statement> denyStatements;
+        private final Statement allowStatement;
+
+        Decision(List<Statement> denyStatements, Statement allowStatement) {
+            this.denyStatements = denyStatements;
+            this.allowStatement = allowStatement;
+        }
+
+        public List<Statement> getDenyStatements() {
+            return denyStatements;
+        }
+
+        /**
+         * @return a statement allowing the API, or null if none does
+         */
+        public Statement getAllowStatement() {
+            return allowStatement;
+        }
+    }
+
+    private final String userUuid;
+    private final ApiNamePatternTrie<Statement> denyStatements = new ApiNamePatternTrie<>();
+    private final ApiNamePatternTrie<Statement> allowStatements = new ApiNamePatternTrie<>();
+    private final Map<String, Decision> decisions = new ConcurrentHashMap<>();
+    private CloudRuntimeException principalError;
+
+    /**
+     * compiles policies for a user session of a normal account, the same way RBACAPIRequestChecker
+     * evaluates them
+     */
+    public CompiledPolicies(String userUuid, List<PolicyInventory> policies) {
+        this.userUuid = userUuid;
+
+        for (PolicyInventory p : policies) {
+            for (PolicyStatement s : p.getStatements()) {
+                if (s.getActions() == null || !isPrincipalMatched(s.getPrincipals())) {
+                    continue;
+                }
+
+                for (String action : s.getActions()) {
+                    if (s.getEffect() == StatementEffect.Deny) {
+                        // action string format is:
+                        // api-full-name:optional-api-field-list-split-by-comma
+                        String[] ss = action.split(":", 2);
+                        denyStatements.add(ss[0], new Statement(p, action, ss.length > 1 ? ss[1] : null));
+                    } else if (s.getEffect() == StatementEffect.Allow) {
+                        allowStatements.add(PolicyUtils.apiNamePatternFromAction(action, true), new Statement(p, action, null));
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isPrincipalMatched(List<String> principals) {
+        if (principals == null || principals.isEmpty()) {
+            return true;
+        }
+
+        for (String s : principals) {
+            String[] ss = s.split(":", 2);
+            String principal = ss[0];
+            String uuidRegex = ss[1];
+
+            if (!AccountConstant.PRINCIPAL_USER.equals(principal)) {
+                // a user session can't match other principals, RBACAPIRequestChecker fails on them
+                if (principalError == null) {
+                    principalError = new CloudRuntimeException(String.format("unknown principal[%s]", principal));
+                }
+                return false;
+            }
+
+            if (matcher.match(uuidRegex, userUuid)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public String getUserUuid() {
+        return userUuid;
+    }
+
+    /**
+     * @return the error met when evaluating principals, which fails every check of the user
+     */
+    public CloudRuntimeException getPrincipalError() {
+        return principalError;
+    }
+
+    public boolean hasAllowStatements() {
+        return allowStatements.size() > 0;
+    }
+
+    public Decision decide(String apiName) {
+        return decisions.computeIfAbsent(apiName, name -> {
+            List<Statement> allows = allowStatements.match(name);
+            return new Decision(new ArrayList<>(denyStatements.match(name)), allows.isEmpty() ? null : allows.get(0));
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package org.zstack.identity.rbac;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.zstack.header.identity.AccountConstant;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.identity.IdentityGlobalProperty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches CompiledPolicies of users, so checking an API called by a user of a normal account
+ * doesn't query policies from database.
+ *
+ * Entries are dropped when policies, the policies attached to users or groups, or the users in
+ * groups change, see IdentityCanonicalEvents.POLICY_CHANGED_PATH. They also expire after
+ * identity.rbac.policyCache.ttl seconds in case a change is made out of the identity APIs.
+ */
+public class PolicyDecisionCache {
+    private final Cache<String, CompiledPolicies> policies = CacheBuilder.newBuilder()
+            .maximumSize(IdentityGlobalProperty.RBAC_POLICY_CACHE_SIZE)
+            .expireAfterWrite(IdentityGlobalProperty.RBAC_POLICY_CACHE_TTL, TimeUnit.SECONDS)
+            .build();
+    // bumped by every invalidation, policies loaded across an invalidation are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * policies are cached only for user sessions of normal accounts, others use the internal
+     * policies, see RBACManager.getPoliciesByAPI()
+     */
+    public static boolean isCacheable(SessionInventory session) {
+        return !AccountConstant.INITIAL_SYSTEM_ADMIN_UUID.equals(session.getAccountUuid()) && !session.isAccountSession();
+    }
+
+    public CompiledPolicies get(String userUuid) {
+        CompiledPolicies ret = policies.getIfPresent(userUuid);
+        if (ret != null) {
+            return ret;
+        }
+
+        long gen = generation.get();
+        ret = new CompiledPolicies(userUuid, RBACManager.getPoliciesByUser(userUuid));
+        synchronized (this) {
+            if (gen == generation.get()) {
+                policies.put(userUuid, ret);
+            }
+        }
+
+        return ret;
+    }
+
+    public synchronized void invalidate(String userUuid) {
+        generation.incrementAndGet();
+        policies.invalidate(userUuid);
+    }
+
+    public void invalidate(PolicyChangedData d) {
+        if (d.getUserUuid() == null) {
+            invalidateAll();
+        } else {
+            invalidate(d.getUserUuid());
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        policies.invalidateAll();
+    }
+
+    public long size() {
+        return policies.size();
+    }
+}
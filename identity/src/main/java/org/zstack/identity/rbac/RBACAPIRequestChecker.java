@@ -71,15 +71,22 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
      * 5. then deny by default
      */
     protected void check() {
-        List<PolicyInventory> polices = getPoliciesForAPI();
-        Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
-        Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
+        if (PolicyDecisionCache.isCacheable(rbacEntity.getApiMessage().getSession())) {
+            if (checkByCompiledPolicies()) {
+                // allowed
+                return;
+            }
+        } else {
+            List<PolicyInventory> polices = getPoliciesForAPI();
+            Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
+            Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
 
-        evalDenyStatements(denyStatements);
+            evalDenyStatements(denyStatements);
 
-        if (evalAllowStatements(allowStatements)) {
-            // allowed
-            return;
+            if (evalAllowStatements(allowStatements)) {
+                // allowed
+                return;
+            }
         }
 
         if (logger.isTraceEnabled()) {
@@ -176,35 +183,71 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
                 }
 
                 // the statement matching this API
+                denyByStatement(p, statement, apiFields);
+            });
+        }));
+    }
 
-                if (apiFields == null) {
-                    // no API fields specified, the API is denied by this statement
+    private void denyByStatement(PolicyInventory p, String statement, String apiFields) {
+        if (apiFields == null) {
+            // no API fields specified, the API is denied by this statement
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                        p.getUuid(), statement, jsonMessage()));
+            }
+
+            throw new OperationFailureException(operr("the operation is denied by the policy[uuid:%s]", p.getUuid()));
+        }
+
+        Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
+
+        for (String fname : apiFields.split(",")) {
+            Field field = entity.getFields().get(fname);
+            try {
+                if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
                     if (logger.isTraceEnabled()) {
                         logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
                                 p.getUuid(), statement, jsonMessage()));
                     }
-
-                    throw new OperationFailureException(operr("the operation is denied by the policy[uuid:%s]", p.getUuid()));
+                    throw new OperationFailureException(operr("the operation is denied by the policy[uuid:%s], field[%s] is not permitted to set", p.getUuid(), fname));
                 }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+    }
 
-                Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
-
-                for (String fname : apiFields.split(",")) {
-                    Field field = entity.getFields().get(fname);
-                    try {
-                        if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                        p.getUuid(), statement, jsonMessage()));
-                            }
-                            throw new OperationFailureException(operr("the operation is denied by the policy[uuid:%s], field[%s] is not permitted to set", p.getUuid(), fname));
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException(e);
-                    }
-                }
-            });
-        }));
+    /**
+     * evaluates the policies of a user session the same way as check(), with policies compiled
+     * and cached by RBACManager.policyDecisionCache
+     */
+    protected boolean checkByCompiledPolicies() {
+        CompiledPolicies policies = RBACManager.policyDecisionCache.get(rbacEntity.getApiMessage().getSession().getUserUuid());
+        if (policies.getPrincipalError() != null) {
+            throw policies.getPrincipalError();
+        }
+
+        CompiledPolicies.Decision decision = policies.decide(rbacEntity.getApiName());
+        for (CompiledPolicies.Statement st : decision.getDenyStatements()) {
+            denyByStatement(st.getPolicy(), st.getAction(), st.getApiFields());
+        }
+
+        if (!policies.hasAllowStatements()) {
+            return false;
+        }
+
+        // API permission checkers may override the policy decision
+        if (RBAC.checkAPIPermission(rbacEntity.getApiMessage(), decision.getAllowStatement() != null)) {
+            if (logger.isTraceEnabled()) {
+                CompiledPolicies.Statement st = decision.getAllowStatement();
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API:\n%s",
+                        st == null ? null : st.getPolicy().getName(), st == null ? null : st.getPolicy().getUuid(),
+                        st == null ? null : st.getAction(), jsonMessage()));
+            }
+            return true;
+        }
+
+        return false;
     }
 
     protected boolean checkUserPrincipal(String uuidRegex) {
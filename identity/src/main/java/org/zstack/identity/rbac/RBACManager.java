@@ -15,29 +15,31 @@ public interface RBACManager {
 
     List<PolicyInventory> internalPolices = new ArrayList<>();
 
+    PolicyDecisionCache policyDecisionCache = new PolicyDecisionCache();
+
     static List<PolicyInventory> getPoliciesByAPI(APIMessage message) {
+        SessionInventory session = message.getSession();
+        List<PolicyInventory> ret = new ArrayList<>();
+        if (PolicyDecisionCache.isCacheable(session)) {
+            ret.addAll(getPoliciesByUser(session.getUserUuid()));
+        } else {
+            ret.addAll(internalPolices);
+        }
+
+        return ret;
+    }
+
+    static List<PolicyInventory> getPoliciesByUser(String userUuid) {
         return new SQLBatchWithReturn<List<PolicyInventory>>() {
             @Override
             protected List<PolicyInventory> scripts() {
-                SessionInventory session = message.getSession();
-                List<PolicyInventory> ret = new ArrayList<>();
-                if (!session.getAccountUuid().equals(AccountConstant.INITIAL_SYSTEM_ADMIN_UUID) && !session.isAccountSession()) {
-                    ret.addAll(getPoliciesForUser(session));
-                } else {
-                    ret.addAll(internalPolices);
-                }
-
-                return ret;
-            }
-
-            private List<PolicyInventory> getPoliciesForUser(SessionInventory session) {
                 // polices attached to the user
                 List<PolicyVO> vos = sql("select p from PolicyVO p, UserPolicyRefVO r where r.policyUuid = p.uuid" +
-                        " and r.userUuid = :uuid", PolicyVO.class).param("uuid", session.getUserUuid()).list();
+                        " and r.userUuid = :uuid", PolicyVO.class).param("uuid", userUuid).list();
 
                 // polices attached to user groups the user is in
                 vos.addAll(sql("select p from PolicyVO p, UserGroupVO g, UserGroupPolicyRefVO up, UserGroupUserRefVO ugu where p.uuid = up.policyUuid" +
-                        " and g.uuid = up.groupUuid and g.uuid = ugu.groupUuid and ugu.userUuid = :uuid", PolicyVO.class).param("uuid", session.getUserUuid()).list());
+                        " and g.uuid = up.groupUuid and g.uuid = ugu.groupUuid and ugu.userUuid = :uuid", PolicyVO.class).param("uuid", userUuid).list());
 
                 return PolicyInventory.valueOf(vos);
             }
@@ -3,6 +3,8 @@ package org.zstack.identity.rbac;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SQLBatch;
@@ -10,6 +12,8 @@ import org.zstack.header.AbstractService;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.*;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.rbac.PolicyMatcher;
 import org.zstack.header.identity.rbac.RBAC;
 import org.zstack.header.identity.role.*;
@@ -38,12 +42,38 @@ public class RBACManagerImpl extends AbstractService implements RBACManager, Com
     private CloudBus bus;
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
 
     @Override
     public boolean start() {
+        setupCanonicalEvents();
         return true;
     }
 
+    private void setupCanonicalEvents() {
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                policyDecisionCache.invalidate((PolicyChangedData) data);
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.USER_DELETED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                policyDecisionCache.invalidate(((UserDeletedData) data).getUserUuid());
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                policyDecisionCache.invalidateAll();
+            }
+        });
+    }
+
     @Override
     public boolean stop() {
         return true;
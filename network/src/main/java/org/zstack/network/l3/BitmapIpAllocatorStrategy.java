@@ -0,0 +1,172 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates IPv4 addresses from a bitmap of used addresses per IP range, cached on the
+ * management node owning the L3 network.
+ *
+ * A bitmap is loaded from UsedIpVO the first time the range is used, then kept up to date by
+ * allocations and ReturnIpMsg. UsedIpVO stays the source of truth: a bit found free but already
+ * used in database makes the reservation fail on the unique key, the bit is kept and the next
+ * free bit is tried; IPs released without ReturnIpMsg are picked up when the bitmap expires
+ * after L3Network.ipBitmapCacheTTL seconds, or at once when the bitmap looks full while the
+ * range has fewer UsedIpVO than addresses.
+ */
+public class BitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
+    private static final CLogger logger = Utils.getLogger(BitmapIpAllocatorStrategy.class);
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+
+    private final Map<String, IpRangeBitmap> bitmaps = new ConcurrentHashMap<>();
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    private IpRangeBitmap loadBitmap(IpRangeVO vo, long s, long e) {
+        IpRangeBitmap bitmap = new IpRangeBitmap(s, e);
+        List<Long> used = Q.New(UsedIpVO.class).select(UsedIpVO_.ipInLong).eq(UsedIpVO_.ipRangeUuid, vo.getUuid()).listValues();
+        for (Long ip : used) {
+            bitmap.use(ip);
+        }
+
+        bitmaps.put(vo.getUuid(), bitmap);
+        return bitmap;
+    }
+
+    private IpRangeBitmap getBitmap(IpRangeVO vo) {
+        long s = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+        long e = NetworkUtils.ipv4StringToLong(vo.getEndIp());
+
+        IpRangeBitmap bitmap = bitmaps.get(vo.getUuid());
+        if (bitmap != null && bitmap.getStartIp() == s && bitmap.getEndIp() == e
+                && System.currentTimeMillis() - bitmap.getCreatedTime() < TimeUnit.SECONDS.toMillis(L3NetworkGlobalProperty.IP_BITMAP_CACHE_TTL)) {
+            return bitmap;
+        }
+
+        return loadBitmap(vo, s, e);
+    }
+
+    private List<IpRangeVO> getIpv4Ranges(String l3NetworkUuid) {
+        List<IpRangeVO> ranges = Q.New(IpRangeVO.class).eq(IpRangeVO_.l3NetworkUuid, l3NetworkUuid).list();
+        ranges.removeIf(r -> !NetworkUtils.isIpv4Address(r.getStartIp()));
+        return ranges;
+    }
+
+    /**
+     * takes a free IP of the range in the bitmap; a full bitmap is reloaded only when the range
+     * has fewer used IPs in database than addresses, which means some IPs were released without
+     * going through ReturnIpMsg. Otherwise the range stays exhausted until the bitmap expires or
+     * an IP of it is returned
+     * @return null if the range is exhausted
+     */
+    private String takeFreeIp(IpRangeVO r) {
+        IpRangeBitmap bitmap = getBitmap(r);
+        int size;
+        synchronized (bitmap) {
+            size = bitmap.isFull() ? bitmap.getSize() : -1;
+        }
+
+        if (size != -1) {
+            if (Q.New(UsedIpVO.class).eq(UsedIpVO_.ipRangeUuid, r.getUuid()).count() >= size) {
+                logger.debug(String.format("Ip range[uuid:%s, name: %s] is exhausted, try next one", r.getUuid(), r.getName()));
+                return null;
+            }
+
+            bitmap = loadBitmap(r, bitmap.getStartIp(), bitmap.getEndIp());
+        }
+
+        synchronized (bitmap) {
+            long ip = bitmap.nextFree(bitmap.getStartIp());
+            if (ip != -1) {
+                bitmap.use(ip);
+                return NetworkUtils.longToIpv4String(ip);
+            }
+        }
+
+        logger.debug(String.format("Ip range[uuid:%s, name: %s] is exhausted, try next one", r.getUuid(), r.getName()));
+        return null;
+    }
+
+    private void giveBack(IpRangeVO r, String ip) {
+        IpRangeBitmap bitmap = bitmaps.get(r.getUuid());
+        if (bitmap == null) {
+            return;
+        }
+
+        synchronized (bitmap) {
+            bitmap.release(NetworkUtils.ipv4StringToLong(ip));
+        }
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        if (msg.getRequiredIp() != null) {
+            UsedIpInventory inv = allocateRequiredIp(msg);
+            if (inv != null) {
+                markUsed(inv);
+            }
+            return inv;
+        }
+
+        for (IpRangeVO r : getIpv4Ranges(msg.getL3NetworkUuid())) {
+            while (true) {
+                String ip = takeFreeIp(r);
+                if (ip == null) {
+                    break;
+                }
+
+                UsedIpInventory inv;
+                try {
+                    inv = l3NwMgr.reserveIp(IpRangeInventory.valueOf(r), ip);
+                } catch (RuntimeException e) {
+                    giveBack(r, ip);
+                    throw e;
+                }
+
+                if (inv != null) {
+                    return inv;
+                }
+
+                // the IP has been used by others, leave it marked and try the next one
+            }
+        }
+
+        return null;
+    }
+
+    private void markUsed(UsedIpInventory inv) {
+        IpRangeBitmap bitmap = bitmaps.get(inv.getIpRangeUuid());
+        if (bitmap != null) {
+            synchronized (bitmap) {
+                bitmap.use(inv.getIpInLong());
+            }
+        }
+    }
+
+    public void markReleased(UsedIpInventory inv) {
+        IpRangeBitmap bitmap = bitmaps.get(inv.getIpRangeUuid());
+        if (bitmap != null) {
+            synchronized (bitmap) {
+                bitmap.release(inv.getIpInLong());
+            }
+        }
+    }
+
+    public boolean hasCachedRanges() {
+        return !bitmaps.isEmpty();
+    }
+
+    public boolean isCached(String ipRangeUuid) {
+        return bitmaps.containsKey(ipRangeUuid);
+    }
+}
@@ -0,0 +1,158 @@
+package org.zstack.network.l3;
+
+/**
+ * A bitmap of the used IPv4 addresses of an IP range, bit N stands for startIp + N.
+ *
+ * Besides the bit words, a summary keeps one bit for each word that is completely used,
+ * so a scan skips 4096 used addresses with one summary word and finds a free address
+ * with Long.numberOfTrailingZeros() instead of looking at addresses one by one.
+ *
+ * Not thread safe, callers synchronize on the bitmap.
+ */
+public class IpRangeBitmap {
+    private final long startIp;
+    private final long endIp;
+    private final int size;
+    private final long[] words;
+    private final long[] fullWords;
+    private int usedCount;
+    private final long createdTime = System.currentTimeMillis();
+
+    public IpRangeBitmap(long startIp, long endIp) {
+        if (endIp < startIp) {
+            throw new IllegalArgumentException(String.format("invalid range[%s, %s]", startIp, endIp));
+        }
+
+        this.startIp = startIp;
+        this.endIp = endIp;
+        this.size = (int) (endIp - startIp + 1);
+        words = new long[(size + 63) >>> 6];
+        fullWords = new long[(words.length + 63) >>> 6];
+
+        // bits beyond the end of the range are marked used so they are never returned
+        int tail = size & 63;
+        if (tail != 0) {
+            words[words.length - 1] = -1L << tail;
+        }
+    }
+
+    public long getStartIp() {
+        return startIp;
+    }
+
+    public long getEndIp() {
+        return endIp;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getUsedCount() {
+        return usedCount;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public boolean isFull() {
+        return usedCount >= size;
+    }
+
+    public boolean contains(long ip) {
+        return ip >= startIp && ip <= endIp;
+    }
+
+    public boolean isUsed(long ip) {
+        int i = (int) (ip - startIp);
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return false if the ip was already used
+     */
+    public boolean use(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+
+        int i = (int) (ip - startIp);
+        int w = i >>> 6;
+        long bit = 1L << i;
+        if ((words[w] & bit) != 0) {
+            return false;
+        }
+
+        words[w] |= bit;
+        usedCount++;
+        if (words[w] == -1L) {
+            fullWords[w >>> 6] |= 1L << w;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the ip was not used
+     */
+    public boolean release(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+
+        int i = (int) (ip - startIp);
+        int w = i >>> 6;
+        long bit = 1L << i;
+        if ((words[w] & bit) == 0) {
+            return false;
+        }
+
+        words[w] &= ~bit;
+        usedCount--;
+        fullWords[w >>> 6] &= ~(1L << w);
+        return true;
+    }
+
+    /**
+     * @return the first free ip not less than fromIp, or -1 if there is none
+     */
+    public long nextFree(long fromIp) {
+        if (fromIp < startIp) {
+            fromIp = startIp;
+        }
+        if (fromIp > endIp || isFull()) {
+            return -1;
+        }
+
+        int i = (int) (fromIp - startIp);
+        int w = i >>> 6;
+        long free = ~words[w] & (-1L << i);
+        while (free == 0) {
+            w = nextNotFullWord(w + 1);
+            if (w < 0) {
+                return -1;
+            }
+            free = ~words[w];
+        }
+
+        return startIp + ((long) w << 6) + Long.numberOfTrailingZeros(free);
+    }
+
+    private int nextNotFullWord(int from) {
+        if (from >= words.length) {
+            return -1;
+        }
+
+        int s = from >>> 6;
+        long notFull = ~fullWords[s] & (-1L << from);
+        while (notFull == 0) {
+            if (++s >= fullWords.length) {
+                return -1;
+            }
+            notFull = ~fullWords[s];
+        }
+
+        int w = (s << 6) + Long.numberOfTrailingZeros(notFull);
+        return w < words.length ? w : -1;
+    }
+}
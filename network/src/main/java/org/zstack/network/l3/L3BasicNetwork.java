@@ -247,6 +247,9 @@ public class L3BasicNetwork implements L3Network {
 
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
+        BitmapIpAllocatorStrategy bitmapStrategy = (BitmapIpAllocatorStrategy) l3NwMgr.getIpAllocatorStrategy(BitmapIpAllocatorStrategy.type);
+        // only look up the IP when there are bitmaps to keep in sync
+        UsedIpVO usedIp = bitmapStrategy.hasCachedRanges() ? dbf.findByUuid(msg.getUsedIpUuid(), UsedIpVO.class) : null;
         new Retry<Void>() {
             String __name__ = String.format("return-ip-%s-for-l3-%s", msg.getUsedIpUuid(), msg.getL3NetworkUuid());
 
@@ -257,6 +260,9 @@ public class L3BasicNetwork implements L3Network {
                 return null;
             }
         }.run();
+        if (usedIp != null && bitmapStrategy.isCached(usedIp.getIpRangeUuid())) {
+            bitmapStrategy.markReleased(UsedIpInventory.valueOf(usedIp));
+        }
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
@@ -268,7 +274,8 @@ public class L3BasicNetwork implements L3Network {
 
         L3NetworkVO l3Vo = Q.New(L3NetworkVO.class).eq(L3NetworkVO_.uuid, msg.getL3NetworkUuid()).find();
         if (l3Vo.getIpVersion() == IPv6Constants.IPv4) {
-            return RandomIpAllocatorStrategy.type;
+            return L3NetworkGlobalProperty.BITMAP_IP_ALLOCATOR_AS_DEFAULT ?
+                    BitmapIpAllocatorStrategy.type : RandomIpAllocatorStrategy.type;
         }
 
         return RandomIpv6AllocatorStrategy.type;
@@ -0,0 +1,14 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class L3NetworkGlobalProperty {
+    @GlobalProperty(name="L3Network.bitmapIpAllocatorAsDefault", defaultValue = "false")
+    public static boolean BITMAP_IP_ALLOCATOR_AS_DEFAULT;
+    @GlobalProperty(name="L3Network.ipBitmapCacheTTL", defaultValue = "600")
+    public static int IP_BITMAP_CACHE_TTL;
+}
@@ -1,5 +1,6 @@
 package org.zstack.kvm;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.zstack.core.validation.ConditionalValidation;
 import org.zstack.header.core.validation.Validation;
 import org.zstack.header.vm.VmBootDevice;
@@ -1518,10 +1519,33 @@ public class KVMAgentCommands {
 
 
     public static class VmSyncCmd extends AgentCommand {
+        // hash of the states last reconciled by the management node, see VmSyncResponse.hashStates()
+        private String statesHash;
+
+        public String getStatesHash() {
+            return statesHash;
+        }
+
+        public void setStatesHash(String statesHash) {
+            this.statesHash = statesHash;
+        }
     }
 
     public static class VmSyncResponse extends AgentResponse {
         private HashMap<String, String> states;
+        // optional, the agent may reply statesUnchanged without states if the hash of
+        // its states equals VmSyncCmd.statesHash
+        private String statesHash;
+        private boolean statesUnchanged;
+
+        /**
+         * md5 of "uuid:state\n" of all VMs sorted by uuid
+         */
+        public static String hashStates(Map<String, String> states) {
+            StringBuilder sb = new StringBuilder();
+            new TreeMap<>(states).forEach((uuid, state) -> sb.append(uuid).append(":").append(state).append("\n"));
+            return DigestUtils.md5Hex(sb.toString());
+        }
 
         public HashMap<String, String> getStates() {
             return states;
@@ -1530,6 +1554,22 @@ public class KVMAgentCommands {
         public void setStates(HashMap<String, String> states) {
             this.states = states;
         }
+
+        public String getStatesHash() {
+            return statesHash;
+        }
+
+        public void setStatesHash(String statesHash) {
+            this.statesHash = statesHash;
+        }
+
+        public boolean isStatesUnchanged() {
+            return statesUnchanged;
+        }
+
+        public void setStatesUnchanged(boolean statesUnchanged) {
+            this.statesUnchanged = statesUnchanged;
+        }
     }
 
     public static class RefreshAllRulesOnHostCmd extends AgentCommand {
@@ -21,4 +21,6 @@ public class KVMGlobalProperty {
     public static int AGENT_SERVER_PORT;
     @GlobalProperty(name="KvmHost.iptables.rule.", defaultValue = "")
     public static List<String> IPTABLES_RULES;
+    @GlobalProperty(name="KvmHost.vmSync.convergedStatesTTL", defaultValue = "600")
+    public static long VM_SYNC_CONVERGED_STATES_TTL;
 }
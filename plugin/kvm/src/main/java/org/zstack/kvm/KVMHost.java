@@ -1116,7 +1116,7 @@ public class KVMHost extends HostBase implements Host {
                         cmd.setStorageMigrationPolicy(storageMigrationPolicy == null ? null : storageMigrationPolicy.toString());
                         cmd.setVmUuid(vmUuid);
                         cmd.setAutoConverge(KVMGlobalConfig.MIGRATE_AUTO_CONVERGE.value(Boolean.class));
-                        cmd.setUseNuma(VmGlobalConfig.NUMA.value(Boolean.class));
+                        cmd.setUseNuma(VmGlobalConfig.NUMA.booleanValue());
                         cmd.setTimeout(timeoutManager.getTimeout());
 
                         UriComponentsBuilder ub = UriComponentsBuilder.fromHttpUrl(migrateVmPath);
@@ -1834,7 +1834,7 @@ public class KVMHost extends HostBase implements Host {
         }
 
         String tagValue = VmSystemTags.CLEAN_TRAFFIC.getTokenByResourceUuid(nic.getVmInstanceUuid(), VmSystemTags.CLEAN_TRAFFIC_TOKEN);
-        if (Boolean.valueOf(tagValue) || (tagValue == null && VmGlobalConfig.VM_CLEAN_TRAFFIC.value(Boolean.class))) {
+        if (Boolean.valueOf(tagValue) || (tagValue == null && VmGlobalConfig.VM_CLEAN_TRAFFIC.booleanValue())) {
             return VmNicHelper.getIpAddresses(nic);
         }
 
@@ -1892,10 +1892,10 @@ public class KVMHost extends HostBase implements Host {
         cmd.setClock(ImagePlatform.isType(platform, ImagePlatform.Windows, ImagePlatform.WindowsVirtio) ? "localtime" : "utc");
         cmd.setVideoType(VmGlobalConfig.VM_VIDEO_TYPE.value(String.class));
         cmd.setInstanceOfferingOnlineChange(VmSystemTags.INSTANCEOFFERING_ONLIECHANGE.getTokenByResourceUuid(spec.getVmInventory().getUuid(), VmSystemTags.INSTANCEOFFERING_ONLINECHANGE_TOKEN) != null);
-        cmd.setKvmHiddenState(VmGlobalConfig.KVM_HIDDEN_STATE.value(Boolean.class));
+        cmd.setKvmHiddenState(VmGlobalConfig.KVM_HIDDEN_STATE.booleanValue());
         cmd.setSpiceStreamingMode(VmGlobalConfig.VM_SPICE_STREAMING_MODE.value(String.class));
-        cmd.setEmulateHyperV(VmGlobalConfig.EMULATE_HYPERV.value(Boolean.class));
-        cmd.setAdditionalQmp(VmGlobalConfig.ADDITIONAL_QMP.value(Boolean.class));
+        cmd.setEmulateHyperV(VmGlobalConfig.EMULATE_HYPERV.booleanValue());
+        cmd.setAdditionalQmp(VmGlobalConfig.ADDITIONAL_QMP.booleanValue());
         cmd.setApplianceVm(spec.getVmInventory().getType().equals("ApplianceVm"));
         cmd.setSystemSerialNumber(makeAndSaveVmSystemSerialNumber(spec.getVmInventory().getUuid()));
 
@@ -1912,7 +1912,7 @@ public class KVMHost extends HostBase implements Host {
         nestedVirtualization = KVMGlobalConfig.NESTED_VIRTUALIZATION.value(String.class);
         cmd.setNestedVirtualization(nestedVirtualization);
         cmd.setRootVolume(rootVolume);
-        cmd.setUseBootMenu(VmGlobalConfig.VM_BOOT_MENU.value(Boolean.class));
+        cmd.setUseBootMenu(VmGlobalConfig.VM_BOOT_MENU.booleanValue());
 
         List<VolumeTO> dataVolumes = new ArrayList<>(spec.getDestDataVolumes().size());
         for (VolumeInventory data : spec.getDestDataVolumes()) {
@@ -1957,8 +1957,8 @@ public class KVMHost extends HostBase implements Host {
         cmd.setConsolePassword(spec.getConsolePassword());
         cmd.setUsbRedirect(spec.getUsbRedirect());
         cmd.setVDIMonitorNumber(Integer.valueOf(spec.getVDIMonitorNumber()));
-        cmd.setUseNuma(VmGlobalConfig.NUMA.value(Boolean.class));
-        cmd.setVmPortOff(VmGlobalConfig.VM_PORT_OFF.value(Boolean.class));
+        cmd.setUseNuma(VmGlobalConfig.NUMA.booleanValue());
+        cmd.setVmPortOff(VmGlobalConfig.VM_PORT_OFF.booleanValue());
         cmd.setConsoleMode("vnc");
         cmd.setTimeout(TimeUnit.MINUTES.toSeconds(5));
         if (spec.isCreatePaused()) {
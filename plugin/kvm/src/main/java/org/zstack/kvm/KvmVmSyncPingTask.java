@@ -98,8 +98,20 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
     }
 
     private void syncVm(final HostInventory host, final Completion completion) {
+        syncVm(host, false, completion);
+    }
+
+    /**
+     * @param full reconcile all VM states even if they are unchanged since the last sync
+     */
+    private void syncVm(final HostInventory host, final boolean full, final Completion completion) {
+        if (full) {
+            forgetConvergedStates(host.getUuid());
+        }
+
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         VmSyncCmd cmd = new VmSyncCmd();
+        cmd.setStatesHash(getConvergedStatesHash(host.getUuid()));
         msg.setCommand(cmd);
         msg.setNoStatusCheck(true);
         msg.setHostUuid(host.getUuid());
@@ -115,31 +127,48 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
 
                 KVMHostAsyncHttpCallReply r = reply.castReply();
                 VmSyncResponse ret = r.toResponse(VmSyncResponse.class);
-                if (ret.isSuccess()) {
-                    Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>(ret.getStates().size());
-                    for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace(String.format("state from vmsync vm %s state %s", e.getKey(), e.getValue()));
-                        }
-                        VmInstanceState state = KvmVmState.valueOf(e.getValue()).toVmInstanceState();
-                        if (state == VmInstanceState.Running || state == VmInstanceState.Paused || state == VmInstanceState.Unknown) {
-                            states.put(e.getKey(), state);
-                        }
-                    }
-
-                    reportVmState(host.getUuid(), states, vmsToSkip.keySet());
-                    completion.success();
-                } else {
+                if (!ret.isSuccess()) {
                     ErrorCode errorCode = operr("unable to do vm sync on host[uuid:%s, ip:%s] because %s", host.getUuid(), host.getManagementIp(), ret.getError());
                     completion.fail(errorCode);
+                    return;
                 }
+
+                if (ret.isStatesUnchanged()) {
+                    if (cmd.getStatesHash() != null && cmd.getStatesHash().equals(getConvergedStatesHash(host.getUuid()))) {
+                        completion.success();
+                    } else {
+                        // the converged states are dropped during the sync, get all states
+                        syncVm(host, true, completion);
+                    }
+                    return;
+                }
+
+                Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>(ret.getStates().size());
+                for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("state from vmsync vm %s state %s", e.getKey(), e.getValue()));
+                    }
+                    VmInstanceState state = KvmVmState.valueOf(e.getValue()).toVmInstanceState();
+                    if (state == VmInstanceState.Running || state == VmInstanceState.Paused || state == VmInstanceState.Unknown) {
+                        states.put(e.getKey(), state);
+                    }
+                }
+
+                String hash = ret.getStatesHash() != null ? ret.getStatesHash() : VmSyncResponse.hashStates(ret.getStates());
+                reportVmState(host.getUuid(), states, vmsToSkip.keySet(), hash);
+                completion.success();
             }
         });
     }
 
+    @Override
+    protected long getConvergedStatesTTL() {
+        return KVMGlobalProperty.VM_SYNC_CONVERGED_STATES_TTL;
+    }
+
     @Override
     public void connectionReestablished(HostInventory inv) {
-        syncVm(inv, new NopeCompletion());
+        syncVm(inv, true, new NopeCompletion());
     }
 
     @Override
@@ -149,6 +178,7 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
 
     @Override
     public boolean start() {
+        installVmStateChangedListener();
         restf.registerSyncHttpCallHandler(KVMConstant.KVM_REPORT_VM_STATE, ReportVmStateCmd.class, new SyncHttpCallHandler<ReportVmStateCmd>() {
             private void reportState(final ReportVmStateCmd cmd) {
                 thdf.chainSubmit(new ChainTask(null) {
@@ -222,7 +252,7 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         return new NoRollbackFlow() {
             @Override
             public void run(final FlowTrigger trigger, Map data) {
-                syncVm(context.getInventory(), new Completion(trigger) {
+                syncVm(context.getInventory(), true, new Completion(trigger) {
                     String __name__ = "sync-vm-state";
 
                     @Override
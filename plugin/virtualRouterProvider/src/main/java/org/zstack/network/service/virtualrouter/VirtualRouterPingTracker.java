@@ -47,7 +47,7 @@ public class VirtualRouterPingTracker extends PingTracker implements ManagementN
 
     @Override
     public int getPingInterval() {
-        return VirtualRouterGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return VirtualRouterGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
@@ -23,10 +23,8 @@ import org.zstack.header.zql.ASTNode;
 import org.zstack.header.zql.MarshalZQLASTTreeExtensionPoint;
 import org.zstack.header.zql.ReturnWithExtensionPoint;
 import org.zstack.header.zql.ZQLCustomizeContextExtensionPoint;
-import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
-import org.zstack.zql.antlr4.ZQLLexer;
 import org.zstack.zql.antlr4.ZQLParser;
 import org.zstack.zql.ast.ZQLMetadata;
 import org.zstack.zql.ast.parser.visitors.CountVisitor;
@@ -54,6 +52,8 @@ public class ZQL {
 
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ZQLPlanCache planCache;
 
     static class ThrowingErrorListener extends BaseErrorListener {
         String text;
@@ -106,23 +106,20 @@ public class ZQL {
     }
 
     private Object entityVOtoInventory(Object vo) {
-        try {
-            ZQLMetadata.InventoryMetadata inventoryMetadata = astResult.inventoryMetadata;
-            Object inv = inventoryMetadata.selfInventoryClass.getConstructor().newInstance();
-            if (vo instanceof Object[]) {
-                Object[] fieldValues = (Object[]) vo;
-                for (int i = 0; i < astResult.targetFieldNames.size(); i++) {
-                    String fieldName = astResult.targetFieldNames.get(i);
-                    BeanUtils.setProperty(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
-                }
-            } else {
-                String fieldName =  astResult.targetFieldNames.get(0);
-                BeanUtils.setProperty(inv, fieldName, astResult.inventoryMetadata.toInventoryFieldObject(fieldName, vo));
+        ZQLMetadata.InventoryMetadata inventoryMetadata = astResult.inventoryMetadata;
+        ZQLInventoryMapper mapper = ZQLInventoryMapper.of(inventoryMetadata.selfInventoryClass);
+        Object inv = mapper.newInventory();
+        if (vo instanceof Object[]) {
+            Object[] fieldValues = (Object[]) vo;
+            for (int i = 0; i < astResult.targetFieldNames.size(); i++) {
+                String fieldName = astResult.targetFieldNames.get(i);
+                mapper.setField(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
             }
-            return inv;
-        } catch (Exception e) {
-            throw new CloudRuntimeException(e);
+        } else {
+            String fieldName =  astResult.targetFieldNames.get(0);
+            mapper.setField(inv, fieldName, astResult.inventoryMetadata.toInventoryFieldObject(fieldName, vo));
         }
+        return inv;
     }
 
     private static void callExtensions(ASTNode.Query node) {
@@ -209,12 +206,20 @@ public class ZQL {
     public List<ZQLQueryReturn> getResultList() {
         List<ZQLQueryReturn> rs = new ArrayList<>();
 
-        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
-        ZQLParser p = new ZQLParser(new CommonTokenStream(l));
-        p.addErrorListener(new ThrowingErrorListener(text));
+        ZQLPlanCache.Plan plan = planCache.getPlan(text);
+        List<Token> previousTokens = ZQLPlanCache.bindTokens(plan.tokens);
+        try {
+            visitPlan(plan, rs);
+        } finally {
+            ZQLPlanCache.bindTokens(previousTokens);
+        }
+
+        return rs;
+    }
 
+    private void visitPlan(ZQLPlanCache.Plan plan, List<ZQLQueryReturn> rs) {
         Map currentContext = ZQLContext.get();
-        p.zqls().zql().forEach(ctx -> {
+        plan.tree.zql().forEach(ctx -> {
             ZQLContext.set(currentContext);
 
             ZQLQueryReturn qr = new ZQLQueryReturn();
@@ -330,8 +335,6 @@ public class ZQL {
 
             rs.add(qr);
         });
-
-        return rs;
     }
 
 
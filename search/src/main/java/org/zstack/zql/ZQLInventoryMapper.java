@@ -0,0 +1,135 @@
+package org.zstack.zql;
+
+import org.zstack.header.exception.CloudRuntimeException;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Creates inventories and sets their fields for queries selecting fields, by lambdas generated
+ * once per inventory class instead of looking up properties by BeanUtils for every value.
+ *
+ * Classes or setters not accessible to LambdaMetafactory are called by reflection.
+ */
+public class ZQLInventoryMapper {
+    private static final ClassValue<ZQLInventoryMapper> mappers = new ClassValue<ZQLInventoryMapper>() {
+        @Override
+        protected ZQLInventoryMapper computeValue(Class<?> type) {
+            return new ZQLInventoryMapper(type);
+        }
+    };
+
+    private final Class<?> inventoryClass;
+    private final Supplier<Object> constructor;
+    private final Map<String, BiConsumer<Object, Object>> setters = new ConcurrentHashMap<>();
+
+    private ZQLInventoryMapper(Class<?> inventoryClass) {
+        this.inventoryClass = inventoryClass;
+        constructor = makeConstructor();
+    }
+
+    public static ZQLInventoryMapper of(Class<?> inventoryClass) {
+        return mappers.get(inventoryClass);
+    }
+
+    private static boolean isAccessible(Class<?> clz, Method method) {
+        return Modifier.isPublic(clz.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())
+                && Modifier.isPublic(method.getModifiers());
+    }
+
+    private Supplier<Object> makeConstructor() {
+        Constructor<?> ctor;
+        try {
+            ctor = inventoryClass.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new CloudRuntimeException(String.format("inventory[%s] has no default constructor", inventoryClass.getName()));
+        }
+
+        if (Modifier.isPublic(inventoryClass.getModifiers()) && Modifier.isPublic(ctor.getModifiers())) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle mh = lookup.unreflectConstructor(ctor);
+                return (Supplier<Object>) LambdaMetafactory.metafactory(lookup, "get",
+                        MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+                        mh, MethodType.methodType(inventoryClass)).getTarget().invokeExact();
+            } catch (Throwable ignored) {
+                // fall back to reflection
+            }
+        }
+
+        ctor.setAccessible(true);
+        return () -> {
+            try {
+                return ctor.newInstance();
+            } catch (Exception e) {
+                throw new CloudRuntimeException(e);
+            }
+        };
+    }
+
+    private BiConsumer<Object, Object> makeSetter(String fieldName) {
+        Method setter = null;
+        try {
+            for (PropertyDescriptor pd : Introspector.getBeanInfo(inventoryClass).getPropertyDescriptors()) {
+                if (pd.getName().equals(fieldName)) {
+                    setter = pd.getWriteMethod();
+                    break;
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        if (setter == null) {
+            throw new CloudRuntimeException(String.format("inventory[%s] has no setter for the field[%s]",
+                    inventoryClass.getName(), fieldName));
+        }
+
+        if (isAccessible(inventoryClass, setter)) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle mh = lookup.unreflect(setter);
+                Class<?> valueType = MethodType.methodType(setter.getParameterTypes()[0]).wrap().returnType();
+                return (BiConsumer<Object, Object>) LambdaMetafactory.metafactory(lookup, "accept",
+                        MethodType.methodType(BiConsumer.class), MethodType.methodType(void.class, Object.class, Object.class),
+                        mh, MethodType.methodType(void.class, inventoryClass, valueType)).getTarget().invokeExact();
+            } catch (Throwable ignored) {
+                // fall back to reflection
+            }
+        }
+
+        Method m = setter;
+        m.setAccessible(true);
+        return (inv, value) -> {
+            try {
+                m.invoke(inv, value);
+            } catch (Exception e) {
+                throw new CloudRuntimeException(e);
+            }
+        };
+    }
+
+    public Object newInventory() {
+        return constructor.get();
+    }
+
+    public void setField(Object inventory, String fieldName, Object value) {
+        BiConsumer<Object, Object> setter = setters.get(fieldName);
+        if (setter == null) {
+            setter = setters.computeIfAbsent(fieldName, this::makeSetter);
+        }
+        setter.accept(inventory, value);
+    }
+}
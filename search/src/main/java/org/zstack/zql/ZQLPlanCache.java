@@ -0,0 +1,153 @@
+package org.zstack.zql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.zql.antlr4.ZQLLexer;
+import org.zstack.zql.antlr4.ZQLParser;
+
+import java.util.List;
+
+/**
+ * Caches parse trees of ZQL texts by their shapes, so queries differing only in literal values
+ * are lexed but not parsed again.
+ *
+ * The shape of a text is its tokens with the texts of STRING, INT, FLOAT and BOOLEAN tokens
+ * dropped. The grammar has no predicates, texts of the same shape get the same parse tree except
+ * literal texts; parser visitors read literals by textOf(), which returns the texts of the
+ * tokens bound to the current thread by ZQL instead of the texts in the cached tree.
+ *
+ * JPQL is not cached, it has literal values and the restrictions added by
+ * MarshalZQLASTTreeExtensionPoint for the API session inlined.
+ */
+public class ZQLPlanCache implements Component, ZQLPlanCacheMXBean {
+    private static final ThreadLocal<List<Token>> boundTokens = new ThreadLocal<>();
+
+    @Autowired
+    private JmxFacade jmxf;
+
+    private final Cache<String, ZQLParser.ZqlsContext> trees = CacheBuilder.newBuilder()
+            .maximumSize(ZQLGlobalProperty.PLAN_CACHE_SIZE)
+            .recordStats()
+            .build();
+
+    public static class Plan {
+        public final ZQLParser.ZqlsContext tree;
+        public final List<Token> tokens;
+
+        Plan(ZQLParser.ZqlsContext tree, List<Token> tokens) {
+            this.tree = tree;
+            this.tokens = tokens;
+        }
+    }
+
+    private static boolean isLiteral(Token t) {
+        int type = t.getType();
+        return type == ZQLLexer.STRING || type == ZQLLexer.INT || type == ZQLLexer.FLOAT || type == ZQLLexer.BOOLEAN;
+    }
+
+    static String shapeOf(List<Token> tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (Token t : tokens) {
+            sb.append('\u0001');
+            if (isLiteral(t)) {
+                sb.append('\u0000').append(t.getType());
+            } else {
+                sb.append(t.getText());
+            }
+        }
+        return sb.toString();
+    }
+
+    public Plan getPlan(String text) {
+        CommonTokenStream tokens = new CommonTokenStream(new ZQLLexer(CharStreams.fromString(text)));
+        tokens.fill();
+
+        String shape = shapeOf(tokens.getTokens());
+        ZQLParser.ZqlsContext tree = trees.getIfPresent(shape);
+        if (tree == null) {
+            ZQLParser p = new ZQLParser(tokens);
+            p.addErrorListener(new ZQL.ThrowingErrorListener(text));
+            tree = p.zqls();
+            trees.put(shape, tree);
+        }
+
+        return new Plan(tree, tokens.getTokens());
+    }
+
+    /**
+     * binds tokens of the ZQL being visited to the current thread, null unbinds
+     *
+     * @return the tokens bound before
+     */
+    public static List<Token> bindTokens(List<Token> tokens) {
+        List<Token> old = boundTokens.get();
+        if (tokens == null) {
+            boundTokens.remove();
+        } else {
+            boundTokens.set(tokens);
+        }
+        return old;
+    }
+
+    public static String textOf(TerminalNode node) {
+        List<Token> tokens = boundTokens.get();
+        return tokens == null ? node.getText() : tokens.get(node.getSymbol().getTokenIndex()).getText();
+    }
+
+    public static String textOf(ParserRuleContext ctx) {
+        List<Token> tokens = boundTokens.get();
+        if (tokens == null) {
+            return ctx.getText();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = ctx.getStart().getTokenIndex(); i <= ctx.getStop().getTokenIndex(); i++) {
+            sb.append(tokens.get(i).getText());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long getSize() {
+        return trees.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return trees.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return trees.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return trees.stats().hitRate();
+    }
+
+    @Override
+    public void invalidateAll() {
+        trees.invalidateAll();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("ZQLPlanCache", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,18 @@
+package org.zstack.zql;
+
+import javax.management.MXBean;
+
+/**
+ */
+@MXBean
+public interface ZQLPlanCacheMXBean {
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    void invalidateAll();
+}
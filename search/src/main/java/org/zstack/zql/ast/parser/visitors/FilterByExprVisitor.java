@@ -1,6 +1,7 @@
 package org.zstack.zql.ast.parser.visitors;
 
 import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
@@ -9,7 +10,7 @@ public class FilterByExprVisitor extends ZQLBaseVisitor<ASTNode.FilterByExpr> {
     public ASTNode.FilterByExpr visitFilterByExpr(ZQLParser.FilterByExprContext ctx) {
         ASTNode.FilterByExpr f = new ASTNode.FilterByExpr();
         f.setFilterName(ctx.ID().getText());
-        f.setContent(ctx.filterByExprBlock().getText());
+        f.setContent(ZQLPlanCache.textOf(ctx.filterByExprBlock()));
         return f;
     }
 }
@@ -1,6 +1,7 @@
 package org.zstack.zql.ast.parser.visitors;
 
 import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
@@ -8,7 +9,7 @@ public class LimitVisitor extends ZQLBaseVisitor<ASTNode.Limit> {
     @Override
     public ASTNode.Limit visitLimit(ZQLParser.LimitContext ctx) {
         ASTNode.Limit l = new ASTNode.Limit();
-        l.setLimit(Long.valueOf(ctx.INT().getText()).intValue());
+        l.setLimit(Long.valueOf(ZQLPlanCache.textOf(ctx.INT())).intValue());
         return l;
     }
 }
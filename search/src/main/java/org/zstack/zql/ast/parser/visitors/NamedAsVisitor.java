@@ -1,12 +1,13 @@
 package org.zstack.zql.ast.parser.visitors;
 
 import org.apache.commons.lang.StringUtils;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
 public class NamedAsVisitor extends ZQLBaseVisitor<String> {
     @Override public String visitNamedAs(ZQLParser.NamedAsContext ctx) {
-        String name = ctx.namedAsValue().getText();
+        String name = ZQLPlanCache.textOf(ctx.namedAsValue());
         name = StringUtils.removeStart(name, "'");
         name = StringUtils.removeStart(name, "\"");
         name = StringUtils.removeEnd(name, "\"");
@@ -1,6 +1,7 @@
 package org.zstack.zql.ast.parser.visitors;
 
 import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
@@ -8,7 +9,7 @@ public class OffsetVisitor extends ZQLBaseVisitor<ASTNode.Offset> {
     @Override
     public ASTNode.Offset visitOffset(ZQLParser.OffsetContext ctx) {
         ASTNode.Offset o = new ASTNode.Offset();
-        o.setOffset(Long.valueOf(ctx.INT().getText()).intValue());
+        o.setOffset(Long.valueOf(ZQLPlanCache.textOf(ctx.INT())).intValue());
         return o;
     }
 }
@@ -2,6 +2,7 @@ package org.zstack.zql.ast.parser.visitors;
 
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
@@ -19,7 +20,7 @@ public class ReturnWithExprVisitor extends ZQLBaseVisitor<ASTNode.ReturnWithExpr
     public ASTNode.ReturnWithBlockExpr visitReturnWithExprFunction(ZQLParser.ReturnWithExprFunctionContext ctx) {
         ASTNode.ReturnWithBlockExpr r = new ASTNode.ReturnWithBlockExpr();
         r.setName(ctx.ID().getText());
-        r.setContent(ctx.returnWithExprBlock().getText());
+        r.setContent(ZQLPlanCache.textOf(ctx.returnWithExprBlock()));
         return r;
     }
 }
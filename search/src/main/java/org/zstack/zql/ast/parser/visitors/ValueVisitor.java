@@ -3,6 +3,7 @@ package org.zstack.zql.ast.parser.visitors;
 import org.apache.commons.lang.StringUtils;
 import org.zstack.header.zql.ASTNode;
 import org.zstack.utils.DebugUtils;
+import org.zstack.zql.ZQLPlanCache;
 import org.zstack.zql.antlr4.ZQLBaseVisitor;
 import org.zstack.zql.antlr4.ZQLParser;
 
@@ -23,7 +24,7 @@ public class ValueVisitor extends ZQLBaseVisitor<ASTNode.Value> {
         }
 
         ASTNode.PlainValue v = new ASTNode.PlainValue();
-        v.setText(ctx.getText());
+        v.setText(ZQLPlanCache.textOf(ctx));
         if (ctx.INT() != null) {
             v.setType(Long.class);
         } else if (ctx.FLOAT() != null) {
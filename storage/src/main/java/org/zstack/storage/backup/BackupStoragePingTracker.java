@@ -43,7 +43,7 @@ public class BackupStoragePingTracker extends PingTracker implements ManagementN
 
     @Override
     public int getPingInterval() {
-        return BackupStorageGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return BackupStorageGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
@@ -41,7 +41,7 @@ public class PrimaryStoragePingTracker extends PingTracker implements Management
 
     @Override
     public int getPingInterval() {
-        return PrimaryStorageGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return PrimaryStorageGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
@@ -6,6 +6,7 @@ import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.db.DbGlobalProperty;
 import org.zstack.core.db.Q;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
@@ -144,10 +145,18 @@ public class VolumeSizeTrackerImpl implements VolumeSizeTracker, Component {
         for (RefreshVolumeSizeExtensionPoint ext : pluginRgty.getExtensionList(RefreshVolumeSizeExtensionPoint.class)) {
             volUuids.addAll(ext.getNeedRefreshVolumeSizeVolume());
         }
-        return volUuids.isEmpty() ? new ArrayList<>() : Q.New(VolumeVO.class).in(VolumeVO_.uuid, volUuids)
-                .eq(VolumeVO_.state, VolumeState.Enabled)
-                .eq(VolumeVO_.status, VolumeStatus.Ready)
-                .select(VolumeVO_.uuid)
-                .listValues();
+
+        // look up by batches of uuids, keeping the IN clause bounded however many volumes are reported
+        List<String> uuids = new ArrayList<>(volUuids);
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < uuids.size(); i += DbGlobalProperty.QUERY_BATCH_SIZE) {
+            ret.addAll(Q.New(VolumeVO.class)
+                    .in(VolumeVO_.uuid, uuids.subList(i, Math.min(i + DbGlobalProperty.QUERY_BATCH_SIZE, uuids.size())))
+                    .eq(VolumeVO_.state, VolumeState.Enabled)
+                    .eq(VolumeVO_.status, VolumeStatus.Ready)
+                    .select(VolumeVO_.uuid)
+                    .listValues());
+        }
+        return ret;
     }
 }
@@ -78,6 +78,12 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public Map<String, String> getTokensByResourceUuid(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = useCache();
+        if (cache != null) {
+            List<Map<String, String>> tokens = cache.getTokens(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat(), tagFormat);
+            return tokens.isEmpty() ? null : tokens.get(0);
+        }
+
         String tag = getTag(resourceUuid, resourceClass);
         if (tag == null) {
             return null;
@@ -91,6 +97,11 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public List<Map<String, String>> getTokensOfTagsByResourceUuid(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = useCache();
+        if (cache != null) {
+            return cache.getTokens(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat(), tagFormat);
+        }
+
         List<Map<String, String>> res = new ArrayList<>();
 
         List<String> tags = getTags(resourceUuid, resourceClass);
@@ -107,11 +107,27 @@ public class SystemTag {
         return Op.EQ;
     }
 
+    /**
+     * @return the system tag cache, or null if tags must be read from database
+     */
+    protected SystemTagCache useCache() {
+        if (tagMgr == null || tagMgr.systemTagCache == null || !tagMgr.systemTagCache.isUsable()) {
+            return null;
+        }
+
+        return tagMgr.systemTagCache;
+    }
+
     public boolean hasTag(String resourceUuid) {
         return hasTag(resourceUuid, resourceClass);
     }
 
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = useCache();
+        if (cache != null) {
+            return !cache.getTags(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat()).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -137,6 +153,11 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = useCache();
+        if (cache != null) {
+            return cache.getTags(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -162,6 +183,11 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        SystemTagCache cache = useCache();
+        if (cache != null) {
+            return cache.getTags(resourceUuids, resourceClass.getSimpleName(), useOp(), useTagFormat());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
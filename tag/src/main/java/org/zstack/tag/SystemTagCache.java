@@ -0,0 +1,366 @@
+package org.zstack.tag;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.DbGlobalProperty;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.tag.SystemTagCanonicalEvents;
+import org.zstack.header.tag.SystemTagCanonicalEvents.SystemTagChangedData;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.TagUtils;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Caches system tags by resource uuid, so SystemTag and PatternedSystemTag read tags of a resource
+ * from memory instead of querying SystemTagVO with LIKE on every call.
+ *
+ * All system tags of a resource are loaded by one query and matched in memory the way MySQL matches
+ * them, case-insensitively with '%' and '_' as the wildcards of LIKE. Tokens parsed from the tags of
+ * a resource are kept per tag pattern.
+ *
+ * Entries are dropped when tags are created, updated or deleted by TagManagerImpl, when a SystemTagVO
+ * is persisted, merged or removed by the entity manager, and when tags of deleted resources are
+ * deleted; other management nodes drop theirs on SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH
+ * once the transaction commits. Entries also expire after systemTag.cache.ttl seconds in case a change
+ * is made by SQL. Reads in a transaction bypass the cache, as they may see tags not yet committed.
+ */
+public class SystemTagCache implements Component, SystemTagCacheMXBean {
+    private static final Object TRANSACTION_RESOURCE_KEY = new Object();
+    private static final Map<String, Pattern> likePatterns = new ConcurrentHashMap<>();
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private final Cache<String, ResourceTags> tags = CacheBuilder.newBuilder()
+            .maximumSize(TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE)
+            .expireAfterWrite(TagGlobalProperty.SYSTEM_TAG_CACHE_TTL, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    // bumped by every invalidation, tags loaded across an invalidation are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private static class Tag {
+        final String resourceType;
+        final String tag;
+
+        Tag(String resourceType, String tag) {
+            this.resourceType = resourceType;
+            this.tag = tag;
+        }
+    }
+
+    private static class ResourceTags {
+        final List<Tag> tags;
+        // parsed tokens of the matched tags by resource type and tag format
+        final Map<String, List<Map<String, String>>> tokens = new ConcurrentHashMap<>();
+
+        ResourceTags(List<Tag> tags) {
+            this.tags = tags;
+        }
+
+        List<String> match(String resourceType, Op op, String format) {
+            List<String> ret = new ArrayList<>();
+            for (Tag t : tags) {
+                if ((resourceType == null || t.resourceType.equals(resourceType)) && isMatch(op, format, t.tag)) {
+                    ret.add(t.tag);
+                }
+            }
+            return ret;
+        }
+
+        List<Map<String, String>> parse(String resourceType, Op op, String format, String tagFormat) {
+            return tokens.computeIfAbsent(resourceType + '\u0000' + tagFormat, k -> {
+                List<Map<String, String>> ret = new ArrayList<>();
+                for (String tag : match(resourceType, op, format)) {
+                    ret.add(TagUtils.parseIfMatch(tagFormat, tag));
+                }
+                return ret;
+            });
+        }
+    }
+
+    /**
+     * matches a tag by the condition SystemTag queries with, the default collation of
+     * SystemTagVO.tag is case-insensitive
+     */
+    static boolean isMatch(Op op, String format, String tag) {
+        if (op == Op.LIKE) {
+            return likePatterns.computeIfAbsent(format, SystemTagCache::likeToRegex).matcher(tag).matches();
+        }
+
+        return trimTrailingSpaces(format).equalsIgnoreCase(trimTrailingSpaces(tag));
+    }
+
+    private static String trimTrailingSpaces(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+
+    private static Pattern likeToRegex(String like) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                sb.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if (c == '%') {
+                sb.append(".*");
+            } else if (c == '_') {
+                sb.append('.');
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    /**
+     * tags read in a transaction may not be committed, they are neither read from nor put in the cache
+     */
+    public boolean isUsable() {
+        return TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE > 0 && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    private static List<Tag> toTags(List<Tuple> ts) {
+        List<Tag> ret = new ArrayList<>(ts.size());
+        for (Tuple t : ts) {
+            ret.add(new Tag(t.get(0, String.class), t.get(1, String.class)));
+        }
+        return ret;
+    }
+
+    private ResourceTags get(String resourceUuid) {
+        ResourceTags ret = tags.getIfPresent(resourceUuid);
+        if (ret != null) {
+            return ret;
+        }
+
+        long gen = generation.get();
+        ret = new ResourceTags(toTags(Q.New(SystemTagVO.class)
+                .eq(SystemTagVO_.resourceUuid, resourceUuid)
+                .select(SystemTagVO_.resourceType, SystemTagVO_.tag)
+                .listTuple()));
+        synchronized (this) {
+            if (gen == generation.get()) {
+                tags.put(resourceUuid, ret);
+            }
+        }
+
+        return ret;
+    }
+
+    private Map<String, ResourceTags> get(Collection<String> resourceUuids) {
+        Map<String, ResourceTags> ret = new HashMap<>();
+        List<String> missed = new ArrayList<>();
+        for (String uuid : resourceUuids) {
+            ResourceTags t = tags.getIfPresent(uuid);
+            if (t != null) {
+                ret.put(uuid, t);
+            } else {
+                missed.add(uuid);
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return ret;
+        }
+
+        long gen = generation.get();
+        Map<String, List<Tag>> loaded = new HashMap<>();
+        for (String uuid : missed) {
+            loaded.put(uuid, new ArrayList<>());
+        }
+        for (int i = 0; i < missed.size(); i += DbGlobalProperty.QUERY_BATCH_SIZE) {
+            List<Tuple> ts = Q.New(SystemTagVO.class)
+                    .in(SystemTagVO_.resourceUuid, missed.subList(i, Math.min(i + DbGlobalProperty.QUERY_BATCH_SIZE, missed.size())))
+                    .select(SystemTagVO_.resourceType, SystemTagVO_.tag, SystemTagVO_.resourceUuid)
+                    .listTuple();
+            for (Tuple t : ts) {
+                List<Tag> lst = loaded.get(t.get(2, String.class));
+                if (lst != null) {
+                    lst.add(new Tag(t.get(0, String.class), t.get(1, String.class)));
+                }
+            }
+        }
+
+        synchronized (this) {
+            boolean cacheable = gen == generation.get();
+            loaded.forEach((uuid, lst) -> {
+                ResourceTags t = new ResourceTags(lst);
+                ret.put(uuid, t);
+                if (cacheable) {
+                    tags.put(uuid, t);
+                }
+            });
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param resourceType null matches tags of any resource type
+     */
+    public List<String> getTags(String resourceUuid, String resourceType, Op op, String format) {
+        return get(resourceUuid).match(resourceType, op, format);
+    }
+
+    public Map<String, List<String>> getTags(Collection<String> resourceUuids, String resourceType, Op op, String format) {
+        Map<String, List<String>> ret = new HashMap<>();
+        get(resourceUuids).forEach((uuid, t) -> {
+            List<String> matched = t.match(resourceType, op, format);
+            if (!matched.isEmpty()) {
+                ret.put(uuid, matched);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * @return tokens of each tag matched, null for a tag not matching the tag format,
+     * the maps are copies callers can change
+     */
+    public List<Map<String, String>> getTokens(String resourceUuid, String resourceType, Op op, String format, String tagFormat) {
+        List<Map<String, String>> ret = new ArrayList<>();
+        for (Map<String, String> tokens : get(resourceUuid).parse(resourceType, op, format, tagFormat)) {
+            ret.add(tokens == null ? null : new HashMap<>(tokens));
+        }
+        return ret;
+    }
+
+    public synchronized void invalidate(Collection<String> resourceUuids) {
+        generation.incrementAndGet();
+        tags.invalidateAll(resourceUuids);
+    }
+
+    public void invalidate(SystemTagChangedData d) {
+        if (d.getResourceUuids() == null) {
+            invalidateAll();
+        } else {
+            invalidate(d.getResourceUuids());
+        }
+    }
+
+    /**
+     * drops cached tags of the resources at once, and on all management nodes once the
+     * current transaction if any completes
+     */
+    public void resourceTagsChanged(Collection<String> resourceUuids) {
+        if (resourceUuids.isEmpty()) {
+            return;
+        }
+
+        invalidate(resourceUuids);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            fireChangedEvent(new ArrayList<>(resourceUuids));
+            return;
+        }
+
+        // tags changed in a transaction are collected and announced in one event
+        Set<String> changed = (Set<String>) TransactionSynchronizationManager.getResource(TRANSACTION_RESOURCE_KEY);
+        if (changed == null) {
+            Set<String> uuids = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(TRANSACTION_RESOURCE_KEY, uuids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_RESOURCE_KEY);
+                    // tags may have been read and cached after the change but before the commit or rollback
+                    invalidate(uuids);
+                    fireChangedEvent(new ArrayList<>(uuids));
+                }
+            });
+            changed = uuids;
+        }
+
+        changed.addAll(resourceUuids);
+    }
+
+    public void resourceTagsChanged(String resourceUuid) {
+        resourceTagsChanged(Collections.singletonList(resourceUuid));
+    }
+
+    private void fireChangedEvent(List<String> resourceUuids) {
+        SystemTagChangedData d = new SystemTagChangedData();
+        d.setResourceUuids(resourceUuids);
+        evtf.fire(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, d);
+    }
+
+    private void installInvalidators() {
+        evtf.on(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (!evtf.isFromThisManagementNode(tokens)) {
+                    invalidate((SystemTagChangedData) data);
+                }
+            }
+        });
+
+        // catch tags written by the entity manager out of TagManagerImpl
+        for (EntityEvent evt : Arrays.asList(EntityEvent.POST_PERSIST, EntityEvent.POST_UPDATE, EntityEvent.POST_REMOVE)) {
+            dbf.installEntityLifeCycleCallback(SystemTagVO.class, evt, (e, o) ->
+                    resourceTagsChanged(((SystemTagVO) o).getResourceUuid()));
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return tags.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return tags.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return tags.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return tags.stats().hitRate();
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        tags.invalidateAll();
+    }
+
+    @Override
+    public boolean start() {
+        installInvalidators();
+        jmxf.registerBean("SystemTagCache", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
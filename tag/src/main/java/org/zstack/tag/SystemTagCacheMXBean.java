@@ -0,0 +1,18 @@
+package org.zstack.tag;
+
+import javax.management.MXBean;
+
+/**
+ */
+@MXBean
+public interface SystemTagCacheMXBean {
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    void invalidateAll();
+}
@@ -0,0 +1,12 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name = "systemTag.cache.size", defaultValue = "50000")
+    public static int SYSTEM_TAG_CACHE_SIZE;
+    @GlobalProperty(name = "systemTag.cache.ttl", defaultValue = "600")
+    public static int SYSTEM_TAG_CACHE_TTL;
+}
@@ -58,6 +58,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    SystemTagCache systemTagCache;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private List<SystemTag> adminOnlySystemTags = new ArrayList<>();
@@ -389,6 +391,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public List<String> findSystemTags(String resourceUuid) {
+        if (systemTagCache.isUsable()) {
+            return systemTagCache.getTags(resourceUuid, null, Op.LIKE, "%");
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
@@ -405,6 +411,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     private boolean hasTag(String resourceUuid, String tag, TagType tagType) {
         if (tagType == TagType.System) {
+            if (systemTagCache.isUsable()) {
+                return !systemTagCache.getTags(resourceUuid, null, Op.EQ, tag).isEmpty();
+            }
+
             SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
             q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
             q.add(SystemTagVO_.tag, SimpleQuery.Op.EQ, tag);
@@ -488,7 +498,13 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    private void systemTagsChanged(List<SystemTagInventory> tags) {
+        systemTagCache.resourceTagsChanged(tags.stream().map(SystemTagInventory::getResourceUuid).collect(Collectors.toSet()));
+    }
+
     void fireTagDeleted(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -504,6 +520,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void fireTagCreated(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -519,6 +537,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        systemTagsChanged(list(old, newTag));
+
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -719,6 +739,9 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
 
+        // bulk deletes don't fire entity life cycle callbacks
+        systemTagCache.resourceTagsChanged(((Collection<Object>) entityIds).stream().map(Object::toString).collect(Collectors.toList()));
+
         sql = "delete from UserTagVO s" +
                 " where s.resourceType in (:resourceTypes)" +
                 " and s.resourceUuid in (:resourceUuids)";
@@ -0,0 +1,97 @@
+package org.zstack.test.integration.configuration.systemTag
+
+import org.zstack.compute.zone.ZoneSystemTags
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.TagType
+import org.zstack.header.zone.ZoneVO
+import org.zstack.sdk.SystemTagInventory
+import org.zstack.tag.SystemTagCache
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.testlib.ZoneSpec
+
+class SystemTagCacheCase extends SubCase {
+    EnvSpec env
+    SystemTagCache cache
+    String zoneUuid
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            cache = bean(SystemTagCache.class)
+            zoneUuid = (env.specByName("zone") as ZoneSpec).inventory.uuid
+            testTagsReadFromCache()
+            testTagsWrittenByEntityManager()
+        }
+    }
+
+    void testTagsReadFromCache() {
+        assert !ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.hasTag(zoneUuid)
+
+        SystemTagInventory tag = createSystemTag {
+            resourceType = ZoneVO.getSimpleName()
+            resourceUuid = zoneUuid
+            tag = "host::reservedCpu::1G"
+        } as SystemTagInventory
+
+        long hits = cache.hitCount
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTokenByResourceUuid(zoneUuid, "capacity") == "1G"
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.hasTag(zoneUuid)
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTags([zoneUuid])[zoneUuid] == ["host::reservedCpu::1G"]
+        assert !ZoneSystemTags.HOST_RESERVED_MEMORY_CAPACITY.hasTag(zoneUuid)
+        assert cache.hitCount >= hits + 3
+
+        // tokens returned are copies
+        ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTokensByResourceUuid(zoneUuid).put("capacity", "changed")
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTokenByResourceUuid(zoneUuid, "capacity") == "1G"
+
+        updateSystemTag {
+            uuid = tag.uuid
+            tag = "host::reservedCpu::2G"
+        }
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTokenByResourceUuid(zoneUuid, "capacity") == "2G"
+
+        deleteTag {
+            uuid = tag.uuid
+        }
+        assert !ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.hasTag(zoneUuid)
+        assert ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY.getTokenByResourceUuid(zoneUuid, "capacity") == null
+    }
+
+    void testTagsWrittenByEntityManager() {
+        DatabaseFacade dbf = bean(DatabaseFacade.class)
+        assert !ZoneSystemTags.HOST_RESERVED_MEMORY_CAPACITY.hasTag(zoneUuid)
+
+        SystemTagVO vo = new SystemTagVO()
+        vo.uuid = Platform.uuid
+        vo.resourceUuid = zoneUuid
+        vo.resourceType = ZoneVO.getSimpleName()
+        vo.tag = "host::reservedMemory::1G"
+        vo.type = TagType.System
+        vo = dbf.persistAndRefresh(vo)
+        assert ZoneSystemTags.HOST_RESERVED_MEMORY_CAPACITY.getTokenByResourceUuid(zoneUuid, "capacity") == "1G"
+
+        dbf.remove(vo)
+        assert !ZoneSystemTags.HOST_RESERVED_MEMORY_CAPACITY.hasTag(zoneUuid)
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+}
@@ -0,0 +1,38 @@
+package org.zstack.test.integration.core
+
+import org.zstack.header.message.APIMessage
+import org.zstack.header.rest.RestRequest
+import org.zstack.testlib.SubCase
+import org.zstack.testlib.util.StartupBenchmark
+import org.zstack.utils.BeanUtils
+
+class ClassIndexCase extends SubCase {
+    @Override
+    void setup() {
+        INCLUDE_CORE_SERVICES = false
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testClassIndexMatchesScan()
+        testBeanUtilsReflections()
+    }
+
+    void testClassIndexMatchesScan() {
+        StartupBenchmark b = StartupBenchmark.run()
+        assert b.differences.isEmpty() : b.differences.join("\n")
+    }
+
+    void testBeanUtilsReflections() {
+        assert !BeanUtils.reflections.getSubTypesOf(APIMessage.class).isEmpty()
+        assert BeanUtils.reflections.getTypesAnnotatedWith(RestRequest.class).any { it.isAnnotationPresent(RestRequest.class) }
+    }
+
+    @Override
+    void clean() {
+    }
+}
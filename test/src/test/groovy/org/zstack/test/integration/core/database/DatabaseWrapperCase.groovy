@@ -5,13 +5,16 @@ import org.zstack.core.Platform
 import org.zstack.core.db.DatabaseFacade
 import org.zstack.core.db.Q
 import org.zstack.core.db.SQLBatch
+import org.zstack.header.core.NoErrorCompletion
 import org.zstack.header.configuration.InstanceOfferingVO
 import org.zstack.header.configuration.InstanceOfferingVO_
 import org.zstack.header.identity.AccountConstant
 import org.zstack.core.db.DBSourceUtils
 import org.zstack.testlib.SubCase
 
+import javax.persistence.Tuple
 import java.sql.SQLException
+import java.util.stream.Collectors
 
 /**
  * Created by david on 7/13/17.
@@ -31,6 +34,7 @@ class DatabaseWrapperCase extends SubCase {
         assert DBSourceUtils.isDBConnected()
         assert DBSourceUtils.waitDBConnected(5, 5)
         testQ()
+        testQIterate()
         testSQLBatch()
     }
 
@@ -59,6 +63,84 @@ class DatabaseWrapperCase extends SubCase {
         assert offerings.isEmpty() : "expect no tuples found"
     }
 
+    void testQIterate() {
+        DatabaseFacade dbf = bean(DatabaseFacade.class)
+
+        List<InstanceOfferingVO> vos = (0..24).collect { i ->
+            InstanceOfferingVO vo = new InstanceOfferingVO()
+            vo.memorySize = 4321
+            vo.cpuNum = i
+            vo.cpuSpeed = 0
+            vo.uuid = Platform.uuid
+            vo.duration = "Permanent"
+            vo.name = "offering-${i}"
+            vo.state = "Enabled"
+            vo.sortKey = 0
+            vo.type = "UserVm"
+            vo.setAccountUuid(AccountConstant.INITIAL_SYSTEM_ADMIN_UUID)
+            return dbf.persistAndRefresh(vo)
+        }
+        List<String> uuids = vos.collect { it.uuid }.sort()
+
+        List<Integer> batchSizes = []
+        List<String> iterated = []
+        Q.New(InstanceOfferingVO.class)
+                .eq(InstanceOfferingVO_.memorySize, 4321)
+                .iterate(10, { List<InstanceOfferingVO> batch ->
+                    batchSizes.add(batch.size())
+                    iterated.addAll(batch.collect { it.uuid })
+                })
+        assert batchSizes == [10, 10, 5]
+        assert iterated == uuids
+
+        List<Integer> cpuNums = []
+        Q.New(InstanceOfferingVO.class)
+                .eq(InstanceOfferingVO_.memorySize, 4321)
+                .select(InstanceOfferingVO_.cpuNum)
+                .iterate(7, { List<Integer> batch -> cpuNums.addAll(batch) })
+        assert cpuNums.sort() == (0..24).toList()
+
+        List<Tuple> tuples = []
+        Q.New(InstanceOfferingVO.class)
+                .eq(InstanceOfferingVO_.memorySize, 4321)
+                .select(InstanceOfferingVO_.name, InstanceOfferingVO_.cpuNum)
+                .iterate(25, { List<Tuple> batch -> tuples.addAll(batch) })
+        assert tuples.size() == 25
+        // the primary key is appended to the tuples
+        assert tuples.collect { it.get(2, String.class) } == uuids
+        tuples.each { assert it.get(0, String.class) == "offering-${it.get(1, Integer.class)}".toString() }
+
+        List<String> streamed = Q.New(InstanceOfferingVO.class)
+                .eq(InstanceOfferingVO_.memorySize, 4321)
+                .select(InstanceOfferingVO_.uuid)
+                .stream(4)
+                .collect(Collectors.toList())
+        assert streamed == uuids
+
+        List<String> consumed = []
+        boolean completed = false
+        Q.New(InstanceOfferingVO.class)
+                .eq(InstanceOfferingVO_.memorySize, 4321)
+                .select(InstanceOfferingVO_.uuid)
+                .iterate(6, { List<String> batch, NoErrorCompletion completion ->
+                    Thread.start {
+                        consumed.addAll(batch)
+                        completion.done()
+                    }
+                }, new NoErrorCompletion() {
+                    @Override
+                    void done() {
+                        completed = true
+                    }
+                })
+        retryInSecs {
+            assert completed
+            assert consumed == uuids
+        }
+
+        vos.each { dbf.remove(it) }
+    }
+
     void testSQLBatch() {
         def offeringUuid = Platform.uuid
         DatabaseFacade dbf = bean(DatabaseFacade.class)
@@ -0,0 +1,91 @@
+package org.zstack.test.integration.kvm.host
+
+import org.springframework.http.HttpEntity
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.header.vm.VmStateChangedOnHostMsg
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMConstant
+import org.zstack.kvm.KVMGlobalConfig
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.KVMSimulator
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.gson.JSONObjectUtil
+import org.zstack.utils.logging.CLogger
+
+class VmSyncManyVmsCase extends SubCase {
+    private final static CLogger logger = Utils.getLogger(VmSyncManyVmsCase.class)
+
+    EnvSpec env
+    HostInventory host
+
+    static int VM_NUM = 300
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            host = env.inventoryByName("kvm") as HostInventory
+            testReconnectHostWithManyVms()
+            testUnchangedVmStatesSkipped()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    void testReconnectHostWithManyVms() {
+        KVMSimulator.createRunningVms(host.uuid, VM_NUM)
+
+        int changed = 0
+        def cleanup = notifyWhenReceivedMessage(VmStateChangedOnHostMsg.class) { VmStateChangedOnHostMsg msg ->
+            changed ++
+        }
+
+        long start = System.currentTimeMillis()
+        reconnectHost {
+            uuid = host.uuid
+        }
+        logger.debug("reconnected host[uuid:${host.uuid}] carrying ${VM_NUM} VMs in ${System.currentTimeMillis() - start}ms")
+
+        // VM states in database agree with the host
+        assert changed == 0
+        cleanup()
+    }
+
+    void testUnchangedVmStatesSkipped() {
+        KVMGlobalConfig.VM_SYNC_ON_HOST_PING.updateValue(true)
+
+        List<KVMAgentCommands.VmSyncCmd> cmds = []
+        List<KVMAgentCommands.VmSyncResponse> rsps = []
+        env.afterSimulator(KVMConstant.KVM_VM_SYNC_PATH) { KVMAgentCommands.VmSyncResponse rsp, HttpEntity<String> e ->
+            cmds.add(JSONObjectUtil.toObject(e.body, KVMAgentCommands.VmSyncCmd.class))
+            rsps.add(rsp)
+            return rsp
+        }
+
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1)
+
+        retryInSecs {
+            // the states reconciled when reconnecting are sent with the sync of ping
+            assert cmds.any { it.statesHash != null }
+            assert rsps.any { it.statesUnchanged }
+        }
+
+        env.cleanAfterSimulatorHandlers()
+    }
+}
@@ -0,0 +1,240 @@
+package org.zstack.test.integration.kvm.host.capacity
+
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.compute.allocator.HostCapacityIndex
+import org.zstack.compute.allocator.HostCapacityUpdater
+import org.zstack.core.db.Q
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.HostCapacityVO_
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.InstanceOfferingInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+class HostCapacityIndexCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "1CPU1G"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+
+            instanceOffering {
+                name = "1CPU8G"
+                memory = SizeUnit.GIGABYTE.toByte(8)
+                cpu = 1
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image1"
+                    url = "http://zstack.org/download/test.qcow2"
+                }
+            }
+
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                        totalCpu = 8
+                        totalMem = SizeUnit.GIGABYTE.toByte(4)
+                    }
+
+                    attachPrimaryStorage("local")
+                    attachL2Network("l2")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+
+                attachBackupStorage("sftp")
+            }
+
+            vm {
+                name = "vm"
+                useInstanceOffering("1CPU1G")
+                useImage("image1")
+                useL3Networks("l3")
+            }
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testAllocateHostFromIndex()
+            testIndexFollowsHostEvents()
+            testConcurrentReservations()
+        }
+    }
+
+    void testAllocateHostFromIndex() {
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_ENABLE.updateValue(true)
+        // the index follows events only, the periodic reconciliation doesn't run in this case
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_RECONCILE_INTERVAL.updateValue(3600)
+        HostCapacityIndex index = bean(HostCapacityIndex.class)
+        index.reconcile()
+
+        HostInventory host = env.inventoryByName("kvm")
+        VmInstanceInventory vm = env.inventoryByName("vm")
+        InstanceOfferingInventory small = env.inventoryByName("1CPU1G")
+        InstanceOfferingInventory large = env.inventoryByName("1CPU8G")
+
+        assert index.findHosts(null, 1, SizeUnit.GIGABYTE.toByte(1)) == [host.uuid]
+        assert index.findHosts(null, 1, SizeUnit.GIGABYTE.toByte(8)).isEmpty()
+
+        // looked up by cluster and hypervisor type
+        ClusterInventory cluster = env.inventoryByName("cluster")
+        assert index.findHosts([cluster.uuid], "KVM", 1, SizeUnit.GIGABYTE.toByte(1)) == [host.uuid]
+        assert index.findHosts([cluster.uuid], "Simulator", 0, 0).isEmpty()
+        assert index.findHosts(["not-a-cluster"], null, 0, 0).isEmpty()
+
+        long availableMemory = Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableMemory)
+                .eq(HostCapacityVO_.uuid, host.uuid).findValue()
+
+        VmInstanceInventory newVm = createVmInstance {
+            name = "newVm"
+            instanceOfferingUuid = small.uuid
+            imageUuid = vm.imageUuid
+            l3NetworkUuids = [vm.defaultL3NetworkUuid]
+        }
+        assert newVm.hostUuid == host.uuid
+
+        // the reservation is applied to the index without waiting for the reconciliation
+        long reserved = availableMemory - SizeUnit.GIGABYTE.toByte(1)
+        assert Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableMemory)
+                .eq(HostCapacityVO_.uuid, host.uuid).findValue() == reserved
+        assert index.findHosts(null, 0, reserved + 1).isEmpty()
+        assert index.findHosts(null, 0, reserved) == [host.uuid]
+
+        expect(AssertionError.class) {
+            createVmInstance {
+                name = "largeVm"
+                instanceOfferingUuid = large.uuid
+                imageUuid = vm.imageUuid
+                l3NetworkUuids = [vm.defaultL3NetworkUuid]
+            }
+        }
+    }
+
+    void testIndexFollowsHostEvents() {
+        HostCapacityIndex index = bean(HostCapacityIndex.class)
+        HostInventory host = env.inventoryByName("kvm")
+        ClusterInventory cluster = env.inventoryByName("cluster")
+
+        changeHostState {
+            uuid = host.uuid
+            delegate.stateEvent = "disable"
+        }
+        retryInSecs {
+            assert index.findHosts(null, 0, 0).isEmpty()
+        }
+
+        changeHostState {
+            uuid = host.uuid
+            delegate.stateEvent = "enable"
+        }
+        retryInSecs {
+            assert index.findHosts(null, 0, 0) == [host.uuid]
+        }
+
+        // a new host is indexed once it's connected
+        HostInventory newHost = addKVMHost {
+            name = "kvm2"
+            managementIp = "127.0.0.2"
+            username = "root"
+            password = "password"
+            clusterUuid = cluster.uuid
+        }
+        retryInSecs {
+            assert index.findHosts(null, 0, 0).sort() == [host.uuid, newHost.uuid].sort()
+        }
+
+        deleteHost {
+            uuid = newHost.uuid
+        }
+        retryInSecs {
+            assert index.findHosts(null, 0, 0) == [host.uuid]
+        }
+    }
+
+    void testConcurrentReservations() {
+        HostCapacityIndex index = bean(HostCapacityIndex.class)
+        HostInventory host = env.inventoryByName("kvm")
+        HostCapacityVO before = Q.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid).find()
+
+        // conflicting reservations are retried, none of them is lost
+        int num = 20
+        long memory = SizeUnit.MEGABYTE.toByte(10)
+        List<Boolean> results = Collections.synchronizedList([])
+        def threads = (1..num).collect {
+            Thread.start {
+                results.add(new HostCapacityUpdater(host.uuid).reserve(0, memory, 0))
+            }
+        }
+        threads.each { it.join() }
+        assert results.size() == num
+        assert results.every { it }
+
+        HostCapacityVO after = Q.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, host.uuid).find()
+        assert after.availableMemory == before.availableMemory - num * memory
+        assert index.findHosts(null, 0, after.availableMemory) == [host.uuid]
+        assert index.findHosts(null, 0, after.availableMemory + 1).isEmpty()
+
+        // returned
+        assert new HostCapacityUpdater(host.uuid).reserve(0, -num * memory, 0)
+        assert Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableMemory)
+                .eq(HostCapacityVO_.uuid, host.uuid).findValue() == before.availableMemory
+
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_ENABLE.updateValue(false)
+    }
+}
@@ -0,0 +1,270 @@
+package org.zstack.test.integration.kvm.vm
+
+import org.zstack.compute.allocator.HostAllocatorManagerImpl
+import org.zstack.compute.allocator.HostCapacityIndex
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.Q
+import org.zstack.header.allocator.AllocateHostMsg
+import org.zstack.header.allocator.BatchAllocateHostMsg
+import org.zstack.header.allocator.BatchAllocateHostReply
+import org.zstack.header.allocator.BatchHostPlacementStrategy
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.HostCapacityVO_
+import org.zstack.header.allocator.UnableToReserveHostCapacityException
+import org.zstack.header.network.l3.L3NetworkInventory
+import org.zstack.header.network.l3.L3NetworkVO
+import org.zstack.header.vm.*
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.ImageInventory
+import org.zstack.sdk.InstanceOfferingInventory
+import org.zstack.sdk.L3NetworkInventory as SdkL3NetworkInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import static org.zstack.core.Platform.operr
+
+class BatchCreateVmCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "1CPU1G"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image1"
+                    url = "http://zstack.org/download/test.qcow2"
+                }
+            }
+
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                        totalCpu = 16
+                        totalMem = SizeUnit.GIGABYTE.toByte(16)
+                    }
+
+                    kvm {
+                        name = "kvm2"
+                        managementIp = "127.0.0.2"
+                        username = "root"
+                        password = "password"
+                        totalCpu = 16
+                        totalMem = SizeUnit.GIGABYTE.toByte(16)
+                    }
+
+                    attachPrimaryStorage("local")
+                    attachL2Network("l2")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+
+                attachBackupStorage("sftp")
+            }
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testBatchCreateVmsSpread()
+            testBatchCreateVmsPack()
+            testBatchCreateVmsOfMixedSpecs()
+            testFallbackToAllocateHostOneByOne()
+            testCapacityReturnedAfterReservationFailure()
+        }
+    }
+
+    List<CreateVmInstanceReply> batchCreateVms(int num, BatchHostPlacementStrategy strategy, Closure hostUuidOf = { null }) {
+        InstanceOfferingInventory offering = env.inventoryByName("1CPU1G")
+        ImageInventory image = env.inventoryByName("image1")
+        SdkL3NetworkInventory l3 = env.inventoryByName("l3")
+
+        BatchCreateVmInstanceMsg msg = new BatchCreateVmInstanceMsg()
+        msg.placementStrategy = strategy.toString()
+        num.times { i ->
+            CreateVmInstanceMsg cmsg = new CreateVmInstanceMsg()
+            cmsg.name = "batch-vm-${strategy}-${i}"
+            cmsg.accountUuid = loginAsAdmin().accountUuid
+            cmsg.instanceOfferingUuid = offering.uuid
+            cmsg.cpuNum = offering.cpuNum
+            cmsg.memorySize = offering.memorySize
+            cmsg.allocatorStrategy = offering.allocatorStrategy
+            cmsg.imageUuid = image.uuid
+            cmsg.l3NetworkUuids = [new VmNicSpec(L3NetworkInventory.valueOf(dbFindByUuid(l3.uuid, L3NetworkVO.class)))]
+            cmsg.defaultL3NetworkUuid = l3.uuid
+            cmsg.strategy = VmCreationStrategy.InstantStart.toString()
+            cmsg.type = VmInstanceConstant.USER_VM_TYPE
+            cmsg.hostUuid = hostUuidOf(i)
+            msg.createVmInstanceMsgs.add(cmsg)
+        }
+
+        CloudBus bus = bean(CloudBus.class)
+        bus.makeLocalServiceId(msg, VmInstanceConstant.SERVICE_ID)
+        BatchCreateVmInstanceReply reply = bus.call(msg) as BatchCreateVmInstanceReply
+        assert reply.success
+        assert reply.replies.size() == num
+        reply.replies.each { assert it.success }
+        return reply.replies
+    }
+
+    long availableMemory(String hostUuid) {
+        return Q.New(HostCapacityVO.class).select(HostCapacityVO_.availableMemory).eq(HostCapacityVO_.uuid, hostUuid).findValue()
+    }
+
+    void testBatchCreateVmsSpread() {
+        HostInventory host1 = env.inventoryByName("kvm1")
+        HostInventory host2 = env.inventoryByName("kvm2")
+        long mem1 = availableMemory(host1.uuid)
+        long mem2 = availableMemory(host2.uuid)
+
+        int allocations = 0
+        def cleanup = notifyWhenReceivedMessage(AllocateHostMsg.class) { AllocateHostMsg msg ->
+            allocations ++
+        }
+
+        List<CreateVmInstanceReply> replies = batchCreateVms(6, BatchHostPlacementStrategy.Spread)
+
+        // hosts are allocated by the batch, no vm allocates its host alone
+        assert allocations == 0
+        cleanup()
+
+        Map<String, List<VmInstanceInventory>> vmsByHost = replies.collect { it.inventory }.groupBy { it.hostUuid }
+        assert vmsByHost[host1.uuid].size() == 3
+        assert vmsByHost[host2.uuid].size() == 3
+        assert availableMemory(host1.uuid) == mem1 - SizeUnit.GIGABYTE.toByte(3)
+        assert availableMemory(host2.uuid) == mem2 - SizeUnit.GIGABYTE.toByte(3)
+    }
+
+    void testBatchCreateVmsPack() {
+        List<CreateVmInstanceReply> replies = batchCreateVms(4, BatchHostPlacementStrategy.Pack)
+        assert replies.collect { it.inventory.hostUuid }.toSet().size() == 1
+    }
+
+    void testBatchCreateVmsOfMixedSpecs() {
+        HostInventory host1 = env.inventoryByName("kvm1")
+        HostInventory host2 = env.inventoryByName("kvm2")
+
+        int allocations = 0
+        def cleanup = notifyWhenReceivedMessage(AllocateHostMsg.class) { AllocateHostMsg msg ->
+            allocations ++
+        }
+
+        // VMs designated to different hosts are placed by their own groups, not packed together
+        List<CreateVmInstanceReply> replies = batchCreateVms(4, BatchHostPlacementStrategy.Pack) { int i ->
+            i % 2 == 0 ? host1.uuid : host2.uuid
+        }
+
+        assert allocations == 0
+        cleanup()
+        replies.eachWithIndex { CreateVmInstanceReply r, int i ->
+            assert r.inventory.hostUuid == (i % 2 == 0 ? host1.uuid : host2.uuid)
+        }
+    }
+
+    void testFallbackToAllocateHostOneByOne() {
+        HostInventory host1 = env.inventoryByName("kvm1")
+        HostInventory host2 = env.inventoryByName("kvm2")
+        long mem = availableMemory(host1.uuid) + availableMemory(host2.uuid)
+
+        env.message(BatchAllocateHostMsg.class) { BatchAllocateHostMsg msg, CloudBus bus ->
+            BatchAllocateHostReply reply = new BatchAllocateHostReply()
+            reply.setError(operr("on purpose"))
+            bus.reply(msg, reply)
+        }
+
+        int allocations = 0
+        def cleanup = notifyWhenReceivedMessage(AllocateHostMsg.class) { AllocateHostMsg msg ->
+            allocations ++
+        }
+
+        List<CreateVmInstanceReply> replies = batchCreateVms(3, BatchHostPlacementStrategy.Spread)
+
+        // the batch fails, every vm allocates its host alone
+        assert allocations == 3
+        cleanup()
+        env.revokeMessage(BatchAllocateHostMsg.class, null)
+
+        replies.each { assert it.inventory.hostUuid in [host1.uuid, host2.uuid] }
+        assert availableMemory(host1.uuid) + availableMemory(host2.uuid) == mem - SizeUnit.GIGABYTE.toByte(3)
+    }
+
+    void testCapacityReturnedAfterReservationFailure() {
+        HostInventory host1 = env.inventoryByName("kvm1")
+        HostInventory host2 = env.inventoryByName("kvm2")
+        HostCapacityIndex index = bean(HostCapacityIndex.class)
+        index.reconcile()
+        long mem1 = availableMemory(host1.uuid)
+        assert host1.uuid in index.findHosts(null, 0, mem1)
+
+        AllocateHostMsg small = new AllocateHostMsg()
+        small.cpuCapacity = 1
+        small.memoryCapacity = SizeUnit.GIGABYTE.toByte(1)
+        AllocateHostMsg large = new AllocateHostMsg()
+        large.cpuCapacity = 1
+        large.memoryCapacity = SizeUnit.GIGABYTE.toByte(1024)
+
+        // the host1 is reserved before the host2 fails, the transaction is rolled back
+        Map<String, String> placement = new LinkedHashMap<>()
+        placement["vm1"] = host1.uuid
+        placement["vm2"] = host2.uuid
+        HostAllocatorManagerImpl mgr = bean(HostAllocatorManagerImpl.class)
+        expect(UnableToReserveHostCapacityException.class) {
+            mgr.reserveCapacities(placement, ["vm1": small, "vm2": large], 0L)
+        }
+
+        // neither the database nor the index keeps the reservation of the host1
+        assert availableMemory(host1.uuid) == mem1
+        assert host1.uuid in index.findHosts(null, 0, mem1)
+    }
+}
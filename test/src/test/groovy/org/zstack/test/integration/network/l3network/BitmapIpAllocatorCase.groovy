@@ -0,0 +1,167 @@
+package org.zstack.test.integration.network.l3network
+
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.network.l3.*
+import org.zstack.network.l3.L3NetworkManager
+import org.zstack.test.integration.network.NetworkTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.IpRangeSpec
+import org.zstack.testlib.L3NetworkSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.network.NetworkUtils
+
+/**
+ * allocate IPs with the bitmap strategy: ranges are used in order, an IP used in database behind the
+ * bitmap is skipped, a returned IP is allocated again, an exhausted L3 network fails the allocation,
+ * and concurrent allocations get different IPs
+ */
+class BitmapIpAllocatorCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    String l3Uuid
+    IpRangeSpec ipr1
+    IpRangeSpec ipr2
+
+    @Override
+    void setup() {
+        useSpring(NetworkTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        ip {
+                            name = "ipr1"
+                            startIp = "10.223.110.10"
+                            endIp = "10.223.110.14"
+                            gateway = "10.223.110.1"
+                            netmask = "255.255.255.0"
+                        }
+
+                        ip {
+                            name = "ipr2"
+                            startIp = "10.223.110.50"
+                            endIp = "10.223.110.59"
+                            gateway = "10.223.110.1"
+                            netmask = "255.255.255.0"
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            l3Uuid = (env.specByName("l3") as L3NetworkSpec).inventory.uuid
+            ipr1 = env.specByName("ipr1")
+            ipr2 = env.specByName("ipr2")
+
+            testAllocateFromRanges()
+            testExhaustedL3Network()
+            testConcurrentAllocation()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    AllocateIpReply allocate() {
+        AllocateIpMsg msg = new AllocateIpMsg()
+        msg.l3NetworkUuid = l3Uuid
+        msg.allocateStrategy = L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, l3Uuid)
+        return bus.call(msg) as AllocateIpReply
+    }
+
+    void returnIp(UsedIpInventory ip) {
+        ReturnIpMsg msg = new ReturnIpMsg()
+        msg.l3NetworkUuid = ip.l3NetworkUuid
+        msg.usedIpUuid = ip.uuid
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, ip.l3NetworkUuid)
+        assert bus.call(msg).success
+    }
+
+    long usedIpNum() {
+        return Q.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3Uuid).count()
+    }
+
+    void testAllocateFromRanges() {
+        List<UsedIpInventory> ips = []
+        5.times {
+            AllocateIpReply reply = allocate()
+            assert reply.success
+            ips.add(reply.ipInventory)
+        }
+
+        // the first range is used up in order before the second one
+        assert ips.collect { it.ip } == ["10.223.110.10", "10.223.110.11", "10.223.110.12", "10.223.110.13", "10.223.110.14"]
+        assert ips.every { it.ipRangeUuid == ipr1.inventory.uuid }
+
+        AllocateIpReply reply = allocate()
+        assert reply.ipInventory.ipRangeUuid == ipr2.inventory.uuid
+        assert reply.ipInventory.ip == "10.223.110.50"
+
+        // used behind the cached bitmap, the reservation fails on the unique key and the next IP is taken
+        UsedIpInventory used = bean(L3NetworkManager.class).reserveIp(IpRangeInventory.valueOf(dbFindByUuid(ipr2.inventory.uuid, IpRangeVO.class)), "10.223.110.51")
+        assert used != null
+        reply = allocate()
+        assert reply.ipInventory.ip == "10.223.110.52"
+
+        // a returned IP is free in the bitmap again
+        returnIp(ips[2])
+        reply = allocate()
+        assert reply.ipInventory.ip == "10.223.110.12"
+        assert usedIpNum() == 8
+    }
+
+    void testExhaustedL3Network() {
+        long total = NetworkUtils.ipRangeLength(ipr1.startIp, ipr1.endIp) + NetworkUtils.ipRangeLength(ipr2.startIp, ipr2.endIp)
+        while (usedIpNum() < total) {
+            assert allocate().success
+        }
+
+        AllocateIpReply reply = allocate()
+        assert !reply.success
+        assert usedIpNum() == total
+    }
+
+    void testConcurrentAllocation() {
+        long total = usedIpNum()
+
+        // released without ReturnIpMsg, the full bitmaps are reloaded from database
+        SQL.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3Uuid).hardDelete()
+
+        int threadNum = (int) total + 5
+        List<AllocateIpReply> replies = Collections.synchronizedList([])
+        List<Thread> threads = (1..threadNum).collect {
+            Thread.start {
+                replies.add(allocate())
+            }
+        }
+        threads.each { it.join() }
+
+        assert replies.size() == threadNum
+        List<String> ips = replies.findAll { it.success }.collect { it.ipInventory.ip }
+        assert ips.size() == total
+        assert ips.toSet().size() == total
+        assert replies.count { !it.success } == threadNum - total
+        assert usedIpNum() == total
+    }
+}
@@ -0,0 +1,111 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLPlanCache
+import org.zstack.zql.ZQLQueryReturn
+
+class ZQLPlanCacheCase extends SubCase {
+    private final static CLogger logger = Utils.getLogger(ZQLPlanCacheCase.class)
+
+    EnvSpec env
+    VmInstanceInventory vm
+    ZQLPlanCache planCache
+
+    static int QUERY_NUM = 1000
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+            planCache = bean(ZQLPlanCache.class)
+            testQueriesOfSameShapeParsedOnce()
+            testFieldsQueryMappedToInventory()
+            benchmark()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    void testQueriesOfSameShapeParsedOnce() {
+        planCache.invalidateAll()
+        long misses = planCache.missCount
+
+        ZQLQueryReturn ret = ZQL.fromString("query vminstance where uuid = '${vm.uuid}' and cpuNum > 0 limit 10").getSingleResult()
+        assert ret.inventories.size() == 1
+        assert planCache.missCount == misses + 1
+
+        long hits = planCache.hitCount
+        ret = ZQL.fromString("query vminstance where uuid = 'not-existing' and cpuNum > 0 limit 10").getSingleResult()
+        assert ret.inventories.isEmpty()
+        ret = ZQL.fromString("query vminstance where uuid = '${vm.uuid}' and cpuNum > 100 limit 10").getSingleResult()
+        assert ret.inventories.isEmpty()
+        ret = ZQL.fromString("query vminstance where uuid = '${vm.uuid}' and cpuNum > 0 limit 1 named as 'vm'").getSingleResult()
+        assert ret.inventories.size() == 1
+        assert ret.name == "vm"
+
+        // literals of cached trees are not reused
+        assert planCache.hitCount == hits + 2
+        assert planCache.missCount == misses + 2
+    }
+
+    void testFieldsQueryMappedToInventory() {
+        ZQLQueryReturn ret = ZQL.fromString("query vminstance.uuid,name,cpuNum,state where uuid = '${vm.uuid}'").getSingleResult()
+        assert ret.inventories.size() == 1
+        def inv = ret.inventories[0]
+        assert inv.uuid == vm.uuid
+        assert inv.name == vm.name
+        assert inv.cpuNum == vm.cpuNum
+        assert inv.state == vm.state
+    }
+
+    private long runQueries(boolean cached, Closure<String> zql) {
+        long start = System.nanoTime()
+        for (int i = 0; i < QUERY_NUM; i++) {
+            if (!cached) {
+                planCache.invalidateAll()
+            }
+            ZQL.fromString(zql(i)).getResultList()
+        }
+        return (System.nanoTime() - start).intdiv(QUERY_NUM)
+    }
+
+    void benchmark() {
+        // queries of a dashboard, only literals change
+        Closure<String> dashboard = { int i ->
+            return "query vminstance.uuid,name,state where state = 'Running' and cpuNum >= ${i % 8} and name like '%vm-${i}%'" +
+                    " order by createDate desc limit 20 offset ${i % 5}"
+        }
+
+        // warm up
+        runQueries(true, dashboard)
+
+        planCache.invalidateAll()
+        long hits = planCache.hitCount
+        long cached = runQueries(true, dashboard)
+        assert planCache.hitCount - hits == QUERY_NUM - 1
+
+        long uncached = runQueries(false, dashboard)
+
+        logger.debug("ZQL dashboard queries take ${cached}ns each with the plan cache, ${uncached}ns each without")
+    }
+}
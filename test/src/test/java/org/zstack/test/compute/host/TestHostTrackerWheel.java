@@ -0,0 +1,134 @@
+package org.zstack.test.compute.host;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.host.HostPingStatistic;
+import org.zstack.compute.host.HostTrackerMXBean;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.*;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.test.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * hosts are spread evenly over the slots of the ping wheel, a host in maintenance found by the
+ * batched state query is not pinged, a host whose ping is still running is skipped by its slot,
+ * and no more than ping.parallelismDegree pings are in flight
+ */
+public class TestHostTrackerWheel {
+    CLogger logger = Utils.getLogger(TestHostTrackerWheel.class);
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+    HostTrackerMXBean tracker;
+    int hostNum = 20;
+    int interval = 5;
+    Map<String, AtomicInteger> pings = new ConcurrentHashMap<>();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    volatile long pingDelay = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ClusterManager.xml")
+                .addXml("ZoneManager.xml").addXml("HostManager.xml")
+                .addXml("Simulator.xml").addXml("AccountManager.xml")
+                .addXml("HostAllocatorManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        tracker = loader.getComponent(HostTrackerMXBean.class);
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(interval);
+        api = new Api();
+        api.startServer();
+
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void beforeDeliveryMessage(Message msg) {
+                pings.computeIfAbsent(((PingHostMsg) msg).getHostUuid(), k -> new AtomicInteger()).incrementAndGet();
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(pingDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        }, PingHostMsg.class);
+    }
+
+    private int pingsOf(String hostUuid) {
+        AtomicInteger c = pings.get(hostUuid);
+        return c == null ? 0 : c.get();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        ClusterInventory cluster = api.createClusters(1, zone.getUuid()).get(0);
+        List<HostInventory> hosts = api.createHost(hostNum, cluster.getUuid());
+
+        HostPingStatistic statistic = tracker.getPingStatistic();
+        Assert.assertEquals(interval, statistic.getSlotNum());
+        Assert.assertEquals(hostNum, statistic.getTrackedHostNum());
+        int[] slots = statistic.getSlotHostNums();
+        Assert.assertEquals(hostNum, Arrays.stream(slots).sum());
+        Assert.assertTrue(Arrays.toString(slots), Arrays.stream(slots).max().getAsInt() - Arrays.stream(slots).min().getAsInt() <= 1);
+
+        // every host is pinged once per interval
+        TimeUnit.SECONDS.sleep(interval * 2 + 1);
+        for (HostInventory h : hosts) {
+            Assert.assertTrue(pingsOf(h.getUuid()) >= 1);
+        }
+
+        // the host in maintenance is filtered out by the state query of its slot
+        String maintained = hosts.get(0).getUuid();
+        HostVO vo = dbf.findByUuid(maintained, HostVO.class);
+        vo.setState(HostState.Maintenance);
+        dbf.update(vo);
+        TimeUnit.SECONDS.sleep(interval);
+        int count = pingsOf(maintained);
+        TimeUnit.SECONDS.sleep(interval * 2);
+        Assert.assertEquals(count, pingsOf(maintained));
+
+        vo = dbf.findByUuid(maintained, HostVO.class);
+        vo.setState(HostState.Enabled);
+        dbf.update(vo);
+
+        // pings take longer than the interval, so the slots meet hosts whose pings are still running
+        HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.updateValue(2);
+        pingDelay = TimeUnit.SECONDS.toMillis(interval + 2);
+        maxRunning.set(0);
+        long skipped = tracker.getPingStatistic().getSkippedBusyHostNum();
+        boolean queued = false;
+        for (int i = 0; i < interval * 3; i++) {
+            TimeUnit.SECONDS.sleep(1);
+            statistic = tracker.getPingStatistic();
+            Assert.assertTrue(statistic.getInflightPingNum() <= 2);
+            queued = queued || statistic.getQueuedPingNum() > 0;
+        }
+
+        Assert.assertTrue(maxRunning.get() <= 2);
+        Assert.assertTrue(queued);
+        Assert.assertTrue(tracker.getPingStatistic().getSkippedBusyHostNum() > skipped);
+        logger.debug(String.format("skipped busy hosts: %s", tracker.getPingStatistic().getSkippedBusyHostNum() - skipped));
+    }
+}
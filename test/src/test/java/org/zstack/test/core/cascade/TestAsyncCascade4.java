@@ -0,0 +1,159 @@
+package org.zstack.test.core.cascade;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cascade.*;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * independent resources are cascaded in parallel, a resource is cascaded only after all its child
+ * resources are done, the cascade fails once on the first error after the running resources finish
+ */
+public class TestAsyncCascade4 {
+    CLogger logger = Utils.getLogger(TestAsyncCascade4.class);
+    ComponentLoader loader;
+    CascadeFacade casf;
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(10);
+    Map<String, List<String>> parents = new HashMap<>();
+    Map<String, AtomicInteger> done = new ConcurrentHashMap<>();
+    List<String> violations = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    String failed;
+    volatile int runningOnCompletion = -1;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new WebBeanConstructor();
+        con.addXml("PortalForUnitTest.xml");
+        loader = con.build();
+        casf = loader.getComponent(CascadeFacade.class);
+    }
+
+    private void bootstrap(Map<String, CascadeExtensionPoint> exts) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        Method method = CascadeFacadeImpl.class.getDeclaredMethod("populateCascadeNodes", Map.class);
+        method.setAccessible(true);
+        method.invoke(casf, exts);
+
+        method = CascadeFacadeImpl.class.getDeclaredMethod("populateTree");
+        method.setAccessible(true);
+        method.invoke(casf);
+    }
+
+    private CascadeExtensionPoint extension(String name, String... edges) {
+        parents.put(name, Arrays.asList(edges));
+        done.put(name, new AtomicInteger());
+
+        return new AbstractAsyncCascadeExtension() {
+            @Override
+            public void asyncCascade(CascadeAction action, Completion completion) {
+                parents.forEach((child, ps) -> {
+                    if (ps.contains(name) && done.get(child).get() == 0) {
+                        violations.add(String.format("%s is cascaded before its child %s", name, child));
+                    }
+                });
+
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                executor.schedule(() -> {
+                    running.decrementAndGet();
+                    if (name.equals(failed)) {
+                        completion.fail(new ErrorCode());
+                        return;
+                    }
+
+                    done.get(name).incrementAndGet();
+                    completion.success();
+                }, name.equals(failed) ? 10 : 100, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public List<String> getEdgeNames() {
+                return Arrays.asList(edges);
+            }
+
+            @Override
+            public String getCascadeResourceName() {
+                return name;
+            }
+
+            @Override
+            public CascadeAction createActionForChildResource(CascadeAction action) {
+                return action.copy().setParentIssuer(name);
+            }
+        };
+    }
+
+    private boolean cascade(AtomicInteger calls) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        boolean[] success = {false};
+        casf.asyncCascade("test", "zone", null, new Completion(null) {
+            @Override
+            public void success() {
+                success[0] = true;
+                calls.incrementAndGet();
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                runningOnCompletion = running.get();
+                calls.incrementAndGet();
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        return success[0];
+    }
+
+    @Test
+    public void test() throws Exception {
+        Map<String, CascadeExtensionPoint> map = new HashMap<>();
+        map.put("zone", extension("zone"));
+        map.put("cluster", extension("cluster", "zone"));
+        map.put("host", extension("host", "cluster"));
+        map.put("primaryStorage", extension("primaryStorage", "zone"));
+        map.put("backupStorage", extension("backupStorage", "zone"));
+        map.put("image", extension("image", "backupStorage"));
+        map.put("l2Network", extension("l2Network", "zone"));
+        map.put("l3Network", extension("l3Network", "l2Network"));
+        map.put("vm", extension("vm", "host", "primaryStorage", "l3Network"));
+        map.put("volume", extension("volume", "vm", "primaryStorage"));
+        bootstrap(map);
+
+        AtomicInteger calls = new AtomicInteger();
+        Assert.assertTrue(cascade(calls));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertTrue(violations.toString(), violations.isEmpty());
+        Assert.assertTrue(maxRunning.get() > 1);
+        Assert.assertTrue(maxRunning.get() <= CascadeGlobalProperty.PARALLELISM_DEGREE);
+        Assert.assertEquals(1, done.get("zone").get());
+        logger.debug(String.format("at most %s cascade extensions ran in parallel", maxRunning.get()));
+
+        done.values().forEach(c -> c.set(0));
+        failed = "host";
+        calls.set(0);
+        Assert.assertFalse(cascade(calls));
+        // the host fails first, the failure is reported after its siblings started with it are done
+        Assert.assertEquals(0, runningOnCompletion);
+        Assert.assertEquals(1, done.get("primaryStorage").get());
+        Assert.assertEquals(1, done.get("l3Network").get());
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(0, done.get("cluster").get());
+        Assert.assertEquals(0, done.get("zone").get());
+        Assert.assertTrue(violations.toString(), violations.isEmpty());
+    }
+}
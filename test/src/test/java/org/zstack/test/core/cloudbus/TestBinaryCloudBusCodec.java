@@ -0,0 +1,101 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryCloudBusCodec;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * a truncated binary message fails with the codec error, a number is converted to the boxed
+ * type of the receiver's field, a class not allowed in the codec is rejected and an anonymous
+ * class is dropped like in JSON
+ */
+public class TestBinaryCloudBusCodec {
+    BinaryCloudBusCodec codec = new BinaryCloudBusCodec();
+
+    public static class MsgA extends NeedReplyMessage {
+        public Integer value;
+        public String name;
+        public int count;
+    }
+
+    // has the same length of name as MsgA, so the class name can be replaced in the encoded bytes
+    public static class MsgB extends NeedReplyMessage {
+        public Long value;
+        public String name;
+        public long count;
+    }
+
+    public static class MsgC extends NeedReplyMessage {
+        public Object value;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void test() {
+        MsgA a = new MsgA();
+        a.value = 100;
+        a.count = 7;
+        byte[] body = codec.encode(a);
+
+        MsgA decoded = (MsgA) codec.decode(body);
+        Assert.assertEquals(Integer.valueOf(100), decoded.value);
+        Assert.assertNull(decoded.name);
+        Assert.assertEquals(7, decoded.count);
+
+        for (int len = 0; len < body.length; len++) {
+            try {
+                codec.decode(Arrays.copyOf(body, len));
+                Assert.fail(String.format("a message truncated to %s bytes is decoded", len));
+            } catch (CloudRuntimeException e) {
+                // expected
+            }
+        }
+
+        byte[] from = MsgA.class.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] to = MsgB.class.getName().getBytes(StandardCharsets.UTF_8);
+        int pos = indexOf(body, from);
+        Assert.assertTrue(pos >= 0);
+        System.arraycopy(to, 0, body, pos, to.length);
+
+        Message msg = codec.decode(body);
+        Assert.assertTrue(msg instanceof MsgB);
+        Assert.assertEquals(Long.valueOf(100), ((MsgB) msg).value);
+        Assert.assertEquals(7L, ((MsgB) msg).count);
+    }
+
+    @Test
+    public void testClassNotAllowed() {
+        MsgC c = new MsgC();
+        c.value = Collections.singletonList(UUID.randomUUID());
+        byte[] body = codec.encode(c);
+
+        try {
+            codec.decode(body);
+            Assert.fail("a java.util.UUID is decoded");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+
+        c.value = new Object() {
+            String name = "anonymous";
+        };
+        MsgC decoded = (MsgC) codec.decode(codec.encode(c));
+        Assert.assertNull(decoded.value);
+    }
+}
@@ -0,0 +1,95 @@
+package org.zstack.test.core.cloudbus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CanonicalEventPathTrie;
+
+import java.util.*;
+
+/**
+ * checks the matching rules of CanonicalEventPathTrie, and compares dispatching an event among
+ * subscriptions like those of GlobalConfig with the former regex match against every subscription.
+ */
+public class TestCanonicalEventPathTrie {
+    private static final int CONFIG_NUM = 2000;
+
+    private Set<String> match(CanonicalEventPathTrie<String> trie, String path) {
+        List<String> ret = trie.match(path);
+        Set<String> set = new HashSet<>(ret);
+        Assert.assertEquals(ret.size(), set.size());
+        return set;
+    }
+
+    private Set<String> set(String... vals) {
+        return new HashSet<>(Arrays.asList(vals));
+    }
+
+    @Test
+    public void testMatch() {
+        CanonicalEventPathTrie<String> trie = new CanonicalEventPathTrie<>();
+        List<String> patterns = Arrays.asList(
+                "/test/event",
+                "/*/event",
+                "/?e?t/event",
+                "/?e?t/*/{name}",
+                "/test/{name}",
+                "/test/{name}/host",
+                "/globalConfig/update/vm/vm.cleanTraffic/{nodeUuid}",
+                "/test/event/*"
+        );
+        patterns.forEach(p -> trie.add(p, p));
+        Assert.assertEquals(patterns.size(), trie.size());
+
+        Assert.assertEquals(set("/test/event", "/*/event", "/?e?t/event", "/test/{name}"), match(trie, "/test/event"));
+        Assert.assertEquals(set("/?e?t/*/{name}", "/test/{name}", "/test/event/*"), match(trie, "/test/event/xxx"));
+        Assert.assertEquals(set("/test/{name}", "/test/{name}/host", "/?e?t/*/{name}"), match(trie, "/test/vm/host"));
+        Assert.assertEquals(set("/*/event"), match(trie, "/a/b/event"));
+        Assert.assertEquals(set("/globalConfig/update/vm/vm.cleanTraffic/{nodeUuid}"), match(trie, "/globalConfig/update/vm/vm.cleanTraffic/node1"));
+        Assert.assertEquals(set(), match(trie, "/globalConfig/update/vm/vm.cleanTraffic"));
+        Assert.assertEquals(set(), match(trie, "/globalConfig/update/vm/vmXcleanTraffic/node1"));
+
+        Assert.assertTrue(trie.remove("/test/{name}", "/test/{name}"));
+        Assert.assertTrue(trie.remove("/?e?t/*/{name}", "/?e?t/*/{name}"));
+        Assert.assertFalse(trie.remove("/test/{name}", "/test/{name}"));
+        Assert.assertEquals(set("/test/event/*"), match(trie, "/test/event/xxx"));
+        Assert.assertEquals(patterns.size() - 2, trie.size());
+    }
+
+    @Test
+    public void testDispatchCost() {
+        CanonicalEventPathTrie<String> trie = new CanonicalEventPathTrie<>();
+        List<String> regexes = new ArrayList<>();
+        for (int i = 0; i < CONFIG_NUM; i++) {
+            String pattern = String.format("/globalConfig/update/category%s/config%s/{nodeUuid}", i % 20, i);
+            trie.add(pattern, pattern);
+            // how the former EventFacadeImpl matched a subscription
+            regexes.add("^" + pattern.replaceAll("\\{.*\\}", ".*").replace("*", ".*") + "$");
+        }
+
+        String path = "/globalConfig/update/category7/config1007/node1";
+        int rounds = 2000;
+
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int r = 0; r < rounds; r++) {
+            hits += trie.match(path).size();
+        }
+        long trieCost = System.nanoTime() - start;
+        Assert.assertEquals(rounds, hits);
+
+        start = System.nanoTime();
+        hits = 0;
+        for (int r = 0; r < rounds / 20; r++) {
+            for (String regex : regexes) {
+                if (path.matches(regex)) {
+                    hits++;
+                }
+            }
+        }
+        long regexCost = (System.nanoTime() - start) * 20;
+        Assert.assertEquals(rounds / 20, hits);
+
+        System.out.println(String.format("dispatching an event among %s subscriptions: trie %sns, regex scan %sns per event",
+                CONFIG_NUM, trieCost / rounds, regexCost / rounds));
+    }
+}
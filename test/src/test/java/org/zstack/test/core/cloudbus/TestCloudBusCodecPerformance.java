@@ -0,0 +1,88 @@
+package org.zstack.test.core.cloudbus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryCloudBusCodec;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCodec;
+import org.zstack.core.cloudbus.JsonCloudBusCodec;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.message.Message;
+import org.zstack.header.vm.APIQueryVmInstanceReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * round-trips a large APIQueryVmInstanceReply through the JSON and the binary CloudBus codec,
+ * the way a reply travels between management nodes.
+ */
+public class TestCloudBusCodecPerformance {
+    CLogger logger = Utils.getLogger(TestCloudBusCodecPerformance.class);
+
+    private static final int VM_NUM = 2000;
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 20;
+
+    private APIQueryVmInstanceReply makeReply() {
+        List<VmInstanceInventory> invs = new ArrayList<>();
+        for (int i = 0; i < VM_NUM; i++) {
+            VmInstanceInventory inv = APIQueryVmInstanceReply.__example__().getInventories().get(0);
+            inv.setName(String.format("vm-%s", i));
+            invs.add(inv);
+        }
+
+        APIQueryVmInstanceReply reply = new APIQueryVmInstanceReply();
+        reply.setInventories(invs);
+        return reply;
+    }
+
+    private Message roundTrip(CloudBusCodec codec, APIQueryVmInstanceReply reply) throws Exception {
+        if (codec instanceof JsonCloudBusCodec) {
+            // done by the sender for every message sent in JSON
+            reply.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(reply).build());
+        }
+
+        return codec.decode(codec.encode(reply));
+    }
+
+    private long measure(CloudBusCodec codec, APIQueryVmInstanceReply reply) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            roundTrip(codec, reply);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            roundTrip(codec, reply);
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / ROUNDS;
+
+        reply.getHeaders().remove(CloudBus.HEADER_SCHEMA);
+        logger.info(String.format("codec[%s]: %s bytes, %sms per round trip of %s VMs",
+                codec.getName(), codec.encode(reply).length, cost, VM_NUM));
+        return cost;
+    }
+
+    @Test
+    public void test() throws Exception {
+        APIQueryVmInstanceReply reply = makeReply();
+
+        APIQueryVmInstanceReply ret = (APIQueryVmInstanceReply) roundTrip(new BinaryCloudBusCodec(), reply);
+        Assert.assertEquals(VM_NUM, ret.getInventories().size());
+        VmInstanceInventory expected = reply.getInventories().get(VM_NUM - 1);
+        VmInstanceInventory actual = ret.getInventories().get(VM_NUM - 1);
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getMemorySize(), actual.getMemorySize());
+        Assert.assertEquals(expected.getCreateDate(), actual.getCreateDate());
+        Assert.assertEquals(expected.getVmNics().size(), actual.getVmNics().size());
+        Assert.assertEquals(expected.getAllVolumes().get(0).getUuid(), actual.getAllVolumes().get(0).getUuid());
+
+        long json = measure(new JsonCloudBusCodec(), reply);
+        long binary = measure(new BinaryCloudBusCodec(), reply);
+        logger.info(String.format("binary codec round trip: %sms, json codec round trip: %sms", binary, json));
+    }
+}
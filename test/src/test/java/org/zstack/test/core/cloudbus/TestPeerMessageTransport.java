@@ -0,0 +1,267 @@
+package org.zstack.test.core.cloudbus;
+
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryCloudBusCodec;
+import org.zstack.core.cloudbus.CloudBusCodec;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.JsonCloudBusCodec;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * send messages to a fake peer node: queued messages are packed into batches the peer can split and
+ * arrive in the order each thread queued them whatever the number of connections, and the binary codec is only used while the peer announces it, otherwise messages are sent in JSON
+ */
+public class TestPeerMessageTransport {
+    CLogger logger = Utils.getLogger(TestPeerMessageTransport.class);
+    static final String IP = "127.0.0.1";
+
+    ComponentLoader loader;
+    HttpServer server;
+    Class transportClass;
+    Object transport;
+
+    volatile String acceptedCodecs = JsonCloudBusCodec.NAME;
+    volatile CountDownLatch gate;
+    List<String> codecs = Collections.synchronizedList(new ArrayList<>());
+    List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger batches = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+
+        server = HttpServer.create(new InetSocketAddress(IP, 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                if (gate != null) {
+                    gate.await(30, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            byte[] body = readAll(exchange.getRequestBody());
+            String batch = exchange.getRequestHeaders().getFirst(CloudBusCodec.HEADER_BATCH);
+            codecs.add(exchange.getRequestHeaders().getFirst(CloudBusCodec.HEADER_CODEC));
+            if (batch == null) {
+                bodies.add(body);
+            } else {
+                batches.incrementAndGet();
+                bodies.addAll(invokeStatic("splitBatch", new Class[]{byte[].class, int.class}, body, Integer.valueOf(batch)));
+            }
+
+            exchange.getResponseHeaders().set(CloudBusCodec.HEADER_ACCEPT_CODECS, acceptedCodecs);
+            exchange.getResponseHeaders().set(CloudBusCodec.HEADER_BATCH, Boolean.TRUE.toString());
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        CloudBusGlobalProperty.HTTP_PORT = server.getAddress().getPort();
+        CloudBusGlobalProperty.HTTP_CONTEXT_PATH = "";
+        CloudBusGlobalProperty.HTTP_CODEC = BinaryCloudBusCodec.NAME;
+        CloudBusGlobalProperty.PEER_CONNECTION_NUM = 1;
+
+        transportClass = Class.forName("org.zstack.core.cloudbus.PeerMessageTransport");
+        transport = newTransport();
+    }
+
+    private Object newTransport() throws Exception {
+        Constructor c = transportClass.getDeclaredConstructor(ThreadFacade.class);
+        c.setAccessible(true);
+        return c.newInstance(loader.getComponent(ThreadFacade.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        invoke("destroy", new Class[]{});
+        server.stop(0);
+    }
+
+    private static byte[] readAll(InputStream in) throws java.io.IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private <T> T invokeStatic(String name, Class[] types, Object... args) {
+        try {
+            Method m = transportClass.getDeclaredMethod(name, types);
+            m.setAccessible(true);
+            return (T) m.invoke(null, args);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T invoke(String name, Class[] types, Object... args) throws Exception {
+        Method m = transportClass.getDeclaredMethod(name, types);
+        m.setAccessible(true);
+        return (T) m.invoke(transport, args);
+    }
+
+    private void sendNow(CloudBusCodec codec, String body) throws Exception {
+        invoke("sendNow", new Class[]{String.class, CloudBusCodec.class, byte[].class}, IP, codec, body.getBytes());
+    }
+
+    private String codecOfPeer() throws Exception {
+        CloudBusCodec codec = invoke("getCodec", new Class[]{String.class}, IP);
+        return codec.getName();
+    }
+
+    @Test
+    public void testBatchFraming() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(new byte[0]);
+        frames.add("a".getBytes());
+        frames.add(new byte[70000]);
+        byte[] packed = invokeStatic("packBatch", new Class[]{List.class}, frames);
+        List<byte[]> split = invokeStatic("splitBatch", new Class[]{byte[].class, int.class}, packed, frames.size());
+        Assert.assertEquals(frames.size(), split.size());
+        for (int i = 0; i < frames.size(); i++) {
+            Assert.assertTrue(java.util.Arrays.equals(frames.get(i), split.get(i)));
+        }
+
+        boolean broken = false;
+        try {
+            invokeStatic("splitBatch", new Class[]{byte[].class, int.class}, packed, frames.size() + 1);
+        } catch (RuntimeException e) {
+            broken = true;
+        }
+        Assert.assertTrue(broken);
+
+        // learn that the peer accepts batches
+        CloudBusCodec json = new JsonCloudBusCodec();
+        sendNow(json, "hello");
+        bodies.clear();
+
+        // hold the first request, so the messages queued meanwhile are sent in batches
+        gate = new CountDownLatch(1);
+        int num = 200;
+        AtomicInteger failures = new AtomicInteger();
+        Consumer<Throwable> onFailure = t -> failures.incrementAndGet();
+        for (int i = 0; i < num; i++) {
+            Boolean queued = invoke("send", new Class[]{String.class, CloudBusCodec.class, byte[].class, Consumer.class},
+                    IP, json, String.valueOf(i).getBytes(), onFailure);
+            Assert.assertTrue(queued);
+        }
+        gate.countDown();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (bodies.size() < num && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(num, bodies.size());
+        Assert.assertTrue(batches.get() > 0);
+        // a single connection sends the messages in the order they were queued
+        for (int i = 0; i < num; i++) {
+            Assert.assertEquals(String.valueOf(i), new String(bodies.get(i)));
+        }
+        logger.debug(String.format("%s messages are sent in %s batches", num, batches.get()));
+    }
+
+    @Test
+    public void testSendOrderWithSeveralConnections() throws Exception {
+        invoke("destroy", new Class[]{});
+        CloudBusGlobalProperty.PEER_CONNECTION_NUM = 4;
+        transport = newTransport();
+
+        CloudBusCodec json = new JsonCloudBusCodec();
+        sendNow(json, "hello");
+        bodies.clear();
+
+        // messages queued by several threads keep the order of each thread while the first request is held
+        gate = new CountDownLatch(1);
+        int threadNum = 4;
+        int num = 100;
+        AtomicInteger failures = new AtomicInteger();
+        Consumer<Throwable> onFailure = t -> failures.incrementAndGet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadNum; t++) {
+            final int index = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < num; i++) {
+                    try {
+                        invoke("send", new Class[]{String.class, CloudBusCodec.class, byte[].class, Consumer.class},
+                                IP, json, String.format("%s-%s", index, i).getBytes(), onFailure);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        gate.countDown();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (bodies.size() < threadNum * num && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(threadNum * num, bodies.size());
+        int[] next = new int[threadNum];
+        for (byte[] b : new ArrayList<>(bodies)) {
+            String[] pair = new String(b).split("-");
+            int index = Integer.valueOf(pair[0]);
+            Assert.assertEquals(next[index]++, Integer.valueOf(pair[1]).intValue());
+        }
+    }
+
+    @Test
+    public void testFallbackToJson() throws Exception {
+        CloudBusCodec json = new JsonCloudBusCodec();
+        CloudBusCodec binary = new BinaryCloudBusCodec();
+
+        // the peer doesn't understand the binary codec
+        sendNow(json, "hello");
+        Assert.assertEquals(JsonCloudBusCodec.NAME, codecOfPeer());
+        sendNow(json, "hello");
+        Assert.assertEquals(JsonCloudBusCodec.NAME, codecOfPeer());
+
+        // the peer is upgraded
+        acceptedCodecs = String.format("%s,%s", BinaryCloudBusCodec.NAME, JsonCloudBusCodec.NAME);
+        sendNow(json, "hello");
+        Assert.assertEquals(BinaryCloudBusCodec.NAME, codecOfPeer());
+
+        // the peer is replaced by one that doesn't understand the binary codec
+        acceptedCodecs = JsonCloudBusCodec.NAME;
+        sendNow(binary, "hello");
+        Assert.assertEquals(JsonCloudBusCodec.NAME, codecOfPeer());
+
+        Assert.assertEquals(JsonCloudBusCodec.NAME, codecs.get(0));
+        Assert.assertEquals(BinaryCloudBusCodec.NAME, codecs.get(codecs.size() - 1));
+    }
+}
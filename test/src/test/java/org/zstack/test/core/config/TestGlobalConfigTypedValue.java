@@ -0,0 +1,91 @@
+package org.zstack.test.core.config;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigVO;
+import org.zstack.utils.TypeUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+/**
+ * test typed reads of GlobalConfig return what TypeUtils.stringToValue() returns, and compare
+ * their cost with parsing the value on every read
+ */
+public class TestGlobalConfigTypedValue {
+    CLogger logger = Utils.getLogger(TestGlobalConfigTypedValue.class);
+
+    static int READ_NUM = 10000000;
+
+    private GlobalConfig config(String value) {
+        GlobalConfigVO vo = new GlobalConfigVO();
+        vo.setCategory("Test");
+        vo.setName("TypedValue");
+        vo.setValue(value);
+        return GlobalConfig.valueOf(vo);
+    }
+
+    @Test
+    public void test() {
+        for (String value : new String[]{"10", "1.5", "-3", "1e3", "true", "False"}) {
+            GlobalConfig c = config(value);
+            for (Class clz : new Class[]{Integer.class, int.class, Long.class, long.class, Double.class, Float.class, Boolean.class, String.class}) {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false") || clz == Boolean.class || clz == String.class) {
+                    Assert.assertEquals(TypeUtils.stringToValue(value, clz), c.value(clz));
+                }
+            }
+        }
+
+        GlobalConfig c = config("1.5");
+        Assert.assertEquals(1, c.intValue());
+        Assert.assertEquals(1L, c.longValue());
+        Assert.assertEquals(1.5, c.doubleValue());
+        Assert.assertFalse(c.booleanValue());
+
+        c = config("true");
+        Assert.assertTrue(c.booleanValue());
+        Assert.assertTrue(c.value(Boolean.class));
+
+        c = config("abc");
+        Assert.assertEquals("abc", c.value(String.class));
+        try {
+            c.longValue();
+            Assert.fail("a non-number value cannot be read as long");
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        GlobalConfig c = config("30");
+        long sum = 0;
+
+        for (int i = 0; i < READ_NUM; i++) {
+            sum += TypeUtils.stringToValue(c.value(), Long.class);
+            sum += c.value(Long.class);
+            sum += c.longValue();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READ_NUM; i++) {
+            sum += TypeUtils.stringToValue(c.value(), Long.class);
+        }
+        long parsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READ_NUM; i++) {
+            sum += c.value(Long.class);
+        }
+        long typed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READ_NUM; i++) {
+            sum += c.longValue();
+        }
+        long primitive = System.nanoTime() - start;
+
+        Assert.assertEquals(30L * READ_NUM * 6, sum);
+        logger.debug(String.format("a global config read takes %.2fns parsing the value, %.2fns by value(Long.class)," +
+                " %.2fns by longValue()", (double) parsed / READ_NUM, (double) typed / READ_NUM, (double) primitive / READ_NUM));
+    }
+}
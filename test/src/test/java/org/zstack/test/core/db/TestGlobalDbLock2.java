@@ -0,0 +1,396 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.*;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * lock many names from many threads, a name is never held twice at the same time, memory locks
+ * are dropped after use, a lock not using the memory lock can be released by another thread.
+ *
+ * A raw connection plays another management node: the name it holds can't be locked, a lock
+ * failing on a working connection leaves other locks of the session held, the locks of a killed or
+ * discarded session are released by the database and unlocked without errors, leases are kept
+ * after unlock on the node the name is hashed to and expire when idle, and without pooled sessions
+ * every lock takes its own connection.
+ */
+public class TestGlobalDbLock2 {
+    ComponentLoader loader;
+    GLockManager glockm;
+    DatabaseFacade dbf;
+    CLogger logger = Utils.getLogger(TestGlobalDbLock2.class);
+    int threadNum = 20;
+    int nameNum = 50;
+    int num = 200;
+    AtomicInteger[] holders = new AtomicInteger[nameNum];
+    AtomicInteger violations = new AtomicInteger();
+    AtomicInteger count = new AtomicInteger();
+
+    static int connectionNum = -1;
+    static boolean leaseOn;
+    static int leaseIdleTime;
+
+    class RawSession implements AutoCloseable {
+        final Connection conn;
+
+        RawSession() throws SQLException {
+            conn = dbf.getDataSource().getConnection();
+            conn.setAutoCommit(true);
+        }
+
+        long query(String sql, String name) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        }
+
+        boolean lock(String name) throws SQLException {
+            return query("select get_lock(?, 0)", name) == 1;
+        }
+
+        void unlock(String name) throws SQLException {
+            Assert.assertEquals(1, query("select release_lock(?)", name));
+        }
+
+        // 0 if nobody holds the name
+        long holderOf(String name) throws SQLException {
+            return query("select is_used_lock(?)", name);
+        }
+
+        void kill(long connectionId) throws SQLException {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(String.format("kill %s", connectionId));
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            conn.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        glockm = loader.getComponent(GLockManager.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        for (int i = 0; i < nameNum; i++) {
+            holders[i] = new AtomicInteger();
+        }
+
+        if (connectionNum == -1) {
+            connectionNum = DbGlobalProperty.GLOCK_CONNECTION_NUM;
+            leaseOn = DbGlobalProperty.GLOCK_LEASE_ON;
+            leaseIdleTime = DbGlobalProperty.GLOCK_LEASE_IDLE_TIME;
+        }
+        configure(connectionNum, leaseOn, leaseIdleTime);
+        glockm.reset();
+    }
+
+    private void configure(int connectionNum, boolean leaseOn, int leaseIdleTime) throws Exception {
+        glockm.stop();
+        DbGlobalProperty.GLOCK_CONNECTION_NUM = connectionNum;
+        DbGlobalProperty.GLOCK_LEASE_ON = leaseOn;
+        DbGlobalProperty.GLOCK_LEASE_IDLE_TIME = leaseIdleTime;
+        Method m = GLockManager.class.getDeclaredMethod("configure");
+        m.setAccessible(true);
+        m.invoke(glockm);
+    }
+
+    private Object sessionOf(int index) throws Exception {
+        Field f = GLockManager.class.getDeclaredField("sessions");
+        f.setAccessible(true);
+        return ((Object[]) f.get(glockm))[index];
+    }
+
+    private GLock lock(String name) {
+        GLock lock = new GLock(name, 5);
+        lock.lock();
+        return lock;
+    }
+
+    private void expectLockFailure(String name) {
+        GLock lock = new GLock(name, 1);
+        try {
+            lock.lock();
+            lock.unlock();
+            Assert.fail(String.format("lock[%s] is got", name));
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+    }
+
+    private boolean waitForRelease(RawSession raw, String name) throws Exception {
+        for (int i = 0; i < 50; i++) {
+            if (raw.holderOf(name) == 0) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return false;
+    }
+
+    private ManagementNodeInventory node(String uuid) {
+        ManagementNodeInventory inv = new ManagementNodeInventory();
+        inv.setUuid(uuid);
+        inv.setHostName("127.0.0.1");
+        return inv;
+    }
+
+    @AsyncThread
+    void lock(int seed, CountDownLatch latch) {
+        try {
+            for (int i = 0; i < num; i++) {
+                int n = (seed + i * 7) % nameNum;
+                GLock lock = new GLock(String.format("TestDBLock2.lock-%s", n), 10);
+                lock.lock();
+                try {
+                    if (holders[n].incrementAndGet() != 1) {
+                        violations.incrementAndGet();
+                    }
+                    count.incrementAndGet();
+                    holders[n].decrementAndGet();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    private void lockConcurrently() throws InterruptedException {
+        count.set(0);
+        CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            lock(i, latch);
+        }
+        Assert.assertTrue(latch.await(120, TimeUnit.SECONDS));
+        Assert.assertEquals(0, violations.get());
+        Assert.assertEquals(threadNum * num, count.get());
+        Assert.assertEquals(0, glockm.getMemoryLockNum());
+    }
+
+    private long countOf(Map<String, GLockStatistic> statistics) {
+        return statistics.values().stream().filter(s -> s.getName().startsWith("TestDBLock2.lock-"))
+                .mapToLong(GLockStatistic::getCount).sum();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        lockConcurrently();
+        Assert.assertEquals(threadNum * num, countOf(glockm.getWaitStatistics()));
+        Assert.assertEquals(threadNum * num, countOf(glockm.getHoldStatistics()));
+        logger.debug(String.format("GLock pooled: %s, wait statistics: %s", glockm.isPooled(), glockm.getWaitStatistics().size()));
+
+        GLock lock = new GLock("TestDBLock2.async", 10);
+        lock.setAlsoUseMemoryLock(false);
+        lock.lock();
+        Thread t = new Thread(lock::unlock);
+        t.start();
+        t.join();
+
+        GLock again = new GLock("TestDBLock2.async", 1);
+        again.lock();
+        again.unlock();
+    }
+
+    @Test
+    public void testSessionsContend() throws Exception {
+        configure(2, false, leaseIdleTime);
+        Assert.assertTrue(glockm.isPooled());
+        String name = "TestDBLock2.contend";
+
+        try (RawSession raw = new RawSession()) {
+            Assert.assertTrue(raw.lock(name));
+            expectLockFailure(name);
+            Assert.assertEquals(0, glockm.getDbLockNum());
+            raw.unlock(name);
+
+            GLock lock = lock(name);
+            Assert.assertFalse(raw.lock(name));
+            Assert.assertEquals(1, glockm.getDbLockNum());
+            lock.unlock();
+            Assert.assertTrue(raw.lock(name));
+            raw.unlock(name);
+        }
+
+        lockConcurrently();
+    }
+
+    @Test
+    public void testErrorKeepsOtherLocks() throws Exception {
+        // all names are on one session
+        configure(1, false, leaseIdleTime);
+        String first = "TestDBLock2.error-1";
+        String second = "TestDBLock2.error-2";
+        StringBuilder sb = new StringBuilder("TestDBLock2.error-");
+        while (sb.length() <= 64) {
+            sb.append("x");
+        }
+        String tooLong = sb.toString();
+
+        try (RawSession raw = new RawSession()) {
+            boolean rejected;
+            try {
+                rejected = !raw.lock(tooLong);
+            } catch (SQLException e) {
+                rejected = true;
+            }
+            if (!rejected) {
+                raw.unlock(tooLong);
+                logger.debug("the database accepts lock names longer than 64 characters, skip the error test");
+                return;
+            }
+
+            GLock lock1 = lock(first);
+            GLock lock2 = lock(second);
+            expectLockFailure(tooLong);
+
+            long holder = raw.holderOf(first);
+            Assert.assertTrue(holder != 0);
+            Assert.assertEquals(holder, raw.holderOf(second));
+            lock2.unlock();
+            lock1.unlock();
+            Assert.assertEquals(0, raw.holderOf(first));
+            Assert.assertEquals(0, raw.holderOf(second));
+        }
+    }
+
+    @Test
+    public void testBrokenConnection() throws Exception {
+        configure(1, false, leaseIdleTime);
+        String first = "TestDBLock2.broken-1";
+        String second = "TestDBLock2.broken-2";
+        String third = "TestDBLock2.broken-3";
+
+        try (RawSession raw = new RawSession()) {
+            GLock lock1 = lock(first);
+            GLock lock2 = lock(second);
+            long holder = raw.holderOf(first);
+            Assert.assertEquals(holder, raw.holderOf(second));
+            raw.kill(holder);
+            Assert.assertTrue(waitForRelease(raw, first));
+
+            // the session gets a new connection, the locks on the killed one are unlocked without errors
+            GLock lock3 = lock(third);
+            Assert.assertTrue(raw.holderOf(third) != 0);
+            Assert.assertTrue(raw.holderOf(third) != holder);
+            lock1.unlock();
+            lock2.unlock();
+            lock3.unlock();
+            Assert.assertEquals(0, raw.holderOf(third));
+
+            // a discarded session closes its physical connection instead of giving it back to the pool with the locks
+            lock1 = lock(first);
+            Object session = sessionOf(0);
+            Method discard = session.getClass().getDeclaredMethod("discard");
+            discard.setAccessible(true);
+            synchronized (session) {
+                discard.invoke(session);
+            }
+            Assert.assertTrue(waitForRelease(raw, first));
+            lock1.unlock();
+
+            lock1 = lock(first);
+            Assert.assertFalse(raw.lock(first));
+            lock1.unlock();
+        }
+    }
+
+    @Test
+    public void testLease() throws Exception {
+        configure(1, true, 1);
+        Assert.assertTrue(glockm.isLeaseOn());
+        ResourceDestinationMaker destMaker = loader.getComponent(ResourceDestinationMaker.class);
+        ManagementNodeChangeListener ring = (ManagementNodeChangeListener) destMaker;
+        ring.nodeJoin(node(Platform.getManagementServerId()));
+        ManagementNodeInventory other = node(Platform.getUuid());
+
+        try (RawSession raw = new RawSession()) {
+            String name = "TestDBLock2.lease";
+            lock(name).unlock();
+            Assert.assertEquals(1, glockm.getLeaseNum());
+            Assert.assertFalse(raw.lock(name));
+
+            long hits = glockm.getLeaseHits();
+            lock(name).unlock();
+            Assert.assertEquals(hits + 1, glockm.getLeaseHits());
+
+            // a name hashed to another node is released at unlock
+            ring.nodeJoin(other);
+            String remote = null;
+            for (int i = 0; remote == null; i++) {
+                String n = String.format("TestDBLock2.remote-%s", i);
+                if (!destMaker.isManagedByUs(n)) {
+                    remote = n;
+                }
+            }
+            lock(remote).unlock();
+            Assert.assertTrue(raw.lock(remote));
+            raw.unlock(remote);
+
+            // the idle lease expires
+            for (int i = 0; i < 50 && glockm.getLeaseNum() > 0; i++) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            Assert.assertEquals(0, glockm.getLeaseNum());
+            Assert.assertTrue(raw.lock(name));
+            raw.unlock(name);
+
+            lockConcurrently();
+        } finally {
+            ring.nodeLeft(other);
+            configure(connectionNum, leaseOn, leaseIdleTime);
+        }
+    }
+
+    @Test
+    public void testDedicatedConnection() throws Exception {
+        configure(0, false, leaseIdleTime);
+        Assert.assertFalse(glockm.isPooled());
+        String name = "TestDBLock2.dedicated";
+
+        try (RawSession raw = new RawSession()) {
+            Assert.assertTrue(raw.lock(name));
+            expectLockFailure(name);
+            raw.unlock(name);
+
+            GLock lock = lock(name);
+            Assert.assertFalse(raw.lock(name));
+            lock.unlock();
+            Assert.assertTrue(raw.lock(name));
+            raw.unlock(name);
+        }
+
+        lockConcurrently();
+    }
+}
@@ -0,0 +1,108 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.job.Job;
+import org.zstack.core.job.JobContext;
+import org.zstack.core.job.JobQueueFacade;
+import org.zstack.core.job.JobQueueFacadeImpl2;
+import org.zstack.core.job.JobQueueFacadeImpl3;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * run JOB_NUM jobs in QUEUE_NUM queues by the job queue facade with a global lock and by the one
+ * with queue leases, and compare their throughput
+ */
+public class TestJobQueueBenchmark {
+    CLogger logger = Utils.getLogger(TestJobQueueBenchmark.class);
+    ComponentLoader loader;
+    JobQueueFacade leased;
+    JobQueueFacade locked;
+
+    static int JOB_NUM = 10000;
+    static int QUEUE_NUM = 50;
+    static AtomicInteger executed = new AtomicInteger();
+
+    public static class CountJob implements Job {
+        @JobContext
+        private int index;
+
+        public CountJob() {
+        }
+
+        CountJob(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run(ReturnValueCompletion<Object> completion) {
+            executed.incrementAndGet();
+            completion.success(index);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        leased = loader.getComponent(JobQueueFacade.class);
+        Assert.assertTrue(leased instanceof JobQueueFacadeImpl3);
+
+        JobQueueFacadeImpl2 impl2 = new JobQueueFacadeImpl2();
+        ((ApplicationContext) loader.getSpringIoc()).getAutowireCapableBeanFactory().autowireBean(impl2);
+        impl2.start();
+        locked = impl2;
+    }
+
+    private long run(JobQueueFacade jobf, String prefix) throws InterruptedException {
+        executed.set(0);
+        CountDownLatch latch = new CountDownLatch(JOB_NUM);
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < JOB_NUM; i++) {
+            jobf.execute(String.format("%s-%s", prefix, i % QUEUE_NUM), "benchmark", new CountJob(i), new Completion(null) {
+                @Override
+                public void success() {
+                    latch.countDown();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    failures.incrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(30, TimeUnit.MINUTES));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(JOB_NUM, executed.get());
+        return millis;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        long lockedMillis = run(locked, "locked");
+        long leasedMillis = run(leased, "leased");
+
+        logger.debug(String.format("%s jobs in %s queues: %sms (%s jobs/s) with a global lock, %sms (%s jobs/s) with queue leases",
+                JOB_NUM, QUEUE_NUM, lockedMillis, JOB_NUM * 1000L / Math.max(lockedMillis, 1),
+                leasedMillis, JOB_NUM * 1000L / Math.max(leasedMillis, 1)));
+    }
+}
@@ -0,0 +1,270 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.job.*;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.managementnode.ManagementNodeState;
+import org.zstack.header.managementnode.ManagementNodeVO;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * queues of another management node are taken over once their lease expires or the node is deleted,
+ * the interrupted restartable job is pending again and runs after the takeover while the interrupted
+ * non-restartable job fails, and a queue found empty by its worker is not deleted under a job being
+ * submitted to it
+ */
+public class TestJobQueueFacadeImpl3 {
+    CLogger logger = Utils.getLogger(TestJobQueueFacadeImpl3.class);
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    JobQueueFacadeImpl3 jobf;
+
+    static List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    public static class RecordJob implements Job {
+        @JobContext
+        String name;
+
+        public RecordJob() {
+        }
+
+        RecordJob(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run(ReturnValueCompletion<Object> completion) {
+            executed.add(name);
+            completion.success(null);
+        }
+    }
+
+    @RestartableJob
+    public static class RestartableRecordJob extends RecordJob {
+        public RestartableRecordJob() {
+        }
+
+        RestartableRecordJob(String name) {
+            super(name);
+        }
+    }
+
+    class JobCompletion extends Completion {
+        CountDownLatch latch = new CountDownLatch(1);
+        volatile ErrorCode error;
+
+        JobCompletion() {
+            super(null);
+        }
+
+        @Override
+        public void success() {
+            latch.countDown();
+        }
+
+        @Override
+        public void fail(ErrorCode errorCode) {
+            error = errorCode;
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        jobf = (JobQueueFacadeImpl3) loader.getComponent(JobQueueFacade.class);
+        executed.clear();
+
+        if (!dbf.isExist(Platform.getManagementServerId(), ManagementNodeVO.class)) {
+            createNode(Platform.getManagementServerId());
+        }
+    }
+
+    private ManagementNodeVO createNode(String uuid) {
+        ManagementNodeVO vo = new ManagementNodeVO();
+        vo.setUuid(uuid);
+        vo.setHostName("127.0.0.1");
+        vo.setPort(8080);
+        vo.setState(ManagementNodeState.RUNNING);
+        return dbf.persistAndRefresh(vo);
+    }
+
+    private JobQueueVO createQueueOf(String nodeUuid, String name) {
+        JobQueueVO vo = new JobQueueVO();
+        vo.setName(name);
+        vo.setOwner("test");
+        vo.setWorkerManagementNodeId(nodeUuid);
+        vo.setLeaseExpireDate(new Timestamp(dbf.getCurrentSqlTime().getTime() + TimeUnit.MINUTES.toMillis(10)));
+        return dbf.persistAndRefresh(vo);
+    }
+
+    private JobQueueVO findQueue(String name) {
+        return Q.New(JobQueueVO.class).eq(JobQueueVO_.name, name).find();
+    }
+
+    private List<JobQueueEntryVO> listJobs(long queueId) {
+        return Q.New(JobQueueEntryVO.class).eq(JobQueueEntryVO_.jobQueueId, queueId).orderBy(JobQueueEntryVO_.id, SimpleQuery.Od.ASC).list();
+    }
+
+    private void setState(JobQueueEntryVO e, JobState state) {
+        SQL.New(JobQueueEntryVO.class).eq(JobQueueEntryVO_.id, e.getId()).set(JobQueueEntryVO_.state, state).update();
+    }
+
+    private void takeOverJobs() throws Exception {
+        Method m = JobQueueFacadeImpl3.class.getDeclaredMethod("takeOverJobs");
+        m.setAccessible(true);
+        m.invoke(jobf);
+    }
+
+    @Test
+    public void testTakeOverExpiredLease() throws Exception {
+        String other = Platform.getUuid();
+        createNode(other);
+        String queueName = "lease-expired";
+        JobQueueVO qvo = createQueueOf(other, queueName);
+
+        // the queue has a live lease of the other node, jobs submitted are left to it
+        JobCompletion restarted = new JobCompletion();
+        JobCompletion failed = new JobCompletion();
+        JobCompletion orphan = new JobCompletion();
+        JobCompletion pending = new JobCompletion();
+        jobf.execute(queueName, "test", new RestartableRecordJob("restarted"), restarted);
+        jobf.execute(queueName, "test", new RecordJob("failed"), failed);
+        jobf.execute(queueName, "test", new RestartableRecordJob("orphan"), orphan);
+        jobf.execute(queueName, "test", new RestartableRecordJob("pending"), pending);
+
+        // the other node was processing the first two jobs, the issuer of the third one is gone
+        List<JobQueueEntryVO> jobs = listJobs(qvo.getId());
+        Assert.assertEquals(4, jobs.size());
+        setState(jobs.get(0), JobState.Processing);
+        setState(jobs.get(1), JobState.Processing);
+        SQL.New(JobQueueEntryVO.class).eq(JobQueueEntryVO_.id, jobs.get(2).getId()).set(JobQueueEntryVO_.issuerManagementNodeId, null).update();
+
+        takeOverJobs();
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(other, findQueue(queueName).getWorkerManagementNodeId());
+        Assert.assertTrue(executed.isEmpty());
+
+        // the lease is expired in the time of the database
+        SQL.New(JobQueueVO.class).eq(JobQueueVO_.id, qvo.getId())
+                .set(JobQueueVO_.leaseExpireDate, new Timestamp(dbf.getCurrentSqlTime().getTime() - TimeUnit.SECONDS.toMillis(1)))
+                .update();
+        takeOverJobs();
+
+        Assert.assertTrue(restarted.await());
+        Assert.assertTrue(failed.await());
+        Assert.assertTrue(pending.await());
+        Assert.assertNull(restarted.error);
+        Assert.assertNull(pending.error);
+        Assert.assertNotNull(failed.error);
+        Assert.assertEquals(SysErrors.MANAGEMENT_NODE_UNAVAILABLE_ERROR.toString(), failed.error.getCode());
+
+        // the restartable job runs again before the pending one, the orphan job is removed without running
+        Assert.assertEquals(Arrays.asList("restarted", "pending"), executed);
+        Assert.assertEquals(1, orphan.latch.getCount());
+        Assert.assertFalse(dbf.isExist(jobs.get(1).getId(), JobQueueEntryVO.class));
+        Assert.assertFalse(dbf.isExist(jobs.get(2).getId(), JobQueueEntryVO.class));
+    }
+
+    @Test
+    public void testTakeOverOnNodeLeft() throws Exception {
+        ManagementNodeVO other = createNode(Platform.getUuid());
+        String queueName = "node-left";
+        createQueueOf(other.getUuid(), queueName);
+
+        JobCompletion completion = new JobCompletion();
+        jobf.execute(queueName, "test", new RestartableRecordJob("node-left"), completion);
+        Assert.assertEquals(other.getUuid(), findQueue(queueName).getWorkerManagementNodeId());
+
+        // the lease is still live, the queue has no worker once the node is deleted
+        dbf.remove(other);
+        Assert.assertNull(findQueue(queueName).getWorkerManagementNodeId());
+        jobf.nodeLeft(ManagementNodeInventory.valueOf(other));
+
+        Assert.assertTrue(completion.await());
+        Assert.assertNull(completion.error);
+        Assert.assertEquals(Collections.singletonList("node-left"), executed);
+    }
+
+    @Test
+    public void testSubmitRacesQueueDeletion() throws Exception {
+        // every thread submits its next job as soon as the previous one completes, when the worker
+        // may just have found the queue empty and be deleting it
+        String queueName = "delete-race";
+        int threadNum = 5;
+        int jobNum = 200;
+        AtomicInteger lost = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadNum; t++) {
+            final int index = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < jobNum; i++) {
+                    JobCompletion completion = new JobCompletion();
+                    jobf.execute(queueName, "test", new RecordJob(String.format("%s-%s", index, i)), completion);
+                    try {
+                        if (!completion.await()) {
+                            lost.incrementAndGet();
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+
+                    if (completion.error != null) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(5));
+        }
+
+        Assert.assertEquals(0, lost.get());
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(threadNum * jobNum, executed.size());
+        Assert.assertEquals(threadNum * jobNum, new HashSet<>(executed).size());
+
+        // the last worker deletes the queue once it's empty
+        for (int i = 0; i < 10 && findQueue(queueName) != null; i++) {
+            TimeUnit.SECONDS.sleep(1);
+        }
+        Assert.assertNull(findQueue(queueName));
+        Assert.assertFalse(Q.New(JobQueueEntryVO.class).in(JobQueueEntryVO_.state, Arrays.asList(JobState.Pending, JobState.Processing)).isExists());
+    }
+}
@@ -0,0 +1,98 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadGlobalProperty;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chainSubmit throughput across 1, 100 and 100k distinct signatures.
+ *
+ * run it twice to compare the two dispatch queues:
+ * -DThreadFacade.stripedDispatchQueue=false and -DThreadFacade.stripedDispatchQueue=true
+ */
+public class TestChainTaskPerformance {
+    CLogger logger = Utils.getLogger(TestChainTaskPerformance.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 200000;
+    int submitterNum = 8;
+    int[] signatureNums = {1, 100, 100000};
+
+    class Tester extends ChainTask {
+        String signature;
+        CountDownLatch latch;
+
+        Tester(String signature, CountDownLatch latch) {
+            super(null);
+            this.signature = signature;
+            this.latch = latch;
+        }
+
+        @Override
+        public String getName() {
+            return "chain-perf";
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        public void run(SyncTaskChain chain) {
+            latch.countDown();
+            chain.next();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    private long run(int signatureNum) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(taskNum);
+        ExecutorService submitters = Executors.newFixedThreadPool(submitterNum);
+        int perSubmitter = taskNum / submitterNum;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < submitterNum; i++) {
+            final int offset = i * perSubmitter;
+            submitters.submit(() -> {
+                for (int j = 0; j < perSubmitter; j++) {
+                    thdf.chainSubmit(new Tester("chain-perf-" + ((offset + j) % signatureNum), latch));
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long cost = System.nanoTime() - start;
+        submitters.shutdown();
+        return cost;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (int signatureNum : signatureNums) {
+            long cost = run(signatureNum);
+            logger.info(String.format("[striped dispatch queue: %s] %s chain tasks across %s signatures in %sms, %s tasks/s",
+                    ThreadGlobalProperty.STRIPED_DISPATCH_QUEUE, taskNum, signatureNum,
+                    TimeUnit.NANOSECONDS.toMillis(cost), taskNum * TimeUnit.SECONDS.toNanos(1) / cost));
+        }
+    }
+}
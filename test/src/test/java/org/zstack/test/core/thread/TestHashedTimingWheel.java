@@ -0,0 +1,71 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.thread.HashedTimingWheel;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * timeouts must never fire early, must fire once, and cancelled timeouts must never fire
+ */
+public class TestHashedTimingWheel {
+    CLogger logger = Utils.getLogger(TestHashedTimingWheel.class);
+    HashedTimingWheel wheel;
+
+    @Before
+    public void setUp() throws Exception {
+        wheel = new HashedTimingWheel("test-timing-wheel", 1, TimeUnit.MILLISECONDS);
+        wheel.start();
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        int num = 2000;
+        CountDownLatch latch = new CountDownLatch(num);
+        AtomicInteger early = new AtomicInteger(0);
+        AtomicInteger cancelledRun = new AtomicInteger(0);
+        Random random = new Random();
+
+        List<HashedTimingWheel.Timeout> toCancel = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            // some timeouts go beyond the first level and must be cascaded
+            final long delay = random.nextInt(i % 10 == 0 ? 3000 : 500);
+            final long start = System.nanoTime();
+            wheel.newTimeout(() -> {
+                if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < delay) {
+                    early.incrementAndGet();
+                }
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+
+            toCancel.add(wheel.newTimeout(cancelledRun::incrementAndGet, delay + 1000, TimeUnit.MILLISECONDS));
+        }
+
+        for (HashedTimingWheel.Timeout t : toCancel) {
+            Assert.assertTrue(t.cancel());
+            Assert.assertFalse(t.cancel());
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertEquals(0, early.get());
+        Assert.assertEquals(0, cancelledRun.get());
+        Assert.assertEquals(0, wheel.getPendingTimeouts());
+        logger.debug(String.format("%s timeouts expired, %s cancelled", num, toCancel.size()));
+    }
+}
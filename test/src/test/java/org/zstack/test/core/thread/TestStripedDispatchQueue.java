@@ -0,0 +1,231 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * chain tasks and sync tasks on the lock-striped dispatch queue: tasks of a signature run in
+ * submitting order, no more than syncLevel tasks of a signature run at the same time, a cancelled
+ * task doesn't run, and the statistics show the running and pending tasks
+ */
+public class TestStripedDispatchQueue {
+    CLogger logger = Utils.getLogger(TestStripedDispatchQueue.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+
+    abstract class Tester extends ChainTask {
+        String signature;
+        int syncLevel = 1;
+
+        Tester(String signature) {
+            super(null);
+            this.signature = signature;
+        }
+
+        @Override
+        public String getName() {
+            return "striped-test";
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        protected int getSyncLevel() {
+            return syncLevel;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("ThreadFacade.stripedDispatchQueue", "true");
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+
+        Field f = ThreadFacadeImpl.class.getDeclaredField("dpq");
+        f.setAccessible(true);
+        Assert.assertEquals("StripedDispatchQueueImpl", f.get(thdf).getClass().getSimpleName());
+    }
+
+    @Test
+    public void testOrderBySignature() throws InterruptedException {
+        int signatureNum = 50;
+        int taskNum = 100;
+        Map<String, List<Integer>> results = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(signatureNum * taskNum);
+
+        for (int i = 0; i < taskNum; i++) {
+            for (int j = 0; j < signatureNum; j++) {
+                final int index = i;
+                String signature = String.format("striped-order-%s", j);
+                thdf.chainSubmit(new Tester(signature) {
+                    @Override
+                    public void run(SyncTaskChain chain) {
+                        results.computeIfAbsent(signature, k -> Collections.synchronizedList(new ArrayList<>())).add(index);
+                        latch.countDown();
+                        chain.next();
+                    }
+                });
+            }
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        Assert.assertEquals(signatureNum, results.size());
+        results.forEach((signature, lst) -> {
+            Assert.assertEquals(taskNum, lst.size());
+            for (int i = 0; i < taskNum; i++) {
+                Assert.assertEquals(i, lst.get(i).intValue());
+            }
+        });
+    }
+
+    @Test
+    public void testSyncLevel() throws InterruptedException {
+        int syncLevel = 3;
+        int taskNum = 30;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(taskNum);
+
+        for (int i = 0; i < taskNum; i++) {
+            Tester t = new Tester("striped-sync-level") {
+                @Override
+                public void run(SyncTaskChain chain) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    latch.countDown();
+                    chain.next();
+                }
+            };
+            t.syncLevel = syncLevel;
+            thdf.chainSubmit(t);
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        Assert.assertEquals(syncLevel, maxRunning.get());
+
+        running.set(0);
+        maxRunning.set(0);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < taskNum; i++) {
+            final int index = i;
+            futures.add(thdf.syncSubmit(new SyncTask<Integer>() {
+                @Override
+                public String getSyncSignature() {
+                    return "striped-sync-task";
+                }
+
+                @Override
+                public int getSyncLevel() {
+                    return syncLevel;
+                }
+
+                @Override
+                public String getName() {
+                    return "striped-sync-task";
+                }
+
+                @Override
+                public Integer call() throws Exception {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    TimeUnit.MILLISECONDS.sleep(100);
+                    running.decrementAndGet();
+                    return index;
+                }
+            }));
+        }
+
+        for (int i = 0; i < taskNum; i++) {
+            Assert.assertEquals(i, futures.get(i).get(2, TimeUnit.MINUTES).intValue());
+        }
+        Assert.assertTrue(maxRunning.get() <= syncLevel);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        List<Integer> res = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(5);
+
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            Future<Void> f = thdf.chainSubmit(new Tester("striped-cancel") {
+                @Override
+                public void run(SyncTaskChain chain) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    res.add(index);
+                    latch.countDown();
+                    chain.next();
+                }
+            });
+
+            if (i >= 5) {
+                f.cancel(true);
+            }
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), res);
+    }
+
+    @Test
+    public void testStatistics() throws InterruptedException {
+        String signature = "striped-statistics";
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+
+        for (int i = 0; i < 3; i++) {
+            thdf.chainSubmit(new Tester(signature) {
+                @Override
+                public void run(SyncTaskChain chain) {
+                    started.countDown();
+                    try {
+                        release.await(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                    chain.next();
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+        Assert.assertTrue(thdf.isChainTaskRunning(signature));
+        ChainTaskStatistic statistic = ((ThreadFacadeMXBean) thdf).getChainTaskStatistics().get(signature);
+        Assert.assertNotNull(statistic);
+        Assert.assertEquals(1, statistic.getSyncLevel());
+        Assert.assertEquals(1, statistic.getCurrentRunningThreadNum());
+        Assert.assertEquals(2, statistic.getPendingTaskNum());
+
+        release.countDown();
+        Assert.assertTrue(done.await(1, TimeUnit.MINUTES));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertFalse(thdf.isChainTaskRunning(signature));
+        Assert.assertNull(((ThreadFacadeMXBean) thdf).getChainTaskStatistics().get(signature));
+    }
+}
@@ -0,0 +1,135 @@
+package org.zstack.test.core.thread;
+
+import org.junit.Test;
+import org.zstack.core.thread.HashedTimingWheel;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares the timing wheel used by ThreadFacade.submitTimeoutTask with the former
+ * pool of 5 java.util.Timer. Every round keeps N timeouts outstanding and measures
+ * schedule + cancel, which is what CloudBus does for every message that gets a reply.
+ */
+public class TestTimingWheelPerformance {
+    CLogger logger = Utils.getLogger(TestTimingWheelPerformance.class);
+
+    private static final int[] OUTSTANDING = {10000, 100000, 1000000};
+    private static final int THREADS = 8;
+    private static final long TIMEOUT_MINUTES = 30;
+
+    interface Scheduler {
+        Runnable schedule(Runnable r);
+
+        void stop();
+    }
+
+    // mirrors the TimerPool formerly in ThreadFacadeImpl
+    static class TimerPoolScheduler implements Scheduler {
+        static class TimerWrapper extends Timer {
+            private int cancelledTimerTaskCount = 0;
+
+            synchronized void notifyCancel() {
+                if (cancelledTimerTaskCount++ >= 2000) {
+                    cancelledTimerTaskCount = 0;
+                    purge();
+                }
+            }
+        }
+
+        private List<TimerWrapper> timers = new ArrayList<>();
+        private int counter = 0;
+
+        TimerPoolScheduler() {
+            for (int i = 0; i < 5; i++) {
+                timers.add(new TimerWrapper());
+            }
+        }
+
+        @Override
+        public Runnable schedule(Runnable r) {
+            TimerWrapper timer = timers.get(++counter % timers.size());
+            if (counter > 1000000) {
+                counter = 0;
+            }
+
+            TimerTask task = new TimerTask() {
+                @Override
+                public void run() {
+                    r.run();
+                }
+            };
+            timer.schedule(task, TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES));
+            return () -> {
+                task.cancel();
+                timer.notifyCancel();
+            };
+        }
+
+        @Override
+        public void stop() {
+            timers.forEach(Timer::cancel);
+        }
+    }
+
+    static class TimingWheelScheduler implements Scheduler {
+        private HashedTimingWheel wheel = new HashedTimingWheel("perf-timing-wheel", 10, TimeUnit.MILLISECONDS);
+
+        TimingWheelScheduler() {
+            wheel.start();
+        }
+
+        @Override
+        public Runnable schedule(Runnable r) {
+            HashedTimingWheel.Timeout t = wheel.newTimeout(r, TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            return t::cancel;
+        }
+
+        @Override
+        public void stop() {
+            wheel.stop();
+        }
+    }
+
+    private long run(Scheduler scheduler, int outstanding) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        int perThread = outstanding / THREADS;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            pool.submit(() -> {
+                List<Runnable> cancels = new ArrayList<>(perThread);
+                for (int j = 0; j < perThread; j++) {
+                    cancels.add(scheduler.schedule(() -> {}));
+                }
+                cancels.forEach(Runnable::run);
+                latch.countDown();
+            });
+        }
+        latch.await();
+        long cost = System.nanoTime() - start;
+
+        pool.shutdown();
+        scheduler.stop();
+        return cost;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (int outstanding : OUTSTANDING) {
+            long timerCost = run(new TimerPoolScheduler(), outstanding);
+            long wheelCost = run(new TimingWheelScheduler(), outstanding);
+            logger.info(String.format("outstanding timeouts: %s, timer pool: %sms, timing wheel: %sms",
+                    outstanding, TimeUnit.NANOSECONDS.toMillis(timerCost), TimeUnit.NANOSECONDS.toMillis(wheelCost)));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.zstack.test.core.tracker;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusSteppingCallback;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.tacker.PingTracker;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * resources tracked before the tracker starts are spread over the slots, no more than the per tick cap
+ * of pings are sent in one tick and the rest are pinged by next ticks, a resource whose ping is not
+ * replied is pinged only once and becomes overdue after one ping interval
+ */
+public class TestPingTracker {
+    CLogger logger = Utils.getLogger(TestPingTracker.class);
+    ComponentLoader loader;
+    Tracker tracker;
+    int interval = 2;
+    int resourceNum = 10;
+    volatile boolean reply;
+    List<Integer> sentPerTick = Collections.synchronizedList(new ArrayList<>());
+    Map<String, AtomicInteger> pings = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> replies = new ConcurrentHashMap<>();
+    List<Runnable> pendingReplies = Collections.synchronizedList(new ArrayList<>());
+
+    public static class PingMsg extends NeedReplyMessage {
+        String uuid;
+    }
+
+    class Tracker extends PingTracker {
+        volatile int cap;
+
+        Tracker(CloudBus bus, ThreadFacade thdf) {
+            this.bus = bus;
+            this.thdf = thdf;
+        }
+
+        @Override
+        public String getResourceName() {
+            return "test resource";
+        }
+
+        @Override
+        public NeedReplyMessage getPingMessage(String resUuid) {
+            PingMsg msg = new PingMsg();
+            msg.uuid = resUuid;
+            return msg;
+        }
+
+        @Override
+        public int getPingInterval() {
+            return interval;
+        }
+
+        @Override
+        public int getParallelismDegree() {
+            return 10;
+        }
+
+        @Override
+        public void handleReply(String resourceUuid, MessageReply reply) {
+            replies.computeIfAbsent(resourceUuid, k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        protected int getMaxPingsPerTick() {
+            return cap;
+        }
+
+        void begin() {
+            startTracker();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+
+        CloudBus bus = (CloudBus) Proxy.newProxyInstance(CloudBus.class.getClassLoader(), new Class[]{CloudBus.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("send") || args == null || args.length != 3 || !(args[2] instanceof CloudBusSteppingCallback)) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+
+            List<PingMsg> msgs = (List<PingMsg>) args[0];
+            CloudBusSteppingCallback callback = (CloudBusSteppingCallback) args[2];
+            sentPerTick.add(msgs.size());
+            for (PingMsg msg : msgs) {
+                pings.computeIfAbsent(msg.uuid, k -> new AtomicInteger()).incrementAndGet();
+                Runnable r = () -> callback.run(msg, new MessageReply());
+                if (reply) {
+                    r.run();
+                } else {
+                    pendingReplies.add(r);
+                }
+            }
+            return null;
+        });
+
+        tracker = new Tracker(bus, loader.getComponent(ThreadFacade.class));
+    }
+
+    private int pingsOf(String uuid) {
+        AtomicInteger c = pings.get(uuid);
+        return c == null ? 0 : c.get();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < resourceNum; i++) {
+            uuids.add(UUID.randomUUID().toString().replace("-", ""));
+        }
+
+        // tracked before the tracker starts
+        tracker.cap = 3;
+        tracker.track(uuids);
+        Assert.assertEquals(resourceNum, tracker.getTrackedResourceNum());
+        tracker.begin();
+
+        // 5 resources in each slot, the ones exceeding the cap are pinged by next ticks
+        TimeUnit.SECONDS.sleep(resourceNum / tracker.cap + 3);
+        Assert.assertTrue(sentPerTick.toString(), sentPerTick.size() > 1);
+        Assert.assertTrue(sentPerTick.toString(), sentPerTick.stream().allMatch(n -> n <= tracker.cap));
+        Assert.assertTrue(sentPerTick.stream().anyMatch(n -> n == tracker.cap));
+        // not replied, so every resource is pinged only once
+        for (String uuid : uuids) {
+            Assert.assertEquals(1, pingsOf(uuid));
+        }
+
+        TimeUnit.SECONDS.sleep(interval + 2);
+        Assert.assertEquals(resourceNum, tracker.getOverdueResourceNum());
+
+        // replied and pinged again without the cap
+        tracker.cap = 0;
+        reply = true;
+        new ArrayList<>(pendingReplies).forEach(Runnable::run);
+        pendingReplies.clear();
+        for (String uuid : uuids) {
+            Assert.assertEquals(1, replies.get(uuid).get());
+        }
+
+        TimeUnit.SECONDS.sleep(interval + 1);
+        for (String uuid : uuids) {
+            Assert.assertTrue(pingsOf(uuid) > 1);
+        }
+        Assert.assertEquals(0, tracker.getOverdueResourceNum());
+        Assert.assertEquals(0, pendingReplies.size());
+
+        tracker.untrack(uuids.get(0));
+        Assert.assertEquals(resourceNum - 1, tracker.getTrackedResourceNum());
+        tracker.stop();
+    }
+}
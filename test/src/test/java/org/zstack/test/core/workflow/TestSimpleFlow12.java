@@ -0,0 +1,97 @@
+package org.zstack.test.core.workflow;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.workflow.FlowChainProfiler;
+import org.zstack.core.workflow.FlowLatencyStatistic;
+import org.zstack.core.workflow.SimpleFlowChain;
+import org.zstack.header.core.workflow.*;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * test FlowChainProfiler records latencies of sampled chains and their flows
+ */
+public class TestSimpleFlow12 {
+    CLogger logger = Utils.getLogger(TestSimpleFlow12.class);
+    boolean afterDoneCalled;
+
+    private void runChain(String name, boolean fail) {
+        new SimpleFlowChain()
+                .setName(name)
+                .then(new NoRollbackFlow() {
+                    String __name__ = "first-flow";
+
+                    @AfterDone
+                    List<Runnable> afterDone = new ArrayList<>();
+
+                    @Override
+                    public void run(FlowTrigger trigger, Map data) {
+                        afterDone.add(() -> afterDoneCalled = true);
+                        trigger.next();
+                    }
+                })
+                .then(new NoRollbackFlow() {
+                    String __name__ = "second-flow";
+
+                    @Override
+                    public void run(FlowTrigger trigger, Map data) {
+                        if (fail) {
+                            trigger.fail(new ErrorCode("TEST.1000", "on purpose"));
+                        } else {
+                            trigger.next();
+                        }
+                    }
+                })
+                .done(new FlowDoneHandler(null) {
+                    @Override
+                    public void handle(Map data) {
+                    }
+                })
+                .error(new FlowErrorHandler(null) {
+                    @Override
+                    public void handle(ErrorCode errCode, Map data) {
+                    }
+                })
+                .start();
+    }
+
+    @Test
+    public void test() {
+        CoreGlobalProperty.PROFILER_WORKFLOW_SAMPLING_INTERVAL = 1;
+        FlowChainProfiler profiler = new FlowChainProfiler();
+        profiler.reset();
+
+        runChain("profiled-chain-36b5d9b4c8a54dbb8d4f0a1e2b3c4d5e", false);
+        runChain("profiled-chain-9a0b1c2d3e4f45a6b7c8d9e0f1a2b3c4", true);
+        Assert.assertTrue(afterDoneCalled);
+
+        Map<String, FlowLatencyStatistic> chains = profiler.getChainStatistics();
+        FlowLatencyStatistic chain = chains.get("profiled-chain-{uuid}");
+        Assert.assertNotNull(chain);
+        Assert.assertEquals(2, chain.getCount());
+        Assert.assertEquals(1, chain.getFailures());
+
+        Map<String, FlowLatencyStatistic> flows = profiler.getFlowStatistics();
+        FlowLatencyStatistic first = flows.get("profiled-chain-{uuid}/first-flow");
+        Assert.assertNotNull(first);
+        Assert.assertEquals(2, first.getCount());
+        Assert.assertEquals(0, first.getFailures());
+
+        FlowLatencyStatistic second = flows.get("profiled-chain-{uuid}/second-flow");
+        Assert.assertNotNull(second);
+        Assert.assertEquals(2, second.getCount());
+        Assert.assertEquals(1, second.getFailures());
+
+        CoreGlobalProperty.PROFILER_WORKFLOW_SAMPLING_INTERVAL = 0;
+        profiler.reset();
+        runChain("not-profiled-chain", false);
+        Assert.assertTrue(profiler.getChainStatistics().isEmpty());
+    }
+}
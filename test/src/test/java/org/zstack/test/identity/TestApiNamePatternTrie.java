@@ -0,0 +1,61 @@
+package org.zstack.test.identity;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.header.identity.rbac.ApiNamePatternTrie;
+import org.zstack.header.identity.rbac.PolicyMatcher;
+
+import java.util.*;
+
+/**
+ * ApiNamePatternTrie must match exactly the patterns PolicyMatcher matches, it's only allowed
+ * to try fewer of them.
+ */
+public class TestApiNamePatternTrie {
+    private static final List<String> API_NAMES = Arrays.asList(
+            "org.zstack.header.vm.APICreateVmInstanceMsg",
+            "org.zstack.header.vm.APIQueryVmInstanceMsg",
+            "org.zstack.header.vm.APIStartVmInstanceMsg",
+            "org.zstack.header.volume.APIQueryVolumeMsg",
+            "org.zstack.header.volume.APICreateDataVolumeMsg",
+            "org.zstack.header.image.APIQueryImageMsg",
+            "org.zstack.header.network.l3.APIQueryL3NetworkMsg",
+            "org.zstack.header.identity.APIQueryUserMsg",
+            "org.zstack.header.identity.APILogInByUserMsg"
+    );
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            "org.zstack.header.vm.APICreateVmInstanceMsg",
+            "org.zstack.header.vm.**",
+            "org.zstack.header.vm.APIQuery*",
+            "org.zstack.header.*.APIQuery*",
+            "org.zstack.header.**.APIQuery*Msg",
+            "**",
+            "**.APIQueryVolumeMsg",
+            "APICreateDataVolumeMsg",
+            "VolumeMsg",
+            "volume.APIQueryVolumeMsg",
+            "org.zstack.header.network.**",
+            "org.zstack.header.identity.APILogInBy?serMsg",
+            "org.zstack.header.identity.*",
+            "org.zstack.header.image",
+            "org.zstack.header.vm.APIStartVmInstanceMsg.*"
+    );
+
+    @Test
+    public void test() {
+        PolicyMatcher matcher = new PolicyMatcher();
+        ApiNamePatternTrie<String> trie = new ApiNamePatternTrie<>();
+        PATTERNS.forEach(p -> trie.add(p, p));
+        Assert.assertEquals(PATTERNS.size(), trie.size());
+
+        for (String api : API_NAMES) {
+            Set<String> expected = new HashSet<>();
+            PATTERNS.stream().filter(p -> matcher.match(p, api)).forEach(expected::add);
+
+            List<String> actual = trie.match(api);
+            Assert.assertEquals(api, expected.size(), actual.size());
+            Assert.assertEquals(api, expected, new HashSet<>(actual));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.zstack.test.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.network.l3.IpRangeBitmap;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * checks IpRangeBitmap against a plain BitSet on a /16 range, and compares the cost of finding
+ * free IPs in a nearly full range with the former scan of the range address by address.
+ */
+public class TestIpRangeBitmap {
+    private static final long START = NetworkUtils.ipv4StringToLong("10.0.0.1");
+    private static final long END = NetworkUtils.ipv4StringToLong("10.0.255.254");
+
+    @Test
+    public void testAgainstBitSet() {
+        IpRangeBitmap bitmap = new IpRangeBitmap(START, END);
+        BitSet expected = new BitSet();
+        int size = (int) (END - START + 1);
+        Assert.assertEquals(size, bitmap.getSize());
+
+        Random random = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            int n = random.nextInt(size);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.get(n), bitmap.release(START + n));
+                expected.clear(n);
+            } else {
+                Assert.assertEquals(!expected.get(n), bitmap.use(START + n));
+                expected.set(n);
+            }
+
+            int from = random.nextInt(size);
+            int free = expected.nextClearBit(from);
+            Assert.assertEquals(free < size ? START + free : -1, bitmap.nextFree(START + from));
+        }
+
+        Assert.assertEquals(expected.cardinality(), bitmap.getUsedCount());
+        Assert.assertFalse(bitmap.use(END + 1));
+        Assert.assertFalse(bitmap.use(START - 1));
+    }
+
+    @Test
+    public void testFull() {
+        IpRangeBitmap bitmap = new IpRangeBitmap(START, START + 99);
+        long ip;
+        int num = 0;
+        while ((ip = bitmap.nextFree(START)) != -1) {
+            Assert.assertTrue(bitmap.use(ip));
+            num++;
+        }
+
+        Assert.assertEquals(100, num);
+        Assert.assertTrue(bitmap.isFull());
+
+        bitmap.release(START + 70);
+        Assert.assertEquals(START + 70, bitmap.nextFree(START));
+        Assert.assertEquals(-1, bitmap.nextFree(START + 71));
+    }
+
+    @Test
+    public void testNearlyFullRange() {
+        int size = (int) (END - START + 1);
+        IpRangeBitmap bitmap = new IpRangeBitmap(START, END);
+        BitSet used = new BitSet();
+        for (int i = 0; i < size - 100; i++) {
+            bitmap.use(START + i);
+            used.set(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            long ip = bitmap.nextFree(START);
+            bitmap.use(ip);
+        }
+        long bitmapCost = System.nanoTime() - start;
+        Assert.assertTrue(bitmap.isFull());
+
+        // the former strategies check the candidates one by one
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            int n = 0;
+            while (used.get(n)) {
+                n++;
+            }
+            used.set(n);
+        }
+        long scanCost = System.nanoTime() - start;
+
+        System.out.println(String.format("allocating the last 100 IPs of a /16 range: bitmap %sus, linear scan %sus",
+                bitmapCost / 1000, scanCost / 1000));
+    }
+}
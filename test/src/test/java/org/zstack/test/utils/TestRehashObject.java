@@ -0,0 +1,158 @@
+package org.zstack.test.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.kvm.KVMAgentCommands.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * test rehashObject() gives what the JSON round trip gives for the heaviest converted types, and
+ * compare their costs
+ */
+public class TestRehashObject {
+    CLogger logger = Utils.getLogger(TestRehashObject.class);
+
+    static int REHASH_NUM = 100000;
+
+    private static Object byJson(Object obj, Class<?> clz) {
+        return JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(obj), clz);
+    }
+
+    private static void assertSameRehash(Object obj, Class<?> clz) {
+        Object expected = byJson(obj, clz);
+        Object actual = JSONObjectUtil.rehashObject(obj, clz);
+        Assert.assertEquals(expected.getClass(), actual.getClass());
+        Assert.assertEquals(JSONObjectUtil.toJsonString(expected), JSONObjectUtil.toJsonString(actual));
+    }
+
+    private VmInstanceInventory vm() {
+        VmInstanceInventory vm = new VmInstanceInventory();
+        vm.setUuid("1f8c8b3e1c2d4f4c9e0a1b2c3d4e5f60");
+        vm.setName("vm");
+        vm.setState("Running");
+        vm.setCpuNum(4);
+        vm.setMemorySize(8L * 1024 * 1024 * 1024);
+        vm.setCreateDate(new Timestamp(1500000000123L));
+
+        List<VmNicInventory> nics = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            VmNicInventory nic = new VmNicInventory();
+            nic.setUuid("nic" + i);
+            nic.setVmInstanceUuid(vm.getUuid());
+            nic.setIp("10.0.0." + i);
+            nic.setMac("fa:16:3e:00:00:0" + i);
+            nic.setNetmask("255.255.255.0");
+            nic.setL3NetworkUuid("l3");
+            nic.setDeviceId(i);
+            nics.add(nic);
+        }
+        vm.setVmNics(nics);
+
+        List<VolumeInventory> volumes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            VolumeInventory vol = new VolumeInventory();
+            vol.setUuid("volume" + i);
+            vol.setInstallPath("/var/lib/zstack/volume" + i + ".qcow2");
+            vol.setType(i == 0 ? "Root" : "Data");
+            vol.setSize(1024L * 1024 * 1024 * (i + 1));
+            vol.setDeviceId(i);
+            volumes.add(vol);
+        }
+        vm.setAllVolumes(volumes);
+        return vm;
+    }
+
+    private StartVmCmd startVmCmd() {
+        StartVmCmd cmd = new StartVmCmd();
+        cmd.setVmInstanceUuid("1f8c8b3e1c2d4f4c9e0a1b2c3d4e5f60");
+        cmd.setVmName("vm");
+        cmd.setMemory(8L * 1024 * 1024 * 1024);
+        cmd.setCpuNum(4);
+        cmd.setBootDev(Arrays.asList("hd", "cdrom"));
+
+        VolumeTO root = new VolumeTO();
+        root.setVolumeUuid("volume0");
+        root.setInstallPath("/var/lib/zstack/volume0.qcow2");
+        cmd.setRootVolume(root);
+
+        List<NicTO> nics = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            NicTO nic = new NicTO();
+            nic.setUuid("nic" + i);
+            nic.setMac("fa:16:3e:00:00:0" + i);
+            nic.setBridgeName("br_eth0");
+            nic.setIps(Arrays.asList("10.0.0." + i));
+            nic.setDeviceId(i);
+            nics.add(nic);
+        }
+        cmd.setNics(nics);
+        return cmd;
+    }
+
+    private LinkedHashMap hostFactResponse() {
+        // agent responses are parsed to maps first, numbers become doubles
+        return JSONObjectUtil.toObject("{\"success\":true,\"error\":null,\"osDistribution\":\"centos\",\"osVersion\":\"7.4\"," +
+                "\"qemuImgVersion\":\"2.6.0\",\"libvirtVersion\":\"3.2.0\",\"hvmCpuFlag\":\"vmx\",\"cpuModelName\":\"Broadwell\"," +
+                "\"ipAddresses\":[\"192.168.0.10\",\"10.0.0.10\"],\"unknownField\":{\"a\":1}}", LinkedHashMap.class);
+    }
+
+    @Test
+    public void test() {
+        assertSameRehash(vm(), VmInstanceInventory.class);
+        assertSameRehash(vm(), LinkedHashMap.class);
+        assertSameRehash(Arrays.asList(vm(), vm()), ArrayList.class);
+        assertSameRehash(startVmCmd(), StartVmCmd.class);
+        assertSameRehash(hostFactResponse(), HostFactResponse.class);
+        assertSameRehash(hostFactResponse(), AgentResponse.class);
+        assertSameRehash(JSONObjectUtil.rehashObject(vm(), LinkedHashMap.class), VmInstanceInventory.class);
+
+        // a copy, not the same objects
+        VmInstanceInventory vm = vm();
+        VmInstanceInventory copy = JSONObjectUtil.rehashObject(vm, VmInstanceInventory.class);
+        Assert.assertNotSame(vm.getVmNics(), copy.getVmNics());
+        Assert.assertNotSame(vm.getVmNics().get(0), copy.getVmNics().get(0));
+
+        // the target keeps its initial values for missing and null fields
+        LinkedHashMap rsp = hostFactResponse();
+        rsp.remove("success");
+        Assert.assertTrue(JSONObjectUtil.rehashObject(rsp, HostFactResponse.class).isSuccess());
+        Assert.assertNull(JSONObjectUtil.rehashObject(null, HostFactResponse.class));
+    }
+
+    private long cost(Object obj, Class<?> clz, boolean json) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REHASH_NUM; i++) {
+            if (json) {
+                byJson(obj, clz);
+            } else {
+                JSONObjectUtil.rehashObject(obj, clz);
+            }
+        }
+        return (System.nanoTime() - start) / REHASH_NUM;
+    }
+
+    @Test
+    public void benchmark() {
+        Map<String, Object[]> cases = new LinkedHashMap<>();
+        cases.put("VmInstanceInventory", new Object[]{vm(), VmInstanceInventory.class});
+        cases.put("StartVmCmd", new Object[]{startVmCmd(), StartVmCmd.class});
+        cases.put("HostFactResponse", new Object[]{hostFactResponse(), HostFactResponse.class});
+
+        cases.forEach((name, c) -> {
+            // warm up
+            cost(c[0], (Class<?>) c[1], true);
+            cost(c[0], (Class<?>) c[1], false);
+
+            logger.debug(String.format("rehashing %s takes %sns by JSON, %sns by rehashObject()", name,
+                    cost(c[0], (Class<?>) c[1], true), cost(c[0], (Class<?>) c[1], false)));
+        });
+    }
+}
@@ -2,8 +2,15 @@ package org.zstack.testlib
 
 import org.springframework.http.HttpEntity
 import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
 import org.zstack.core.db.Q
 import org.zstack.header.Constants
+import org.zstack.header.host.HostVO
+import org.zstack.header.host.HostVO_
+import org.zstack.header.identity.AccountConstant
+import org.zstack.header.image.ImagePlatform
+import org.zstack.header.vm.VmInstanceConstant
+import org.zstack.header.vm.VmInstanceSequenceNumberVO
 import org.zstack.header.vm.VmInstanceState
 import org.zstack.header.vm.VmInstanceVO
 import org.zstack.header.vm.VmInstanceVO_
@@ -19,6 +26,36 @@ import java.nio.file.Paths
  * Created by xing5 on 2017/6/6.
  */
 class KVMSimulator implements Simulator {
+    /**
+     * creates VMs running on the host in database only, they are reported by the simulated
+     * vm sync of the host, for benchmarking VM state sync of hosts carrying many VMs
+     */
+    static List<String> createRunningVms(String hostUuid, int num) {
+        HostVO host = Q.New(HostVO.class).eq(HostVO_.uuid, hostUuid).find()
+        assert host != null : "cannot find host[uuid:${hostUuid}]"
+
+        DatabaseFacade dbf = Platform.getComponentLoader().getComponent(DatabaseFacade.class)
+        List<VmInstanceVO> vms = (0..<num).collect {
+            VmInstanceVO vo = new VmInstanceVO()
+            vo.uuid = Platform.getUuid()
+            vo.name = "simulated-vm-${it}"
+            vo.type = VmInstanceConstant.USER_VM_TYPE
+            vo.hypervisorType = host.hypervisorType
+            vo.platform = ImagePlatform.Linux.toString()
+            vo.zoneUuid = host.zoneUuid
+            vo.clusterUuid = host.clusterUuid
+            vo.hostUuid = host.uuid
+            vo.lastHostUuid = host.uuid
+            vo.state = VmInstanceState.Running
+            vo.internalId = dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class)
+            vo.accountUuid = AccountConstant.INITIAL_SYSTEM_ADMIN_UUID
+            return vo
+        }
+
+        dbf.persistCollection(vms)
+        return vms.collect { it.uuid }
+    }
+
     @Override
     void registerSimulators(EnvSpec spec) {
         spec.simulator(KVMConstant.KVM_HOST_CAPACITY_PATH) { HttpEntity<String> e, EnvSpec espec ->
@@ -135,6 +172,7 @@ class KVMSimulator implements Simulator {
 
         spec.simulator(KVMConstant.KVM_VM_SYNC_PATH) { HttpEntity<String> e ->
             def hostUuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+            KVMAgentCommands.VmSyncCmd cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.VmSyncCmd.class)
 
             List<Tuple> states = Q.New(VmInstanceVO.class)
                     .select(VmInstanceVO_.uuid, VmInstanceVO_.state)
@@ -155,6 +193,12 @@ class KVMSimulator implements Simulator {
                 }
             }
 
+            rsp.statesHash = KVMAgentCommands.VmSyncResponse.hashStates(rsp.states)
+            if (rsp.statesHash == cmd.statesHash) {
+                rsp.states = null
+                rsp.statesUnchanged = true
+            }
+
             return rsp
         }
 
@@ -0,0 +1,100 @@
+package org.zstack.testlib.util
+
+import org.reflections.Reflections
+import org.reflections.scanners.FieldAnnotationsScanner
+import org.reflections.scanners.MethodAnnotationsScanner
+import org.reflections.scanners.MethodParameterScanner
+import org.reflections.scanners.SubTypesScanner
+import org.reflections.scanners.TypeAnnotationsScanner
+import org.zstack.utils.Utils
+import org.zstack.utils.classindex.ClassIndex
+import org.zstack.utils.logging.CLogger
+
+import java.lang.annotation.Annotation
+import java.lang.reflect.Member
+
+/**
+ * Measures how long building the class metadata of the management node takes by scanning the
+ * classpath and by loading class indexes, and checks both answer the same to the queries of
+ * components. Anonymous classes, local classes and synthetic methods are not compared, they
+ * are not indexed.
+ */
+class StartupBenchmark {
+    private static final CLogger logger = Utils.getLogger(StartupBenchmark.class)
+
+    long scanMillis
+    long indexMillis
+    List<String> differences = []
+
+    private static long millis(Closure c) {
+        long start = System.nanoTime()
+        c()
+        return (System.nanoTime() - start).intdiv(1000000)
+    }
+
+    private static Class loadClass(String name) {
+        try {
+            return Class.forName(name, false, StartupBenchmark.class.classLoader)
+        } catch (Throwable ignored) {
+            return null
+        }
+    }
+
+    private static Set<Object> comparable(Set results) {
+        return results.findAll {
+            if (it instanceof Member && ((Member) it).isSynthetic()) {
+                return false
+            }
+
+            Class clz = it instanceof Member ? ((Member) it).declaringClass : it as Class
+            return !clz.isAnonymousClass() && !clz.isLocalClass()
+        } as Set<Object>
+    }
+
+    private void compare(String query, Set scanned, Set indexed) {
+        Set<Object> expected = comparable(scanned)
+        Set<Object> actual = comparable(indexed)
+        if (expected != actual) {
+            differences.add("${query}: missing ${expected - actual}, unexpected ${actual - expected}".toString())
+        }
+    }
+
+    private static List<Class> keysOf(Reflections reflections, Class scanner, String pkg) {
+        return reflections.store.getOrCreate(scanner.simpleName).keySet()
+                .findAll { it.startsWith("${pkg}.") }
+                .collect { loadClass(it) }
+                .findAll { it != null }
+    }
+
+    static StartupBenchmark run(String pkg = "org.zstack") {
+        StartupBenchmark b = new StartupBenchmark()
+        Reflections scanned = null
+        Reflections indexed = null
+
+        b.scanMillis = millis { scanned = ClassIndex.scan(pkg) }
+        b.indexMillis = millis { indexed = ClassIndex.load(pkg) }
+
+        keysOf(scanned, SubTypesScanner.class, pkg).each { Class clz ->
+            b.compare("getSubTypesOf(${clz.name})", scanned.getSubTypesOf(clz), indexed.getSubTypesOf(clz))
+        }
+        keysOf(scanned, TypeAnnotationsScanner.class, pkg).findAll { it.isAnnotation() }.each { Class clz ->
+            Class<? extends Annotation> a = clz as Class<? extends Annotation>
+            b.compare("getTypesAnnotatedWith(${clz.name})", scanned.getTypesAnnotatedWith(a), indexed.getTypesAnnotatedWith(a))
+        }
+        keysOf(scanned, FieldAnnotationsScanner.class, pkg).findAll { it.isAnnotation() }.each { Class clz ->
+            Class<? extends Annotation> a = clz as Class<? extends Annotation>
+            b.compare("getFieldsAnnotatedWith(${clz.name})", scanned.getFieldsAnnotatedWith(a), indexed.getFieldsAnnotatedWith(a))
+        }
+        keysOf(scanned, MethodAnnotationsScanner.class, pkg).findAll { it.isAnnotation() }.each { Class clz ->
+            Class<? extends Annotation> a = clz as Class<? extends Annotation>
+            b.compare("getMethodsAnnotatedWith(${clz.name})", scanned.getMethodsAnnotatedWith(a), indexed.getMethodsAnnotatedWith(a))
+        }
+        keysOf(scanned, MethodParameterScanner.class, pkg).each { Class clz ->
+            b.compare("getMethodsReturn(${clz.name})", scanned.getMethodsReturn(clz), indexed.getMethodsReturn(clz))
+        }
+
+        logger.debug("building class metadata takes ${b.scanMillis}ms by scanning the classpath," +
+                " ${b.indexMillis}ms by class indexes, ${b.differences.size()} queries answered differently")
+        return b
+    }
+}
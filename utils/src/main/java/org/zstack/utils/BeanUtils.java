@@ -3,12 +3,11 @@ package org.zstack.utils;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.lang.StringUtils;
 import org.reflections.Reflections;
-import org.reflections.scanners.*;
-import org.reflections.util.ClasspathHelper;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
 import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.zstack.utils.classindex.ClassIndex;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
@@ -24,9 +23,7 @@ import static java.util.Arrays.asList;
  */
 public class BeanUtils {
     static CLogger logger = Utils.getLogger(BeanUtils.class);
-    public static Reflections reflections = new Reflections(ClasspathHelper.forPackage("org.zstack"),
-            new SubTypesScanner(), new MethodAnnotationsScanner(), new FieldAnnotationsScanner(),
-            new TypeAnnotationsScanner(), new MethodParameterScanner());
+    public static Reflections reflections = ClassIndex.load("org.zstack");
 
     private static Object getProperty(Object bean, Iterator<String> it) throws IllegalAccessException, NoSuchMethodException, InvocationTargetException {
         String path = it.next();
@@ -0,0 +1,175 @@
+package org.zstack.utils.classindex;
+
+import com.google.common.base.Predicate;
+import org.reflections.Reflections;
+import org.reflections.scanners.*;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the Reflections used by BeanUtils from class indexes written by {@link ClassIndexProcessor}
+ * when modules are compiled, instead of parsing every class on the classpath at startup.
+ *
+ * An index is a text file at {@link #INDEX_PATH} of each module, one entry per line as
+ * "kind\tkey\tvalue", the keys and values are what the Reflections scanners put in their stores:
+ * <ul>
+ *     <li>C: a class covered by the index</li>
+ *     <li>S: super class or interface, sub type</li>
+ *     <li>T: annotation, annotated type</li>
+ *     <li>F: annotation, annotated field as class.field</li>
+ *     <li>M: annotation, annotated method or constructor as class.method(parameter types)</li>
+ *     <li>R: return type, method; only for return types under {@link #RETURN_TYPE_PREFIX}</li>
+ * </ul>
+ *
+ * Class files not covered by any index, e.g. groovy classes or classes of modules compiled without
+ * the processor, are still scanned by Reflections. Anonymous and local classes of indexed classes
+ * are left out, they cannot be created by callers looking up types anyway.
+ *
+ * Signatures and parameter annotations of methods are not indexed, Reflections queries by them
+ * only see classes scanned at runtime. Set the system property {@link #DISABLE_PROPERTY} to true to
+ * scan the whole classpath as before.
+ */
+public class ClassIndex {
+    private static final CLogger logger = Utils.getLogger(ClassIndex.class);
+
+    public static final String INDEX_PATH = "META-INF/zstack/class-index";
+    public static final String DISABLE_PROPERTY = "zstack.classIndex.disable";
+    public static final String RETURN_TYPE_PREFIX = "org.zstack.";
+
+    static final String SEPARATOR = "\t";
+    static final String CLASS = "C";
+    static final String SUB_TYPE = "S";
+    static final String TYPE_ANNOTATION = "T";
+    static final String FIELD_ANNOTATION = "F";
+    static final String METHOD_ANNOTATION = "M";
+    static final String METHOD_RETURN = "R";
+
+    private static final Pattern ANONYMOUS_OR_LOCAL = Pattern.compile(".*\\$\\d.*");
+
+    private static final Map<String, String> storeIndexes = new HashMap<>();
+
+    static {
+        storeIndexes.put(SUB_TYPE, SubTypesScanner.class.getSimpleName());
+        storeIndexes.put(TYPE_ANNOTATION, TypeAnnotationsScanner.class.getSimpleName());
+        storeIndexes.put(FIELD_ANNOTATION, FieldAnnotationsScanner.class.getSimpleName());
+        storeIndexes.put(METHOD_ANNOTATION, MethodAnnotationsScanner.class.getSimpleName());
+        storeIndexes.put(METHOD_RETURN, MethodParameterScanner.class.getSimpleName());
+    }
+
+    private static Scanner[] scanners() {
+        return new Scanner[]{new SubTypesScanner(), new MethodAnnotationsScanner(), new FieldAnnotationsScanner(),
+                new TypeAnnotationsScanner(), new MethodParameterScanner()};
+    }
+
+    /**
+     * scans all classes of classpath roots containing the package, as BeanUtils did before class indexes
+     */
+    public static Reflections scan(String pkg) {
+        return new Reflections(new ConfigurationBuilder()
+                .setUrls(ClasspathHelper.forPackage(pkg))
+                .setScanners(scanners()));
+    }
+
+    /**
+     * loads class indexes on the classpath and scans classes not covered by them
+     */
+    public static Reflections load(String pkg) {
+        if (Boolean.valueOf(System.getProperty(DISABLE_PROPERTY))) {
+            return scan(pkg);
+        }
+
+        long start = System.nanoTime();
+        Set<String> indexedClasses = new HashSet<>();
+        List<String[]> entries = new ArrayList<>();
+        int indexNum = readIndexes(indexedClasses, entries);
+
+        AtomicInteger scanned = new AtomicInteger();
+        Predicate<String> notIndexed = input -> {
+            if (input == null || !input.endsWith(".class")) {
+                return false;
+            }
+
+            String name = input.substring(0, input.length() - ".class".length()).replace('/', '.');
+            if (indexedClasses.contains(name)) {
+                return false;
+            }
+
+            int dollar = name.indexOf('$');
+            if (dollar > 0 && ANONYMOUS_OR_LOCAL.matcher(name).matches() && indexedClasses.contains(name.substring(0, dollar))) {
+                return false;
+            }
+
+            scanned.incrementAndGet();
+            return true;
+        };
+
+        Reflections reflections = new Reflections(new ConfigurationBuilder()
+                .setUrls(ClasspathHelper.forPackage(pkg))
+                .setScanners(scanners())
+                .filterInputsBy(notIndexed));
+
+        for (String[] e : entries) {
+            reflections.getStore().getOrCreate(storeIndexes.get(e[0])).put(e[1], e[2]);
+        }
+
+        logger.debug(String.format("loaded %s classes from %s class indexes and scanned %s classes not indexed in %sms",
+                indexedClasses.size(), indexNum, scanned.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return reflections;
+    }
+
+    private static int readIndexes(Set<String> indexedClasses, List<String[]> entries) {
+        Set<String> urls = new LinkedHashSet<>();
+        for (ClassLoader loader : ClasspathHelper.classLoaders()) {
+            try {
+                Enumeration<URL> it = loader.getResources(INDEX_PATH);
+                while (it.hasMoreElements()) {
+                    urls.add(it.nextElement().toExternalForm());
+                }
+            } catch (IOException e) {
+                logger.warn(String.format("unable to find class indexes by %s", loader), e);
+            }
+        }
+
+        int num = 0;
+        for (String url : urls) {
+            Set<String> classes = new HashSet<>();
+            List<String[]> es = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new URL(url).openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] e = line.split(SEPARATOR, 3);
+                    if (e.length != 3) {
+                        continue;
+                    }
+
+                    if (CLASS.equals(e[0])) {
+                        classes.add(e[1]);
+                    } else if (storeIndexes.containsKey(e[0])) {
+                        es.add(e);
+                    }
+                }
+
+                indexedClasses.addAll(classes);
+                entries.addAll(es);
+                num++;
+            } catch (IOException e) {
+                // classes of the module are scanned if the index cannot be read
+                logger.warn(String.format("unable to read the class index %s", url), e);
+            }
+        }
+
+        return num;
+    }
+}
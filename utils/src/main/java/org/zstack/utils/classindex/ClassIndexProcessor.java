@@ -0,0 +1,161 @@
+package org.zstack.utils.classindex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the class index of a module at compile time, see {@link ClassIndex} for the format.
+ *
+ * Only runtime visible annotations are indexed, as Reflections scanners only see those.
+ * Anonymous and local classes are not visible to annotation processors and are not indexed.
+ */
+@SupportedAnnotationTypes("*")
+public class ClassIndexProcessor extends AbstractProcessor {
+    private final Set<String> entries = new TreeSet<>();
+    private final Map<String, Boolean> runtimeAnnotations = new HashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getRootElements()) {
+            if (e instanceof TypeElement) {
+                index((TypeElement) e);
+            }
+        }
+
+        if (roundEnv.processingOver() && !entries.isEmpty()) {
+            write();
+        }
+
+        // never claim annotations, other processors still see them
+        return false;
+    }
+
+    private void write() {
+        try {
+            FileObject f = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ClassIndex.INDEX_PATH);
+            try (Writer w = new OutputStreamWriter(f.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String e : entries) {
+                    w.write(e);
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    String.format("unable to write %s: %s", ClassIndex.INDEX_PATH, e.getMessage()));
+        }
+    }
+
+    private void add(String kind, String key, String value) {
+        entries.add(kind + ClassIndex.SEPARATOR + key + ClassIndex.SEPARATOR + value);
+    }
+
+    private String binaryName(TypeMirror type) {
+        TypeElement e = (TypeElement) processingEnv.getTypeUtils().asElement(processingEnv.getTypeUtils().erasure(type));
+        return processingEnv.getElementUtils().getBinaryName(e).toString();
+    }
+
+    private String typeName(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) erased).getComponentType()) + "[]";
+        } else if (erased.getKind() == TypeKind.DECLARED) {
+            return binaryName(erased);
+        } else {
+            return erased.toString();
+        }
+    }
+
+    private boolean isRuntimeVisible(AnnotationMirror annotation) {
+        Element type = annotation.getAnnotationType().asElement();
+        return runtimeAnnotations.computeIfAbsent(binaryName(type.asType()), x -> {
+            Retention retention = type.getAnnotation(Retention.class);
+            return retention != null && retention.value() == RetentionPolicy.RUNTIME;
+        });
+    }
+
+    private List<String> annotationsOf(Element e) {
+        return e.getAnnotationMirrors().stream()
+                .filter(this::isRuntimeVisible)
+                .map(a -> binaryName(a.getAnnotationType()))
+                .collect(Collectors.toList());
+    }
+
+    private void index(TypeElement type) {
+        String name = binaryName(type.asType());
+        add(ClassIndex.CLASS, name, "");
+
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED && !Object.class.getName().equals(binaryName(superclass))) {
+            add(ClassIndex.SUB_TYPE, binaryName(superclass), name);
+        }
+        for (TypeMirror i : type.getInterfaces()) {
+            if (i.getKind() == TypeKind.DECLARED) {
+                add(ClassIndex.SUB_TYPE, binaryName(i), name);
+            }
+        }
+
+        for (String a : annotationsOf(type)) {
+            add(ClassIndex.TYPE_ANNOTATION, a, name);
+        }
+
+        for (Element e : type.getEnclosedElements()) {
+            if (e instanceof TypeElement) {
+                index((TypeElement) e);
+            } else if (e.getKind() == ElementKind.FIELD || e.getKind() == ElementKind.ENUM_CONSTANT) {
+                for (String a : annotationsOf(e)) {
+                    add(ClassIndex.FIELD_ANNOTATION, a, name + "." + e.getSimpleName());
+                }
+            } else if (e.getKind() == ElementKind.METHOD || e.getKind() == ElementKind.CONSTRUCTOR) {
+                indexMethod(name, (ExecutableElement) e);
+            }
+        }
+    }
+
+    private void indexMethod(String className, ExecutableElement method) {
+        List<String> parameterTypes = new ArrayList<>();
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        // constructors of enums and inner classes have synthetic parameters in class files
+        if (method.getKind() == ElementKind.CONSTRUCTOR && type.getKind() == ElementKind.ENUM) {
+            parameterTypes.add(String.class.getName());
+            parameterTypes.add(int.class.getName());
+        } else if (method.getKind() == ElementKind.CONSTRUCTOR && type.getNestingKind() == NestingKind.MEMBER
+                && type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.STATIC)) {
+            parameterTypes.add(binaryName(type.getEnclosingElement().asType()));
+        }
+        method.getParameters().forEach(p -> parameterTypes.add(typeName(p.asType())));
+
+        // the same key as Reflections' scanners, e.g. org.zstack.Foo.bar(java.lang.String, int[])
+        String key = String.format("%s.%s(%s)", className, method.getSimpleName(), String.join(", ", parameterTypes));
+
+        for (String a : annotationsOf(method)) {
+            add(ClassIndex.METHOD_ANNOTATION, a, key);
+        }
+
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() == TypeKind.DECLARED && binaryName(returnType).startsWith(ClassIndex.RETURN_TYPE_PREFIX)) {
+            add(ClassIndex.METHOD_RETURN, binaryName(returnType), key);
+        }
+    }
+}
@@ -13,10 +13,12 @@ import static org.zstack.utils.CollectionDSL.map;
 public class JSONObjectUtil {
     private static final Gson gson;
     private static final Gson prettyGson;
+    private static final ObjectRehasher rehasher;
     
     static {
         gson = new GsonBuilder().disableHtmlEscaping().create();
         prettyGson = new GsonBuilder().setPrettyPrinting().create();
+        rehasher = new ObjectRehasher(gson);
     }
     
     public static <T, K extends Collection> K toCollection(String content, Class<K> collections, Class<T> clazz) {
@@ -48,9 +50,12 @@ public class JSONObjectUtil {
         return gson.toJson(obj);
     }
 
+    /**
+     * converts the object to the class as toObject(toJsonString(obj), clazz) does, without
+     * producing the JSON text
+     */
     public static <T> T rehashObject(Object obj, Class<T> clazz) {
-        String str = toJsonString(obj);
-        return toObject(str, clazz);
+        return rehasher.rehash(obj, clazz);
     }
 
     public static String toTypedJsonString(Object obj) {
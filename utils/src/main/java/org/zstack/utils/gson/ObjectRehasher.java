@@ -0,0 +1,501 @@
+package org.zstack.utils.gson;
+
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts objects to other types as serializing them by a Gson to JSON and parsing the JSON back,
+ * but copies fields by plans cached per class instead of producing the JSON text.
+ *
+ * Plans follow the default Gson rules: static, transient and synthetic fields are skipped, fields are
+ * named by @SerializedName, values are written by their runtime types and read by the declared types
+ * of the target fields, so sub type fields are dropped when the target declares a super type. Null
+ * fields and null map values are not written, target fields keep their initial values. Container
+ * classes and enum names are asked from the Gson once per type.
+ *
+ * Only classes under org.zstack are copied field by field; values of other types, e.g. dates, and
+ * conversions the plans don't cover go through the JSON of the value itself, so results and errors
+ * are always what the Gson gives.
+ */
+class ObjectRehasher {
+    private static final String BEAN_PACKAGE = "org.zstack.";
+    private static final Set<Class<?>> LEAVES = new HashSet<>(Arrays.asList(String.class, Boolean.class, Character.class,
+            Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class));
+    private static final Map<Class<?>, Class<?>> BOXES = new HashMap<>();
+
+    static {
+        for (Class<?> clz : new Class<?>[]{boolean.class, char.class, int.class, long.class, short.class, byte.class, double.class, float.class}) {
+            BOXES.put(clz, Array.get(Array.newInstance(clz, 1), 0).getClass());
+        }
+    }
+
+    private final Gson gson;
+    private final Map<Type, TargetPlan> targetPlans = new ConcurrentHashMap<>();
+    private final Map<Type, Optional<Constructor<?>>> collections = new ConcurrentHashMap<>();
+    private final Map<Type, Optional<Constructor<?>>> maps = new ConcurrentHashMap<>();
+    private final Map<Class<?>, EnumNames> enumNames = new ConcurrentHashMap<>();
+    private final Map<Type, Type[]> typeArguments = new ConcurrentHashMap<>();
+    private final ClassValue<BeanFields> beanFields = new ClassValue<BeanFields>() {
+        @Override
+        protected BeanFields computeValue(Class<?> type) {
+            return new BeanFields(type);
+        }
+    };
+
+    ObjectRehasher(Gson gson) {
+        this.gson = gson;
+    }
+
+    private static final ClassValue<Boolean> beans = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> clz) {
+            return clz.getName().startsWith(BEAN_PACKAGE) && !clz.isEnum() && !clz.isInterface() && !clz.isArray()
+                    && !clz.isAnonymousClass() && !clz.isLocalClass() && !Modifier.isAbstract(clz.getModifiers())
+                    && !Collection.class.isAssignableFrom(clz) && !Map.class.isAssignableFrom(clz)
+                    && !Number.class.isAssignableFrom(clz) && !CharSequence.class.isAssignableFrom(clz);
+        }
+    };
+
+    private static boolean isBean(Class<?> clz) {
+        return beans.get(clz);
+    }
+
+    /**
+     * bound fields of a class in the order Gson writes them, sub class fields first
+     */
+    private static class BeanFields {
+        final boolean valid;
+        final Map<String, Field> fields = new LinkedHashMap<>();
+
+        BeanFields(Class<?> type) {
+            boolean ok = isBean(type);
+            for (Class<?> c = type; ok && c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod)) {
+                        continue;
+                    }
+                    if (f.isSynthetic()) {
+                        // e.g. the outer instance of an inner class, leave it to Gson
+                        ok = false;
+                        break;
+                    }
+                    if (Modifier.isTransient(mod) || f.getType().isAnonymousClass() || f.getType().isLocalClass()) {
+                        continue;
+                    }
+
+                    SerializedName sn = f.getAnnotation(SerializedName.class);
+                    String name = sn == null ? f.getName() : sn.value();
+                    if (fields.put(name, f) != null) {
+                        // Gson refuses classes declaring a JSON name twice
+                        ok = false;
+                        break;
+                    }
+                    f.setAccessible(true);
+                }
+            }
+            valid = ok;
+        }
+    }
+
+    private static class Binding {
+        final Field field;
+        final Type type;
+
+        Binding(Field field, Type type) {
+            this.field = field;
+            this.type = type;
+        }
+    }
+
+    private static class TargetPlan {
+        Constructor<?> constructor;
+        final Map<String, Binding> bindings = new HashMap<>();
+    }
+
+    private static class EnumNames {
+        final Map<Object, String> names = new HashMap<>();
+        final Map<String, Object> constants = new HashMap<>();
+    }
+
+    private TargetPlan targetPlan(Type type, Class<?> raw) {
+        TargetPlan plan = targetPlans.get(type);
+        if (plan != null) {
+            return plan;
+        }
+
+        TargetPlan p = new TargetPlan();
+        BeanFields bf = beanFields.get(raw);
+        if (bf.valid) {
+            try {
+                Constructor<?> ctor = raw.getDeclaredConstructor();
+                ctor.setAccessible(true);
+                p.constructor = ctor;
+            } catch (NoSuchMethodException ignored) {
+                // Gson allocates the instance without calling a constructor, leave it to Gson
+            }
+
+            TypeToken<?> token = TypeToken.of(type);
+            bf.fields.forEach((name, f) -> p.bindings.put(name, new Binding(f, token.resolveType(f.getGenericType()).getType())));
+        }
+
+        targetPlans.put(type, p);
+        return p;
+    }
+
+    /**
+     * the constructor of the collection or map class Gson creates for the type, null if Gson cannot
+     */
+    private Constructor<?> container(Type type, String emptyJson) {
+        Map<Type, Optional<Constructor<?>>> containers = emptyJson.equals("[]") ? collections : maps;
+        Optional<Constructor<?>> ctor = containers.get(type);
+        if (ctor == null) {
+            try {
+                Constructor<?> c = gson.fromJson(emptyJson, type).getClass().getDeclaredConstructor();
+                c.setAccessible(true);
+                ctor = Optional.of(c);
+            } catch (Exception e) {
+                ctor = Optional.empty();
+            }
+            containers.put(type, ctor);
+        }
+
+        return ctor.orElse(null);
+    }
+
+    private EnumNames enumNames(Class<?> enumClass) {
+        return enumNames.computeIfAbsent(enumClass, clz -> {
+            EnumNames names = new EnumNames();
+            for (Object c : clz.getEnumConstants()) {
+                String name = gson.fromJson(gson.toJson(c), String.class);
+                names.names.put(c, name);
+                if (gson.fromJson(gson.toJson(name), clz) == c) {
+                    names.constants.put(name, c);
+                }
+            }
+            return names;
+        });
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        } else {
+            return Object.class;
+        }
+    }
+
+    private static Class<?> box(Class<?> clz) {
+        return clz.isPrimitive() ? BOXES.get(clz) : clz;
+    }
+
+    private static Object newInstance(Constructor<?> ctor) {
+        try {
+            return ctor.newInstance();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * element type of a collection type, or key and value types of a map type
+     */
+    private Type[] typeArguments(Type type, Class<?> declaring) {
+        Type[] args = typeArguments.get(type);
+        if (args == null) {
+            TypeToken<?> token = TypeToken.of(type);
+            args = Arrays.stream(declaring.getTypeParameters()).map(t -> token.resolveType(t).getType()).toArray(Type[]::new);
+            typeArguments.put(type, args);
+        }
+        return args;
+    }
+
+    private Object viaJson(Object value, Type srcType, Type dstType) {
+        return gson.fromJson(gson.toJson(value, srcType), dstType);
+    }
+
+    private Object viaJson(Object value, Type type) {
+        return viaJson(value, value.getClass(), type);
+    }
+
+    <T> T rehash(Object value, Class<T> clazz) {
+        return (T) convert(value, clazz);
+    }
+
+    private Object convert(Object value, Type type) {
+        if (value == null) {
+            return null;
+        }
+
+        Class<?> clz = value.getClass();
+        Class<?> raw = box(rawType(type));
+        if ((value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+                || (value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite()))) {
+            // Gson refuses them
+            return viaJson(value, type);
+        }
+
+        if (raw == clz && (LEAVES.contains(clz) || clz.isEnum())) {
+            return value;
+        } else if (raw == Object.class) {
+            return toObject(value);
+        } else if (raw == String.class) {
+            return toString(value);
+        } else if (Number.class.isAssignableFrom(raw)) {
+            return toNumber(value, raw);
+        } else if (raw.isEnum()) {
+            return toEnum(value, raw);
+        } else if (raw.isArray() || Collection.class.isAssignableFrom(raw)) {
+            return toCollection(value, type, raw);
+        } else if (Map.class.isAssignableFrom(raw)) {
+            return toMap(value, type);
+        } else if (isBean(raw)) {
+            return toBean(value, type, raw);
+        } else {
+            return viaJson(value, type);
+        }
+    }
+
+    private Object toString(Object value) {
+        if (value instanceof String) {
+            return value;
+        } else if (value instanceof Boolean || value instanceof Character || (value instanceof Number && LEAVES.contains(value.getClass()))) {
+            return String.valueOf(value);
+        } else if (value.getClass().isEnum()) {
+            return enumNames(value.getClass()).names.get(value);
+        } else {
+            return viaJson(value, String.class);
+        }
+    }
+
+    private Object toNumber(Object value, Class<?> raw) {
+        boolean integral = value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+        boolean floating = value instanceof Double || value instanceof Float;
+        if (!integral && !floating) {
+            return viaJson(value, raw);
+        }
+
+        // numbers are read from their texts, a float is not widened but parsed as what it prints
+        double d = value instanceof Float ? Double.parseDouble(value.toString()) : ((Number) value).doubleValue();
+        long l = ((Number) value).longValue();
+        if (raw == Double.class) {
+            return d;
+        } else if (raw == Float.class) {
+            return (float) d;
+        } else if (raw == Long.class) {
+            if (integral) {
+                return l;
+            }
+            long r = (long) d;
+            if (r == d) {
+                return r;
+            }
+        } else if (raw == Integer.class) {
+            int r = integral ? (int) l : (int) d;
+            if (integral ? r == l : r == d) {
+                return r;
+            }
+        }
+
+        return viaJson(value, raw);
+    }
+
+    private Object toEnum(Object value, Class<?> raw) {
+        String name = null;
+        if (value instanceof String) {
+            name = (String) value;
+        } else if (value.getClass().isEnum()) {
+            name = enumNames(value.getClass()).names.get(value);
+        }
+
+        Object c = name == null ? null : enumNames(raw).constants.get(name);
+        return c != null ? c : viaJson(value, raw);
+    }
+
+    private Object toObject(Object value) {
+        Class<?> clz = value.getClass();
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Character) {
+            return String.valueOf(value);
+        } else if (value instanceof Double || value instanceof Float || value instanceof Integer
+                || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            // Gson reads all JSON numbers as doubles
+            return toNumber(value, Double.class);
+        } else if (clz.isEnum()) {
+            return enumNames(clz).names.get(value);
+        } else if (value instanceof Map || isBean(clz)) {
+            return toMap(value, Object.class);
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            return toCollection(value, Object.class, Object.class);
+        } else {
+            return viaJson(value, Object.class);
+        }
+    }
+
+    private Object toCollection(Object value, Type type, Class<?> raw) {
+        Collection<?> src;
+        if (value instanceof Collection) {
+            src = (Collection<?>) value;
+        } else if (value instanceof Object[]) {
+            src = Arrays.asList((Object[]) value);
+        } else {
+            return viaJson(value, type);
+        }
+
+        if (raw.isArray()) {
+            Type componentType = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            Class<?> componentClass = raw.getComponentType();
+            Object array = Array.newInstance(componentClass, src.size());
+            int i = 0;
+            for (Object e : src) {
+                if (e == null && componentClass.isPrimitive()) {
+                    return viaJson(value, type);
+                }
+                Array.set(array, i++, convert(e, componentType));
+            }
+            return array;
+        }
+
+        Constructor<?> ctor;
+        Type elementType;
+        if (raw == Object.class) {
+            ctor = container(Object.class, "[]");
+            elementType = Object.class;
+        } else {
+            ctor = container(type, "[]");
+            elementType = typeArguments(type, Collection.class)[0];
+        }
+        if (ctor == null) {
+            return viaJson(value, type);
+        }
+
+        Collection<Object> dst = (Collection<Object>) newInstance(ctor);
+        for (Object e : src) {
+            dst.add(convert(e, elementType));
+        }
+        return dst;
+    }
+
+    private Object toMap(Object value, Type type) {
+        Constructor<?> ctor;
+        Type valueType;
+        if (rawType(type) == Object.class) {
+            ctor = container(Object.class, "{}");
+            valueType = Object.class;
+        } else {
+            Type[] args = typeArguments(type, Map.class);
+            Class<?> keyClass = rawType(args[0]);
+            if (keyClass != String.class && keyClass != Object.class) {
+                return viaJson(value, type);
+            }
+            ctor = container(type, "{}");
+            valueType = args[1];
+        }
+        if (ctor == null) {
+            return viaJson(value, type);
+        }
+
+        Map<Object, Object> dst = (Map<Object, Object>) newInstance(ctor);
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if (e.getValue() != null && dst.put(String.valueOf(e.getKey()), convert(e.getValue(), valueType)) != null) {
+                    // keys print the same, Gson fails on the duplicated key
+                    return viaJson(value, type);
+                }
+            }
+        } else {
+            BeanFields bf = isBean(value.getClass()) ? beanFields.get(value.getClass()) : null;
+            if (bf == null || !bf.valid) {
+                return viaJson(value, type);
+            }
+
+            for (Map.Entry<String, Field> e : bf.fields.entrySet()) {
+                Object v = get(e.getValue(), value);
+                if (v != null) {
+                    dst.put(e.getKey(), convertField(e.getValue(), v, valueType));
+                }
+            }
+        }
+
+        return dst;
+    }
+
+    private static Object get(Field f, Object obj) {
+        try {
+            return f.get(obj);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void set(Binding b, Object obj, Object value) {
+        if (value == null && b.field.getType().isPrimitive()) {
+            return;
+        }
+
+        try {
+            b.field.set(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Object toBean(Object value, Type type, Class<?> raw) {
+        TargetPlan plan = targetPlan(type, raw);
+        if (plan.constructor == null) {
+            return viaJson(value, type);
+        }
+
+        if (value instanceof Map) {
+            Object dst = newInstance(plan.constructor);
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                Binding b = plan.bindings.get(String.valueOf(e.getKey()));
+                if (b != null && e.getValue() != null) {
+                    set(b, dst, convert(e.getValue(), b.type));
+                }
+            }
+            return dst;
+        }
+
+        BeanFields src = isBean(value.getClass()) ? beanFields.get(value.getClass()) : null;
+        if (src == null || !src.valid) {
+            return viaJson(value, type);
+        }
+
+        Object dst = newInstance(plan.constructor);
+        for (Map.Entry<String, Field> e : src.fields.entrySet()) {
+            Field f = e.getValue();
+            Object v = get(f, value);
+            Binding b = plan.bindings.get(e.getKey());
+            if (v == null || b == null) {
+                continue;
+            }
+
+            set(b, dst, convertField(f, v, b.type));
+        }
+        return dst;
+    }
+
+    private Object convertField(Field f, Object value, Type type) {
+        Type declared = f.getGenericType();
+        if (declared instanceof ParameterizedType && isBean(rawType(declared)) && value.getClass() != rawType(declared)) {
+            // Gson writes such a value by the declared type rather than the runtime type
+            return viaJson(value, declared, type);
+        }
+        return convert(value, type);
+    }
+}
@@ -5,70 +5,140 @@ import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
 
-public class ConsistentHash<T> {
+/**
+ * A consistent hash ring with numberOfReplicas virtual nodes for each node.
+ *
+ * The ring is an immutable snapshot of two parallel arrays sorted by the virtual node hash,
+ * get() is a binary search on the current snapshot without any lock. add() and remove()
+ * are serialized and publish a new snapshot built from scratch, so readers never see
+ * a half updated ring.
+ *
+ * When two virtual nodes collide on the same hash, the node with the smaller string
+ * wins, so every management node builds the same ring whatever the join order is.
+ */
+public class ConsistentHash<T> implements HashRing<T> {
     private final CLogger logger = Utils.getLogger(ConsistentHash.class);
     private final HashFunction hashFunction;
     private final int numberOfReplicas;
-    private final SortedMap<Integer, T> circle = Collections.synchronizedSortedMap(new TreeMap<Integer, T>());
-    private final Set<T> nodes = Collections.synchronizedSet(new HashSet<T>());
+
+    private static class Ring<T> {
+        final int[] hashes;
+        final Object[] owners;
+        final Set<T> nodes;
+
+        Ring(int[] hashes, Object[] owners, Set<T> nodes) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.nodes = nodes;
+        }
+    }
+
+    private volatile Ring<T> ring = new Ring<>(new int[0], new Object[0], Collections.emptySet());
 
     public ConsistentHash(HashFunction hashFunction, int numberOfReplicas,
                           Collection<T> nodes) {
         this.hashFunction = hashFunction;
         this.numberOfReplicas = numberOfReplicas;
 
-        for (T node : nodes) {
-            add(node);
+        if (!nodes.isEmpty()) {
+            Set<T> s = new HashSet<>(nodes);
+            ring = build(s);
         }
     }
 
-    public Set<T> getNodes() {
-        return nodes;
+    private Ring<T> build(Set<T> nodes) {
+        // the hash of every virtual node, the node index in the low 32 bits
+        List<T> lst = new ArrayList<>(nodes);
+        lst.sort(Comparator.comparing(Object::toString));
+
+        long[] vnodes = new long[lst.size() * numberOfReplicas];
+        int n = 0;
+        for (int i = 0; i < lst.size(); i++) {
+            String name = lst.get(i).toString();
+            for (int j = 0; j < numberOfReplicas; j++) {
+                vnodes[n++] = ((long) hashFunction.hash(name + j) << 32) | i;
+            }
+        }
+
+        // sorted by hash, then by node index, so the smaller node comes first on a collision
+        Arrays.sort(vnodes);
+
+        int[] hashes = new int[vnodes.length];
+        Object[] owners = new Object[vnodes.length];
+        int size = 0;
+        for (long v : vnodes) {
+            int hash = (int) (v >> 32);
+            if (size > 0 && hashes[size - 1] == hash) {
+                continue;
+            }
+
+            hashes[size] = hash;
+            owners[size] = lst.get((int) v);
+            size++;
+        }
+
+        return new Ring<>(Arrays.copyOf(hashes, size), Arrays.copyOf(owners, size),
+                Collections.unmodifiableSet(new LinkedHashSet<>(lst)));
     }
 
-    public void add(T node) {
-        nodes.add(node);
+    /**
+     * @return an immutable snapshot of the nodes
+     */
+    @Override
+    public Set<T> getNodes() {
+        return ring.nodes;
+    }
 
-        for (int i = 0; i < numberOfReplicas; i++) {
-            String nodeName = node.toString() + i;
-            circle.put(hashFunction.hash(nodeName), node);
+    @Override
+    public synchronized void add(T node) {
+        Ring<T> r = ring;
+        if (r.nodes.contains(node)) {
+            return;
         }
+
+        Set<T> nodes = new HashSet<>(r.nodes);
+        nodes.add(node);
+        ring = build(nodes);
         logger.debug(String.format("after adding, consistent hash circle has management nodes%s, %s virtual nodes now",
-                nodes, circle.size()));
+                ring.nodes, ring.hashes.length));
     }
 
-    public void remove(T node) {
-        nodes.remove(node);
-        logger.debug(String.format("the consistent hash ring currently has nodes%s", nodes));
-
-        for (int i = 0; i < numberOfReplicas; i++) {
-            String nodeName = node.toString() + i;
-            circle.remove(hashFunction.hash(nodeName));
+    @Override
+    public synchronized void remove(T node) {
+        Ring<T> r = ring;
+        if (!r.nodes.contains(node)) {
+            return;
         }
+
+        Set<T> nodes = new HashSet<>(r.nodes);
+        nodes.remove(node);
+        ring = build(nodes);
         logger.debug(String.format("after removing, consistent hash circle has management nodes%s, %s virtual nodes now",
-                nodes, circle.size()));
+                ring.nodes, ring.hashes.length));
     }
 
+    @Override
     public boolean hasNode(T node) {
-        for (int i = 0; i < numberOfReplicas; i++) {
-            String nodeName = node.toString() + i;
-            if (circle.containsKey(hashFunction.hash(nodeName))) {
-                return true;
-            }
-        }
-
-        return false;
+        return ring.nodes.contains(node);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
     public T get(Object key) {
-        if (circle.isEmpty()) {
+        Ring<T> r = ring;
+        if (r.hashes.length == 0) {
             return null;
         }
-        int hash = hashFunction.hash(key);
-        if (!circle.containsKey(hash)) {
-            SortedMap<Integer, T> tailMap = circle.tailMap(hash);
-            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+
+        int i = Arrays.binarySearch(r.hashes, hashFunction.hash(key));
+        if (i < 0) {
+            // the first virtual node clockwise, wrapping around to the head of the ring
+            i = -i - 1;
+            if (i == r.hashes.length) {
+                i = 0;
+            }
         }
-        return circle.get(hash);
+
+        return (T) r.owners[i];
     }
 }
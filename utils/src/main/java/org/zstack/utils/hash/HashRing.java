@@ -0,0 +1,19 @@
+package org.zstack.utils.hash;
+
+import java.util.Set;
+
+/**
+ * maps keys to a set of nodes, a key is moved to another node only when
+ * the set of nodes changes.
+ */
+public interface HashRing<T> {
+    Set<T> getNodes();
+
+    void add(T node);
+
+    void remove(T node);
+
+    boolean hasNode(T node);
+
+    T get(Object key);
+}
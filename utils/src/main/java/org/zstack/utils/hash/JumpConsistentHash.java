@@ -0,0 +1,100 @@
+package org.zstack.utils.hash;
+
+import java.util.*;
+
+/**
+ * Jump consistent hash (Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm").
+ *
+ * It needs no virtual nodes and spreads keys evenly in O(ln n) without any memory, but the
+ * nodes are buckets numbered by their sorted order; only adding or removing the last bucket
+ * moves the minimal number of keys, removing a node in the middle moves the keys of all
+ * following buckets. Use it when nodes rarely leave, e.g. a fixed set of management nodes.
+ *
+ * Like ConsistentHash, get() reads an immutable snapshot without any lock.
+ */
+public class JumpConsistentHash<T> implements HashRing<T> {
+    private final HashFunction hashFunction;
+
+    private static class Buckets<T> {
+        final Object[] nodes;
+        final Set<T> nodeSet;
+
+        Buckets(Object[] nodes, Set<T> nodeSet) {
+            this.nodes = nodes;
+            this.nodeSet = nodeSet;
+        }
+    }
+
+    private volatile Buckets<T> buckets = new Buckets<>(new Object[0], Collections.emptySet());
+
+    public JumpConsistentHash(HashFunction hashFunction, Collection<T> nodes) {
+        this.hashFunction = hashFunction;
+        if (!nodes.isEmpty()) {
+            buckets = build(new HashSet<>(nodes));
+        }
+    }
+
+    private Buckets<T> build(Set<T> nodes) {
+        List<T> lst = new ArrayList<>(nodes);
+        lst.sort(Comparator.comparing(Object::toString));
+        return new Buckets<>(lst.toArray(), Collections.unmodifiableSet(new LinkedHashSet<>(lst)));
+    }
+
+    static int jumpHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    @Override
+    public Set<T> getNodes() {
+        return buckets.nodeSet;
+    }
+
+    @Override
+    public synchronized void add(T node) {
+        Buckets<T> b = buckets;
+        if (b.nodeSet.contains(node)) {
+            return;
+        }
+
+        Set<T> nodes = new HashSet<>(b.nodeSet);
+        nodes.add(node);
+        buckets = build(nodes);
+    }
+
+    @Override
+    public synchronized void remove(T node) {
+        Buckets<T> b = buckets;
+        if (!b.nodeSet.contains(node)) {
+            return;
+        }
+
+        Set<T> nodes = new HashSet<>(b.nodeSet);
+        nodes.remove(node);
+        buckets = build(nodes);
+    }
+
+    @Override
+    public boolean hasNode(T node) {
+        return buckets.nodeSet.contains(node);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(Object key) {
+        Buckets<T> b = buckets;
+        if (b.nodes.length == 0) {
+            return null;
+        }
+
+        // spread the 32 bits hash to 64 bits, the jump hash takes its randomness from the high bits
+        long h = hashFunction.hash(key) * 0x9E3779B97F4A7C15L;
+        return (T) b.nodes[jumpHash(h, b.nodes.length)];
+    }
+}
@@ -0,0 +1,124 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.hash.*;
+
+import java.util.*;
+
+/**
+ * compares the lookup cost of the array based ConsistentHash and JumpConsistentHash with
+ * the former synchronized TreeMap ring, at 2, 5 and 20 management nodes with 500 virtual
+ * nodes each like ResourceDestinationMakerImpl. The array based ring must route every key
+ * to the same node as the former ring, otherwise a rolling upgrade would move resources.
+ */
+public class TestConsistentHashPerformance {
+    private static final int[] NODE_NUMS = {2, 5, 20};
+    private static final int REPLICAS = 500;
+    private static final int KEY_NUM = 100000;
+    private static final int ROUNDS = 20;
+
+    // mirrors the former ConsistentHash
+    static class TreeMapRing {
+        final HashFunction hashFunction;
+        final SortedMap<Integer, String> circle = Collections.synchronizedSortedMap(new TreeMap<>());
+
+        TreeMapRing(HashFunction hashFunction, List<String> nodes) {
+            this.hashFunction = hashFunction;
+            for (String n : nodes) {
+                for (int i = 0; i < REPLICAS; i++) {
+                    circle.put(hashFunction.hash(n + i), n);
+                }
+            }
+        }
+
+        String get(Object key) {
+            int hash = hashFunction.hash(key);
+            if (!circle.containsKey(hash)) {
+                SortedMap<Integer, String> tailMap = circle.tailMap(hash);
+                hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+            }
+            return circle.get(hash);
+        }
+    }
+
+    private interface Lookup {
+        String get(String key);
+    }
+
+    private long measure(Lookup lookup, List<String> keys) {
+        long start = 0;
+        int hits = 0;
+        // the first round warms up
+        for (int r = 0; r <= ROUNDS; r++) {
+            if (r == 1) {
+                start = System.nanoTime();
+            }
+
+            for (String k : keys) {
+                if (lookup.get(k) != null) {
+                    hits++;
+                }
+            }
+        }
+
+        Assert.assertEquals((ROUNDS + 1) * keys.size(), hits);
+        return (System.nanoTime() - start) / ((long) ROUNDS * keys.size());
+    }
+
+    @Test
+    public void test() {
+        HashFunction hash = new ApacheHash();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < KEY_NUM; i++) {
+            keys.add(UUID.randomUUID().toString().replace("-", ""));
+        }
+
+        for (int num : NODE_NUMS) {
+            List<String> nodes = new ArrayList<>();
+            for (int i = 0; i < num; i++) {
+                nodes.add(UUID.randomUUID().toString().replace("-", ""));
+            }
+
+            TreeMapRing former = new TreeMapRing(hash, nodes);
+            ConsistentHash<String> ring = new ConsistentHash<>(hash, REPLICAS, nodes);
+            JumpConsistentHash<String> jump = new JumpConsistentHash<>(hash, nodes);
+
+            for (String k : keys) {
+                Assert.assertEquals(former.get(k), ring.get(k));
+            }
+
+            long formerCost = measure(former::get, keys);
+            long ringCost = measure(ring::get, keys);
+            long jumpCost = measure(jump::get, keys);
+            System.out.println(String.format("%s nodes: synchronized TreeMap ring %sns, array ring %sns, jump hash %sns per lookup",
+                    num, formerCost, ringCost, jumpCost));
+        }
+    }
+
+    @Test
+    public void testJumpHashMovesKeysOnlyToNewNode() {
+        HashFunction hash = new ApacheHash();
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            nodes.add(String.format("node-%s", i));
+        }
+
+        JumpConsistentHash<String> jump = new JumpConsistentHash<>(hash, nodes);
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < KEY_NUM; i++) {
+            String k = UUID.randomUUID().toString();
+            before.put(k, jump.get(k));
+        }
+
+        // sorts after the existing nodes, so it becomes the last bucket
+        jump.add("node-5");
+        before.forEach((k, n) -> {
+            String now = jump.get(k);
+            Assert.assertTrue(now.equals(n) || now.equals("node-5"));
+        });
+
+        jump.remove("node-5");
+        before.forEach((k, n) -> Assert.assertEquals(n, jump.get(k)));
+    }
+}
@@ -0,0 +1,62 @@
+package org.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.stats.LatencyHistogram;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestLatencyHistogram {
+    private void assertAround(long expected, long actual) {
+        // buckets keep values with a relative error below 1/32
+        Assert.assertTrue(String.format("expected %s but got %s", expected, actual),
+                Math.abs(expected - actual) <= Math.max(1, expected / 32));
+    }
+
+    @Test
+    public void test() {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(0, h.getValueAtPercentile(99));
+
+        for (int i = 1; i <= 100000; i++) {
+            h.record(i);
+        }
+
+        Assert.assertEquals(100000, h.getCount());
+        Assert.assertEquals(100000, h.getMax());
+        Assert.assertEquals(50000, h.getMean());
+        assertAround(50000, h.getValueAtPercentile(50));
+        assertAround(99000, h.getValueAtPercentile(99));
+        assertAround(99900, h.getValueAtPercentile(99.9));
+        Assert.assertEquals(100000, h.getValueAtPercentile(100));
+
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, h.getMax());
+
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        LatencyHistogram h = new LatencyHistogram();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            pool.submit(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    h.record(j % 1000);
+                }
+            });
+        }
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        Assert.assertEquals(800000, h.getCount());
+        Assert.assertEquals(999, h.getMax());
+        assertAround(500, h.getValueAtPercentile(50));
+    }
+}